@@ -0,0 +1,45 @@
+package com.sergio.wallet.bench;
+
+import com.sergio.wallet.server.data.entity.Currency;
+import com.sergio.wallet.server.service.TransactionService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * User of each benchmark thread, the shared user for contended workloads or a user of its own otherwise.
+ * Funded before measuring, every benchmark works over the USD account of the user.
+ */
+@State(Scope.Thread)
+public class BenchUser {
+
+    //region VARIABLES
+
+    // Funds deposited before measuring, so withdraws never run out of them.
+    public final static long INITIAL_FUNDS = 1_000_000_000_000L;
+
+    private final static AtomicInteger USER_COUNT = new AtomicInteger();
+
+    public final static Currency CURRENCY = Currency.USD;
+
+    public String userId;
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    @Setup(Level.Trial)
+    public void setUp(WalletServerState server) {
+        userId = server.isContended() ? WalletServerState.SHARED_USER_ID
+                : "bench-user-" + USER_COUNT.incrementAndGet();
+
+        // Deposits need no account lock to be applied correctly, even for the shared user.
+        server.getBean(TransactionService.class).doDeposit(userId, INITIAL_FUNDS, CURRENCY);
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,137 @@
+package com.sergio.wallet.bench;
+
+import com.sergio.wallet.server.grpc.GrpcWalletService;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.sergio.wallet.grpc.*;
+import org.sergio.wallet.grpc.WalletServiceGrpc.WalletServiceBlockingStub;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the GrpcWalletService endpoints through an in-process gRPC server and blocking stubs, so
+ * requests go through the whole server path (validation, DB executor, account locks and responses) without
+ * any network in between.
+ *
+ * Same threads, stores and workloads as TransactionServiceBenchmark, the difference between both is the cost
+ * added by the gRPC layer.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class GrpcWalletServiceBenchmark {
+
+    //region VARIABLES
+
+    private Server server;
+
+    private ManagedChannel channel;
+
+    private WalletServiceBlockingStub stub;
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    private TransactionRequest transactionRequest(BenchUser user) {
+        return TransactionRequest.newBuilder()
+                .setUserId(user.userId)
+                .setAmount(1)
+                .setCurrencyCodeValue(BenchUser.CURRENCY.getCode())
+                .build();
+    }
+
+    private TransactionResponse deposit(BenchUser user) {
+        return stub.deposit(transactionRequest(user));
+    }
+
+    private TransactionResponse withdraw(BenchUser user) {
+        return stub.withdraw(transactionRequest(user));
+    }
+
+    private BalanceResponse getBalance(BenchUser user) {
+        return stub.getBalance(BalanceRequest.newBuilder().setUserId(user.userId).setCompact(true).build());
+    }
+
+    //endregion
+
+    //region BENCHMARKS
+
+    @Setup(Level.Trial)
+    public void setUp(WalletServerState walletServer) throws IOException {
+        String serverName = InProcessServerBuilder.generateName();
+
+        // Direct executor, same as the real server with the DB executor enabled.
+        server = InProcessServerBuilder.forName(serverName).directExecutor()
+                .addService(walletServer.getBean(GrpcWalletService.class)).build().start();
+        channel = InProcessChannelBuilder.forName(serverName).build();
+        stub = WalletServiceGrpc.newBlockingStub(channel);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        channel.shutdown().awaitTermination(10, TimeUnit.SECONDS);
+        server.shutdown().awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public TransactionResponse deposit_1Thread(BenchUser user) {
+        return deposit(user);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public TransactionResponse deposit_nThreads(BenchUser user) {
+        return deposit(user);
+    }
+
+    @Benchmark
+    @Threads(TransactionServiceBenchmark.MANY_THREADS)
+    public TransactionResponse deposit_manyThreads(BenchUser user) {
+        return deposit(user);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public TransactionResponse withdraw_1Thread(BenchUser user) {
+        return withdraw(user);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public TransactionResponse withdraw_nThreads(BenchUser user) {
+        return withdraw(user);
+    }
+
+    @Benchmark
+    @Threads(TransactionServiceBenchmark.MANY_THREADS)
+    public TransactionResponse withdraw_manyThreads(BenchUser user) {
+        return withdraw(user);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public BalanceResponse getBalance_1Thread(BenchUser user) {
+        return getBalance(user);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public BalanceResponse getBalance_nThreads(BenchUser user) {
+        return getBalance(user);
+    }
+
+    @Benchmark
+    @Threads(TransactionServiceBenchmark.MANY_THREADS)
+    public BalanceResponse getBalance_manyThreads(BenchUser user) {
+        return getBalance(user);
+    }
+
+    //endregion
+
+}
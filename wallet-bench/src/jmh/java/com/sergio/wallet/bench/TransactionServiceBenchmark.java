@@ -0,0 +1,127 @@
+package com.sergio.wallet.bench;
+
+import com.sergio.wallet.server.concurrency.AccountLockStripes;
+import com.sergio.wallet.server.data.entity.Currency;
+import com.sergio.wallet.server.service.TransactionResult;
+import com.sergio.wallet.server.service.TransactionService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Throughput of the TransactionService hot paths, called the same way as the gRPC endpoints do: writes hold
+ * the account lock while the service runs, reads don't take any lock.
+ *
+ * Every operation is measured with 1 thread, as many threads as processors (N) and many threads (64), for
+ * each store and workload of the WalletServerState.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class TransactionServiceBenchmark {
+
+    //region VARIABLES
+
+    public final static int MANY_THREADS = 64;
+
+    private TransactionService transactionService;
+
+    private AccountLockStripes accountLocks;
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    private TransactionResult deposit(BenchUser user) {
+        Lock lock = accountLocks.lockFor(user.userId, BenchUser.CURRENCY);
+        lock.lock();
+        try {
+            return transactionService.doDeposit(user.userId, 1, BenchUser.CURRENCY);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private TransactionResult withdraw(BenchUser user) {
+        Lock lock = accountLocks.lockFor(user.userId, BenchUser.CURRENCY);
+        lock.lock();
+        try {
+            return transactionService.doWithdraw(user.userId, 1, BenchUser.CURRENCY);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Map<Currency, Long> getBalance(BenchUser user) {
+        return transactionService.getBalance(user.userId);
+    }
+
+    //endregion
+
+    //region BENCHMARKS
+
+    @Setup(Level.Trial)
+    public void setUp(WalletServerState server) {
+        transactionService = server.getBean(TransactionService.class);
+        accountLocks = server.getBean(AccountLockStripes.class);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public TransactionResult deposit_1Thread(BenchUser user) {
+        return deposit(user);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public TransactionResult deposit_nThreads(BenchUser user) {
+        return deposit(user);
+    }
+
+    @Benchmark
+    @Threads(MANY_THREADS)
+    public TransactionResult deposit_manyThreads(BenchUser user) {
+        return deposit(user);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public TransactionResult withdraw_1Thread(BenchUser user) {
+        return withdraw(user);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public TransactionResult withdraw_nThreads(BenchUser user) {
+        return withdraw(user);
+    }
+
+    @Benchmark
+    @Threads(MANY_THREADS)
+    public TransactionResult withdraw_manyThreads(BenchUser user) {
+        return withdraw(user);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Map<Currency, Long> getBalance_1Thread(BenchUser user) {
+        return getBalance(user);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Map<Currency, Long> getBalance_nThreads(BenchUser user) {
+        return getBalance(user);
+    }
+
+    @Benchmark
+    @Threads(MANY_THREADS)
+    public Map<Currency, Long> getBalance_manyThreads(BenchUser user) {
+        return getBalance(user);
+    }
+
+    //endregion
+
+}
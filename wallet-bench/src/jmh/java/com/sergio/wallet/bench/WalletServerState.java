@@ -0,0 +1,102 @@
+package com.sergio.wallet.bench;
+
+import com.sergio.wallet.server.WalletServerApplication;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Wallet server shared by all the threads of a benchmark run, the whole Spring context is started once per
+ * trial with the chosen store and workload, so every benchmark measures the same beans as the real server.
+ *
+ * The jpa and jdbc stores run over an embedded H2 database in MySQL mode instead of MySQL, the memory and
+ * journal stores need no database at all. The gRPC server port is random, benchmarks use an in-process
+ * server instead.
+ */
+@State(Scope.Benchmark)
+public class WalletServerState {
+
+    //region VARIABLES
+
+    /** Storage backend, same values as wallet.store. */
+    @Param({"memory", "journal", "jdbc", "jpa"})
+    public String store;
+
+    /** contended: all the threads use the same user, uncontended: each thread uses its own user. */
+    @Param({"uncontended", "contended"})
+    public String workload;
+
+    public final static String SHARED_USER_ID = "bench-shared";
+
+    private ConfigurableApplicationContext context;
+
+    private Path journalDirectory;
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        List<String> properties = new ArrayList<>();
+        properties.add("grpc.server.port=0");
+        properties.add("wallet.archive.enabled=false");
+        properties.add("wallet.metrics.enabled=false");
+        properties.add("logging.level.root=WARN");
+
+        switch (store) {
+            case "memory":
+                properties.add("spring.profiles.active=memory");
+                break;
+            case "journal":
+                journalDirectory = Files.createTempDirectory("wallet-bench-journal");
+                properties.add("spring.profiles.active=journal");
+                properties.add("wallet.journal.directory=" + journalDirectory);
+                break;
+            default:
+                properties.add("wallet.store=" + store);
+                properties.add("spring.datasource.url=jdbc:h2:mem:wallet-bench;MODE=MySQL;DB_CLOSE_DELAY=-1");
+                properties.add("spring.datasource.username=sa");
+                properties.add("spring.datasource.password=");
+                properties.add("spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect");
+                break;
+        }
+
+        // Passed as command line arguments, so they override the ones from application.yml.
+        String[] args = properties.stream().map(property -> "--" + property).toArray(String[]::new);
+        context = new SpringApplicationBuilder(WalletServerApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(args);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        context.close();
+
+        if (journalDirectory != null) {
+            try (Stream<Path> files = Files.walk(journalDirectory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    public <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    public boolean isContended() {
+        return "contended".equals(workload);
+    }
+
+    //endregion
+
+}
@@ -1,7 +1,10 @@
 package com.sergio.wallet.client.components;
 
+import com.sergio.wallet.client.grpc.GrpcWalletClient;
+import com.sergio.wallet.client.simulation.OpenLoopSimulation;
 import com.sergio.wallet.client.simulation.User;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Component;
@@ -9,10 +12,13 @@ import org.springframework.stereotype.Component;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.time.Instant;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Main entry point for the Client app, this Command Line Runner will receive the parameters passed by the user
@@ -25,6 +31,9 @@ public class RunnerComponent implements CommandLineRunner {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(RunnerComponent.class);
 
+    // Seconds between progress and memory status reports while waiting for the simulation to finish.
+    private final static long STATUS_INTERVAL_SECONDS = 5;
+
     // Necessary for defining at configuration level the arguments pass to the application.
     private final WalletClientConfiguration walletClientConfiguration;
 
@@ -34,18 +43,56 @@ public class RunnerComponent implements CommandLineRunner {
     // Used for simple memory status reports for debug logging.
     private final Runtime runtime = Runtime.getRuntime();
 
-    // Keeping track of how many seconds have past since last print of memory status.
-    private long lastMemPrint;
+    // Operations per second of the open loop mode, the closed loop simulation of Users runs if not over 0.
+    private final double openLoopRate;
+
+    private final long openLoopDurationSeconds;
+
+    private final String openLoopReportFile;
+
+    // Responses in flight are waited for a bit longer than the request deadline once the open loop is done.
+    private final long openLoopDrainMillis;
 
     //endregion
 
     //region CONSTRUCTORS
 
     @Autowired
-    public RunnerComponent(ApplicationContext applicationContext, WalletClientConfiguration walletClientConfiguration) {
+    public RunnerComponent(ApplicationContext applicationContext, WalletClientConfiguration walletClientConfiguration,
+                           @Value("${wallet.load.rate:0}") double openLoopRate,
+                           @Value("${wallet.load.duration-seconds:60}") long openLoopDurationSeconds,
+                           @Value("${wallet.load.report-file:load-report.json}") String openLoopReportFile,
+                           @Value("${wallet.client.deadline-ms:5000}") long deadlineMillis) {
         super();
         this.applicationContext = applicationContext;
         this.walletClientConfiguration = walletClientConfiguration;
+        this.openLoopRate = openLoopRate;
+        this.openLoopDurationSeconds = openLoopDurationSeconds;
+        this.openLoopReportFile = openLoopReportFile;
+        this.openLoopDrainMillis = deadlineMillis + 1000;
+    }
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    /**
+     * Runs the open loop simulation instead of the Users, sending operations for random users at a constant rate.
+     * @param users Amount of different users the operations are made for.
+     */
+    private void runOpenLoop(int users) {
+        OpenLoopSimulation simulation = new OpenLoopSimulation(applicationContext.getBean(GrpcWalletClient.class),
+                users, openLoopRate, openLoopDurationSeconds);
+
+        try {
+            simulation.run(openLoopDrainMillis);
+            simulation.writeReport(Paths.get(openLoopReportFile));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Simulation failed | " + e.getMessage());
+        } catch (IOException e) {
+            LOGGER.error("Open loop report could not be written | " + e.getMessage());
+        }
     }
 
     //endregion
@@ -60,8 +107,6 @@ public class RunnerComponent implements CommandLineRunner {
                 (runtime.freeMemory() / 1024) / 1024,
                 (runtime.totalMemory() / 1024) / 1024,
                 (runtime.maxMemory() / 1024) / 1024));
-
-        lastMemPrint = Instant.now().getEpochSecond();
     }
 
     /**
@@ -87,14 +132,14 @@ public class RunnerComponent implements CommandLineRunner {
         }
 
         // Only run the simulation if amount higher than 0, otherwise newFixedThreadPool throws exception.
-        if (users <= 0 || users > 250) {
-            if (users >= 250) {
-                LOGGER.error("Current known limitation, with more than 250 users the gRPC client will start "
-                        + "throwing errors like \"UNAVAILABLE: Channel shutdown invoked\" "
-                        + "please test with 250 users or less.");
-            } else {
-                LOGGER.error("Simulation can only be run if users is higher than 0.");
-            }
+        // Any amount of users share the same gRPC channels (WalletChannelPool), there is no upper limit.
+        if (users <= 0) {
+            LOGGER.error("Simulation can only be run if users is higher than 0.");
+            return;
+        }
+
+        if (openLoopRate > 0) {
+            runOpenLoop(users);
             return;
         }
 
@@ -107,22 +152,29 @@ public class RunnerComponent implements CommandLineRunner {
             simulatedUsers.add(user);
         }
 
+        // Every user signals its own completion, the rounds finished are only counted for the progress reports.
+        CountDownLatch usersRunning = new CountDownLatch(users);
+        LongAdder roundsFinished = new LongAdder();
+        long totalRounds = (long) users * threadsPerUser * roundsPerThread;
+
+        simulatedUsers.forEach(user -> user.getCompletion().whenComplete((result, error) -> usersRunning.countDown()));
+
         // Start in parallel the execution of all the user's tasks.
-        simulatedUsers.parallelStream().forEach(user -> user.executeTasks());
+        simulatedUsers.parallelStream().forEach(user -> user.executeTasks(roundsFinished::increment));
 
         LOGGER.info("Client simulation started.");
 
-        // Simple validation to wait for users to complete all tasks.
-        boolean workFinished = false;
+        // Sleeps until the last user finishes, waking up only to report the progress.
         try {
             printMemoryStatus();
-            while (!workFinished) {
-                //LOGGER.info("WAITING - 50 ms");
-                workFinished = simulatedUsers.parallelStream().allMatch(user -> !user.isRunningTasks());
-                if (!workFinished) TimeUnit.MILLISECONDS.sleep(50);
-                if (Instant.now().getEpochSecond() - lastMemPrint >= 5) printMemoryStatus();
+            while (!usersRunning.await(STATUS_INTERVAL_SECONDS, TimeUnit.SECONDS)) {
+                long finished = roundsFinished.sum();
+                LOGGER.info(String.format("Progress | Rounds: %d / %d (%.1f%%) | Users finished: %d / %d",
+                        finished, totalRounds, 100.0 * finished / totalRounds, users - usersRunning.getCount(), users));
+                printMemoryStatus();
             }
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             LOGGER.error("Simulation failed | " + e.getMessage());
         }
 
@@ -2,11 +2,16 @@ package com.sergio.wallet.client.components;
 
 import com.sergio.wallet.client.grpc.GrpcWalletClient;
 import com.sergio.wallet.client.simulation.User;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Scope;
 
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
 /**
  * Main application configuration class, needed for the proper creation of User beans.
  * This is done so that each User bean can have an individual (prototype scoped)
@@ -14,6 +19,13 @@ import org.springframework.context.annotation.Scope;
  * application wide instance, additionally this helps avoiding the need of passing along
  * many times a single GrpcWalletClient instance for all Users.
  * It also holds some of the arguments passed to the application for proper User creation.
+ *
+ * With wallet.client.execution set to shared, Users don't create their own threads, all their rounds run on a
+ * single work stealing pool of wallet.client.scheduler-threads threads, so the amount of simulated users isn't
+ * limited by the amount of platform threads. Rounds there only use the non-blocking requests, the pool threads
+ * never wait for a response: every logical user thread has at most one request in flight, so the requests in
+ * flight are capped by users * threads per user, each one by its deadline (wallet.client.deadline-ms), and the
+ * pool size only caps the threads handling the responses.
  */
 @Configuration
 public class WalletClientConfiguration {
@@ -29,6 +41,44 @@ public class WalletClientConfiguration {
     // Holds the number of rounds each user thread has to execute.
     private int roundsPerThread = 1;
 
+    // dedicated (a thread pool per user thread) or shared (all the users on the shared scheduler).
+    @Value("${wallet.client.execution:dedicated}")
+    private String execution;
+
+    // Threads of the shared pool, they only send the requests and handle the responses, never wait for them.
+    @Value("${wallet.client.scheduler-threads:8}")
+    private int schedulerThreads;
+
+    // Created with the first User in shared execution.
+    private ForkJoinPool sharedScheduler;
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    /**
+     * Provides the scheduler shared by all the users, creating it the first time.
+     * @return The shared scheduler, null if each User has to create its own thread pools.
+     */
+    private synchronized ForkJoinPool getSharedScheduler() {
+        if ("dedicated".equals(execution)) {
+            return null;
+        }
+        if (!"shared".equals(execution) || schedulerThreads <= 0) {
+            throw new IllegalArgumentException("Invalid user execution configuration.");
+        }
+
+        if (sharedScheduler == null) {
+            // Async mode, the steps of the rounds are never joined so they are better taken in submission order.
+            sharedScheduler = new ForkJoinPool(schedulerThreads, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("user-scheduler-thread-" + thread.getPoolIndex());
+                return thread;
+            }, null, true);
+        }
+        return sharedScheduler;
+    }
+
     //endregion
 
     //region PUBLIC METHODS
@@ -49,6 +99,16 @@ public class WalletClientConfiguration {
         this.roundsPerThread = roundsPerThread;
     }
 
+    /**
+     * Stops the shared scheduler, if it was used.
+     */
+    @PreDestroy
+    public synchronized void shutdownSharedScheduler() {
+        if (sharedScheduler != null) {
+            sharedScheduler.shutdownNow();
+        }
+    }
+
     //region BEAN DEFINITIONS
 
     /**
@@ -60,7 +120,7 @@ public class WalletClientConfiguration {
     @Bean()
     @Scope(value = ConfigurableBeanFactory.SCOPE_PROTOTYPE)
     public User user(GrpcWalletClient walletClient) {
-        User user = new User(nextUserId, threadsPerUser, roundsPerThread, walletClient);
+        User user = new User(nextUserId, threadsPerUser, roundsPerThread, walletClient, getSharedScheduler());
         nextUserId++;
         return user;
     }
@@ -1,5 +1,7 @@
 package com.sergio.wallet.client.grpc;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Service;
@@ -7,19 +9,25 @@ import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
-import net.devh.boot.grpc.client.inject.GrpcClient;
+import io.grpc.stub.StreamObserver;
 import org.sergio.wallet.grpc.BalanceRequest;
 import org.sergio.wallet.grpc.BalanceResponse;
+import org.sergio.wallet.grpc.CurrencyCode;
 import org.sergio.wallet.grpc.TransactionRequest;
 import org.sergio.wallet.grpc.TransactionResponse;
-import org.sergio.wallet.grpc.WalletServiceGrpc.WalletServiceBlockingStub;
+import org.sergio.wallet.grpc.WalletServiceGrpc.WalletServiceStub;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main grpc client class, encapsulating the grpc functionality and simplifies making requests to the grpc server.
+ * All the instances share the channels of the WalletChannelPool, so creating one per user is cheap.
  */
 @Service
 @Scope(value = ConfigurableBeanFactory.SCOPE_PROTOTYPE)
@@ -29,25 +37,89 @@ public class GrpcWalletClient {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(GrpcWalletClient.class);
 
-    @GrpcClient("local-grpc-server")
-    private WalletServiceBlockingStub walletStub;
+    // Compact codes of the currencies known by the proto file, by name.
+    private final static Map<String, CurrencyCode> CURRENCY_CODES;
+
+    static {
+        Map<String, CurrencyCode> codes = new HashMap<>();
+        for (CurrencyCode code : CurrencyCode.values()) {
+            if (code != CurrencyCode.CURRENCY_UNSPECIFIED && code != CurrencyCode.UNRECOGNIZED) {
+                codes.put(code.name(), code);
+            }
+        }
+        CURRENCY_CODES = Collections.unmodifiableMap(codes);
+    }
+
+    // Shared by all the clients, provides the stubs of the next channel for each request.
+    private final WalletChannelPool channelPool;
+
+    // Max time a non-blocking request waits for its response, then it fails with DEADLINE_EXCEEDED.
+    @Value("${wallet.client.deadline-ms:5000}")
+    private long deadlineMillis;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    @Autowired
+    public GrpcWalletClient(WalletChannelPool channelPool) {
+        this.channelPool = channelPool;
+    }
 
     //endregion
 
     //region private methods
 
+    /**
+     * Sets the currency of the request as its compact code, currencies without code are sent by name
+     * so the server still answers them with its unknown currency error.
+     * @param request
+     * @param currency
+     * @return The same request builder.
+     */
+    static TransactionRequest.Builder setCurrency(TransactionRequest.Builder request, String currency) {
+        CurrencyCode code = CURRENCY_CODES.get(currency);
+        return code != null ? request.setCurrencyCode(code) : request.setCurrency(currency);
+    }
+
+    /**
+     * Converts the compact balances of the response back into funds per currency name.
+     * @param response
+     * @return Map with the funds per currency.
+     */
+    static Map<String, Long> toBalanceMap(BalanceResponse response) {
+        Map<String, Long> balances = new HashMap<>();
+        response.getCurrencyBalancesList().forEach(balance -> balances.put(balance.getCurrency().name(), balance.getAmount()));
+        return balances;
+    }
+
+    /**
+     * Builds the request for deposit and withdraw.
+     * @param userId
+     * @param amount
+     * @param currency
+     * @return
+     */
+    private TransactionRequest transactionRequest(final String userId, final int amount, final String currency) {
+        return setCurrency(TransactionRequest
+                .newBuilder()
+                .setUserId(userId)
+                .setAmount(amount), currency)
+                .build();
+    }
+
     /**
      * Used by deposit and withdraw, unifies the request on both cases and avoids duplicating code.
      * @param request the data for the transaction.
      * @param isDeposit
-     * @return
+     * @return Empty String if successful or error message otherwise.
      */
     private String sendTransaction(TransactionRequest request, boolean isDeposit) {
         String message;
 
         try {
-            final TransactionResponse response = isDeposit ? this.walletStub.deposit(request) :
-                    this.walletStub.withdraw(request);
+            final TransactionResponse response = isDeposit ? this.channelPool.blockingStub().deposit(request)
+                    : this.channelPool.blockingStub().withdraw(request);
             message = response.getMessage();
         } catch (final StatusRuntimeException e) {
             String threadName = Thread.currentThread().getName();
@@ -59,6 +131,74 @@ public class GrpcWalletClient {
         return message;
     }
 
+    /**
+     * Async stub for a single non-blocking request, every call gets its own deadline counted from now.
+     * @return
+     */
+    private WalletServiceStub asyncStub() {
+        return this.channelPool.asyncStub().withDeadlineAfter(deadlineMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Observer for a unary call, completing the future with the single response or the call failure.
+     * @param future
+     * @return
+     */
+    private static <T> StreamObserver<T> completing(final CompletableFuture<T> future) {
+        return new StreamObserver<T>() {
+            @Override
+            public void onNext(T response) {
+                future.complete(response);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                future.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                // Unary calls always have a response before completing, nothing else to do.
+            }
+        };
+    }
+
+    /**
+     * Sends a deposit or withdraw without waiting for the response.
+     * @param request the data for the transaction.
+     * @param isDeposit
+     * @return Future completed with the response, or exceptionally if the request failed.
+     */
+    private CompletableFuture<TransactionResponse> transactionAsync(TransactionRequest request, boolean isDeposit) {
+        CompletableFuture<TransactionResponse> response = new CompletableFuture<>();
+        if (isDeposit) {
+            asyncStub().deposit(request, completing(response));
+        } else {
+            asyncStub().withdraw(request, completing(response));
+        }
+        return response;
+    }
+
+    /**
+     * Used by depositAsync and withdrawAsync, same as sendTransaction without waiting for the response.
+     * @param request the data for the transaction.
+     * @param isDeposit
+     * @return Future completed with an empty String if successful or the error message otherwise.
+     */
+    private CompletableFuture<String> sendTransactionAsync(TransactionRequest request, boolean isDeposit) {
+        return transactionAsync(request, isDeposit).handle((result, error) -> {
+            if (error == null) {
+                return result.getMessage();
+            }
+            // Runs on a gRPC thread, the name of the thread sending the request is not known anymore.
+            String threadName = Thread.currentThread().getName();
+            String message = threadName + " | " + "gRPC " + (isDeposit ? "deposit" : "withdraw")
+                    + " request failed. | " + Status.fromThrowable(error).getCode().name();
+            LOGGER.error(message);
+            return message;
+        });
+    }
+
     //endregion
 
     //region PUBLIC METHODS
@@ -72,14 +212,7 @@ public class GrpcWalletClient {
      * @return Empty String if successful or error message otherwise.
      */
     public String deposit(final String userId, final int amount, final String currency) {
-        final TransactionRequest request = TransactionRequest
-                .newBuilder()
-                .setUserId(userId)
-                .setAmount(amount)
-                .setCurrency(currency)
-                .build();
-
-        return sendTransaction(request, true);
+        return sendTransaction(transactionRequest(userId, amount, currency), true);
     }
 
     /**
@@ -91,14 +224,33 @@ public class GrpcWalletClient {
      * @return Empty String if successful or error message otherwise.
      */
     public String withdraw(final String userId, final int amount, final String currency) {
-        final TransactionRequest request = TransactionRequest
-                .newBuilder()
-                .setUserId(userId)
-                .setAmount(amount)
-                .setCurrency(currency)
-                .build();
+        return sendTransaction(transactionRequest(userId, amount, currency), false);
+    }
+
+    /**
+     * Same as deposit but returns the whole response, with the result code to check the outcome and
+     * the balance of the account right after the deposit, no balance request needed.
+     * @param userId
+     * @param amount
+     * @param currency
+     * @return The response of the server.
+     * @throws StatusRuntimeException If the request failed.
+     */
+    public TransactionResponse depositWithResult(final String userId, final int amount, final String currency) {
+        return this.channelPool.blockingStub().deposit(transactionRequest(userId, amount, currency));
+    }
 
-        return sendTransaction(request, false);
+    /**
+     * Same as withdraw but returns the whole response, with the result code to check the outcome and
+     * the balance of the account right after the withdraw, no balance request needed.
+     * @param userId
+     * @param amount
+     * @param currency
+     * @return The response of the server.
+     * @throws StatusRuntimeException If the request failed.
+     */
+    public TransactionResponse withdrawWithResult(final String userId, final int amount, final String currency) {
+        return this.channelPool.blockingStub().withdraw(transactionRequest(userId, amount, currency));
     }
 
     /**
@@ -111,10 +263,11 @@ public class GrpcWalletClient {
         final BalanceRequest request = BalanceRequest
                 .newBuilder()
                 .setUserId(userId)
+                .setCompact(true)
                 .build();
         try {
-            final BalanceResponse response = this.walletStub.getBalance(request);
-            return response.getBalancesMap();
+            final BalanceResponse response = this.channelPool.blockingStub().getBalance(request);
+            return toBalanceMap(response);
         } catch (final StatusRuntimeException e) {
             String threadName = Thread.currentThread().getName();
             LOGGER.error(threadName + " | " + "gRPC balance request failed. | " + e.getStatus().getCode().name());
@@ -122,6 +275,106 @@ public class GrpcWalletClient {
         }
     }
 
+    /**
+     * Same as deposit without blocking the calling thread, the request has its own deadline
+     * (wallet.client.deadline-ms), so many requests can be in flight from a few threads.
+     * @param userId
+     * @param amount
+     * @param currency
+     * @return Future completed with an empty String if successful or the error message otherwise.
+     */
+    public CompletableFuture<String> depositAsync(final String userId, final int amount, final String currency) {
+        return sendTransactionAsync(transactionRequest(userId, amount, currency), true);
+    }
+
+    /**
+     * Same as withdraw without blocking the calling thread, the request has its own deadline
+     * (wallet.client.deadline-ms), so many requests can be in flight from a few threads.
+     * @param userId
+     * @param amount
+     * @param currency
+     * @return Future completed with an empty String if successful or the error message otherwise.
+     */
+    public CompletableFuture<String> withdrawAsync(final String userId, final int amount, final String currency) {
+        return sendTransactionAsync(transactionRequest(userId, amount, currency), false);
+    }
+
+    /**
+     * Same as depositWithResult without blocking the calling thread, the request has its own deadline
+     * (wallet.client.deadline-ms).
+     * @param userId
+     * @param amount
+     * @param currency
+     * @return Future completed with the response of the server, or exceptionally with a StatusRuntimeException
+     * if the request failed.
+     */
+    public CompletableFuture<TransactionResponse> depositWithResultAsync(final String userId, final int amount,
+                                                                         final String currency) {
+        return transactionAsync(transactionRequest(userId, amount, currency), true);
+    }
+
+    /**
+     * Same as withdrawWithResult without blocking the calling thread, the request has its own deadline
+     * (wallet.client.deadline-ms).
+     * @param userId
+     * @param amount
+     * @param currency
+     * @return Future completed with the response of the server, or exceptionally with a StatusRuntimeException
+     * if the request failed.
+     */
+    public CompletableFuture<TransactionResponse> withdrawWithResultAsync(final String userId, final int amount,
+                                                                          final String currency) {
+        return transactionAsync(transactionRequest(userId, amount, currency), false);
+    }
+
+    /**
+     * Same as getBalanceAsync but returns the whole response, the request has its own deadline
+     * (wallet.client.deadline-ms).
+     * @param userId
+     * @return Future completed with the response of the server, or exceptionally with a StatusRuntimeException
+     * if the request failed.
+     */
+    public CompletableFuture<BalanceResponse> getBalanceWithResultAsync(final String userId) {
+        final BalanceRequest request = BalanceRequest
+                .newBuilder()
+                .setUserId(userId)
+                .setCompact(true)
+                .build();
+
+        CompletableFuture<BalanceResponse> response = new CompletableFuture<>();
+        asyncStub().getBalance(request, completing(response));
+        return response;
+    }
+
+    /**
+     * Same as getBalance without blocking the calling thread, the request has its own deadline
+     * (wallet.client.deadline-ms).
+     * @param userId
+     * @return Future completed with the funds per currency or an empty map if an error happened or no funds.
+     */
+    public CompletableFuture<Map<String, Long>> getBalanceAsync(final String userId) {
+        return getBalanceWithResultAsync(userId).handle((result, error) -> {
+            if (error == null) {
+                return toBalanceMap(result);
+            }
+            String threadName = Thread.currentThread().getName();
+            LOGGER.error(threadName + " | " + "gRPC balance request failed. | "
+                    + Status.fromThrowable(error).getCode().name());
+            return new HashMap<String, Long>();
+        });
+    }
+
+    /**
+     * Opens a session with the server for making many requests for the same user over a single stream,
+     * each deposit, withdraw or balance request costs a single message instead of a whole call.
+     * The session should be closed once done with it.
+     * @param userId
+     * @return The session with the same operations as this client, for the given user.
+     */
+    public WalletSession openSession(final String userId) {
+        return new WalletSession(userId, this.channelPool.asyncStub());
+    }
+
     //endregion
 
 }
@@ -0,0 +1,152 @@
+package com.sergio.wallet.client.grpc;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import org.sergio.wallet.grpc.WalletServiceGrpc;
+import org.sergio.wallet.grpc.WalletServiceGrpc.WalletServiceBlockingStub;
+import org.sergio.wallet.grpc.WalletServiceGrpc.WalletServiceStub;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed set of channels (one HTTP/2 connection each) to the wallet-server, shared by all the GrpcWalletClient
+ * instances of the application, so the amount of connections doesn't grow with the amount of simulated users.
+ *
+ * Each request takes the stubs of the next channel in round robin, as every call is a separate HTTP/2 stream
+ * the load is spread evenly over the connections no matter which users are sending the requests. Stubs are
+ * immutable and thread safe, they are created once per channel.
+ */
+@Component
+public class WalletChannelPool {
+
+    //region VARIABLES
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(WalletChannelPool.class);
+
+    // Scheme of the grpc starter for fixed addresses, plain host:port targets are resolved the same way.
+    private final static String STATIC_SCHEME = "static://";
+
+    private final static long KEEP_ALIVE_SECONDS = 60;
+
+    private final static long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private final List<ManagedChannel> channels;
+
+    private final List<WalletServiceBlockingStub> blockingStubs;
+
+    private final List<WalletServiceStub> asyncStubs;
+
+    private final AtomicInteger nextChannel = new AtomicInteger();
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    /**
+     * Creates the channels, they only connect once the first request is sent.
+     * @param address Address of the server, same as the one of the grpc starter client.
+     * @param channelCount Amount of channels (connections) in the pool.
+     */
+    @Autowired
+    public WalletChannelPool(@Value("${grpc.client.local-grpc-server.address}") String address,
+                             @Value("${wallet.client.channels:4}") int channelCount) {
+        if (channelCount <= 0) {
+            throw new IllegalArgumentException("Invalid channel pool configuration.");
+        }
+
+        String target = address.startsWith(STATIC_SCHEME) ? address.substring(STATIC_SCHEME.length()) : address;
+
+        List<ManagedChannel> tmpChannels = new ArrayList<>(channelCount);
+        List<WalletServiceBlockingStub> tmpBlockingStubs = new ArrayList<>(channelCount);
+        List<WalletServiceStub> tmpAsyncStubs = new ArrayList<>(channelCount);
+
+        for (int i = 0; i < channelCount; i++) {
+            ManagedChannel channel = ManagedChannelBuilder
+                    .forTarget(target)
+                    .usePlaintext()
+                    .keepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS)
+                    .keepAliveWithoutCalls(true)
+                    .build();
+
+            tmpChannels.add(channel);
+            tmpBlockingStubs.add(WalletServiceGrpc.newBlockingStub(channel));
+            tmpAsyncStubs.add(WalletServiceGrpc.newStub(channel));
+        }
+
+        this.channels = Collections.unmodifiableList(tmpChannels);
+        this.blockingStubs = Collections.unmodifiableList(tmpBlockingStubs);
+        this.asyncStubs = Collections.unmodifiableList(tmpAsyncStubs);
+
+        LOGGER.info("gRPC channel pool created | target: " + target + " | channels: " + channelCount);
+    }
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    /**
+     * @return Index of the next channel in round robin.
+     */
+    private int next() {
+        // Masked instead of Math.abs, so it stays positive after the counter overflows.
+        return (nextChannel.getAndIncrement() & Integer.MAX_VALUE) % channels.size();
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    /**
+     * @return Blocking stub of the next channel, to be used for a single request.
+     */
+    public WalletServiceBlockingStub blockingStub() {
+        return blockingStubs.get(next());
+    }
+
+    /**
+     * @return Async stub of the next channel, to be used for a single request or stream.
+     */
+    public WalletServiceStub asyncStub() {
+        return asyncStubs.get(next());
+    }
+
+    public int getSize() {
+        return channels.size();
+    }
+
+    /**
+     * Closes all the channels, waiting a bit for the requests still in flight.
+     */
+    @PreDestroy
+    public void shutdown() {
+        channels.forEach(ManagedChannel::shutdown);
+
+        try {
+            for (ManagedChannel channel : channels) {
+                if (!channel.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    channel.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            channels.forEach(ManagedChannel::shutdownNow);
+        }
+
+        LOGGER.info("gRPC channel pool closed.");
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,238 @@
+package com.sergio.wallet.client.grpc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.sergio.wallet.grpc.BalanceRequest;
+import org.sergio.wallet.grpc.SessionRequest;
+import org.sergio.wallet.grpc.SessionResponse;
+import org.sergio.wallet.grpc.TransactionRequest;
+import org.sergio.wallet.grpc.WalletServiceGrpc.WalletServiceStub;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Long lived session with the wallet-server for a single user, all the requests are sent as messages of
+ * the same bidirectional stream instead of opening a new call for each one.
+ *
+ * The server processes the requests in the same order they are sent, each request gets a tag so its
+ * result can be matched when it arrives. If the session fails all the pending and following requests
+ * fail as well, a new session has to be opened.
+ */
+public class WalletSession implements AutoCloseable {
+
+    //region VARIABLES
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(WalletSession.class);
+
+    // Max time the blocking methods wait for a result.
+    private final static long RESULT_TIMEOUT_SECONDS = 30;
+
+    private final String userId;
+
+    private final StreamObserver<SessionRequest> requestObserver;
+
+    private final ConcurrentHashMap<Long, CompletableFuture<SessionResponse>> pendingRequests = new ConcurrentHashMap<>();
+
+    // Guarded by this, the request observer doesn't allow sending from many threads at the same time.
+    private long nextTag = 1;
+
+    // Guarded by this.
+    private boolean closed;
+
+    private volatile Throwable failure;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    /**
+     * Opens the session stream with the server.
+     * @param userId User all the requests are made for.
+     * @param walletStub
+     */
+    WalletSession(String userId, WalletServiceStub walletStub) {
+        this.userId = userId;
+        this.requestObserver = walletStub.session(new StreamObserver<SessionResponse>() {
+            @Override
+            public void onNext(SessionResponse response) {
+                CompletableFuture<SessionResponse> pending = pendingRequests.remove(response.getTag());
+                if (pending != null) {
+                    pending.complete(response);
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                failAll(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                failAll(Status.UNAVAILABLE.withDescription("Session closed").asRuntimeException());
+            }
+        });
+    }
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    /**
+     * Fails all the pending requests and any request sent after this.
+     * @param t
+     */
+    private void failAll(Throwable t) {
+        failure = t;
+        pendingRequests.values().forEach(pending -> pending.completeExceptionally(t));
+        pendingRequests.clear();
+    }
+
+    /**
+     * Sends a request through the session stream.
+     * @param request Request without tag, it's set here.
+     * @return Future completed with the response of the request.
+     */
+    private CompletableFuture<SessionResponse> send(SessionRequest.Builder request) {
+        CompletableFuture<SessionResponse> future = new CompletableFuture<>();
+
+        synchronized (this) {
+            if (failure != null || closed) {
+                future.completeExceptionally(failure != null ? failure : new IllegalStateException("Session already closed"));
+                return future;
+            }
+
+            long tag = nextTag++;
+            pendingRequests.put(tag, future);
+            requestObserver.onNext(request.setTag(tag).build());
+        }
+
+        // The session could have failed right before the request was registered.
+        if (failure != null) {
+            future.completeExceptionally(failure);
+        }
+
+        return future;
+    }
+
+    private TransactionRequest transaction(int amount, String currency) {
+        return GrpcWalletClient.setCurrency(TransactionRequest.newBuilder().setUserId(userId).setAmount(amount), currency)
+                .build();
+    }
+
+    /**
+     * Waits for the result of a deposit or withdraw.
+     * @param future
+     * @param isDeposit
+     * @return Empty String if successful or error message otherwise.
+     */
+    private String waitForTransaction(CompletableFuture<String> future, boolean isDeposit) {
+        try {
+            return future.get(RESULT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            String threadName = Thread.currentThread().getName();
+            String message = threadName + " | " + "gRPC session " + (isDeposit ? "deposit" : "withdraw")
+                    + " request failed. | " + Status.fromThrowable(e).getCode().name();
+            LOGGER.error(message);
+            return message;
+        }
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    /**
+     * Sends a deposit through the session without waiting for its result.
+     * @param amount
+     * @param currency
+     * @return Future completed with an empty String if successful or the error message otherwise.
+     */
+    public CompletableFuture<String> depositAsync(final int amount, final String currency) {
+        return send(SessionRequest.newBuilder().setDeposit(transaction(amount, currency)))
+                .thenApply(response -> response.getTransaction().getMessage());
+    }
+
+    /**
+     * Sends a withdraw through the session without waiting for its result.
+     * @param amount
+     * @param currency
+     * @return Future completed with an empty String if successful or the error message otherwise.
+     */
+    public CompletableFuture<String> withdrawAsync(final int amount, final String currency) {
+        return send(SessionRequest.newBuilder().setWithdraw(transaction(amount, currency)))
+                .thenApply(response -> response.getTransaction().getMessage());
+    }
+
+    /**
+     * Sends a balance request through the session without waiting for its result.
+     * @return Future completed with the funds per currency.
+     */
+    public CompletableFuture<Map<String, Long>> getBalanceAsync() {
+        return send(SessionRequest.newBuilder().setBalance(BalanceRequest.newBuilder().setUserId(userId).setCompact(true)))
+                .thenApply(response -> GrpcWalletClient.toBalanceMap(response.getBalance()));
+    }
+
+    /**
+     * Adds funds to the user's currency specific wallet.
+     * @param amount
+     * @param currency
+     * @return Empty String if successful or error message otherwise.
+     */
+    public String deposit(final int amount, final String currency) {
+        return waitForTransaction(depositAsync(amount, currency), true);
+    }
+
+    /**
+     * Subtracts funds from the user's currency specific wallet.
+     * @param amount
+     * @param currency
+     * @return Empty String if successful or error message otherwise.
+     */
+    public String withdraw(final int amount, final String currency) {
+        return waitForTransaction(withdrawAsync(amount, currency), false);
+    }
+
+    /**
+     * Retrieves the available funds per currency from the user's wallet.
+     * @return Map with the funds per currency or empty map if an error happened or no funds.
+     */
+    public Map<String, Long> getBalance() {
+        try {
+            return getBalanceAsync().get(RESULT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            String threadName = Thread.currentThread().getName();
+            LOGGER.error(threadName + " | " + "gRPC session balance request failed. | "
+                    + Status.fromThrowable(e).getCode().name());
+            return new HashMap<String, Long>();
+        }
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * Ends the session once the server has answered all the requests already sent.
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed && failure == null) {
+            requestObserver.onCompleted();
+        }
+        closed = true;
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,255 @@
+package com.sergio.wallet.client.simulation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies and outcomes of the operations sent by a load simulation, recorded in HdrHistograms per operation.
+ *
+ * Latencies are recorded in microseconds and can be recorded from any thread. The timeline is built by calling
+ * nextInterval at a fixed period, one call at a time, which also adds each interval to the totals of the
+ * whole run used by the summary and the report file.
+ */
+public class LatencyReport {
+
+    //region VARIABLES
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(LatencyReport.class);
+
+    // Significant digits kept by the histograms, 3 keeps the error of any recorded value under 0.1%.
+    private final static int SIGNIFICANT_DIGITS = 3;
+
+    private final static double[] PERCENTILES = {50.0, 99.0, 99.9};
+
+    // Insertion ordered, so the summary and report always list the operations in the same order.
+    private final Map<String, OperationStats> operations = new LinkedHashMap<>();
+
+    private final List<TimelineEntry> timeline = new ArrayList<>();
+
+    private final long startNanos;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    /**
+     * @param operationNames Names of all the operations to be recorded.
+     */
+    public LatencyReport(String... operationNames) {
+        for (String name : operationNames) {
+            operations.put(name, new OperationStats());
+        }
+        this.startNanos = System.nanoTime();
+    }
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    private static double toMillis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String percentileName(double percentile) {
+        return "p" + (percentile == Math.rint(percentile) ? String.valueOf((long) percentile)
+                : String.valueOf(percentile).replace(".", ""));
+    }
+
+    private void appendOperationJson(StringBuilder json, String name, OperationStats stats) {
+        Histogram total = stats.total;
+        json.append("    \"").append(name).append("\": {")
+                .append("\"count\": ").append(total.getTotalCount())
+                .append(", \"successful\": ").append(stats.successful.get())
+                .append(", \"rejected\": ").append(stats.rejected.get())
+                .append(", \"failed\": ").append(stats.failed.get())
+                .append(", \"meanMs\": ").append(format(total.getMean() / 1000.0));
+        for (double percentile : PERCENTILES) {
+            json.append(", \"").append(percentileName(percentile)).append("Ms\": ")
+                    .append(format(toMillis(total.getValueAtPercentile(percentile))));
+        }
+        json.append(", \"maxMs\": ").append(format(toMillis(total.getMaxValue()))).append("}");
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    /**
+     * Records the latency of a successful operation.
+     * @param operation
+     * @param latencyNanos Time from the moment the operation was meant to be sent until its response arrived.
+     */
+    public void recordSuccessful(String operation, long latencyNanos) {
+        OperationStats stats = operations.get(operation);
+        stats.recorder.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+        stats.successful.incrementAndGet();
+    }
+
+    /**
+     * Records the latency of an operation answered with an error result, like insufficient funds.
+     * @param operation
+     * @param latencyNanos
+     */
+    public void recordRejected(String operation, long latencyNanos) {
+        OperationStats stats = operations.get(operation);
+        stats.recorder.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+        stats.rejected.incrementAndGet();
+    }
+
+    /**
+     * Records the latency of a request that failed, like a deadline exceeded or an unavailable server.
+     * @param operation
+     * @param latencyNanos
+     */
+    public void recordFailed(String operation, long latencyNanos) {
+        OperationStats stats = operations.get(operation);
+        stats.recorder.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+        stats.failed.incrementAndGet();
+    }
+
+    /**
+     * Closes the current interval of the timeline, logging the throughput and latencies of each operation in it.
+     * Never to be called concurrently, calls from different threads must be ordered (like a thread joined first).
+     */
+    public void nextInterval() {
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        TimelineEntry entry = new TimelineEntry(elapsedMillis);
+
+        StringBuilder line = new StringBuilder("Timeline | " + format(elapsedMillis / 1000.0) + " s");
+        for (Map.Entry<String, OperationStats> operation : operations.entrySet()) {
+            OperationStats stats = operation.getValue();
+            stats.interval = stats.recorder.getIntervalHistogram(stats.interval);
+            stats.total.add(stats.interval);
+
+            long count = stats.interval.getTotalCount();
+            long p99 = stats.interval.getValueAtPercentile(99.0);
+            entry.counts.put(operation.getKey(), count);
+            entry.p99Micros.put(operation.getKey(), p99);
+
+            line.append(" | ").append(operation.getKey()).append(": ").append(count).append(" ops, p99 ")
+                    .append(format(toMillis(p99))).append(" ms");
+        }
+
+        timeline.add(entry);
+        LOGGER.info(line.toString());
+    }
+
+    /**
+     * Provides the percentiles and outcomes of an operation over the whole run, nextInterval should be
+     * called right before, so the latest latencies are included.
+     * @param operation
+     * @return Summary line of the operation, latencies in milliseconds.
+     */
+    public String getSummary(String operation) {
+        OperationStats stats = operations.get(operation);
+        Histogram total = stats.total;
+
+        StringBuilder line = new StringBuilder("Summary | " + operation + " | count: " + total.getTotalCount()
+                + " (successful: " + stats.successful.get() + ", rejected: " + stats.rejected.get()
+                + ", failed: " + stats.failed.get() + ")");
+        for (double percentile : PERCENTILES) {
+            line.append(" | ").append(percentileName(percentile)).append(": ")
+                    .append(format(toMillis(total.getValueAtPercentile(percentile)))).append(" ms");
+        }
+        line.append(" | max: ").append(format(toMillis(total.getMaxValue()))).append(" ms");
+
+        return line.toString();
+    }
+
+    /**
+     * Logs the summary of each operation over the whole run.
+     */
+    public void logSummary() {
+        operations.keySet().forEach(operation -> LOGGER.info(getSummary(operation)));
+    }
+
+    /**
+     * Writes the summary and the timeline as JSON.
+     * @param file
+     * @param settings Settings of the run, written as they are, values must be numbers.
+     * @throws IOException
+     */
+    public void writeJson(Path file, Map<String, ? extends Number> settings) throws IOException {
+        StringBuilder json = new StringBuilder("{\n");
+        for (Map.Entry<String, ? extends Number> setting : settings.entrySet()) {
+            json.append("  \"").append(setting.getKey()).append("\": ").append(setting.getValue()).append(",\n");
+        }
+
+        json.append("  \"operations\": {\n");
+        Iterator<Map.Entry<String, OperationStats>> iterator = operations.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, OperationStats> operation = iterator.next();
+            appendOperationJson(json, operation.getKey(), operation.getValue());
+            json.append(iterator.hasNext() ? ",\n" : "\n");
+        }
+        json.append("  },\n");
+
+        json.append("  \"timeline\": [\n");
+        for (int i = 0; i < timeline.size(); i++) {
+            TimelineEntry entry = timeline.get(i);
+            json.append("    {\"elapsedMs\": ").append(entry.elapsedMillis);
+            for (String name : operations.keySet()) {
+                json.append(", \"").append(name).append("\": {\"count\": ").append(entry.counts.get(name))
+                        .append(", \"p99Ms\": ").append(format(toMillis(entry.p99Micros.get(name)))).append("}");
+            }
+            json.append(i < timeline.size() - 1 ? "},\n" : "}\n");
+        }
+        json.append("  ]\n}\n");
+
+        Files.write(file, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    //endregion
+
+    //region INNER CLASSES
+
+    /** Recorder of an operation, with the histograms of the last interval and of the whole run. */
+    private static class OperationStats {
+
+        // Auto resizing, so no highest trackable latency has to be guessed.
+        private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+
+        private final Histogram total = new Histogram(SIGNIFICANT_DIGITS);
+
+        private final AtomicLong successful = new AtomicLong();
+
+        private final AtomicLong rejected = new AtomicLong();
+
+        private final AtomicLong failed = new AtomicLong();
+
+        // Reused by every interval, only used by the thread calling nextInterval.
+        private Histogram interval;
+    }
+
+    /** Throughput and p99 latency of each operation in an interval of the timeline. */
+    private static class TimelineEntry {
+
+        private final long elapsedMillis;
+
+        private final Map<String, Long> counts = new HashMap<>();
+
+        private final Map<String, Long> p99Micros = new HashMap<>();
+
+        private TimelineEntry(long elapsedMillis) {
+            this.elapsedMillis = elapsedMillis;
+        }
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,243 @@
+package com.sergio.wallet.client.simulation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.sergio.wallet.client.grpc.GrpcWalletClient;
+import org.sergio.wallet.grpc.ResultCode;
+import org.sergio.wallet.grpc.TransactionResponse;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open loop load simulation, operations for random users are sent at a constant target rate no matter how long
+ * the server takes to answer, unlike the Users which only send a request after the previous one was answered.
+ *
+ * Every operation has an intended send time on a fixed schedule, its latency is measured from that time instead
+ * of the time it was actually sent, so if the client falls behind (or the server queues requests) the waiting is
+ * included in the latencies instead of being hidden (coordinated omission). Requests are sent with the non-blocking
+ * client methods, a single thread keeps any amount of them in flight, bounded by the request deadline.
+ */
+public class OpenLoopSimulation {
+
+    //region VARIABLES
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(OpenLoopSimulation.class);
+
+    public final static String DEPOSIT = "deposit";
+
+    public final static String WITHDRAW = "withdraw";
+
+    public final static String BALANCE = "balance";
+
+    private final static String[] CURRENCIES = {"USD", "EUR", "GBP"};
+
+    private final static int AMOUNT = 100;
+
+    // Operation mix, out of 100: deposits below the first value, withdraws below the second, balances for the rest.
+    private final static int DEPOSIT_SHARE = 40;
+
+    private final static int WITHDRAW_SHARE = 80;
+
+    private final static long TIMELINE_INTERVAL_MILLIS = 1000;
+
+    private final GrpcWalletClient walletClient;
+
+    private final int users;
+
+    private final double ratePerSecond;
+
+    private final long durationSeconds;
+
+    private final LatencyReport report = new LatencyReport(DEPOSIT, WITHDRAW, BALANCE);
+
+    private final AtomicLong inFlight = new AtomicLong();
+
+    private final Object completionLock = new Object();
+
+    private long sent;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    /**
+     * @param walletClient
+     * @param users Operations are made for user ids from 1 to this value, picked at random.
+     * @param ratePerSecond Operations sent per second.
+     * @param durationSeconds Time sending operations, the responses still in flight are waited for afterwards.
+     */
+    public OpenLoopSimulation(GrpcWalletClient walletClient, int users, double ratePerSecond, long durationSeconds) {
+        if (users <= 0 || ratePerSecond <= 0 || durationSeconds <= 0) {
+            throw new IllegalArgumentException("Invalid open loop simulation configuration.");
+        }
+
+        this.walletClient = walletClient;
+        this.users = users;
+        this.ratePerSecond = ratePerSecond;
+        this.durationSeconds = durationSeconds;
+    }
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    /**
+     * Sends a random operation for a random user.
+     * @param intendedNanos Time the operation was scheduled for, its latency is measured from it.
+     */
+    private void sendOperation(long intendedNanos) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String userId = String.valueOf(random.nextInt(users) + 1);
+        String currency = CURRENCIES[random.nextInt(CURRENCIES.length)];
+        int pick = random.nextInt(100);
+
+        inFlight.incrementAndGet();
+
+        if (pick < DEPOSIT_SHARE) {
+            walletClient.depositWithResultAsync(userId, AMOUNT, currency)
+                    .whenComplete((response, error) -> recordTransaction(DEPOSIT, intendedNanos, response, error));
+        } else if (pick < WITHDRAW_SHARE) {
+            walletClient.withdrawWithResultAsync(userId, AMOUNT, currency)
+                    .whenComplete((response, error) -> recordTransaction(WITHDRAW, intendedNanos, response, error));
+        } else {
+            walletClient.getBalanceWithResultAsync(userId).whenComplete((response, error) -> {
+                long latencyNanos = System.nanoTime() - intendedNanos;
+                if (error != null) {
+                    report.recordFailed(BALANCE, latencyNanos);
+                } else {
+                    report.recordSuccessful(BALANCE, latencyNanos);
+                }
+                completed();
+            });
+        }
+    }
+
+    private void recordTransaction(String operation, long intendedNanos, TransactionResponse response,
+                                   Throwable error) {
+        long latencyNanos = System.nanoTime() - intendedNanos;
+        if (error != null) {
+            report.recordFailed(operation, latencyNanos);
+        } else if (response.getResult() == ResultCode.SUCCESSFUL) {
+            report.recordSuccessful(operation, latencyNanos);
+        } else {
+            report.recordRejected(operation, latencyNanos);
+        }
+        completed();
+    }
+
+    private void completed() {
+        if (inFlight.decrementAndGet() == 0) {
+            synchronized (completionLock) {
+                completionLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until all the operations sent got their response.
+     * @param timeoutMillis
+     * @return true if all finished, false if the time ran out first.
+     * @throws InterruptedException
+     */
+    private boolean awaitInFlight(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (completionLock) {
+            while (inFlight.get() > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                completionLock.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    /**
+     * Sends the operations at the target rate during the whole duration from the calling thread, then waits
+     * for the responses still in flight and logs the summary.
+     * @param drainTimeoutMillis Max time waiting for the responses in flight, should be over the request deadline.
+     * @throws InterruptedException
+     */
+    public void run(long drainTimeoutMillis) throws InterruptedException {
+        ScheduledExecutorService timeline = Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory("open-loop-timeline-"));
+        timeline.scheduleAtFixedRate(report::nextInterval, TIMELINE_INTERVAL_MILLIS, TIMELINE_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+
+        LOGGER.info("Open loop simulation started | rate: " + ratePerSecond + " ops/s | duration: "
+                + durationSeconds + " s | users: " + users);
+
+        long periodNanos = Math.max(1, Math.round(TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        try {
+            // Fixed schedule, if the sending falls behind the next operations are sent right away to catch up.
+            for (long intendedNanos = startNanos; intendedNanos < endNanos; intendedNanos += periodNanos) {
+                long waitNanos = intendedNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    LockSupport.parkNanos(waitNanos);
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException("Open loop simulation interrupted");
+                }
+
+                sendOperation(intendedNanos);
+                sent++;
+            }
+
+            if (!awaitInFlight(drainTimeoutMillis)) {
+                LOGGER.error("Open loop simulation finished with " + inFlight.get() + " operations without response.");
+            }
+        } finally {
+            // Cancels the next runs, an interval already running is let finish.
+            timeline.shutdown();
+        }
+
+        // The report intervals are single threaded, the last one can only be taken once the timeline has stopped.
+        while (!timeline.awaitTermination(TIMELINE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+            LOGGER.debug("Waiting for the open loop timeline to stop.");
+        }
+
+        // Last interval, so the totals include every latency recorded.
+        report.nextInterval();
+
+        LOGGER.info("Open loop simulation finished | sent: " + sent + " | achieved rate: "
+                + String.format("%.1f", sent / (double) durationSeconds) + " ops/s");
+        report.logSummary();
+    }
+
+    /**
+     * Writes the machine readable report of the run.
+     * @param file
+     * @throws IOException
+     */
+    public void writeReport(Path file) throws IOException {
+        Map<String, Number> settings = new LinkedHashMap<>();
+        settings.put("targetRate", ratePerSecond);
+        settings.put("durationSeconds", durationSeconds);
+        settings.put("users", users);
+        settings.put("sent", sent);
+        settings.put("withoutResponse", inFlight.get());
+
+        report.writeJson(file, settings);
+        LOGGER.info("Open loop report written to " + file.toAbsolutePath());
+    }
+
+    //endregion
+
+}
@@ -2,238 +2,240 @@ package com.sergio.wallet.client.simulation;
 
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Simple factory like class in charge of providing callable tasks to make requests to the wallet-server.
+ *
+ * Every round is a fixed list of steps, each one a single request, so the same round can be run blocking its
+ * thread (call) or chained on the non-blocking requests of the GrpcWalletClient (callAsync).
  */
 public abstract class RoundsFactory {
 
+    //region VARIABLES
+
+    private final static String USD = "USD";
+
+    private final static String EUR = "EUR";
+
+    private final static String GBP = "GBP";
+
+    // Round A.
+    private final static List<Step> ROUND_A = Collections.unmodifiableList(Arrays.asList(
+            Step.deposit(100, USD), Step.withdraw(200, USD), Step.deposit(100, EUR), Step.balance(),
+            Step.withdraw(100, USD), Step.balance(), Step.withdraw(100, USD)));
+
+    // Round B, the deposit to an unknown currency is on purpose.
+    private final static List<Step> ROUND_B = Collections.unmodifiableList(Arrays.asList(
+            Step.withdraw(100, GBP), Step.deposit(300, "GPB"), Step.withdraw(100, GBP), Step.withdraw(100, GBP),
+            Step.withdraw(100, GBP)));
+
+    // Round C.
+    private final static List<Step> ROUND_C = Collections.unmodifiableList(Arrays.asList(
+            Step.balance(), Step.deposit(100, USD), Step.deposit(100, USD), Step.withdraw(100, USD),
+            Step.deposit(100, USD), Step.balance(), Step.withdraw(200, USD), Step.balance()));
+
+    //endregion
+
     //region PRIVATE METHODS
 
     /**
      * Method used to create a round using the roundToBuild parameter to choose from Rounds A, B and C.
      * User id and its logger are used to properly link the tasks to the user who owns it.
-     *
-     * This method should be refactored into multiple smaller methods per Round - not enough time.
      * @param roundToBuild
      * @param user
-     * @return A Callable task that will perform a set of grpc requests to the wallet-server.
+     * @return A round that will perform a set of grpc requests to the wallet-server.
      */
-    private static Callable<Boolean> instantiateRound(int roundToBuild, final User user) {
-        Callable<Boolean> callable;
-        final String userIdString = String.valueOf(user.getId());
-        final String usd = "USD";
-        final String eur = "EUR";
-        final String gbp = "GBP";
-
-
+    private static Round instantiateRound(int roundToBuild, final User user) {
         switch (roundToBuild) {
             case 0:
-                // Round A.
-                callable = () -> {
-                    String roundName = "Round A";
-                    String threadName = Thread.currentThread().getName();
-
-                    try {
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName + " starting.");
-
-                        String result = user.getWalletClient().deposit(userIdString, 100, usd);
-
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName
-                                + " Deposit " + 100 + " " + usd + " result: " + result);
-
-                        result = user.getWalletClient().withdraw(userIdString, 200, usd);
-
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName
-                                + " Withdraw " + 200 + " " + usd + " result: " + result);
-
-                        result = user.getWalletClient().deposit(userIdString, 100, eur);
-
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName
-                                + " Deposit " + 100 + " " + eur + " result: " + result);
-
-                        Map<String, Long> map = user.getWalletClient().getBalance(userIdString);
-
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName
-                                + " balance - "
-                                + (map.containsKey(usd) ? usd + " : " + map.get(usd).intValue() + " - " : " - ")
-                                + (map.containsKey(eur) ? eur + " : " + map.get(eur).intValue() + " - " : " - ")
-                                + (map.containsKey(gbp) ? gbp + " : " + map.get(gbp).intValue() : ""));
-
-                        result = user.getWalletClient().withdraw(userIdString, 100, usd);
-
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName
-                                + " Withdraw " + 100 + " " + usd + " result: " + result);
-
-                        map = user.getWalletClient().getBalance(userIdString);
-
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName
-                                + " balance - "
-                                + (map.containsKey(usd) ? usd + " : " + map.get(usd).intValue() + " - " : " - ")
-                                + (map.containsKey(eur) ? eur + " : " + map.get(eur).intValue() + " - " : " - ")
-                                + (map.containsKey(gbp) ? gbp + " : " + map.get(gbp).intValue() : ""));
-
-                        result = user.getWalletClient().withdraw(userIdString, 100, usd);
-
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName
-                                + " Withdraw " + 100 + " " + usd + " result: " + result);
-
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName + " finished.");
-
-                        return true;
-                    } catch (Exception e) {
-                        user.logError("User: " + userIdString + " | " + threadName + " | " + roundName + " An exception was thrown: "
-                                + e.getMessage() + " | " + e.getStackTrace()[0].toString());
-                        return false;
-                    }
-                };
-                break;
+                return new Round("Round A", ROUND_A, user);
             case 1:
-                // Round B.
-                callable = () -> {
-                    String roundName = "Round B";
-                    String threadName = Thread.currentThread().getName();
-
-                    try {
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName + " starting.");
-
-                        String result = user.getWalletClient().withdraw(userIdString, 100, gbp);
-
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName
-                                + " Withdraw " + 100 + " " + gbp + " result: " + result);
+                return new Round("Round B", ROUND_B, user);
+            case 2:
+                return new Round("Round C", ROUND_C, user);
+            default:
+                return new Round("Empty round", Collections.emptyList(), user);
+        }
+    }
 
-                        result = user.getWalletClient().deposit(userIdString, 300, "GPB");
+    /** Simple random number generator. */
+    private static int randomNumber() {
+        int min = 0;
+        int max = 2;
+        return ThreadLocalRandom.current().nextInt(min, max + 1);
+    }
 
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName
-                                + " Deposit " + 300 + " " + "GPB" + " result: " + result);
+    //endregion
 
-                        result = user.getWalletClient().withdraw(userIdString, 100, gbp);
+    //region PUBLIC METHODS
 
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName
-                                + " Withdraw " + 100 + " " + gbp + " result: " + result);
+    /**
+     * Simple method to create a specific number of tasks/Rounds in random order.
+     * @param amount
+     * @param user
+     * @return A randomly created list of rounds for the users to execute.
+     */
+    public static List<Round> getRoundsRandomly(int amount, final User user) {
+        List<Round> tmpRounds = new ArrayList<>();
 
-                        result = user.getWalletClient().withdraw(userIdString, 100, gbp);
+        for (int i = 0; i < amount; i++) {
+            tmpRounds.add(instantiateRound(randomNumber(), user));
+        }
 
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName
-                                + " Withdraw " + 100 + " " + gbp + " result: " + result);
+        return Collections.unmodifiableList(tmpRounds);
+    }
 
-                        result = user.getWalletClient().withdraw(userIdString, 100, gbp);
+    //endregion
 
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName
-                                + " Withdraw " + 100 + " " + gbp + " result: " + result);
+    //region INNER CLASSES
 
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName + " finished.");
+    /** Single request of a round. */
+    private static class Step {
 
-                        return true;
-                    } catch (Exception e) {
-                        user.logError("User: " + userIdString + " | " + threadName + " | " + roundName + " An exception was thrown: "
-                                + e.getMessage() + " | " + e.getStackTrace()[0].toString());
-                        return false;
-                    }
-                };
-                break;
-            case 2:
-                // Round C.
-                callable = () -> {
-                    String roundName = "Round C";
-                    String threadName = Thread.currentThread().getName();
+        private enum Kind { DEPOSIT, WITHDRAW, BALANCE }
 
-                    try {
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName + " starting.");
+        private final Kind kind;
 
-                        Map<String, Long> map = user.getWalletClient().getBalance(userIdString);
+        private final int amount;
 
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName
-                                + " balance - "
-                                + (map.containsKey(usd) ? usd + " : " + map.get(usd).intValue() + " - " : " - ")
-                                + (map.containsKey(eur) ? eur + " : " + map.get(eur).intValue() + " - " : " - ")
-                                + (map.containsKey(gbp) ? gbp + " : " + map.get(gbp).intValue() : ""));
+        private final String currency;
 
-                        String result = user.getWalletClient().deposit(userIdString, 100, usd);
+        private Step(Kind kind, int amount, String currency) {
+            this.kind = kind;
+            this.amount = amount;
+            this.currency = currency;
+        }
 
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName
-                                + " Deposit " + 100 + " " + usd + " result: " + result);
+        private static Step deposit(int amount, String currency) {
+            return new Step(Kind.DEPOSIT, amount, currency);
+        }
 
-                        result = user.getWalletClient().deposit(userIdString, 100, usd);
+        private static Step withdraw(int amount, String currency) {
+            return new Step(Kind.WITHDRAW, amount, currency);
+        }
 
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName
-                                + " Deposit " + 100 + " " + usd + " result: " + result);
+        private static Step balance() {
+            return new Step(Kind.BALANCE, 0, null);
+        }
 
-                        result = user.getWalletClient().withdraw(userIdString, 100, usd);
+        private String describe(String result) {
+            return (kind == Kind.DEPOSIT ? " Deposit " : " Withdraw ") + amount + " " + currency + " result: " + result;
+        }
 
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName
-                                + " Withdraw " + 100 + " " + usd + " result: " + result);
+        private static String describe(Map<String, Long> map) {
+            return " balance - "
+                    + (map.containsKey(USD) ? USD + " : " + map.get(USD).intValue() + " - " : " - ")
+                    + (map.containsKey(EUR) ? EUR + " : " + map.get(EUR).intValue() + " - " : " - ")
+                    + (map.containsKey(GBP) ? GBP + " : " + map.get(GBP).intValue() : "");
+        }
+    }
 
-                        result = user.getWalletClient().deposit(userIdString, 100, usd);
+    /**
+     * Round of requests of a user, sent one after the other, each one once the previous one was answered.
+     */
+    public static class Round implements Callable<Boolean> {
 
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName
-                                + " Deposit " + 100 + " " + usd + " result: " + result);
+        private final String name;
 
-                        map = user.getWalletClient().getBalance(userIdString);
+        private final List<Step> steps;
 
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName
-                                + " balance - "
-                                + (map.containsKey(usd) ? usd + " : " + map.get(usd).intValue() + " - " : " - ")
-                                + (map.containsKey(eur) ? eur + " : " + map.get(eur).intValue() + " - " : " - ")
-                                + (map.containsKey(gbp) ? gbp + " : " + map.get(gbp).intValue() : ""));
+        private final User user;
 
-                        result = user.getWalletClient().withdraw(userIdString, 200, usd);
+        private final String userIdString;
 
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName
-                                + " Withdraw " + 200 + " " + usd + " result: " + result);
+        private Round(String name, List<Step> steps, User user) {
+            this.name = name;
+            this.steps = steps;
+            this.user = user;
+            this.userIdString = String.valueOf(user.getId());
+        }
 
-                        map = user.getWalletClient().getBalance(userIdString);
+        private void log(String message) {
+            user.logDebug("User: " + userIdString + " | " + Thread.currentThread().getName() + " | " + name + message);
+        }
 
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName
-                                + " balance - "
-                                + (map.containsKey(usd) ? usd + " : " + map.get(usd).intValue() + " - " : " - ")
-                                + (map.containsKey(eur) ? eur + " : " + map.get(eur).intValue() + " - " : " - ")
-                                + (map.containsKey(gbp) ? gbp + " : " + map.get(gbp).intValue() : ""));
+        private void logFailure(Throwable e) {
+            user.logError("User: " + userIdString + " | " + Thread.currentThread().getName() + " | " + name
+                    + " An exception was thrown: " + e.getMessage()
+                    + (e.getStackTrace().length > 0 ? " | " + e.getStackTrace()[0].toString() : ""));
+        }
 
-                        user.logDebug("User: " + userIdString + " | " + threadName + " | " + roundName + " finished.");
+        /**
+         * Sends the request of the step without waiting for its response.
+         * @param step
+         * @return Future completed once the response was logged.
+         */
+        private CompletableFuture<Void> sendAsync(Step step) {
+            switch (step.kind) {
+                case DEPOSIT:
+                    return user.getWalletClient().depositAsync(userIdString, step.amount, step.currency)
+                            .thenAccept(result -> log(step.describe(result)));
+                case WITHDRAW:
+                    return user.getWalletClient().withdrawAsync(userIdString, step.amount, step.currency)
+                            .thenAccept(result -> log(step.describe(result)));
+                default:
+                    return user.getWalletClient().getBalanceAsync(userIdString)
+                            .thenAccept(map -> log(Step.describe(map)));
+            }
+        }
 
-                        return true;
-                    } catch (Exception e) {
-                        user.logError("User: " + userIdString + " | " + threadName + " | " + roundName + " An exception was thrown: "
-                                + e.getMessage() + " | " + e.getStackTrace()[0].toString());
-                        return false;
+        /**
+         * Runs the round blocking the calling thread until the last response.
+         * @return true if all the requests were sent, false if an exception was thrown.
+         */
+        @Override
+        public Boolean call() {
+            try {
+                log(" starting.");
+
+                for (Step step : steps) {
+                    switch (step.kind) {
+                        case DEPOSIT:
+                            log(step.describe(user.getWalletClient().deposit(userIdString, step.amount, step.currency)));
+                            break;
+                        case WITHDRAW:
+                            log(step.describe(user.getWalletClient().withdraw(userIdString, step.amount, step.currency)));
+                            break;
+                        default:
+                            log(Step.describe(user.getWalletClient().getBalance(userIdString)));
+                            break;
                     }
-                };
-                break;
-            default:
-                callable = () -> false;
-                break;
+                }
+
+                log(" finished.");
+                return true;
+            } catch (Exception e) {
+                logFailure(e);
+                return false;
+            }
         }
 
-        return callable;
-    }
-
-    /** Simple random number generator. */
-    private static int randomNumber() {
-        int min = 0;
-        int max = 2;
-        return ThreadLocalRandom.current().nextInt(min, max + 1);
-    }
-
-    //endregion
-
-    //region PUBLIC METHODS
-
-    /**
-     * Simple method to create a specific number of tasks/Rounds in random order.
-     * @param amount
-     * @param user
-     * @return A randomly created list of rounds for the users to execute.
-     */
-    public static List<Callable<Boolean>> getRoundsRandomly(int amount, final User user) {
-        List<Callable<Boolean>> tmpRounds = new ArrayList<>();
-
-        for (int i = 0; i < amount; i++) {
-            tmpRounds.add(instantiateRound(randomNumber(), user));
+        /**
+         * Runs the round without blocking any thread, each request is sent from the given executor once the
+         * previous one was answered, so a few threads can keep the rounds of many users going.
+         * @param executor Executor sending the requests, response callbacks of gRPC are not held by the round.
+         * @return Future completed with true if all the requests were sent, false if an exception was thrown.
+         */
+        public CompletableFuture<Boolean> callAsync(Executor executor) {
+            CompletableFuture<Void> chain = CompletableFuture.runAsync(() -> log(" starting."), executor);
+            for (Step step : steps) {
+                chain = chain.thenComposeAsync(ignored -> sendAsync(step), executor);
+            }
+
+            return chain.handle((ignored, error) -> {
+                if (error != null) {
+                    logFailure(error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error);
+                    return false;
+                }
+                log(" finished.");
+                return true;
+            });
         }
-
-        return Collections.unmodifiableList(tmpRounds);
     }
 
     //endregion
@@ -9,9 +9,16 @@ import com.sergio.wallet.client.grpc.GrpcWalletClient;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Simple class to emulate the idea of a user that will perform tasks/requests to the wallet-server.
+ *
+ * Each of its threads runs its rounds one after the other. By default every thread is a real single thread
+ * executor of its own, blocked while waiting for each response. With a shared scheduler the threads are only
+ * logical: each round is chained on the non-blocking requests, its steps run on the shared pool as the responses
+ * arrive and the next round of the same thread starts once the previous one finished, so the rounds keep their
+ * order without a platform thread per user thread and without blocking the pool.
  */
 public class User {
 
@@ -25,11 +32,19 @@ public class User {
      */
     private final List<ExecutorService> threadPools;
 
+    /** Pool shared by all the users running their rounds, null if the user has its own thread pools. */
+    private final ExecutorService sharedScheduler;
+
+    private final int threads;
+
     /** Will hold the lists of callable tasks for each thread pool to execute. */
-    private Map<Integer, List<Callable<Boolean>>> callableTasksMap;
+    private Map<Integer, List<RoundsFactory.Round>> callableTasksMap;
+
+    /** Rounds submitted and not finished yet, the last one to finish completes the user. */
+    private final AtomicInteger pendingRounds = new AtomicInteger();
 
-    /** Will hold the lists of future tasks for each thread pool to validate for completion. */
-    private ConcurrentHashMap<Integer, List<Future<Boolean>>> futureTasksMap;
+    /** Completed once all the rounds of the user finished, so no one has to poll the user for it. */
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
 
     private final int id;
 
@@ -48,14 +63,31 @@ public class User {
      * @param roundsPerThread
      */
     public User(int id, int maxAllowedThreads, int roundsPerThread, GrpcWalletClient walletClient) {
+        this(id, maxAllowedThreads, roundsPerThread, walletClient, null);
+    }
+
+    /**
+     * Same as above, but the threads of the user are logical threads running their rounds on the shared scheduler.
+     * @param id
+     * @param maxAllowedThreads
+     * @param roundsPerThread
+     * @param walletClient
+     * @param sharedScheduler Pool shared by all the users, if null the user creates its own thread pools.
+     */
+    public User(int id, int maxAllowedThreads, int roundsPerThread, GrpcWalletClient walletClient,
+                ExecutorService sharedScheduler) {
         this.id = id;
 
         this.walletClient = walletClient;
 
+        this.sharedScheduler = sharedScheduler;
+
+        this.threads = maxAllowedThreads;
+
         // Define and execute some sort of user simulation.
         List<ExecutorService> tmpExecutors = new ArrayList<>();
 
-        for (int i = 1; i <= maxAllowedThreads; i++) {
+        for (int i = 1; sharedScheduler == null && i <= maxAllowedThreads; i++) {
             // Create a new single thread Executor so that only 1 thread is processing the tasks in the queue.
             tmpExecutors.add(Executors.newSingleThreadExecutor(
                     new CustomizableThreadFactory("user-" + this.getId() + "-pool-" + i + "-thread-")));
@@ -64,8 +96,6 @@ public class User {
         this.threadPools = Collections.unmodifiableList(tmpExecutors);
 
         pickRounds(roundsPerThread);
-
-        this.futureTasksMap = new ConcurrentHashMap<>();
     }
 
     //endregion
@@ -80,11 +110,55 @@ public class User {
         this.callableTasksMap = new HashMap<>();
 
         // Use the rounds factory class to pick from the available rounds at random.
-        for (int i = 0; i < this.threadPools.size(); i++) {
+        for (int i = 0; i < this.threads; i++) {
             this.callableTasksMap.put(i, RoundsFactory.getRoundsRandomly(roundsPerThread, this));
         }
     }
 
+    /**
+     * Runs a round, signalling its end whatever the outcome.
+     * @param task
+     * @param onRoundFinished
+     */
+    private void runRound(Callable<Boolean> task, Runnable onRoundFinished) {
+        try {
+            task.call();
+        } catch (Exception e) {
+            logError("User: " + this.getId() + " | error thrown while running a round | " + e.getMessage());
+        } finally {
+            roundFinished(onRoundFinished);
+        }
+    }
+
+    private void roundFinished(Runnable onRoundFinished) {
+        onRoundFinished.run();
+        if (pendingRounds.decrementAndGet() == 0) {
+            completion.complete(null);
+        }
+    }
+
+    /**
+     * Starts the round of a logical thread on the shared scheduler without blocking it, once finished the next
+     * one of the same thread is started, so the rounds keep their order and other threads run in between.
+     * @param rounds Rounds of the logical thread.
+     * @param index Round to run.
+     * @param onRoundFinished
+     */
+    private void runOnScheduler(List<RoundsFactory.Round> rounds, int index, Runnable onRoundFinished) {
+        try {
+            rounds.get(index).callAsync(this.sharedScheduler).whenComplete((result, error) -> {
+                roundFinished(onRoundFinished);
+                if (index + 1 < rounds.size()) {
+                    runOnScheduler(rounds, index + 1, onRoundFinished);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The scheduler is shutting down, the remaining rounds will never run.
+            logError("User: " + this.getId() + " | rounds rejected by the shared scheduler | " + e.getMessage());
+            completion.completeExceptionally(e);
+        }
+    }
+
     //endregion
 
     //region PUBLIC METHODS
@@ -123,42 +197,61 @@ public class User {
 
     /**
      * Simple method to validate if the user is running any tasks.
-     * @return false if it hasn't started yet or there are any tasks not finished yet, true otherwise.
+     * @return true if started and there are any tasks not finished yet, false otherwise.
      */
     public boolean isRunningTasks() {
-        // We want to quickly report that there are tasks still running.
-        // Object boolean as we will receive null when all tasks are done.
-        Boolean anyPendingTask = this.futureTasksMap.values().stream().anyMatch(futures ->
-                    futures.stream().anyMatch(future -> !future.isDone())
-                );
+        return pendingRounds.get() > 0;
+    }
 
-        return anyPendingTask == null ? false : anyPendingTask.booleanValue();
+    /**
+     * Future completed once all the rounds of the user finished, or exceptionally if they couldn't be started.
+     * @return
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return this.completion;
     }
 
     /**
      * Start doing the requests to the wallet-server.
+     * @param onRoundFinished Called by the user threads every time one of their rounds finishes.
      */
-    public void executeTasks() {
+    public void executeTasks(Runnable onRoundFinished) {
         int idx = 0;
 
+        // Counted up front, so the user can't be completed while its rounds are still being submitted.
+        pendingRounds.set(this.callableTasksMap.values().stream().mapToInt(List::size).sum());
+        if (pendingRounds.get() == 0) {
+            completion.complete(null);
+            return;
+        }
+
         try {
+            if (this.sharedScheduler != null) {
+                // Only the first round of each logical thread, each round submits the next one when finished.
+                for (List<RoundsFactory.Round> rounds : this.callableTasksMap.values()) {
+                    if (!rounds.isEmpty()) {
+                        runOnScheduler(rounds, 0, onRoundFinished);
+                    }
+                }
+            }
+
             for (ExecutorService executor : this.threadPools) {
-                List<Future<Boolean>> futures = new ArrayList<>();
-                for (Callable<Boolean> task : this.callableTasksMap.get(idx)) {
-                    futures.add(executor.submit(task));
+                for (RoundsFactory.Round task : this.callableTasksMap.get(idx)) {
+                    executor.execute(() -> runRound(task, onRoundFinished));
                 }
-                this.futureTasksMap.put(idx, futures);
                 idx++;
             }
 
             logInfo("User: " + this.getId() + " started execution on all threads.");
         } catch (Exception e) {
             logError("User: " + this.getId() + " | error thrown while starting execution | " + e.getMessage());
+            completion.completeExceptionally(e);
         }
     }
 
     /**
-     * Make sure to shutdown all thread pools/executors used by this user.
+     * Make sure to shutdown all thread pools/executors used by this user, the shared scheduler is not owned
+     * by the user so it's left running.
      */
     public void shutdownUser() {
         this.threadPools.parallelStream().forEach(executor -> {
@@ -0,0 +1,121 @@
+package com.sergio.wallet.client.test;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sergio.wallet.client.simulation.LatencyReport;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertThat;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+/**
+ * Unit tests for the LatencyReport class, validating the percentiles, outcomes and timeline it reports for
+ * known latencies. Latencies under 2048 microseconds are kept exactly by the histograms.
+ */
+public class LatencyReportTests {
+
+    //region VARIABLES
+
+    private final Logger LOGGER = LoggerFactory.getLogger(LatencyReportTests.class);
+
+    private final static String DEPOSIT = "deposit";
+
+    private final static String WITHDRAW = "withdraw";
+
+    private final static String BALANCE = "balance";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private LatencyReport report;
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    private static long micros(long micros) {
+        return micros * 1000;
+    }
+
+    //endregion
+
+    //region TEST METHODS
+
+    /**
+     * Two intervals: deposits of 1 to 500 us in the first one, deposits of 501 to 1000 us (the last 10 failed)
+     * and a rejected withdraw of 2000 us in the second one, no balances at all.
+     */
+    @Before
+    public void recordLatencies() {
+        report = new LatencyReport(DEPOSIT, WITHDRAW, BALANCE);
+
+        for (long i = 1; i <= 500; i++) {
+            report.recordSuccessful(DEPOSIT, micros(i));
+        }
+        report.nextInterval();
+
+        for (long i = 501; i <= 1000; i++) {
+            if (i > 990) {
+                report.recordFailed(DEPOSIT, micros(i));
+            } else {
+                report.recordSuccessful(DEPOSIT, micros(i));
+            }
+        }
+        report.recordRejected(WITHDRAW, micros(2000));
+        report.nextInterval();
+    }
+
+    @Test
+    public void when_Latencies_Recorded_Summary_Has_Percentiles_And_Outcomes() {
+        LOGGER.info("when_Latencies_Recorded_Summary_Has_Percentiles_And_Outcomes");
+
+        assertThat(report.getSummary(DEPOSIT), is(equalTo("Summary | deposit | count: 1000 "
+                + "(successful: 990, rejected: 0, failed: 10) | p50: 0.500 ms | p99: 0.990 ms | p999: 0.999 ms "
+                + "| max: 1.000 ms")));
+        assertThat(report.getSummary(WITHDRAW), is(equalTo("Summary | withdraw | count: 1 "
+                + "(successful: 0, rejected: 1, failed: 0) | p50: 2.000 ms | p99: 2.000 ms | p999: 2.000 ms "
+                + "| max: 2.000 ms")));
+        assertThat(report.getSummary(BALANCE), is(equalTo("Summary | balance | count: 0 "
+                + "(successful: 0, rejected: 0, failed: 0) | p50: 0.000 ms | p99: 0.000 ms | p999: 0.000 ms "
+                + "| max: 0.000 ms")));
+    }
+
+    @Test
+    public void when_Report_Written_Json_Has_Settings_Summary_And_Timeline() throws Exception {
+        LOGGER.info("when_Report_Written_Json_Has_Settings_Summary_And_Timeline");
+
+        Path file = temporaryFolder.getRoot().toPath().resolve("load-report.json");
+        report.writeJson(file, Collections.singletonMap("targetRate", 100.0));
+
+        String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        LOGGER.info(json);
+
+        assertThat(json, startsWith("{\n  \"targetRate\": 100.0,\n"));
+        assertThat(json, containsString("\"deposit\": {\"count\": 1000, \"successful\": 990, \"rejected\": 0, "
+                + "\"failed\": 10, \"meanMs\": "));
+        assertThat(json, containsString("\"p50Ms\": 0.500, \"p99Ms\": 0.990, \"p999Ms\": 0.999, \"maxMs\": 1.000}"));
+        assertThat(json, containsString("\"withdraw\": {\"count\": 1, \"successful\": 0, \"rejected\": 1, "
+                + "\"failed\": 0, \"meanMs\": 2.000, \"p50Ms\": 2.000, \"p99Ms\": 2.000, \"p999Ms\": 2.000, "
+                + "\"maxMs\": 2.000}"));
+
+        // Each interval only has its own latencies, the p99 of 1..500 us and of 501..1000 us.
+        assertThat(json, containsString("\"deposit\": {\"count\": 500, \"p99Ms\": 0.495}, "
+                + "\"withdraw\": {\"count\": 0, \"p99Ms\": 0.000}"));
+        assertThat(json, containsString("\"deposit\": {\"count\": 500, \"p99Ms\": 0.995}, "
+                + "\"withdraw\": {\"count\": 1, \"p99Ms\": 2.000}"));
+        assertThat(json, endsWith("}\n  ]\n}\n"));
+    }
+
+    //endregion
+
+}
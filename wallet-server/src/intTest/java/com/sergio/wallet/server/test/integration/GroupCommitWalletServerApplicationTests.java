@@ -0,0 +1,11 @@
+package com.sergio.wallet.server.test.integration;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Runs all the main app's integration tests with the group commit write mode enabled, deposits and
+ * withdraws go through the group commit writer and must behave exactly as when committed one by one.
+ */
+@TestPropertySource(properties = "wallet.group-commit.enabled=true")
+public class GroupCommitWalletServerApplicationTests extends WalletServerApplicationTests {
+}
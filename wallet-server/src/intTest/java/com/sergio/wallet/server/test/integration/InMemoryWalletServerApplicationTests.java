@@ -0,0 +1,11 @@
+package com.sergio.wallet.server.test.integration;
+
+import org.springframework.test.context.ActiveProfiles;
+
+/**
+ * Runs all the main app's integration tests with the in-memory storage backend, no database is used at all
+ * and everything must behave exactly as with the DB backend.
+ */
+@ActiveProfiles("memory")
+public class InMemoryWalletServerApplicationTests extends WalletServerApplicationTests {
+}
@@ -0,0 +1,11 @@
+package com.sergio.wallet.server.test.integration;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Runs all the main app's integration tests with the plain JDBC storage backend, over the same tables as
+ * the JPA backend and everything must behave exactly the same.
+ */
+@TestPropertySource(properties = "wallet.store=jdbc")
+public class JdbcWalletServerApplicationTests extends WalletServerApplicationTests {
+}
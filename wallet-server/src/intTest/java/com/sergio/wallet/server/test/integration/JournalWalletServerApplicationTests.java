@@ -0,0 +1,13 @@
+package com.sergio.wallet.server.test.integration;
+
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Runs all the main app's integration tests with the journal storage backend, no database is used at all
+ * and everything must behave exactly as with the DB backend. Each run starts with an empty journal.
+ */
+@ActiveProfiles("journal")
+@TestPropertySource(properties = "wallet.journal.directory=${java.io.tmpdir}/wallet-journal-${random.uuid}")
+public class JournalWalletServerApplicationTests extends WalletServerApplicationTests {
+}
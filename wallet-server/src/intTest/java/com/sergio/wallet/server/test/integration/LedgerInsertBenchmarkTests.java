@@ -0,0 +1,245 @@
+package com.sergio.wallet.server.test.integration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sergio.wallet.server.data.entity.Currency;
+import com.sergio.wallet.server.service.TransactionOperation;
+import com.sergio.wallet.server.service.TransactionService;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+import static org.junit.Assert.assertThat;
+import static org.hamcrest.CoreMatchers.*;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for the cost of writing ledger rows, comparing the inserts done with database generated ids
+ * (IDENTITY, one statement sent per row as the id is needed right away) against pre-assigned ids from a
+ * pooled generator (rows sent in JDBC batches).
+ *
+ * Both strategies run over scratch tables with the same columns as the Transaction table, the cost per
+ * insert is written to the log, absolute numbers depend on the database used.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@TestPropertySource(locations = "classpath:integration-test.properties")
+@DirtiesContext
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class LedgerInsertBenchmarkTests {
+
+    //region VARIABLES
+
+    private final Logger LOGGER = LoggerFactory.getLogger(LedgerInsertBenchmarkTests.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private TransactionService transactionService;
+
+    //region TEST VARIABLES
+
+    private final int warmupRows = 1000;
+
+    private final int measuredRows = 10000;
+
+    // Same values as the configured hibernate batch size and generator allocation size.
+    private final int batchSize = 50;
+
+    private final int allocationSize = 100;
+
+    private final Currency currency = Currency.USD;
+
+    //endregion
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    /**
+     * Inserts the rows one statement at a time, retrieving the id generated by the DB for each one,
+     * the same as Hibernate does for IDENTITY ids.
+     * @return Elapsed nanoseconds.
+     */
+    private long insertWithIdentity(final int rows) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+
+        long start = System.nanoTime();
+        transactionTemplate.execute(status -> {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            for (int i = 0; i < rows; i++) {
+                final int row = i;
+                KeyHolder keyHolder = new GeneratedKeyHolder();
+                jdbcTemplate.update(connection -> {
+                    PreparedStatement statement = connection.prepareStatement("INSERT INTO bench_identity_transaction "
+                            + "(user_id, deposit, withdraw, currency, date) VALUES (?, ?, ?, ?, ?)",
+                            Statement.RETURN_GENERATED_KEYS);
+                    statement.setString(1, "bench-" + row);
+                    statement.setLong(2, 100);
+                    statement.setLong(3, 0);
+                    statement.setByte(4, currency.getCode());
+                    statement.setTimestamp(5, now);
+                    return statement;
+                }, keyHolder);
+            }
+            return null;
+        });
+
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Inserts the rows in JDBC batches with ids reserved in blocks from a generator table, the same as
+     * Hibernate does for pooled table ids.
+     * @return Elapsed nanoseconds.
+     */
+    private long insertWithPooledIds(final int rows) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+
+        long start = System.nanoTime();
+        transactionTemplate.execute(status -> {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            List<Object[]> batch = new ArrayList<>(batchSize);
+            long nextId = 0;
+            long maxId = 0;
+
+            for (int i = 0; i < rows; i++) {
+                if (nextId == maxId) {
+                    jdbcTemplate.update("UPDATE bench_id_generator SET next_val = next_val + ?", allocationSize);
+                    maxId = jdbcTemplate.queryForObject("SELECT next_val FROM bench_id_generator", Long.class);
+                    nextId = maxId - allocationSize;
+                }
+
+                batch.add(new Object[] {nextId++, "bench-" + i, 100L, 0L, currency.getCode(), now});
+                if (batch.size() == batchSize || i == rows - 1) {
+                    jdbcTemplate.batchUpdate("INSERT INTO bench_pooled_transaction "
+                            + "(id, user_id, deposit, withdraw, currency, date) VALUES (?, ?, ?, ?, ?, ?)", batch);
+                    batch.clear();
+                }
+            }
+            return null;
+        });
+
+        return System.nanoTime() - start;
+    }
+
+    private double microsPerRow(long elapsedNanos, int rows) {
+        return (double) TimeUnit.NANOSECONDS.toMicros(elapsedNanos) / rows;
+    }
+
+    //endregion
+
+    //region TEST METHODS
+
+    @Test
+    public void test_01_identity_inserts() {
+        LOGGER.info("test_01_identity_inserts");
+
+        jdbcTemplate.execute("CREATE TABLE bench_identity_transaction (id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                + "user_id VARCHAR(64), deposit BIGINT, withdraw BIGINT, currency TINYINT, date TIMESTAMP)");
+        try {
+            insertWithIdentity(warmupRows);
+            long elapsed = insertWithIdentity(measuredRows);
+
+            LOGGER.info("IDENTITY ids, one statement per row | " + measuredRows + " rows | "
+                    + microsPerRow(elapsed, measuredRows) + " us per insert");
+
+            assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM bench_identity_transaction", Long.class),
+                    is(equalTo((long) warmupRows + measuredRows)));
+        } finally {
+            jdbcTemplate.execute("DROP TABLE bench_identity_transaction");
+        }
+    }
+
+    @Test
+    public void test_02_pooled_batched_inserts() {
+        LOGGER.info("test_02_pooled_batched_inserts");
+
+        jdbcTemplate.execute("CREATE TABLE bench_pooled_transaction (id BIGINT NOT NULL PRIMARY KEY, "
+                + "user_id VARCHAR(64), deposit BIGINT, withdraw BIGINT, currency TINYINT, date TIMESTAMP)");
+        jdbcTemplate.execute("CREATE TABLE bench_id_generator (next_val BIGINT)");
+        jdbcTemplate.update("INSERT INTO bench_id_generator (next_val) VALUES (1)");
+        try {
+            insertWithPooledIds(warmupRows);
+            long elapsed = insertWithPooledIds(measuredRows);
+
+            LOGGER.info("Pooled ids, batches of " + batchSize + " rows | " + measuredRows + " rows | "
+                    + microsPerRow(elapsed, measuredRows) + " us per insert");
+
+            assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM bench_pooled_transaction", Long.class),
+                    is(equalTo((long) warmupRows + measuredRows)));
+        } finally {
+            jdbcTemplate.execute("DROP TABLE bench_pooled_transaction");
+            jdbcTemplate.execute("DROP TABLE bench_id_generator");
+        }
+    }
+
+    @Test
+    public void test_03_batch_sends_ledger_inserts_in_jdbc_batches() {
+        LOGGER.info("test_03_batch_sends_ledger_inserts_in_jdbc_batches");
+
+        final int operations = 500;
+
+        List<TransactionOperation> warmupDeposits = new ArrayList<>(operations);
+        List<TransactionOperation> deposits = new ArrayList<>(operations);
+        for (int i = 0; i < operations; i++) {
+            warmupDeposits.add(TransactionOperation.deposit("bench-warmup-" + i, 100, currency));
+            deposits.add(TransactionOperation.deposit("bench-" + i, 100, currency));
+        }
+
+        transactionService.executeBatch(warmupDeposits);
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+        try {
+            long start = System.nanoTime();
+            transactionService.executeBatch(deposits);
+            long elapsed = System.nanoTime() - start;
+
+            LOGGER.info("executeBatch | " + operations + " deposits | " + microsPerRow(elapsed, operations)
+                    + " us per operation | " + statistics.getPrepareStatementCount() + " statements prepared");
+
+            assertThat(statistics.getEntityInsertCount(), is(equalTo((long) operations)));
+
+            // One statement per balance upsert, but the ledger inserts share a statement per JDBC batch,
+            // one statement per insert would need at least twice the operations.
+            assertThat(statistics.getPrepareStatementCount() < operations + operations / 2, is(true));
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+    }
+
+    //endregion
+
+}
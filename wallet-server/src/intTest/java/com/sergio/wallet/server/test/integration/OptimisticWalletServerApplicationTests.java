@@ -0,0 +1,13 @@
+package com.sergio.wallet.server.test.integration;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Runs all the main app's integration tests with the optimistic concurrency mode, no account locks are
+ * held and everything must behave exactly the same. The concurrent tests put many writers on the same
+ * account on purpose, so conflicts are retried many more times than the default allows.
+ */
+@TestPropertySource(properties = {"wallet.concurrency-mode=optimistic", "wallet.retry.max-attempts=100",
+        "wallet.retry.budget-max-tokens=100000"})
+public class OptimisticWalletServerApplicationTests extends WalletServerApplicationTests {
+}
@@ -0,0 +1,104 @@
+package com.sergio.wallet.server.test.integration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sergio.wallet.server.data.entity.Currency;
+import com.sergio.wallet.server.data.entity.Transaction;
+import com.sergio.wallet.server.service.TransactionArchiver;
+import com.sergio.wallet.server.service.TransactionService;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertThat;
+import static org.hamcrest.CoreMatchers.*;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Integration tests for the TransactionArchiver, transactions of closed periods are moved to the archive
+ * table, the ones still referenced by a balance stay, and the history keeps returning all of them.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@TestPropertySource(locations = "classpath:integration-test.properties")
+@DirtiesContext
+public class TransactionArchiverTests {
+
+    //region VARIABLES
+
+    private final Logger LOGGER = LoggerFactory.getLogger(TransactionArchiverTests.class);
+
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired
+    private TransactionArchiver transactionArchiver;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final Currency currency = Currency.USD;
+
+    //endregion
+
+    //region TEST METHODS
+
+    @Test
+    public void when_Closed_Periods_Are_Archived() {
+        LOGGER.info("when_Closed_Periods_Are_Archived");
+
+        String userId = "archive-user";
+        for (int i = 0; i < 5; i++) {
+            transactionService.doDeposit(userId, 100, currency);
+        }
+        transactionService.doWithdraw(userId, 50, currency);
+
+        // Move all the user's transactions to a closed period.
+        jdbcTemplate.update("UPDATE transaction SET DATE = DATE - INTERVAL 90 DAY WHERE USER_ID = ?", userId);
+
+        transactionArchiver.archiveClosedPeriods();
+
+        // The withdraw is still the last transaction of the balance, so it's kept in the hot table.
+        Long lastId = jdbcTemplate.queryForObject("SELECT LAST_TRANSACTION_ID FROM balance WHERE USER_ID = ?",
+                Long.class, userId);
+        List<Long> hotIds = jdbcTemplate.queryForList("SELECT ID FROM transaction WHERE USER_ID = ?", Long.class,
+                userId);
+        assertThat(hotIds, is(equalTo(Collections.singletonList(lastId))));
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM transaction_archive WHERE USER_ID = ?",
+                Integer.class, userId), is(equalTo(5)));
+
+        // The history spans both tables, in order, and pages continue across them.
+        List<Transaction> history = transactionService.getTransactions(userId, null, null, null, 0, 10);
+        assertThat(history.size(), is(equalTo(6)));
+        assertThat(history.get(5).getId(), is(equalTo(lastId)));
+        assertThat(history.get(5).getWithdraw(), is(equalTo(50L)));
+
+        List<Transaction> secondPage = transactionService.getTransactions(userId, currency, null, null,
+                history.get(3).getId(), 10);
+        assertThat(secondPage.size(), is(equalTo(2)));
+
+        assertThat(transactionService.getBalance(userId).get(currency), is(equalTo(450L)));
+
+        // Once the balance moves on, the old withdraw is archived on the next run.
+        transactionService.doDeposit(userId, 100, currency);
+        jdbcTemplate.update("UPDATE transaction SET DATE = DATE - INTERVAL 90 DAY WHERE ID = ?", lastId);
+        transactionArchiver.archiveClosedPeriods();
+
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM transaction WHERE USER_ID = ?",
+                Integer.class, userId), is(equalTo(1)));
+        assertThat(transactionService.getTransactions(userId, null, null, null, 0, 10).size(), is(equalTo(7)));
+    }
+
+    //endregion
+
+}
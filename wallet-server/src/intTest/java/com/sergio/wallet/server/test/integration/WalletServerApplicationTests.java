@@ -5,9 +5,15 @@ import org.slf4j.LoggerFactory;
 
 import org.sergio.wallet.grpc.*;
 import org.sergio.wallet.grpc.WalletServiceGrpc.WalletServiceBlockingStub;
+import org.sergio.wallet.grpc.WalletServiceGrpc.WalletServiceStub;
+import com.sergio.wallet.server.data.entity.Currency;
 import com.sergio.wallet.server.grpc.GrpcWalletService;
 import com.sergio.wallet.server.service.TransactionService;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
 import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.stub.StreamObserver;
 import io.grpc.inprocess.InProcessServerBuilder;
 import io.grpc.testing.GrpcCleanupRule;
 
@@ -23,16 +29,33 @@ import static org.hamcrest.CoreMatchers.*;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Main app's integration tests, needed for validating that the grpc server, transaction service
  * and database communicate and work appropriately.
+ *
+ * Subclasses run the same tests with other configurations, each class gets its own context and closes it
+ * when done (inherited DirtiesContext), so no two contexts ever share the database schema, whatever the
+ * order the classes run in. All the integration test classes share the integration-test properties.
  */
 @RunWith(SpringRunner.class)
 @SpringBootTest
+@TestPropertySource(locations = "classpath:integration-test.properties")
+@DirtiesContext
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class WalletServerApplicationTests {
 
@@ -46,6 +69,9 @@ public class WalletServerApplicationTests {
     // Simple grpc blocking stub as client side for testing.
     private static WalletServiceBlockingStub testClientBlockingStub;
 
+    // Simple grpc async stub as client side for testing streaming calls.
+    private static WalletServiceStub testClientStub;
+
     @Autowired
     private GrpcWalletService grpcWalletService;
 
@@ -59,9 +85,14 @@ public class WalletServerApplicationTests {
 
     private final long withdrawAmount = 200;
 
-    private final String currencyUsd = TransactionService.VALID_CURRENCIES.get(0);
+    private final String currencyUsd = Currency.USD.name();
+
+    private final String currencyEur = Currency.EUR.name();
+
+    //endregion
 
-    private final String currencyEur = TransactionService.VALID_CURRENCIES.get(1);
+    // Manages automatic graceful shutdown for the registered servers and channels at the end of test.
+    private static GrpcCleanupRule grpcCleanup;
 
     //endregion
 
@@ -69,11 +100,16 @@ public class WalletServerApplicationTests {
      * This rule manages automatic graceful shutdown for the registered servers and channels at the
      * end of test.
      * No need for @After or @AfterClass annotated methods to clean up started servers.
+     *
+     * Subclasses run the same tests with different server configurations, each test class needs its
+     * own rule, gRPC server and client as the ones from a previous class are already shut down.
      */
     @ClassRule
-    public final static GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
-
-    //endregion
+    public static GrpcCleanupRule grpcCleanupRule() {
+        grpcCleanup = new GrpcCleanupRule();
+        beansLoaded = false;
+        return grpcCleanup;
+    }
 
     /**
      * Method used for initializing the test grpc server and a basic grpc client for integration tests with
@@ -92,14 +128,57 @@ public class WalletServerApplicationTests {
             grpcCleanup.register(InProcessServerBuilder
                     .forName(serverName).directExecutor().addService(this.grpcWalletService).build().start());
 
-            testClientBlockingStub = WalletServiceGrpc.newBlockingStub(
-                    // Create a client channel and register for automatic graceful shutdown.
-                    grpcCleanup.register(InProcessChannelBuilder.forName(serverName).directExecutor().build()));
+            // Create a client channel and register for automatic graceful shutdown.
+            ManagedChannel channel = grpcCleanup.register(
+                    InProcessChannelBuilder.forName(serverName).directExecutor().build());
+
+            testClientBlockingStub = WalletServiceGrpc.newBlockingStub(channel);
+            testClientStub = WalletServiceGrpc.newStub(channel);
 
             beansLoaded = true;
         }
     }
 
+    //region PRIVATE METHODS
+
+    /**
+     * Opens a session, sends all the operations and waits until the server ends it.
+     * @param operations
+     * @param responses Receives the responses in the order they arrived.
+     * @return The error that ended the session, null if it ended normally.
+     */
+    private Throwable runSession(List<SessionRequest> operations, final List<SessionResponse> responses)
+            throws InterruptedException {
+        final CountDownLatch finished = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        StreamObserver<SessionRequest> requestObserver = testClientStub.session(new StreamObserver<SessionResponse>() {
+            @Override
+            public void onNext(SessionResponse response) {
+                responses.add(response);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                error.set(t);
+                finished.countDown();
+            }
+
+            @Override
+            public void onCompleted() {
+                finished.countDown();
+            }
+        });
+
+        operations.forEach(requestObserver::onNext);
+        requestObserver.onCompleted();
+
+        assertThat(finished.await(1, TimeUnit.MINUTES), is(true));
+        return error.get();
+    }
+
+    //endregion
+
     //region TEST METHODS
 
     @Test
@@ -284,6 +363,307 @@ public class WalletServerApplicationTests {
         assertThat(reply.getMessage(), is(equalTo(TransactionService.RESPONSE_INSUFFICIENT_FUNDS)));
     }
 
+    @Test
+    public void test_13_concurrent_deposits_user_2() throws Exception {
+        LOGGER.info("test_13_concurrent_deposits_user_2");
+
+        final String concurrentUserId = "2";
+        final int threads = 8;
+        final int depositsPerThread = 25;
+
+        // All threads deposit over the same 2 accounts, no balance row can be duplicated and no update lost.
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final String currency = i % 2 == 0 ? currencyUsd : currencyEur;
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < depositsPerThread; j++) {
+                    TransactionResponse reply =
+                            testClientBlockingStub.deposit(TransactionRequest.newBuilder()
+                                    .setUserId(concurrentUserId)
+                                    .setAmount(1)
+                                    .setCurrency(currency).build());
+
+                    assertThat(reply.getMessage(), is(equalTo(TransactionService.RESPONSE_SUCCESSFUL)));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        BalanceResponse reply =
+                testClientBlockingStub.getBalance(BalanceRequest.newBuilder()
+                        .setUserId(concurrentUserId)
+                        .build());
+
+        assertThat(reply.getBalancesMap().size(), is(equalTo(2)));
+
+        assertThat(reply.getBalancesMap().get(currencyUsd).intValue(), is(equalTo(threads / 2 * depositsPerThread)));
+
+        assertThat(reply.getBalancesMap().get(currencyEur).intValue(), is(equalTo(threads / 2 * depositsPerThread)));
+    }
+
+    @Test
+    public void test_14_getTransactions_user_1() {
+        LOGGER.info("test_14_getTransactions_user_1");
+
+        // Only the 4 successful transactions are kept, 2 pages of up to 3 transactions are expected.
+        Iterator<TransactionHistoryPage> pages =
+                testClientBlockingStub.getTransactions(TransactionHistoryRequest.newBuilder()
+                        .setUserId(userId)
+                        .setPageSize(3)
+                        .build());
+
+        TransactionHistoryPage firstPage = pages.next();
+        assertThat(firstPage.getTransactionsCount(), is(equalTo(3)));
+        assertThat(firstPage.getNextCursor().isEmpty(), is(false));
+        assertThat(firstPage.getTransactions(0).getDeposit(), is(equalTo(depositAmount)));
+        assertThat(firstPage.getTransactions(1).getCurrency(), is(equalTo(currencyEur)));
+
+        TransactionHistoryPage secondPage = pages.next();
+        assertThat(secondPage.getTransactionsCount(), is(equalTo(1)));
+        assertThat(secondPage.getTransactions(0).getWithdraw(), is(equalTo(withdrawAmount)));
+        assertThat(secondPage.getTransactions(0).getId() > firstPage.getTransactions(2).getId(), is(true));
+        assertThat(secondPage.getNextCursor().isEmpty(), is(true));
+
+        assertThat(pages.hasNext(), is(false));
+
+        // Resuming from the cursor of the first page should return the same last transaction.
+        Iterator<TransactionHistoryPage> resumed =
+                testClientBlockingStub.getTransactions(TransactionHistoryRequest.newBuilder()
+                        .setUserId(userId)
+                        .setCursor(firstPage.getNextCursor())
+                        .build());
+
+        assertThat(resumed.next().getTransactions(0).getId(), is(equalTo(secondPage.getTransactions(0).getId())));
+    }
+
+    @Test
+    public void test_15_getTransactions_user_1_filtered() {
+        LOGGER.info("test_15_getTransactions_user_1_filtered");
+
+        TransactionHistoryPage eurPage =
+                testClientBlockingStub.getTransactions(TransactionHistoryRequest.newBuilder()
+                        .setUserId(userId)
+                        .setCurrency(currencyEur)
+                        .build()).next();
+
+        assertThat(eurPage.getTransactionsCount(), is(equalTo(1)));
+        assertThat(eurPage.getTransactions(0).getCurrency(), is(equalTo(currencyEur)));
+
+        // Nothing can be found starting from one hour in the future.
+        TransactionHistoryPage futurePage =
+                testClientBlockingStub.getTransactions(TransactionHistoryRequest.newBuilder()
+                        .setUserId(userId)
+                        .setFromTimestamp(System.currentTimeMillis() + 3600000)
+                        .build()).next();
+
+        assertThat(futurePage.getTransactionsCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void test_16_executeBatch_user_3() {
+        LOGGER.info("test_16_executeBatch_user_3");
+
+        final String batchUserId = "3";
+
+        BatchTransactionResponse reply =
+                testClientBlockingStub.executeBatch(BatchTransactionRequest.newBuilder()
+                        .addOperations(BatchOperation.newBuilder()
+                                .setType(BatchOperation.Type.DEPOSIT)
+                                .setTransaction(TransactionRequest.newBuilder()
+                                        .setUserId(batchUserId).setAmount(depositAmount).setCurrency(currencyUsd)))
+                        .addOperations(BatchOperation.newBuilder()
+                                .setType(BatchOperation.Type.WITHDRAW)
+                                .setTransaction(TransactionRequest.newBuilder()
+                                        .setUserId(batchUserId).setAmount(withdrawAmount).setCurrency(currencyUsd)))
+                        .addOperations(BatchOperation.newBuilder()
+                                .setType(BatchOperation.Type.WITHDRAW)
+                                .setTransaction(TransactionRequest.newBuilder()
+                                        .setUserId(batchUserId).setAmount(depositAmount / 2).setCurrency(currencyUsd)))
+                        .addOperations(BatchOperation.newBuilder()
+                                .setType(BatchOperation.Type.DEPOSIT)
+                                .setTransaction(TransactionRequest.newBuilder()
+                                        .setUserId(batchUserId).setAmount(depositAmount).setCurrency("XXX")))
+                        .build());
+
+        assertThat(reply.getResultsCount(), is(equalTo(4)));
+        assertThat(reply.getResults(0).getMessage(), is(equalTo(TransactionService.RESPONSE_SUCCESSFUL)));
+        assertThat(reply.getResults(1).getMessage(), is(equalTo(TransactionService.RESPONSE_INSUFFICIENT_FUNDS)));
+        assertThat(reply.getResults(2).getMessage(), is(equalTo(TransactionService.RESPONSE_SUCCESSFUL)));
+        assertThat(reply.getResults(3).getMessage(), is(equalTo(TransactionService.RESPONSE_UNKNOWN_CURRENCY)));
+
+        BalanceResponse balance =
+                testClientBlockingStub.getBalance(BalanceRequest.newBuilder()
+                        .setUserId(batchUserId)
+                        .build());
+
+        // Only the deposit and the second withdraw are applied.
+        assertThat(balance.getBalancesMap().size(), is(equalTo(1)));
+        assertThat(balance.getBalancesMap().get(currencyUsd), is(equalTo(depositAmount / 2)));
+    }
+
+    @Test
+    public void test_17_session_user_4() throws Exception {
+        LOGGER.info("test_17_session_user_4");
+
+        final String sessionUserId = "4";
+        TransactionRequest.Builder transaction = TransactionRequest.newBuilder().setUserId(sessionUserId);
+
+        List<SessionRequest> operations = new ArrayList<>();
+        operations.add(SessionRequest.newBuilder().setTag(1)
+                .setDeposit(transaction.setAmount(depositAmount).setCurrency(currencyUsd)).build());
+        operations.add(SessionRequest.newBuilder().setTag(2)
+                .setWithdraw(transaction.setAmount(depositAmount / 2).setCurrency(currencyUsd)).build());
+        operations.add(SessionRequest.newBuilder().setTag(3)
+                .setWithdraw(transaction.setAmount(withdrawAmount).setCurrency(currencyUsd)).build());
+        operations.add(SessionRequest.newBuilder().setTag(4)
+                .setDeposit(transaction.setAmount(depositAmount).setCurrency("XXX")).build());
+        operations.add(SessionRequest.newBuilder().setTag(5)
+                .setBalance(BalanceRequest.newBuilder().setUserId(sessionUserId)).build());
+
+        List<SessionResponse> responses = new ArrayList<>();
+        Throwable error = runSession(operations, responses);
+
+        assertThat(error, is(nullValue()));
+        assertThat(responses.size(), is(equalTo(5)));
+
+        // Results are received in the same order the operations were sent.
+        for (int i = 0; i < responses.size(); i++) {
+            assertThat(responses.get(i).getTag(), is(equalTo((long) i + 1)));
+        }
+
+        assertThat(responses.get(0).getTransaction().getMessage(), is(equalTo(TransactionService.RESPONSE_SUCCESSFUL)));
+        assertThat(responses.get(1).getTransaction().getMessage(), is(equalTo(TransactionService.RESPONSE_SUCCESSFUL)));
+        assertThat(responses.get(2).getTransaction().getMessage(), is(equalTo(TransactionService.RESPONSE_INSUFFICIENT_FUNDS)));
+        assertThat(responses.get(3).getTransaction().getMessage(), is(equalTo(TransactionService.RESPONSE_UNKNOWN_CURRENCY)));
+
+        // The balance request sees all the previous operations of the session.
+        assertThat(responses.get(4).getBalance().getBalancesMap().size(), is(equalTo(1)));
+        assertThat(responses.get(4).getBalance().getBalancesMap().get(currencyUsd), is(equalTo(depositAmount / 2)));
+    }
+
+    @Test
+    public void test_18_session_invalid_operation() throws Exception {
+        LOGGER.info("test_18_session_invalid_operation");
+
+        List<SessionRequest> operations = new ArrayList<>();
+        operations.add(SessionRequest.newBuilder().setTag(1)
+                .setBalance(BalanceRequest.newBuilder().setUserId(userId)).build());
+        // No operation set, the session is ended with an error.
+        operations.add(SessionRequest.newBuilder().setTag(2).build());
+        operations.add(SessionRequest.newBuilder().setTag(3)
+                .setBalance(BalanceRequest.newBuilder().setUserId(userId)).build());
+
+        List<SessionResponse> responses = new ArrayList<>();
+        Throwable error = runSession(operations, responses);
+
+        assertThat(responses.size(), is(equalTo(1)));
+        assertThat(Status.fromThrowable(error).getCode(), is(equalTo(Status.Code.INVALID_ARGUMENT)));
+    }
+
+    @Test
+    public void test_19_currency_codes_user_5() {
+        LOGGER.info("test_19_currency_codes_user_5");
+
+        final String codesUserId = "5";
+
+        // Compact code only, no currency name.
+        TransactionResponse eurDeposit = testClientBlockingStub.deposit(TransactionRequest.newBuilder()
+                .setUserId(codesUserId).setAmount(depositAmount).setCurrencyCode(CurrencyCode.EUR).build());
+        assertThat(eurDeposit.getMessage(), is(equalTo(TransactionService.RESPONSE_SUCCESSFUL)));
+
+        // Older clients only sending the name keep working against the same account.
+        TransactionResponse eurWithdraw = testClientBlockingStub.withdraw(TransactionRequest.newBuilder()
+                .setUserId(codesUserId).setAmount(depositAmount / 2).setCurrency(currencyEur).build());
+        assertThat(eurWithdraw.getMessage(), is(equalTo(TransactionService.RESPONSE_SUCCESSFUL)));
+
+        // Code not known by the server.
+        TransactionResponse unknownDeposit = testClientBlockingStub.deposit(TransactionRequest.newBuilder()
+                .setUserId(codesUserId).setAmount(depositAmount).setCurrencyCodeValue(99).build());
+        assertThat(unknownDeposit.getMessage(), is(equalTo(TransactionService.RESPONSE_UNKNOWN_CURRENCY)));
+
+        BalanceResponse compactBalance = testClientBlockingStub.getBalance(BalanceRequest.newBuilder()
+                .setUserId(codesUserId).setCompact(true).build());
+        assertThat(compactBalance.getBalancesMap().size(), is(equalTo(0)));
+        assertThat(compactBalance.getCurrencyBalancesCount(), is(equalTo(1)));
+        assertThat(compactBalance.getCurrencyBalances(0).getCurrency(), is(equalTo(CurrencyCode.EUR)));
+        assertThat(compactBalance.getCurrencyBalances(0).getAmount(), is(equalTo(depositAmount / 2)));
+
+        BalanceResponse namedBalance = testClientBlockingStub.getBalance(BalanceRequest.newBuilder()
+                .setUserId(codesUserId).build());
+        assertThat(namedBalance.getCurrencyBalancesCount(), is(equalTo(0)));
+        assertThat(namedBalance.getBalancesMap().get(currencyEur), is(equalTo(depositAmount / 2)));
+
+        Iterator<TransactionHistoryPage> pages = testClientBlockingStub.getTransactions(TransactionHistoryRequest
+                .newBuilder().setUserId(codesUserId).setCurrencyCode(CurrencyCode.EUR).build());
+        TransactionHistoryPage page = pages.next();
+        assertThat(page.getTransactionsCount(), is(equalTo(2)));
+        assertThat(page.getTransactions(0).getCurrencyCode(), is(equalTo(CurrencyCode.EUR)));
+        assertThat(page.getTransactions(0).getCurrency(), is(equalTo(currencyEur)));
+    }
+
+    @Test
+    public void test_20_result_codes_user_6() {
+        LOGGER.info("test_20_result_codes_user_6");
+
+        TransactionRequest.Builder request = TransactionRequest.newBuilder().setUserId("6")
+                .setCurrencyCode(CurrencyCode.GBP);
+
+        // Successful operations carry the balance right after them, no balance request needed.
+        TransactionResponse deposit = testClientBlockingStub.deposit(request.setAmount(depositAmount).build());
+        assertThat(deposit.getResult(), is(equalTo(ResultCode.SUCCESSFUL)));
+        assertThat(deposit.getBalance(), is(equalTo(depositAmount)));
+
+        TransactionResponse secondDeposit = testClientBlockingStub.deposit(request.setAmount(depositAmount).build());
+        assertThat(secondDeposit.getBalance(), is(equalTo(2 * depositAmount)));
+
+        TransactionResponse withdraw = testClientBlockingStub.withdraw(request.setAmount(withdrawAmount / 4).build());
+        assertThat(withdraw.getResult(), is(equalTo(ResultCode.SUCCESSFUL)));
+        assertThat(withdraw.getBalance(), is(equalTo(2 * depositAmount - withdrawAmount / 4)));
+
+        TransactionResponse failedWithdraw = testClientBlockingStub.withdraw(request.setAmount(withdrawAmount * 10).build());
+        assertThat(failedWithdraw.getResult(), is(equalTo(ResultCode.INSUFFICIENT_FUNDS)));
+        assertThat(failedWithdraw.getMessage(), is(equalTo(TransactionService.RESPONSE_INSUFFICIENT_FUNDS)));
+        assertThat(failedWithdraw.getBalance(), is(equalTo(0L)));
+
+        TransactionResponse unknownCurrency = testClientBlockingStub.deposit(request.setCurrencyCodeValue(99).build());
+        assertThat(unknownCurrency.getResult(), is(equalTo(ResultCode.UNKNOWN_CURRENCY)));
+        assertThat(unknownCurrency.getMessage(), is(equalTo(TransactionService.RESPONSE_UNKNOWN_CURRENCY)));
+    }
+
+    @Test
+    public void test_21_idempotency_key_user_7() {
+        LOGGER.info("test_21_idempotency_key_user_7");
+
+        TransactionRequest request = TransactionRequest.newBuilder().setUserId("7").setAmount(depositAmount)
+                .setCurrencyCode(CurrencyCode.USD).setIdempotencyKey("deposit-1").build();
+
+        // The same deposit sent twice is only applied once, both get the same result.
+        TransactionResponse first = testClientBlockingStub.deposit(request);
+        TransactionResponse replay = testClientBlockingStub.deposit(request);
+        assertThat(first.getResult(), is(equalTo(ResultCode.SUCCESSFUL)));
+        assertThat(replay, is(equalTo(first)));
+
+        // Other keys are applied as usual.
+        TransactionResponse second = testClientBlockingStub.deposit(request.toBuilder()
+                .setIdempotencyKey("deposit-2").build());
+        assertThat(second.getBalance(), is(equalTo(2 * depositAmount)));
+
+        // A key can't be used again for a different operation.
+        try {
+            testClientBlockingStub.deposit(request.toBuilder().setAmount(depositAmount * 2).build());
+            throw new AssertionError("Reused idempotency key should have been rejected.");
+        } catch (StatusRuntimeException e) {
+            assertThat(e.getStatus().getCode(), is(equalTo(Status.Code.INVALID_ARGUMENT)));
+        }
+
+        BalanceResponse balance = testClientBlockingStub.getBalance(BalanceRequest.newBuilder().setUserId("7").build());
+        assertThat(balance.getBalancesMap().get(currencyUsd), is(equalTo(2 * depositAmount)));
+    }
+
     //endregion
 
 }
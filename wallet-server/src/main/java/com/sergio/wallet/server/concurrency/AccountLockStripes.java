@@ -0,0 +1,183 @@
+package com.sergio.wallet.server.concurrency;
+
+import com.sergio.wallet.server.data.entity.Currency;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks used to serialize writes over the same account (user + currency) while letting writes
+ * over different accounts run in parallel.
+ *
+ * Every account is mapped to one of a fixed number of lock stripes, two accounts may share a stripe
+ * (and wait for each other) but the same account always maps to the same stripe, so it can never be
+ * modified by two threads at the same time. Memory stays constant no matter how many users exist.
+ *
+ * The time spent waiting for the stripes locked through lock and lockAll is recorded as wallet.lock.wait.
+ * In the optimistic concurrency mode (isLocking false) writers don't lock the accounts at all, they skip the
+ * calls to lock and lockAll, conflicting writes are detected by the transaction service instead.
+ */
+@Component
+public class AccountLockStripes {
+
+    //region VARIABLES
+
+    private final ReentrantLock[] stripes;
+
+    // Stripes count is always a power of two so the index can be taken with a simple mask.
+    private final int mask;
+
+    private final Timer lockWaits;
+
+    private final boolean locking;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    /**
+     * @param stripes Desired amount of stripes, it will be rounded up to the next power of two.
+     */
+    public AccountLockStripes(int stripes) {
+        this(new SimpleMeterRegistry(), stripes, ConcurrencyMode.LOCKING.name());
+    }
+
+    /**
+     * @param meterRegistry Registry for the lock wait times.
+     * @param stripes Desired amount of stripes, it will be rounded up to the next power of two.
+     * @param concurrencyMode locking or optimistic.
+     */
+    @Autowired
+    public AccountLockStripes(MeterRegistry meterRegistry, @Value("${wallet.locks.stripes:1024}") int stripes,
+                              @Value("${wallet.concurrency-mode:locking}") String concurrencyMode) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("Lock stripes must be higher than 0.");
+        }
+
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes) {
+            size <<= 1;
+        }
+
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+
+        this.mask = size - 1;
+        this.locking = ConcurrencyMode.fromConfig(concurrencyMode) == ConcurrencyMode.LOCKING;
+
+        this.lockWaits = Timer.builder("wallet.lock.wait")
+                .description("Time spent waiting for account locks")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    /**
+     * Index of the stripe guarding the account, same user and currency always get the same index.
+     * @param userId
+     * @param currency Null for unknown currencies, they share their own stripes.
+     * @return Index between 0 and getStripesCount() - 1.
+     */
+    public int stripeIndex(String userId, Currency currency) {
+        int hash = 31 * userId.hashCode() + (currency == null ? 0 : currency.ordinal() + 1);
+        // Spread the higher bits as only the lower ones are used by the mask.
+        hash ^= (hash >>> 16);
+        return hash & mask;
+    }
+
+    /**
+     * Retrieves the lock guarding the account, the caller is in charge of locking and unlocking it.
+     * @param userId
+     * @param currency
+     * @return The lock for the stripe the account belongs to.
+     */
+    public Lock lockFor(String userId, Currency currency) {
+        return stripes[stripeIndex(userId, currency)];
+    }
+
+    /**
+     * Locks the stripe guarding the account, recording the time spent waiting for it.
+     * @param userId
+     * @param currency
+     * @return The locked lock, the caller is in charge of unlocking it.
+     */
+    public Lock lock(String userId, Currency currency) {
+        Lock lock = stripes[stripeIndex(userId, currency)];
+
+        long started = System.nanoTime();
+        lock.lock();
+        lockWaits.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+
+        return lock;
+    }
+
+    /**
+     * Locks the stripes for many accounts at once, each stripe is locked only once and always in
+     * ascending order, so threads locking several accounts at the same time can't deadlock each other.
+     * @param stripeIndexes Indexes from stripeIndex, one per account, duplicates allowed.
+     * @return The locked stripes, must be released with unlockAll.
+     */
+    public List<Lock> lockAll(int[] stripeIndexes) {
+        int[] sortedIndexes = stripeIndexes.clone();
+        Arrays.sort(sortedIndexes);
+
+        List<Lock> locked = new ArrayList<>(sortedIndexes.length);
+        long started = System.nanoTime();
+        try {
+            for (int i = 0; i < sortedIndexes.length; i++) {
+                if (i == 0 || sortedIndexes[i] != sortedIndexes[i - 1]) {
+                    Lock lock = stripes[sortedIndexes[i]];
+                    lock.lock();
+                    locked.add(lock);
+                }
+            }
+        } catch (RuntimeException e) {
+            unlockAll(locked);
+            throw e;
+        }
+        lockWaits.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+
+        return locked;
+    }
+
+    /**
+     * Releases the stripes locked by lockAll, in reverse order.
+     * @param locked
+     */
+    public void unlockAll(List<Lock> locked) {
+        for (int i = locked.size() - 1; i >= 0; i--) {
+            locked.get(i).unlock();
+        }
+    }
+
+    public int getStripesCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Whether writers must lock the accounts they change, false in the optimistic concurrency mode.
+     * @return true for the locking mode.
+     */
+    public boolean isLocking() {
+        return locking;
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,29 @@
+package com.sergio.wallet.server.concurrency;
+
+/**
+ * How concurrent writes over the same account are kept from interfering with each other.
+ */
+public enum ConcurrencyMode {
+
+    // Writes hold the account lock stripes while they run, writes over the same account wait for each other.
+    LOCKING,
+
+    // No account locks, conflicting writes over the same account are detected by the balance version on
+    // commit and retried, writes never wait for each other in the server.
+    OPTIMISTIC;
+
+    /**
+     * Parses the mode from its configuration value, case insensitive.
+     * @param value
+     * @return The mode.
+     * @throws IllegalArgumentException If the value is not a known mode.
+     */
+    public static ConcurrencyMode fromConfig(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new IllegalArgumentException("Unknown concurrency mode: " + value);
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.sergio.wallet.server.concurrency;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded worker pool for all the blocking database work of the gRPC endpoints, so the amount of
+ * requests using the DB at the same time never goes beyond the connection pool.
+ *
+ * Requests wait in a bounded queue for a free worker, once the queue is full new requests are rejected
+ * right away instead of piling up, so the server sheds load before the connection pool is exhausted.
+ * When disabled the work runs directly in the caller's thread, as before.
+ */
+@Component
+public class DatabaseExecutor {
+
+    //region VARIABLES
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(DatabaseExecutor.class);
+
+    private final boolean enabled;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Timer waitTimes;
+
+    private final Counter rejections;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    @Autowired
+    public DatabaseExecutor(MeterRegistry meterRegistry,
+                            @Value("${wallet.db-executor.enabled:true}") boolean enabled,
+                            @Value("${wallet.db-executor.threads:10}") int threads,
+                            @Value("${wallet.db-executor.queue-capacity:1000}") int queueCapacity) {
+        if (threads <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Invalid DB executor configuration.");
+        }
+
+        this.enabled = enabled;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "db-executor-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+
+        this.waitTimes = Timer.builder("wallet.db.executor.wait")
+                .description("Time requests wait in the queue for a free DB worker")
+                .register(meterRegistry);
+        this.rejections = Counter.builder("wallet.db.executor.rejections")
+                .description("Requests rejected because the DB executor queue was full")
+                .register(meterRegistry);
+        Gauge.builder("wallet.db.executor.queue.size", executor, pool -> pool.getQueue().size())
+                .description("Requests waiting for a free DB worker")
+                .register(meterRegistry);
+        Gauge.builder("wallet.db.executor.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("DB workers currently running a request")
+                .register(meterRegistry);
+
+        if (enabled) {
+            LOGGER.info("DB executor enabled | threads: " + threads + " | queue capacity: " + queueCapacity);
+        }
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    /**
+     * Runs the task in one of the DB workers, or directly in the caller's thread if disabled.
+     * @param task
+     * @throws RejectedExecutionException If the queue is full, the task will never run.
+     */
+    public void execute(Runnable task) {
+        if (!enabled) {
+            task.run();
+            return;
+        }
+
+        final long submitted = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                waitTimes.record(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+                task.run();
+            });
+        } catch (RejectedExecutionException e) {
+            rejections.increment();
+            throw e;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Stops accepting tasks and waits for the running ones to finish.
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,243 @@
+package com.sergio.wallet.server.concurrency;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Retries DB work failed by transient concurrency errors, deadlocks, lock wait timeouts, serialization and
+ * optimistic locking failures, which MySQL InnoDB produces under concurrency even if the work itself is valid.
+ * They are raised by a statement (or the flush) before the commit is sent, and the whole DB transaction is then
+ * rolled back by the store, so nothing of the failed attempt is stored and running it again is safe.
+ *
+ * Any other failure is never retried, connection failures and other transient resource errors included, as
+ * they can happen while committing, when the DB may have stored the work without the caller knowing it.
+ *
+ * Each retry waits a random time up to an exponential backoff (full jitter), so the competing transactions
+ * don't collide again. Retries are also limited by a budget shared by all the callers: every call adds
+ * budget-ratio tokens (up to budget-max-tokens) and every retry takes one, so when the DB is overloaded the
+ * retries can't multiply the load, failures just go back to the client.
+ */
+@Component
+public class TransientFailureRetry {
+
+    //region VARIABLES
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(TransientFailureRetry.class);
+
+    // MySQL error codes for deadlocks and lock wait timeouts.
+    private final static int ER_LOCK_DEADLOCK = 1213;
+
+    private final static int ER_LOCK_WAIT_TIMEOUT = 1205;
+
+    // Tokens are kept in thousandths, so fractional ratios don't need floating point atomics.
+    private final static long TOKEN = 1000;
+
+    private final boolean enabled;
+
+    private final int maxAttempts;
+
+    private final long initialBackoffMillis;
+
+    private final long maxBackoffMillis;
+
+    private final long tokensPerCall;
+
+    private final long maxTokens;
+
+    private final AtomicLong tokens;
+
+    private final Counter retries;
+
+    private final Counter attemptsExhausted;
+
+    private final Counter budgetExhausted;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    /**
+     * @param meterRegistry
+     * @param enabled
+     * @param maxAttempts Max times the work runs, the first one included.
+     * @param initialBackoffMillis Max wait before the first retry, doubled on every following retry.
+     * @param maxBackoffMillis Max wait before any retry.
+     * @param budgetRatio Retries allowed per call, on average.
+     * @param budgetMaxTokens Max retries saved up for bursts of failures.
+     */
+    @Autowired
+    public TransientFailureRetry(MeterRegistry meterRegistry,
+                                 @Value("${wallet.retry.enabled:true}") boolean enabled,
+                                 @Value("${wallet.retry.max-attempts:3}") int maxAttempts,
+                                 @Value("${wallet.retry.initial-backoff-ms:5}") long initialBackoffMillis,
+                                 @Value("${wallet.retry.max-backoff-ms:100}") long maxBackoffMillis,
+                                 @Value("${wallet.retry.budget-ratio:0.1}") double budgetRatio,
+                                 @Value("${wallet.retry.budget-max-tokens:100}") int budgetMaxTokens) {
+        if (maxAttempts <= 0 || initialBackoffMillis <= 0 || maxBackoffMillis < initialBackoffMillis
+                || budgetRatio < 0 || budgetMaxTokens < 0) {
+            throw new IllegalArgumentException("Invalid retry configuration.");
+        }
+
+        this.enabled = enabled;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.tokensPerCall = Math.round(budgetRatio * TOKEN);
+        this.maxTokens = budgetMaxTokens * TOKEN;
+        this.tokens = new AtomicLong(maxTokens);
+
+        this.retries = Counter.builder("wallet.db.retries")
+                .description("DB work retried after a transient concurrency failure")
+                .register(meterRegistry);
+        this.attemptsExhausted = exhausted(meterRegistry, "attempts");
+        this.budgetExhausted = exhausted(meterRegistry, "budget");
+    }
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    private static Counter exhausted(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("wallet.db.retries.exhausted")
+                .description("Transient failures sent back to the client as no more retries were allowed")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Adds the tokens earned by a call, without going over the max.
+     */
+    private void earnTokens() {
+        if (tokensPerCall == 0) {
+            return;
+        }
+
+        long current;
+        do {
+            current = tokens.get();
+            if (current >= maxTokens) {
+                return;
+            }
+        } while (!tokens.compareAndSet(current, Math.min(maxTokens, current + tokensPerCall)));
+    }
+
+    /**
+     * @return true if a whole token was taken for a retry, false if the budget is exhausted.
+     */
+    private boolean takeToken() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current < TOKEN) {
+                return false;
+            }
+        } while (!tokens.compareAndSet(current, current - TOKEN));
+
+        return true;
+    }
+
+    /**
+     * Waits a random time up to the backoff of the retry.
+     * @param retry Number of the retry, starting at 1.
+     * @return false if interrupted while waiting, the interrupt flag is set again.
+     */
+    private boolean backoff(int retry) {
+        long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(retry - 1, 20));
+        try {
+            TimeUnit.MILLISECONDS.sleep(ThreadLocalRandom.current().nextLong(backoff + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    /**
+     * Checks if the failure is a transient concurrency error, from Spring's exception translation (JPA) or
+     * from the driver itself (plain JDBC), anywhere in the chain of causes. Only deadlocks, lock wait timeouts,
+     * serialization failures (SQL state 40001) and optimistic locking failures are, never a failure that may
+     * leave the outcome of the commit unknown.
+     * @param error
+     * @return true if the same work could succeed if run again, and nothing of the failed attempt was stored.
+     */
+    public static boolean isTransient(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            // Deadlock loser, lock acquisition, serialization, optimistic and pessimistic locking failures.
+            if (cause instanceof ConcurrencyFailureException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                SQLException sqlException = (SQLException) cause;
+                if ("40001".equals(sqlException.getSQLState()) || sqlException.getErrorCode() == ER_LOCK_DEADLOCK
+                        || sqlException.getErrorCode() == ER_LOCK_WAIT_TIMEOUT) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the work, running it again while it fails by transient errors and retries are allowed. The work
+     * must run its own DB transaction (and take its own locks), so every attempt starts from scratch.
+     * @param work
+     * @return Result of the first successful attempt.
+     * @throws RuntimeException The last failure, when not transient or when no more retries are allowed.
+     */
+    public <T> T execute(Supplier<T> work) {
+        if (!enabled) {
+            return work.get();
+        }
+
+        earnTokens();
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return work.get();
+            } catch (RuntimeException e) {
+                if (!isTransient(e)) {
+                    throw e;
+                }
+                if (attempt >= maxAttempts) {
+                    attemptsExhausted.increment();
+                    throw e;
+                }
+                if (!takeToken()) {
+                    budgetExhausted.increment();
+                    throw e;
+                }
+
+                LOGGER.debug(Thread.currentThread().getName() + " | " + "Transient DB failure, retry " + attempt
+                        + " | " + e.getMessage());
+                retries.increment();
+
+                if (!backoff(attempt)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,47 @@
+package com.sergio.wallet.server.config;
+
+import com.sergio.wallet.server.concurrency.DatabaseExecutor;
+import com.sergio.wallet.server.grpc.MetricsServerInterceptor;
+import io.micrometer.core.instrument.MeterRegistry;
+import net.devh.boot.grpc.server.interceptor.GlobalServerInterceptorConfigurer;
+import net.devh.boot.grpc.server.serverfactory.GrpcServerConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configuration class for the gRPC server execution model and the interceptors applied to all the services.
+ */
+@Configuration
+public class GrpcServerConfiguration {
+
+    //region BEAN DEFINITIONS
+
+    /**
+     * When the DB executor is enabled the endpoints never block, they only validate the requests and hand
+     * them off, so they run directly in the transport threads instead of going through another unbounded
+     * thread pool first. Otherwise the default gRPC executor is kept, as the endpoints block on the DB.
+     * @param databaseExecutor
+     * @return Configurer applied to the gRPC server before it's built.
+     */
+    @Bean
+    public GrpcServerConfigurer executorConfigurer(DatabaseExecutor databaseExecutor) {
+        return serverBuilder -> {
+            if (databaseExecutor.isEnabled()) {
+                serverBuilder.directExecutor();
+            }
+        };
+    }
+
+    /**
+     * Records the latency and outcomes of every call, for all the services.
+     * @param meterRegistry
+     * @return Configurer adding the metrics interceptor.
+     */
+    @Bean
+    public GlobalServerInterceptorConfigurer metricsInterceptorConfigurer(MeterRegistry meterRegistry) {
+        return registry -> registry.addServerInterceptors(new MetricsServerInterceptor(meterRegistry));
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,31 @@
+package com.sergio.wallet.server.config;
+
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configuration class for the metrics recorded by the server components, all the meters are kept in a
+ * Prometheus registry and scraped through the PrometheusScrapeServer.
+ *
+ * Besides the wallet meters, the JVM and connection pool (hikaricp) meters are bound to the same registry
+ * by the actuator auto configuration.
+ */
+@Configuration
+public class MetricsConfiguration {
+
+    //region BEAN DEFINITIONS
+
+    /**
+     * Registry shared by all the components recording metrics.
+     * @return A registry keeping all the meters in the Prometheus format.
+     */
+    @Bean
+    public PrometheusMeterRegistry meterRegistry() {
+        return new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,151 @@
+package com.sergio.wallet.server.data.entity;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Entity bean to describe the Transaction Archive table, the cold storage for the transactions of closed
+ * periods moved out of the Transaction table by the TransactionArchiver. Rows keep their original id and
+ * are never modified once archived, referenced by the repository ArchivedTransactionRepository.
+ *
+ * Same columns, history indexes and idempotency key unique key as the Transaction table, but no id generator
+ * and nothing referencing it, so its rows can be stored compressed.
+ */
+@Entity
+@Table(name = "TRANSACTION_ARCHIVE", indexes = {
+        @Index(name = "IDX_TRANSACTION_ARCHIVE_USER_ID_CURRENCY_ID", columnList = "USER_ID, CURRENCY, ID"),
+        @Index(name = "IDX_TRANSACTION_ARCHIVE_USER_ID_ID", columnList = "USER_ID, ID")}, uniqueConstraints = {
+        @UniqueConstraint(name = "UK_TRANSACTION_ARCHIVE_USER_ID_IDEMPOTENCY_KEY",
+                columnNames = {"USER_ID", "IDEMPOTENCY_KEY"})})
+public class ArchivedTransaction {
+
+    @Id
+    @Column(name = "ID", updatable = false, nullable = false)
+    private long id;
+
+    @Column(name = "USER_ID", length = 64)
+    private String userId;
+
+    @Column(name = "DEPOSIT")
+    private long deposit;
+
+    @Column(name = "WITHDRAW")
+    private long withdraw;
+
+    @Convert(converter = CurrencyConverter.class)
+    @Column(name = "CURRENCY", columnDefinition = "TINYINT")
+    private Currency currency;
+
+    @Column(name = "DATE")
+    private LocalDateTime date;
+
+    // Kept, so keys of archived transactions are never applied again.
+    @Column(name = "IDEMPOTENCY_KEY", length = 64)
+    private String idempotencyKey;
+
+    @Column(name = "BALANCE_AFTER")
+    private long balanceAfter;
+
+    //region PUBLIC METHODS
+
+    /**
+     * @return The archived row as a transaction, not managed, for history responses.
+     */
+    public Transaction toTransaction() {
+        Transaction transaction = new Transaction();
+        transaction.setId(id);
+        transaction.setUserId(userId);
+        transaction.setDeposit(deposit);
+        transaction.setWithdraw(withdraw);
+        transaction.setCurrency(currency);
+        transaction.setDate(date);
+        transaction.setIdempotencyKey(idempotencyKey);
+        transaction.setBalanceAfter(balanceAfter);
+        return transaction;
+    }
+
+    @Override
+    public String toString() {
+        return "ArchivedTransaction{" +
+                "id=" + id +
+                ", userId='" + userId + '\'' +
+                ", deposit=" + deposit +
+                ", withdraw=" + withdraw +
+                ", currency=" + currency +
+                ", date=" + date +
+                ", idempotencyKey='" + idempotencyKey + '\'' +
+                ", balanceAfter=" + balanceAfter +
+                '}';
+    }
+
+    //region GETTERS & SETTERS
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public long getDeposit() {
+        return deposit;
+    }
+
+    public void setDeposit(long deposit) {
+        this.deposit = deposit;
+    }
+
+    public long getWithdraw() {
+        return withdraw;
+    }
+
+    public void setWithdraw(long withdraw) {
+        this.withdraw = withdraw;
+    }
+
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    public void setCurrency(Currency currency) {
+        this.currency = currency;
+    }
+
+    public LocalDateTime getDate() {
+        return date;
+    }
+
+    public void setDate(LocalDateTime date) {
+        this.date = date;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    public long getBalanceAfter() {
+        return balanceAfter;
+    }
+
+    public void setBalanceAfter(long balanceAfter) {
+        this.balanceAfter = balanceAfter;
+    }
+
+    //endregion
+
+    //endregion
+
+}
@@ -8,7 +8,8 @@ import java.time.LocalDateTime;
  * BalanceRepository for all corresponding interactions with the DB.
  */
 @Entity
-@Table(name = "BALANCE")
+@Table(name = "BALANCE", uniqueConstraints = {
+        @UniqueConstraint(name = "UK_BALANCE_USER_ID_CURRENCY", columnNames = {"USER_ID", "CURRENCY"})})
 public class Balance {
 
     @Id
@@ -16,14 +17,15 @@ public class Balance {
     @Column(name = "ID", updatable = false, nullable = false)
     private long id;
 
-    @Column(name = "USER_ID")
+    @Column(name = "USER_ID", length = 64)
     private String userId;
 
     @Column(name = "BALANCE")
     private long balance;
 
-    @Column(name = "CURRENCY")
-    private String currency;
+    @Convert(converter = CurrencyConverter.class)
+    @Column(name = "CURRENCY", columnDefinition = "TINYINT")
+    private Currency currency;
 
     @Column(name = "MODIFIED")
     private LocalDateTime modified;
@@ -31,6 +33,12 @@ public class Balance {
     @Column(name = "LAST_TRANSACTION_ID")
     private long lastTransactionId;
 
+    // Checked and increased by every update, so conflicting writers are detected in the optimistic mode.
+    // Rows inserted by plain statements start at 0, which also increase it on every change.
+    @Version
+    @Column(name = "VERSION", nullable = false, columnDefinition = "BIGINT NOT NULL DEFAULT 0")
+    private long version;
+
     //region PUBLIC METHODS
 
     /**
@@ -52,9 +60,10 @@ public class Balance {
                 "id=" + id +
                 ", userId='" + userId + '\'' +
                 ", balance=" + balance +
-                ", currency='" + currency + '\'' +
+                ", currency=" + currency +
                 ", modified=" + modified +
                 ", lastTransactionId=" + lastTransactionId +
+                ", version=" + version +
                 '}';
     }
 
@@ -84,11 +93,11 @@ public class Balance {
         this.balance = balance;
     }
 
-    public String getCurrency() {
+    public Currency getCurrency() {
         return currency;
     }
 
-    public void setCurrency(String currency) {
+    public void setCurrency(Currency currency) {
         this.currency = currency;
     }
 
@@ -108,6 +117,14 @@ public class Balance {
         this.lastTransactionId = lastTransactionId;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     //endregion
 
     //endregion
@@ -0,0 +1,83 @@
+package com.sergio.wallet.server.data.entity;
+
+/**
+ * Currencies supported by the wallet, each one with the compact code used to store it in the DB and
+ * to send it over gRPC (same numbers as the CurrencyCode enum of the proto file).
+ *
+ * Codes must never change or be reused once stored, new currencies get new codes.
+ */
+public enum Currency {
+
+    USD(1),
+    EUR(2),
+    GBP(3);
+
+    //region VARIABLES
+
+    // Index is the code, null for unused codes.
+    private final static Currency[] BY_CODE;
+
+    static {
+        int maxCode = 0;
+        for (Currency currency : values()) {
+            maxCode = Math.max(maxCode, currency.code);
+        }
+
+        BY_CODE = new Currency[maxCode + 1];
+        for (Currency currency : values()) {
+            BY_CODE[currency.code] = currency;
+        }
+    }
+
+    private final byte code;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    Currency(int code) {
+        this.code = (byte) code;
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    /**
+     * Finds the currency for a compact code, a plain array access.
+     * @param code
+     * @return The currency, or null if the code is unknown.
+     */
+    public static Currency fromCode(int code) {
+        return code > 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+
+    /**
+     * Finds the currency for its ISO name, only used for requests from clients still sending names.
+     * @param name
+     * @return The currency, or null if the name is unknown.
+     */
+    public static Currency fromName(String name) {
+        if (name == null) {
+            return null;
+        }
+
+        switch (name) {
+            case "USD":
+                return USD;
+            case "EUR":
+                return EUR;
+            case "GBP":
+                return GBP;
+            default:
+                return null;
+        }
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    //endregion
+
+}
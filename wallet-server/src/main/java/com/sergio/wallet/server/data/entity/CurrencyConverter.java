@@ -0,0 +1,23 @@
+package com.sergio.wallet.server.data.entity;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * Stores the currencies as their single byte code (TINYINT column) instead of their name.
+ * Converted through Integer as Hibernate has no JDBC type mapping for Byte converters.
+ */
+@Converter
+public class CurrencyConverter implements AttributeConverter<Currency, Integer> {
+
+    @Override
+    public Integer convertToDatabaseColumn(Currency currency) {
+        return currency == null ? null : (int) currency.getCode();
+    }
+
+    @Override
+    public Currency convertToEntityAttribute(Integer code) {
+        return code == null ? null : Currency.fromCode(code);
+    }
+
+}
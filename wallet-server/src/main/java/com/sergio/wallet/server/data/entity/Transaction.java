@@ -8,15 +8,23 @@ import java.time.LocalDateTime;
  * TransactionRepository for all corresponding interactions with the DB.
  */
 @Entity
-@Table(name = "TRANSACTION")
+@Table(name = "TRANSACTION", indexes = {
+        @Index(name = "IDX_TRANSACTION_USER_ID_CURRENCY_ID", columnList = "USER_ID, CURRENCY, ID"),
+        @Index(name = "IDX_TRANSACTION_USER_ID_ID", columnList = "USER_ID, ID")}, uniqueConstraints = {
+        @UniqueConstraint(name = "UK_TRANSACTION_USER_ID_IDEMPOTENCY_KEY",
+                columnNames = {"USER_ID", "IDEMPOTENCY_KEY"})})
 public class Transaction {
 
+    // Ids are taken from a pooled table generator, blocks of ids are reserved in the ID_GENERATOR table so
+    // inserts don't need to run immediately to get their id and can be sent to the DB in JDBC batches.
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "TRANSACTION_ID_GENERATOR")
+    @TableGenerator(name = "TRANSACTION_ID_GENERATOR", table = "ID_GENERATOR", pkColumnName = "SEQUENCE_NAME",
+            valueColumnName = "NEXT_VAL", pkColumnValue = "TRANSACTION", allocationSize = 100)
     @Column(name = "ID", updatable = false, nullable = false)
     private long id;
 
-    @Column(name = "USER_ID")
+    @Column(name = "USER_ID", length = 64)
     private String userId;
 
     @Column(name = "DEPOSIT")
@@ -25,12 +33,21 @@ public class Transaction {
     @Column(name = "WITHDRAW")
     private long withdraw;
 
-    @Column(name = "CURRENCY")
-    private String currency;
+    @Convert(converter = CurrencyConverter.class)
+    @Column(name = "CURRENCY", columnDefinition = "TINYINT")
+    private Currency currency;
 
     @Column(name = "DATE")
     private LocalDateTime date;
 
+    // Null for requests without key, the unique key allows any number of them.
+    @Column(name = "IDEMPOTENCY_KEY", length = 64)
+    private String idempotencyKey;
+
+    // Balance of the account right after this transaction, answered again when a request is replayed.
+    @Column(name = "BALANCE_AFTER")
+    private long balanceAfter;
+
     //region PUBLIC METHODS
 
     @Override
@@ -40,8 +57,10 @@ public class Transaction {
                 ", userId='" + userId + '\'' +
                 ", deposit=" + deposit +
                 ", withdraw=" + withdraw +
-                ", currency='" + currency + '\'' +
+                ", currency=" + currency +
                 ", date=" + date +
+                ", idempotencyKey='" + idempotencyKey + '\'' +
+                ", balanceAfter=" + balanceAfter +
                 '}';
     }
 
@@ -79,11 +98,11 @@ public class Transaction {
         this.withdraw = withdraw;
     }
 
-    public String getCurrency() {
+    public Currency getCurrency() {
         return currency;
     }
 
-    public void setCurrency(String currency) {
+    public void setCurrency(Currency currency) {
         this.currency = currency;
     }
 
@@ -95,6 +114,22 @@ public class Transaction {
         this.date = date;
     }
 
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    public long getBalanceAfter() {
+        return balanceAfter;
+    }
+
+    public void setBalanceAfter(long balanceAfter) {
+        this.balanceAfter = balanceAfter;
+    }
+
     //endregion
 
     //endregion
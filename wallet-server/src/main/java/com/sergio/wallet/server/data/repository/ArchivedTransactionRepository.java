@@ -0,0 +1,53 @@
+package com.sergio.wallet.server.data.repository;
+
+import com.sergio.wallet.server.data.entity.ArchivedTransaction;
+import com.sergio.wallet.server.data.entity.Currency;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Basic interface to read the Transaction Archive table, rows are only written by the TransactionArchiver,
+ * so no save or delete methods are exposed.
+ *
+ * Same keyset pagination as TransactionRepository, the pageable is only used for limiting the results.
+ */
+@org.springframework.stereotype.Repository
+public interface ArchivedTransactionRepository extends Repository<ArchivedTransaction, Long> {
+
+    /**
+     * Archived transactions of the user in all currencies after the given id, backed by the (USER_ID, ID) index.
+     */
+    @Query("SELECT t FROM ArchivedTransaction t WHERE t.userId = :userId AND t.id > :afterId "
+            + "AND t.date >= :fromDate AND t.date < :toDate ORDER BY t.id ASC")
+    List<ArchivedTransaction> findPageByUserId(@Param("userId") String userId, @Param("afterId") long afterId,
+                                               @Param("fromDate") LocalDateTime fromDate,
+                                               @Param("toDate") LocalDateTime toDate, Pageable pageable);
+
+    /**
+     * Archived transactions of the user in one currency after the given id, backed by the
+     * (USER_ID, CURRENCY, ID) index.
+     */
+    @Query("SELECT t FROM ArchivedTransaction t WHERE t.userId = :userId AND t.currency = :currency "
+            + "AND t.id > :afterId AND t.date >= :fromDate AND t.date < :toDate ORDER BY t.id ASC")
+    List<ArchivedTransaction> findPageByUserIdAndCurrency(@Param("userId") String userId,
+                                                          @Param("currency") Currency currency,
+                                                          @Param("afterId") long afterId,
+                                                          @Param("fromDate") LocalDateTime fromDate,
+                                                          @Param("toDate") LocalDateTime toDate, Pageable pageable);
+
+    /**
+     * Archived transaction stored with the user's idempotency key, backed by the (USER_ID, IDEMPOTENCY_KEY)
+     * unique key.
+     */
+    ArchivedTransaction findByUserIdAndIdempotencyKey(String userId, String idempotencyKey);
+
+    /**
+     * If the user's idempotency key was used by an archived transaction, same unique key.
+     */
+    boolean existsByUserIdAndIdempotencyKey(String userId, String idempotencyKey);
+}
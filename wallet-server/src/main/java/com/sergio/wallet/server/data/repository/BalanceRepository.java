@@ -1,9 +1,18 @@
 package com.sergio.wallet.server.data.repository;
 
 import com.sergio.wallet.server.data.entity.Balance;
+import com.sergio.wallet.server.data.entity.Currency;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -14,5 +23,46 @@ public interface BalanceRepository extends CrudRepository<Balance, Long> {
 
     List<Balance> findAllByUserId(String userId);
 
-    Balance findByUserIdAndCurrency(String userId, String currency);
+    Balance findByUserIdAndCurrency(String userId, Currency currency);
+
+    /**
+     * Balances of many users at once, including the changes of the current DB transaction. The pending
+     * transaction rows are not flushed for it, as with the balance changes.
+     */
+    @QueryHints(@QueryHint(name = org.hibernate.annotations.QueryHints.FLUSH_MODE, value = "COMMIT"))
+    List<Balance> findAllByUserIdIn(Collection<String> userIds);
+
+    /**
+     * Adds the amount to the user's currency balance in a single statement, without reading it first,
+     * the balance row is created if the user has none yet for that currency. The unique key over user
+     * and currency makes this atomic, concurrent first deposits can never create duplicated rows.
+     * Native MySQL query, table and column names as created by the default physical naming strategy.
+     * The currency is given as its stored code, as native queries don't go through the entity converter.
+     * Native queries flush the whole persistence context by default, callers flush the pending
+     * transaction rows themselves, so it's skipped to keep those inserts batched.
+     * @return Number of affected rows.
+     */
+    @Modifying
+    @QueryHints(@QueryHint(name = org.hibernate.annotations.QueryHints.FLUSH_MODE, value = "COMMIT"))
+    @Query(nativeQuery = true, value = "INSERT INTO balance (user_id, currency, balance, modified, last_transaction_id) "
+            + "VALUES (:userId, :currencyCode, :amount, :modified, :transactionId) "
+            + "ON DUPLICATE KEY UPDATE balance = balance + VALUES(balance), modified = VALUES(modified), "
+            + "last_transaction_id = VALUES(last_transaction_id), version = version + 1")
+    int insertOrIncreaseBalance(@Param("userId") String userId, @Param("currencyCode") byte currencyCode,
+                                @Param("amount") long amount, @Param("transactionId") long transactionId,
+                                @Param("modified") LocalDateTime modified);
+
+    /**
+     * Subtracts the amount from the user's currency balance only if there are enough funds, the funds
+     * check and the update are done by the same statement so no other writer can get in between.
+     * Both statements increase the version, so optimistic writers holding an older copy detect the change.
+     * @return Number of updated rows, 0 if there are not enough funds or no balance at all.
+     */
+    @Modifying
+    @Query("UPDATE Balance b SET b.balance = b.balance - :amount, b.modified = :modified, "
+            + "b.lastTransactionId = :transactionId, b.version = b.version + 1 WHERE b.userId = :userId AND b.currency = :currency "
+            + "AND b.balance >= :amount")
+    int decreaseBalanceIfSufficient(@Param("userId") String userId, @Param("currency") Currency currency,
+                                    @Param("amount") long amount, @Param("transactionId") long transactionId,
+                                    @Param("modified") LocalDateTime modified);
 }
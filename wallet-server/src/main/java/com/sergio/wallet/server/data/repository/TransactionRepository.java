@@ -1,18 +1,49 @@
 package com.sergio.wallet.server.data.repository;
 
+import com.sergio.wallet.server.data.entity.Currency;
 import com.sergio.wallet.server.data.entity.Transaction;
-import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.List;
+
 /**
  * Basic interface to handle the repository for the Transaction table.
+ *
+ * History queries use keyset pagination, each page continues after the last id of the previous one
+ * instead of using an offset, so reading a page always costs the same no matter how deep it is.
+ * The pageable is only used for limiting the results, it's always expected to be the first page.
+ *
+ * Extends JpaRepository for the flush and batch delete methods used by the batched write path.
  */
 @Repository
-public interface TransactionRepository extends CrudRepository<Transaction, Long> {
+public interface TransactionRepository extends JpaRepository<Transaction, Long> {
 
-    // Currently no additional methods needed.
+    /**
+     * Transactions of the user in all currencies after the given id, backed by the (USER_ID, ID) index.
+     */
+    @Query("SELECT t FROM Transaction t WHERE t.userId = :userId AND t.id > :afterId "
+            + "AND t.date >= :fromDate AND t.date < :toDate ORDER BY t.id ASC")
+    List<Transaction> findPageByUserId(@Param("userId") String userId, @Param("afterId") long afterId,
+                                       @Param("fromDate") LocalDateTime fromDate,
+                                       @Param("toDate") LocalDateTime toDate, Pageable pageable);
 
-    //List<Transaction> findAllByUserId(String userId);
+    /**
+     * Transactions of the user in one currency after the given id, backed by the (USER_ID, CURRENCY, ID) index.
+     */
+    @Query("SELECT t FROM Transaction t WHERE t.userId = :userId AND t.currency = :currency AND t.id > :afterId "
+            + "AND t.date >= :fromDate AND t.date < :toDate ORDER BY t.id ASC")
+    List<Transaction> findPageByUserIdAndCurrency(@Param("userId") String userId, @Param("currency") Currency currency,
+                                                  @Param("afterId") long afterId,
+                                                  @Param("fromDate") LocalDateTime fromDate,
+                                                  @Param("toDate") LocalDateTime toDate, Pageable pageable);
 
-    //List<Transaction> findAllByUserIdAndCurrency(String userId, String currency);
+    /**
+     * Transaction stored with the user's idempotency key, backed by the (USER_ID, IDEMPOTENCY_KEY) unique key.
+     */
+    Transaction findByUserIdAndIdempotencyKey(String userId, String idempotencyKey);
 }
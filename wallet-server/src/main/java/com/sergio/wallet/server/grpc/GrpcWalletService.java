@@ -1,7 +1,20 @@
 package com.sergio.wallet.server.grpc;
 
+import com.sergio.wallet.server.concurrency.AccountLockStripes;
+import com.sergio.wallet.server.concurrency.DatabaseExecutor;
+import com.sergio.wallet.server.concurrency.TransientFailureRetry;
+import com.sergio.wallet.server.data.entity.Currency;
+import com.sergio.wallet.server.data.entity.Transaction;
+import com.sergio.wallet.server.service.GroupCommitWriter;
+import com.sergio.wallet.server.service.TransactionOperation;
+import com.sergio.wallet.server.service.TransactionResult;
 import com.sergio.wallet.server.service.TransactionService;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import net.devh.boot.grpc.server.service.GrpcService;
 
 import org.sergio.wallet.grpc.*;
@@ -10,14 +23,37 @@ import org.sergio.wallet.grpc.WalletServiceGrpc.WalletServiceImplBase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.transaction.annotation.Isolation;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.dao.DuplicateKeyException;
 
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
 
 /**
  * Main gRPC Service class that handles the endpoints for the wallet server, it provides the functionality
- * for making deposits, withdraws and retrieving an user's balance for all currencies.
+ * for making deposits, withdraws, retrieving an user's balance for all currencies and its transactions history.
+ *
+ * The endpoints only validate the requests and hand the blocking DB work off to the DB executor, requests
+ * rejected by a full executor get RESOURCE_EXHAUSTED right away. The time spent in the transaction service by
+ * each kind of operation is recorded as wallet.db.time. Balances already cached by the store are answered on
+ * the calling thread, without going through the DB executor or its timer. Writes failed by transient DB
+ * concurrency errors (deadlocks, lock wait timeouts) are retried, releasing the account locks while backing off.
+ *
+ * Deposits and withdraws with an idempotency key go through the idempotency cache, requests sent again with
+ * the same key get the result of the first one. Keys no longer remembered are rejected by the store and
+ * answered from the transaction stored with the key, with the balance of the account stored right after it.
  */
 @GrpcService
 public class GrpcWalletService extends WalletServiceImplBase {
@@ -26,15 +62,447 @@ public class GrpcWalletService extends WalletServiceImplBase {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(GrpcWalletService.class);
 
+    public final static int BATCH_MAX_OPERATIONS = 1000;
+
+    public final static int HISTORY_DEFAULT_PAGE_SIZE = 100;
+
+    public final static int HISTORY_MAX_PAGE_SIZE = 1000;
+
+    // Operations read ahead from a session's stream while the previous ones are still being processed.
+    public final static int SESSION_MAX_PENDING_OPERATIONS = 100;
+
+    // Same length as the IDEMPOTENCY_KEY column.
+    public final static int IDEMPOTENCY_KEY_MAX_LENGTH = 64;
+
+    // Failed operations always get the same response, built only once.
+    private final static TransactionResponse RESPONSE_UNKNOWN_CURRENCY = TransactionResponse.newBuilder()
+            .setResult(ResultCode.UNKNOWN_CURRENCY).setMessage(TransactionService.RESPONSE_UNKNOWN_CURRENCY).build();
+
+    private final static TransactionResponse RESPONSE_INSUFFICIENT_FUNDS = TransactionResponse.newBuilder()
+            .setResult(ResultCode.INSUFFICIENT_FUNDS).setMessage(TransactionService.RESPONSE_INSUFFICIENT_FUNDS).build();
+
     private final TransactionService transactionService;
 
+    private final AccountLockStripes accountLocks;
+
+    private final GroupCommitWriter groupCommitWriter;
+
+    private final DatabaseExecutor databaseExecutor;
+
+    private final TransientFailureRetry transientFailureRetry;
+
+    private final IdempotencyCache idempotencyCache;
+
+    private final Timer depositTime;
+
+    private final Timer withdrawTime;
+
+    private final Timer batchTime;
+
+    private final Timer balanceTime;
+
+    private final Timer historyTime;
+
     //endregion
 
     //region CONSTRUCTORS
 
     @Autowired
-    public GrpcWalletService(TransactionService transactionService) {
+    public GrpcWalletService(TransactionService transactionService, AccountLockStripes accountLocks,
+                             GroupCommitWriter groupCommitWriter, DatabaseExecutor databaseExecutor,
+                             TransientFailureRetry transientFailureRetry, IdempotencyCache idempotencyCache,
+                             MeterRegistry meterRegistry) {
         this.transactionService = transactionService;
+        this.accountLocks = accountLocks;
+        this.groupCommitWriter = groupCommitWriter;
+        this.databaseExecutor = databaseExecutor;
+        this.transientFailureRetry = transientFailureRetry;
+        this.idempotencyCache = idempotencyCache;
+
+        this.depositTime = dbTimer(meterRegistry, "deposit");
+        this.withdrawTime = dbTimer(meterRegistry, "withdraw");
+        this.batchTime = dbTimer(meterRegistry, "batch");
+        this.balanceTime = dbTimer(meterRegistry, "balance");
+        this.historyTime = dbTimer(meterRegistry, "history");
+    }
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    /**
+     * Creates the timer for the time spent in the transaction service by one kind of operation, the group
+     * commit writer records its groups in the same meter.
+     * @param meterRegistry
+     * @param operation
+     * @return The registered timer.
+     */
+    private static Timer dbTimer(MeterRegistry meterRegistry, String operation) {
+        return Timer.builder("wallet.db.time")
+                .description("Time spent in the transaction service, locks excluded")
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * Converts the epoch milliseconds from the request into the same local date time stored in the DB.
+     * @param epochMillis
+     * @return The date, or null if 0 as it means no bound.
+     */
+    private LocalDateTime toDate(long epochMillis) {
+        return epochMillis == 0 ? null : LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    /**
+     * Resolves the currency of a transaction request, from its compact code if set or from its name
+     * otherwise, for clients still sending names.
+     * @param request
+     * @return The currency, or null if unknown.
+     */
+    private Currency toCurrency(TransactionRequest request) {
+        return request.getCurrencyCodeValue() != 0 ? Currency.fromCode(request.getCurrencyCodeValue())
+                : Currency.fromName(request.getCurrency());
+    }
+
+    /**
+     * Builds the balance response, with the balances by currency code for compact requests or by currency
+     * name otherwise.
+     * @param balances
+     * @param compact
+     * @return The response to send.
+     */
+    private BalanceResponse toBalanceResponse(Map<Currency, Long> balances, boolean compact) {
+        BalanceResponse.Builder response = BalanceResponse.newBuilder();
+
+        if (compact) {
+            balances.forEach((currency, amount) -> response.addCurrencyBalances(CurrencyBalance.newBuilder()
+                    .setCurrencyValue(currency.getCode()).setAmount(amount)));
+        } else {
+            balances.forEach((currency, amount) -> response.putBalances(currency.name(), amount));
+        }
+
+        return response.build();
+    }
+
+    /**
+     * Converts the result of a deposit or withdraw into its gRPC response, failures use the prebuilt ones.
+     * @param result
+     * @return The response to send.
+     */
+    private TransactionResponse toResponse(TransactionResult result) {
+        switch (result.getCode()) {
+            case UNKNOWN_CURRENCY:
+                return RESPONSE_UNKNOWN_CURRENCY;
+            case INSUFFICIENT_FUNDS:
+                return RESPONSE_INSUFFICIENT_FUNDS;
+            default:
+                return TransactionResponse.newBuilder()
+                        .setResult(ResultCode.SUCCESSFUL)
+                        .setMessage(result.getMessage())
+                        .setBalance(result.getBalance())
+                        .build();
+        }
+    }
+
+    /**
+     * Converts a stored transaction into its gRPC representation.
+     * @param transaction
+     * @return The entry to send in the history page.
+     */
+    private TransactionEntry toEntry(Transaction transaction) {
+        return TransactionEntry.newBuilder()
+                .setId(transaction.getId())
+                .setCurrency(transaction.getCurrency().name())
+                .setCurrencyCodeValue(transaction.getCurrency().getCode())
+                .setDeposit(transaction.getDeposit())
+                .setWithdraw(transaction.getWithdraw())
+                .setTimestamp(transaction.getDate().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli())
+                .build();
+    }
+
+    /**
+     * Hands the request's DB work off to the DB executor, the task is in charge of sending the response.
+     * Any failure of the task is sent to the client as an error, as nobody else would do it.
+     * @param responseObserver
+     * @param task
+     */
+    private void executeOnDb(StreamObserver<?> responseObserver, Runnable task) {
+        try {
+            databaseExecutor.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Request failed", e);
+                    responseObserver.onError(toStatus(e).asRuntimeException());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Request rejected, DB executor is full");
+            responseObserver.onError(Status.RESOURCE_EXHAUSTED.withDescription("Server is busy, try again later")
+                    .asRuntimeException());
+        }
+    }
+
+    /**
+     * Provides the balance of the user, right away if cached by the store, from the DB executor otherwise.
+     * @param userId
+     * @return Future completed with the balance for each currency.
+     */
+    private CompletableFuture<Map<Currency, Long>> supplyBalance(String userId) {
+        Map<Currency, Long> cached = transactionService.getCachedBalance(userId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return supplyOnDb(() -> balanceTime.record(() -> transactionService.getBalance(userId)));
+    }
+
+    /**
+     * Runs the DB work in the DB executor and provides its result as a future.
+     * @param task
+     * @return Future completed with the task's result, completed exceptionally if the task failed or
+     * was rejected by a full executor.
+     */
+    private <T> CompletableFuture<T> supplyOnDb(Supplier<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            databaseExecutor.execute(() -> {
+                try {
+                    future.complete(task.get());
+                } catch (RuntimeException e) {
+                    LOGGER.error("Request failed", e);
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Request rejected, DB executor is full");
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Translates the failure of an asynchronous request into the status sent to the client.
+     * @param error
+     * @return RESOURCE_EXHAUSTED if rejected for being busy, the status itself for status exceptions or
+     * UNKNOWN otherwise.
+     */
+    private Status toStatus(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+
+        if (cause instanceof StatusRuntimeException) {
+            return ((StatusRuntimeException) cause).getStatus();
+        }
+        if (cause instanceof RejectedExecutionException) {
+            return Status.RESOURCE_EXHAUSTED.withDescription("Server is busy, try again later");
+        }
+        if (isDuplicateKey(cause)) {
+            return Status.ALREADY_EXISTS.withDescription("Idempotency key already used");
+        }
+        return Status.UNKNOWN.withDescription(cause.getMessage()).withCause(cause);
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    /**
+     * Checks if the failure was caused by a unique key violation in the store, like an idempotency key
+     * used twice by the same user.
+     * @param error
+     * @return true if any cause is an integrity constraint violation, or a duplicate key of the stores
+     * without database.
+     */
+    private static boolean isDuplicateKey(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DuplicateKeyException
+                    || cause instanceof SQLIntegrityConstraintViolationException
+                    || (cause instanceof SQLException && ((SQLException) cause).getSQLState() != null
+                            && ((SQLException) cause).getSQLState().startsWith("23"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the idempotency key from the request.
+     * @param request
+     * @return The key, or null if not set.
+     * @throws StatusRuntimeException INVALID_ARGUMENT if the key is too long.
+     */
+    private String toIdempotencyKey(TransactionRequest request) {
+        String key = request.getIdempotencyKey();
+        if (key.length() > IDEMPOTENCY_KEY_MAX_LENGTH) {
+            throw Status.INVALID_ARGUMENT.withDescription("Idempotency key can't be longer than "
+                    + IDEMPOTENCY_KEY_MAX_LENGTH + " characters").asRuntimeException();
+        }
+        return key.isEmpty() ? null : key;
+    }
+
+    /**
+     * Executes a deposit or withdraw in a DB worker holding the account lock, or queues it for the group
+     * commit writer when enabled, which takes care of the locks by itself.
+     * @param operation
+     * @return Future completed with the result once committed, completed exceptionally if the transaction
+     * failed or was rejected.
+     */
+    private CompletableFuture<TransactionResult> executeOperation(TransactionOperation operation) {
+        if (groupCommitWriter.isEnabled()) {
+            return groupCommitWriter.submit(operation);
+        }
+
+        Timer time = operation.isDeposit() ? depositTime : withdrawTime;
+
+        // Keyed or not, every operation takes the batch path of the store, so all of them are written in the
+        // same order, and the key is stored with the transaction row.
+        return supplyOnDb(() -> transientFailureRetry.execute(() -> {
+            // Nothing to lock in the optimistic mode, the store detects the conflicting writes.
+            Lock lock = accountLocks.isLocking() ? accountLocks.lock(operation.getUserId(), operation.getCurrency())
+                    : null;
+            try {
+                return time.record(() -> transactionService.executeBatch(
+                        Collections.singletonList(operation)).get(0));
+            } finally {
+                if (lock != null) {
+                    lock.unlock();
+                }
+            }
+        }));
+    }
+
+    /**
+     * Answers an operation rejected by the store for using an idempotency key already stored, from the
+     * transaction stored with that key. Runs in a DB worker.
+     * @param operation
+     * @param error Failure of the operation, thrown again if no transaction is stored with the key.
+     * @return Successful result with the balance of the account right after the stored transaction, same as
+     * the first time.
+     * @throws StatusRuntimeException INVALID_ARGUMENT if the stored transaction is not the same operation.
+     */
+    private TransactionResult replayStored(TransactionOperation operation, Throwable error) {
+        Transaction stored = transactionService.findByIdempotencyKey(operation.getUserId(),
+                operation.getIdempotencyKey());
+        if (stored == null) {
+            throw error instanceof RuntimeException ? (RuntimeException) error : new CompletionException(error);
+        }
+
+        long amount = operation.isDeposit() ? stored.getDeposit() : stored.getWithdraw();
+        if (stored.getCurrency() != operation.getCurrency() || amount != operation.getAmount()
+                || (operation.isDeposit() ? stored.getWithdraw() : stored.getDeposit()) != 0) {
+            throw Status.INVALID_ARGUMENT.withDescription("Idempotency key already used by a different operation")
+                    .asRuntimeException();
+        }
+
+        idempotencyCache.countReplay();
+        return TransactionResult.successful(stored.getBalanceAfter());
+    }
+
+    /**
+     * Submits a deposit or withdraw request, once only for requests with an idempotency key already seen.
+     * @param request
+     * @param isDeposit
+     * @return Future completed with the result once committed, completed exceptionally if the transaction
+     * failed or was rejected.
+     */
+    private CompletableFuture<TransactionResult> submitTransaction(TransactionRequest request, boolean isDeposit) {
+        Currency currency = toCurrency(request);
+
+        // Nothing to do in the DB for unknown currencies.
+        if (currency == null) {
+            return CompletableFuture.completedFuture(TransactionResult.UNKNOWN_CURRENCY);
+        }
+
+        String idempotencyKey;
+        try {
+            idempotencyKey = toIdempotencyKey(request);
+        } catch (StatusRuntimeException e) {
+            return failedFuture(e);
+        }
+
+        TransactionOperation operation = new TransactionOperation(request.getUserId(), request.getAmount(),
+                currency, isDeposit, idempotencyKey);
+        if (idempotencyKey == null) {
+            return executeOperation(operation);
+        }
+
+        // Rejected by the store for a key already stored, the cache had already forgotten it.
+        return idempotencyCache.execute(operation, () -> executeOperation(operation)
+                .<CompletableFuture<TransactionResult>>handle((result, error) -> {
+                    if (error == null) {
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    return isDuplicateKey(error) ? supplyOnDb(() -> replayStored(operation, error))
+                            : failedFuture(error);
+                })
+                .thenCompose(future -> future));
+    }
+
+    /**
+     * Used by deposit and withdraw, unifies the request on both cases and avoids duplicating code.
+     * @param request
+     * @param isDeposit
+     * @param responseObserver
+     */
+    private void executeTransaction(TransactionRequest request, boolean isDeposit,
+                                    StreamObserver<TransactionResponse> responseObserver) {
+        // The response is sent by the thread completing the transaction, a DB worker or the group commit writer.
+        submitTransaction(request, isDeposit).whenComplete((result, error) -> {
+            if (error != null) {
+                responseObserver.onError(toStatus(error).asRuntimeException());
+            } else {
+                responseObserver.onNext(toResponse(result));
+                responseObserver.onCompleted();
+            }
+        });
+    }
+
+    /**
+     * Streams all the history pages for getTransactions until there are no more transactions or the
+     * client cancels the call, running in a DB worker.
+     * @param userId
+     * @param currency
+     * @param fromDate
+     * @param toDate
+     * @param afterId
+     * @param pageSize
+     * @param responseObserver
+     */
+    private void streamTransactions(String userId, Currency currency, LocalDateTime fromDate, LocalDateTime toDate,
+                                    long afterId, int pageSize, StreamObserver<TransactionHistoryPage> responseObserver) {
+        boolean lastPage = false;
+        while (!lastPage) {
+            if (responseObserver instanceof ServerCallStreamObserver
+                    && ((ServerCallStreamObserver<TransactionHistoryPage>) responseObserver).isCancelled()) {
+                LOGGER.debug("Request for GET_TRANSACTIONS cancelled by the client");
+                return;
+            }
+
+            // Ask for one more than needed, just to know if there is another page after this one.
+            final long pageAfterId = afterId;
+            List<Transaction> transactions = historyTime.record(() -> transactionService.getTransactions(userId,
+                    currency, fromDate, toDate, pageAfterId, pageSize + 1));
+
+            lastPage = transactions.size() <= pageSize;
+            if (!lastPage) {
+                transactions = transactions.subList(0, pageSize);
+            }
+
+            TransactionHistoryPage.Builder page = TransactionHistoryPage.newBuilder();
+            transactions.forEach(transaction -> page.addTransactions(toEntry(transaction)));
+
+            if (!lastPage) {
+                afterId = transactions.get(transactions.size() - 1).getId();
+                page.setNextCursor(HistoryCursor.encode(afterId));
+            }
+
+            responseObserver.onNext(page.build());
+        }
+
+        responseObserver.onCompleted();
     }
 
     //endregion
@@ -43,55 +511,114 @@ public class GrpcWalletService extends WalletServiceImplBase {
 
     /**
      * Endpoint for making deposit requests.
-     * Marked as synchronized to avoid multiple threads from operating over the same
-     * transaction service doDeposit method at the same time, for example:
+     * Holds the lock of the user's currency account while the transaction service doDeposit
+     * method runs (and commits), to avoid multiple threads from operating over the same account
+     * at the same time, for example:
      *
-     * T1 User1 deposit USD 100 - T2 User1 deposit USD 100 -> Transactional alone is not
-     * preventing the creation of 2 entries in the balance table if the user USD balance
-     * has not been created before or may not add up the real balance from both transactions.
+     * T1 User1 deposit USD 100 - T2 User1 deposit USD 100 -> both are applied one after the
+     * other instead of competing for the same balance row lock in the database, the unique
+     * user and currency key already prevents the creation of 2 entries in the balance table.
      *
-     * Synchronized here is helping prevent some concurrency problematic scenarios where
-     * using Transactional alone is not enough.
+     * Deposits over different accounts are not blocked and can run in parallel.
+     * When group commit is enabled the deposit is queued and committed together with other requests.
      * @param request
      * @param responseObserver
      */
     @Override
-    public synchronized void deposit(TransactionRequest request, StreamObserver<TransactionResponse> responseObserver) {
+    public void deposit(TransactionRequest request, StreamObserver<TransactionResponse> responseObserver) {
         LOGGER.debug("Request for DEPOSIT received");
 
-        String result = transactionService.doDeposit(request.getUserId(), request.getAmount(), request.getCurrency());
-
-        TransactionResponse response = TransactionResponse.newBuilder().setMessage(result).build();
-
-        responseObserver.onNext(response);
-        responseObserver.onCompleted();
+        executeTransaction(request, true, responseObserver);
     }
 
     /**
      * Endpoint for making withdraw requests.
-     * Marked as synchronized to avoid multiple threads from operating over the same
-     * transaction service doWithdraw method at the same time, for example:
+     * Holds the lock of the user's currency account while the transaction service doWithdraw
+     * method runs (and commits), to avoid multiple threads from operating over the same account
+     * at the same time, for example:
      *
      * T1 User1 withdraw USD 100 - T2 User1 withdraw USD 100 -> Transactional alone is not
      * preventing the retrieval of both withdrawals from the balance table of the user USD balance
      * which is not valid if the user doesn't have enough funds or will not reflect the correct
      * amount in the balance.
      *
-     * Synchronized here is helping prevent some concurrency problematic scenarios where
-     * using Transactional alone is not enough.
+     * Withdrawals over different accounts are not blocked and can run in parallel.
+     * When group commit is enabled the withdraw is queued and committed together with other requests.
      * @param request
      * @param responseObserver
      */
     @Override
-    public synchronized void withdraw(TransactionRequest request, StreamObserver<TransactionResponse> responseObserver) {
+    public void withdraw(TransactionRequest request, StreamObserver<TransactionResponse> responseObserver) {
         LOGGER.debug("Request for WITHDRAW received");
 
-        String result = transactionService.doWithdraw(request.getUserId(), request.getAmount(), request.getCurrency());
+        executeTransaction(request, false, responseObserver);
+    }
 
-        TransactionResponse response = TransactionResponse.newBuilder().setMessage(result).build();
+    /**
+     * Endpoint for making many deposits and withdraws in a single request, all of them are committed
+     * together by the transaction service instead of one commit per operation.
+     * Holds the locks of all the accounts involved while the batch runs, acquired always in the same
+     * order so batches and single operations over the same accounts can't deadlock each other.
+     * Idempotency keys of the operations are stored but not looked up, a batch with a key already stored
+     * fails as a whole with ALREADY_EXISTS, nothing of it is applied.
+     * @param request
+     * @param responseObserver
+     */
+    @Override
+    public void executeBatch(BatchTransactionRequest request, StreamObserver<BatchTransactionResponse> responseObserver) {
+        LOGGER.debug("Request for EXECUTE_BATCH received");
 
-        responseObserver.onNext(response);
-        responseObserver.onCompleted();
+        if (request.getOperationsCount() > BATCH_MAX_OPERATIONS) {
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription("Batch can't have more than " + BATCH_MAX_OPERATIONS + " operations")
+                    .asRuntimeException());
+            return;
+        }
+
+        List<TransactionOperation> operations = new ArrayList<>(request.getOperationsCount());
+        int[] stripeIndexes = new int[request.getOperationsCount()];
+
+        for (int i = 0; i < request.getOperationsCount(); i++) {
+            BatchOperation operation = request.getOperations(i);
+            TransactionRequest transaction = operation.getTransaction();
+
+            if (operation.getType() == BatchOperation.Type.UNRECOGNIZED) {
+                responseObserver.onError(Status.INVALID_ARGUMENT
+                        .withDescription("Unknown operation type at position " + i).asRuntimeException());
+                return;
+            }
+
+            String idempotencyKey;
+            try {
+                idempotencyKey = toIdempotencyKey(transaction);
+            } catch (StatusRuntimeException e) {
+                responseObserver.onError(e);
+                return;
+            }
+
+            Currency currency = toCurrency(transaction);
+            operations.add(new TransactionOperation(transaction.getUserId(), transaction.getAmount(),
+                    currency, operation.getType() == BatchOperation.Type.DEPOSIT, idempotencyKey));
+            stripeIndexes[i] = accountLocks.stripeIndex(transaction.getUserId(), currency);
+        }
+
+        executeOnDb(responseObserver, () -> {
+            List<TransactionResult> results = transientFailureRetry.execute(() -> {
+                List<Lock> locks = accountLocks.isLocking() ? accountLocks.lockAll(stripeIndexes)
+                        : Collections.emptyList();
+                try {
+                    return batchTime.record(() -> transactionService.executeBatch(operations));
+                } finally {
+                    accountLocks.unlockAll(locks);
+                }
+            });
+
+            BatchTransactionResponse.Builder response = BatchTransactionResponse.newBuilder();
+            results.forEach(result -> response.addResults(toResponse(result)));
+
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+        });
     }
 
     /**
@@ -103,12 +630,175 @@ public class GrpcWalletService extends WalletServiceImplBase {
     public void getBalance(BalanceRequest request, StreamObserver<BalanceResponse> responseObserver) {
         LOGGER.debug("Request for GET_BALANCE received");
 
-        Map<String, Long> balances = transactionService.getBalance(request.getUserId());
+        Map<Currency, Long> cached = transactionService.getCachedBalance(request.getUserId());
+        if (cached != null) {
+            responseObserver.onNext(toBalanceResponse(cached, request.getCompact()));
+            responseObserver.onCompleted();
+            return;
+        }
 
-        BalanceResponse response = BalanceResponse.newBuilder().putAllBalances(balances).build();
+        executeOnDb(responseObserver, () -> {
+            Map<Currency, Long> balances = balanceTime.record(() -> transactionService.getBalance(request.getUserId()));
 
-        responseObserver.onNext(response);
-        responseObserver.onCompleted();
+            responseObserver.onNext(toBalanceResponse(balances, request.getCompact()));
+            responseObserver.onCompleted();
+        });
+    }
+
+    /**
+     * Endpoint for retrieving the user's transactions history, it streams all the pages until there are
+     * no more transactions or the client cancels the call.
+     * Each page is retrieved by its own short read transaction continuing after the last id of the
+     * previous page, the cursor sent with each page allows resuming the history later on.
+     * @param request
+     * @param responseObserver
+     */
+    @Override
+    public void getTransactions(TransactionHistoryRequest request, StreamObserver<TransactionHistoryPage> responseObserver) {
+        LOGGER.debug("Request for GET_TRANSACTIONS received");
+
+        boolean hasCurrency = request.getCurrencyCodeValue() != 0 || !request.getCurrency().isEmpty();
+        Currency currency = request.getCurrencyCodeValue() != 0 ? Currency.fromCode(request.getCurrencyCodeValue())
+                : Currency.fromName(request.getCurrency());
+        if (hasCurrency && currency == null) {
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                    .withDescription(TransactionService.RESPONSE_UNKNOWN_CURRENCY).asRuntimeException());
+            return;
+        }
+
+        long afterId;
+        try {
+            afterId = HistoryCursor.decode(request.getCursor());
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("Invalid cursor").asRuntimeException());
+            return;
+        }
+
+        int pageSize = request.getPageSize() <= 0 ? HISTORY_DEFAULT_PAGE_SIZE
+                : Math.min(request.getPageSize(), HISTORY_MAX_PAGE_SIZE);
+        LocalDateTime fromDate = toDate(request.getFromTimestamp());
+        LocalDateTime toDate = toDate(request.getToTimestamp());
+
+        final long firstAfterId = afterId;
+        executeOnDb(responseObserver, () -> streamTransactions(request.getUserId(), currency, fromDate, toDate,
+                firstAfterId, pageSize, responseObserver));
+    }
+
+    /**
+     * Endpoint for long lived sessions, the client sends a stream of tagged operations (deposits, withdraws
+     * and balance requests) and receives the result of each one with the same tag, so every operation
+     * costs a single message instead of a whole call.
+     * Operations are processed one after the other in the same order they are received, up to
+     * SESSION_MAX_PENDING_OPERATIONS are read ahead, the rest are held back by the stream's flow control.
+     * Any failure ends the whole session with an error, the client has to open a new one.
+     * @param responseObserver
+     * @return Observer receiving the operations sent by the client.
+     */
+    @Override
+    public StreamObserver<SessionRequest> session(StreamObserver<SessionResponse> responseObserver) {
+        LOGGER.debug("Request for SESSION received");
+
+        return new SessionObserver((ServerCallStreamObserver<SessionResponse>) responseObserver);
+    }
+
+    //endregion
+
+    //region INNER CLASSES
+
+    /**
+     * Receives the operations of a session, each one is chained after the previous so they are processed
+     * and answered in order, even if they complete in different threads.
+     */
+    private class SessionObserver implements StreamObserver<SessionRequest> {
+
+        private final ServerCallStreamObserver<SessionResponse> responseObserver;
+
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        // Only changed by the gRPC callbacks, which are never called concurrently.
+        private CompletableFuture<Void> lastOperation = CompletableFuture.completedFuture(null);
+
+        private SessionObserver(ServerCallStreamObserver<SessionResponse> responseObserver) {
+            this.responseObserver = responseObserver;
+
+            // Nothing else can be sent once the client is gone, pending operations are just skipped.
+            responseObserver.setOnCancelHandler(() -> finished.set(true));
+            responseObserver.disableAutoInboundFlowControl();
+            responseObserver.request(SESSION_MAX_PENDING_OPERATIONS);
+        }
+
+        /**
+         * Starts processing a single operation.
+         * @param request
+         * @return Future completed with the response for the operation.
+         */
+        private CompletableFuture<SessionResponse> process(SessionRequest request) {
+            SessionResponse.Builder response = SessionResponse.newBuilder().setTag(request.getTag());
+
+            switch (request.getOperationCase()) {
+                case DEPOSIT:
+                    return submitTransaction(request.getDeposit(), true).thenApply(result -> response
+                            .setTransaction(toResponse(result)).build());
+                case WITHDRAW:
+                    return submitTransaction(request.getWithdraw(), false).thenApply(result -> response
+                            .setTransaction(toResponse(result)).build());
+                case BALANCE:
+                    return supplyBalance(request.getBalance().getUserId()).thenApply(balances -> response
+                            .setBalance(toBalanceResponse(balances, request.getBalance().getCompact())).build());
+                default:
+                    return failed(Status.INVALID_ARGUMENT.withDescription("Missing operation with tag "
+                            + request.getTag()));
+            }
+        }
+
+        private CompletableFuture<SessionResponse> failed(Status status) {
+            CompletableFuture<SessionResponse> future = new CompletableFuture<>();
+            future.completeExceptionally(status.asRuntimeException());
+            return future;
+        }
+
+        /**
+         * Ends the session with an error, only the first failure is sent.
+         * @param error
+         */
+        private void fail(Throwable error) {
+            if (finished.compareAndSet(false, true)) {
+                responseObserver.onError(toStatus(error).asRuntimeException());
+            }
+        }
+
+        @Override
+        public void onNext(SessionRequest request) {
+            lastOperation = lastOperation
+                    .thenCompose(previous -> finished.get()
+                            ? failed(Status.CANCELLED.withDescription("Session already finished"))
+                            : process(request))
+                    .thenAccept(response -> {
+                        responseObserver.onNext(response);
+                        // One operation answered, one more can be read from the client.
+                        responseObserver.request(1);
+                    });
+
+            lastOperation.exceptionally(error -> {
+                fail(error);
+                return null;
+            });
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            LOGGER.debug("Request for SESSION cancelled by the client");
+            finished.set(true);
+        }
+
+        @Override
+        public void onCompleted() {
+            lastOperation.thenRun(() -> {
+                if (finished.compareAndSet(false, true)) {
+                    responseObserver.onCompleted();
+                }
+            });
+        }
     }
 
     //endregion
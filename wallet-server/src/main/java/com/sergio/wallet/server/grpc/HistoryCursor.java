@@ -0,0 +1,62 @@
+package com.sergio.wallet.server.grpc;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Simple helper for the opaque cursors used by the transaction history pages.
+ * A cursor holds the id of the last transaction sent, clients should not rely on its format.
+ */
+final class HistoryCursor {
+
+    //region VARIABLES
+
+    private final static Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private final static Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    private HistoryCursor() {
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    /**
+     * @param lastTransactionId Id of the last transaction in the page.
+     * @return Cursor to resume after that transaction.
+     */
+    static String encode(long lastTransactionId) {
+        return ENCODER.encodeToString(ByteBuffer.allocate(Long.BYTES).putLong(lastTransactionId).array());
+    }
+
+    /**
+     * @param cursor Cursor received from the client, may be empty.
+     * @return Id of the transaction to resume after, 0 if the cursor is empty.
+     * @throws IllegalArgumentException If the cursor was not created by this class.
+     */
+    static long decode(String cursor) {
+        if (cursor.isEmpty()) {
+            return 0;
+        }
+
+        byte[] bytes = DECODER.decode(cursor);
+        if (bytes.length != Long.BYTES) {
+            throw new IllegalArgumentException("Invalid cursor.");
+        }
+
+        long lastTransactionId = ByteBuffer.wrap(bytes).getLong();
+        if (lastTransactionId < 0) {
+            throw new IllegalArgumentException("Invalid cursor.");
+        }
+
+        return lastTransactionId;
+    }
+
+    //endregion
+
+}
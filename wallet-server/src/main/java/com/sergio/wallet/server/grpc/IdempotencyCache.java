@@ -0,0 +1,134 @@
+package com.sergio.wallet.server.grpc;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sergio.wallet.server.service.TransactionOperation;
+import com.sergio.wallet.server.service.TransactionResult;
+import io.grpc.Status;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Bounded in-memory dedup store for deposits and withdraws sent with an idempotency key, so a request sent
+ * again (a client retry or a hedged request) gets the result of the first one instead of being applied twice.
+ *
+ * Keys are remembered from the moment the first request arrives, a copy arriving while the first one is still
+ * running waits for its result. Keys are forgotten after ttl-seconds or when the cache is full, and right away
+ * if the operation fails, so it can be retried. Forgotten keys are still rejected by the store, which keeps the
+ * key of every stored transaction (a unique key of the Transaction table in the DB backends), the gRPC service
+ * answers those from the stored transaction.
+ */
+@Component
+public class IdempotencyCache {
+
+    //region VARIABLES
+
+    private final Cache<String, Entry> cache;
+
+    private final Counter replays;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    @Autowired
+    public IdempotencyCache(MeterRegistry meterRegistry,
+                            @Value("${wallet.idempotency.max-keys:100000}") long maxKeys,
+                            @Value("${wallet.idempotency.ttl-seconds:600}") long ttlSeconds) {
+        if (maxKeys <= 0 || ttlSeconds <= 0) {
+            throw new IllegalArgumentException("Invalid idempotency configuration.");
+        }
+
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+
+        this.replays = Counter.builder("wallet.idempotency.replays")
+                .description("Requests answered with the result of a previous request with the same key")
+                .register(meterRegistry);
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "wallet.idempotency.cache");
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    /**
+     * Executes the operation only if its key is not remembered yet, otherwise provides the result of the
+     * operation that came first with the same key.
+     * @param operation Must have an idempotency key.
+     * @param execution Starts the execution of the operation.
+     * @return Future completed with the result of the first operation with the key, completed exceptionally
+     * with INVALID_ARGUMENT if that operation was not the same.
+     */
+    public CompletableFuture<TransactionResult> execute(TransactionOperation operation,
+                                                        Supplier<CompletableFuture<TransactionResult>> execution) {
+        // User ids can't have the separator, as they are never empty it can't be confused with the key either.
+        String cacheKey = operation.getUserId() + '\u0000' + operation.getIdempotencyKey();
+
+        Entry entry = new Entry(operation);
+        Entry existing = cache.asMap().putIfAbsent(cacheKey, entry);
+        if (existing != null) {
+            replays.increment();
+            if (!existing.operation.isSameAs(operation)) {
+                CompletableFuture<TransactionResult> conflict = new CompletableFuture<>();
+                conflict.completeExceptionally(Status.INVALID_ARGUMENT
+                        .withDescription("Idempotency key already used by a different operation").asRuntimeException());
+                return conflict;
+            }
+            return existing.result;
+        }
+
+        execution.get().whenComplete((result, error) -> {
+            if (error != null) {
+                cache.asMap().remove(cacheKey, entry);
+                entry.result.completeExceptionally(error);
+            } else {
+                entry.result.complete(result);
+            }
+        });
+
+        return entry.result;
+    }
+
+    /**
+     * Counts a request answered from the stored transaction instead of the cache.
+     */
+    public void countReplay() {
+        replays.increment();
+    }
+
+    public long getSize() {
+        cache.cleanUp();
+        return cache.estimatedSize();
+    }
+
+    //endregion
+
+    //region INNER CLASSES
+
+    /** Operation remembered for a key, with the result of its execution. */
+    private static class Entry {
+
+        private final TransactionOperation operation;
+
+        private final CompletableFuture<TransactionResult> result = new CompletableFuture<>();
+
+        private Entry(TransactionOperation operation) {
+            this.operation = operation;
+        }
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,168 @@
+package com.sergio.wallet.server.grpc;
+
+import io.grpc.*;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.sergio.wallet.grpc.BatchTransactionResponse;
+import org.sergio.wallet.grpc.ResultCode;
+import org.sergio.wallet.grpc.SessionResponse;
+import org.sergio.wallet.grpc.TransactionResponse;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interceptor recording the latency and the outcome of every gRPC call, by method.
+ *
+ * The latency (wallet.rpc.latency) goes from the call being started until it's closed, published as a
+ * histogram so percentiles can be computed across instances. The outcomes (wallet.rpc.outcomes) are counted
+ * per operation, from the result codes of the responses, so every operation of a batch or a session counts.
+ * Calls without result codes count as successful once closed, and any call closed with an error status
+ * counts as error.
+ */
+public class MetricsServerInterceptor implements ServerInterceptor {
+
+    //region VARIABLES
+
+    public final static String OUTCOME_SUCCESSFUL = "successful";
+
+    public final static String OUTCOME_UNKNOWN_CURRENCY = "unknown_currency";
+
+    public final static String OUTCOME_INSUFFICIENT_FUNDS = "insufficient_funds";
+
+    public final static String OUTCOME_ERROR = "error";
+
+    private final MeterRegistry meterRegistry;
+
+    // Meters of each method, created on its first call.
+    private final ConcurrentHashMap<String, MethodMeters> meters = new ConcurrentHashMap<>();
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    public MetricsServerInterceptor(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        MethodMeters methodMeters = meters.computeIfAbsent(call.getMethodDescriptor().getFullMethodName(),
+                fullMethodName -> new MethodMeters(MethodDescriptor.extractBareMethodName(fullMethodName)));
+
+        return next.startCall(new MetricsServerCall<>(call, methodMeters), headers);
+    }
+
+    //endregion
+
+    //region INNER CLASSES
+
+    /** Meters of a single method. */
+    private class MethodMeters {
+
+        private final Timer latency;
+
+        private final Counter successful;
+
+        private final Counter unknownCurrency;
+
+        private final Counter insufficientFunds;
+
+        private final Counter error;
+
+        private MethodMeters(String method) {
+            this.latency = Timer.builder("wallet.rpc.latency")
+                    .description("Time from a gRPC call being started until it's closed")
+                    .tag("method", method)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+
+            this.successful = outcome(method, OUTCOME_SUCCESSFUL);
+            this.unknownCurrency = outcome(method, OUTCOME_UNKNOWN_CURRENCY);
+            this.insufficientFunds = outcome(method, OUTCOME_INSUFFICIENT_FUNDS);
+            this.error = outcome(method, OUTCOME_ERROR);
+        }
+
+        private Counter outcome(String method, String outcome) {
+            return Counter.builder("wallet.rpc.outcomes")
+                    .description("Operations answered by gRPC calls, by outcome")
+                    .tag("method", method)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry);
+        }
+
+        private void count(ResultCode result) {
+            switch (result) {
+                case UNKNOWN_CURRENCY:
+                    unknownCurrency.increment();
+                    break;
+                case INSUFFICIENT_FUNDS:
+                    insufficientFunds.increment();
+                    break;
+                default:
+                    successful.increment();
+                    break;
+            }
+        }
+    }
+
+    /** Call counting the outcome of each response sent and recording the latency when closed. */
+    private static class MetricsServerCall<ReqT, RespT> extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+
+        private final MethodMeters methodMeters;
+
+        private final long started = System.nanoTime();
+
+        // Only accessed by the thread sending the responses, gRPC calls must not be used concurrently.
+        private boolean resultsCounted;
+
+        private MetricsServerCall(ServerCall<ReqT, RespT> delegate, MethodMeters methodMeters) {
+            super(delegate);
+            this.methodMeters = methodMeters;
+        }
+
+        @Override
+        public void sendMessage(RespT message) {
+            if (message instanceof TransactionResponse) {
+                methodMeters.count(((TransactionResponse) message).getResult());
+                resultsCounted = true;
+            } else if (message instanceof BatchTransactionResponse) {
+                ((BatchTransactionResponse) message).getResultsList()
+                        .forEach(response -> methodMeters.count(response.getResult()));
+                resultsCounted = true;
+            } else if (message instanceof SessionResponse) {
+                SessionResponse response = (SessionResponse) message;
+                if (response.hasTransaction()) {
+                    methodMeters.count(response.getTransaction().getResult());
+                } else {
+                    methodMeters.successful.increment();
+                }
+                resultsCounted = true;
+            }
+
+            super.sendMessage(message);
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            methodMeters.latency.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+
+            if (!status.isOk()) {
+                methodMeters.error.increment();
+            } else if (!resultsCounted) {
+                methodMeters.successful.increment();
+            }
+
+            super.close(status, trailers);
+        }
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,31 @@
+package com.sergio.wallet.server.journal;
+
+/**
+ * When the appended journal records are forced to the storage device, trading durability for write latency.
+ */
+public enum FsyncPolicy {
+
+    // Every append is forced before it's acknowledged, nothing acknowledged is lost on a crash.
+    ALWAYS,
+
+    // Appends are forced by a background thread every few milliseconds, a crash loses at most that interval.
+    INTERVAL,
+
+    // Appends are never forced explicitly, the OS writes them back whenever it decides.
+    NEVER;
+
+    /**
+     * Parses the policy from its configuration value, case insensitive.
+     * @param value
+     * @return The policy.
+     * @throws IllegalArgumentException If the value is not a known policy.
+     */
+    public static FsyncPolicy fromConfig(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new IllegalArgumentException("Unknown journal fsync policy: " + value);
+        }
+    }
+
+}
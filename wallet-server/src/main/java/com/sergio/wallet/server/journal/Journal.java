@@ -0,0 +1,505 @@
+package com.sergio.wallet.server.journal;
+
+import com.sergio.wallet.server.data.entity.Currency;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal file with all the successful deposits and withdraws, the source of truth for the
+ * journal storage backend.
+ *
+ * The file is memory mapped in fixed size windows and records are written straight into the mapping, so
+ * appending never goes through a write system call. Each append is a single record with one or more
+ * entries and a CRC32 of all of them, so a batch is either fully recovered or not at all:
+ *
+ *   record: int payload length | int CRC32 of the payload | short entry count | entries
+ *   entry:  long id | long timestamp | byte currency code | byte type | long amount | short user id length | user id
+ *           [short idempotency key length | idempotency key], only if the type has the KEYED flag
+ *
+ * A record never crosses the end of a window, if it doesn't fit the rest of the window is marked as padding
+ * and the record goes to the next one. A zero length marks the end of the journal. On startup the records
+ * are replayed until the end or the first one with a wrong CRC (torn by a crash), everything after it is
+ * discarded. Appends are forced to the storage device as configured by the FsyncPolicy.
+ *
+ * With the always policy appends don't force by themselves, the writer calls awaitForced once it released its
+ * own locks. Forces run one at a time and each one covers everything appended until it starts, so the writers
+ * appending while a force runs are forced together by the next one (group commit) instead of one by one.
+ */
+public class Journal implements Closeable {
+
+    //region VARIABLES
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(Journal.class);
+
+    // Length marking the rest of the window as unused, the next record starts at the next window.
+    private final static int PADDING = -1;
+
+    private final static int RECORD_HEADER_SIZE = 8;
+
+    // Entry size without the user id.
+    private final static int ENTRY_FIXED_SIZE = 28;
+
+    private final static byte DEPOSIT = 1;
+
+    private final static byte WITHDRAW = 2;
+
+    // Flag of the type, set if the entry ends with an idempotency key. Journals written before keys existed never
+    // have it, so they are still read the same way.
+    private final static byte KEYED = 0x10;
+
+    private final FileChannel channel;
+
+    private final FileLock fileLock;
+
+    private final int windowSize;
+
+    private final FsyncPolicy fsyncPolicy;
+
+    // Only for the interval policy.
+    private final ScheduledExecutorService fsyncExecutor;
+
+    // Replaced by a bigger copy when a new window is mapped, so readers never need the lock.
+    private volatile MappedByteBuffer[] windows;
+
+    // Window of the last record written, the only one that can have changes not forced yet.
+    private volatile MappedByteBuffer lastWritten;
+
+    private volatile boolean dirty;
+
+    // Guarded by this, -1 until the journal is replayed.
+    private long position = -1;
+
+    // Guarded by this.
+    private boolean closed;
+
+    // Held while forcing for awaitForced, so only one force runs at a time and the rest wait for it.
+    private final Object forceLock = new Object();
+
+    // Guarded by forceLock, every record before it is forced.
+    private long forcedPosition;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    /**
+     * Opens the journal file, creating it if needed, it has to be replayed before appending to it.
+     * @param file
+     * @param windowSize Size of each mapped window, the max size of a record.
+     * @param fsyncPolicy
+     * @param fsyncIntervalMs Time between forces of the interval policy.
+     * @throws IOException
+     * @throws IllegalStateException If the journal is already open, by this or another process.
+     */
+    public Journal(Path file, int windowSize, FsyncPolicy fsyncPolicy, long fsyncIntervalMs) throws IOException {
+        if (windowSize < 4096 || (fsyncPolicy == FsyncPolicy.INTERVAL && fsyncIntervalMs <= 0)) {
+            throw new IllegalArgumentException("Invalid journal configuration.");
+        }
+
+        this.windowSize = windowSize;
+        this.fsyncPolicy = fsyncPolicy;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IllegalStateException("Journal already in use: " + file);
+        }
+        this.fileLock = lock;
+
+        this.windows = mapWindows(windowCount(channel.size()));
+
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            this.fsyncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "journal-fsync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.fsyncExecutor.scheduleWithFixedDelay(this::forceIfDirty, fsyncIntervalMs, fsyncIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.fsyncExecutor = null;
+        }
+    }
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    private int windowCount(long size) {
+        return (int) Math.max(1, (size + windowSize - 1) / windowSize);
+    }
+
+    private int windowIndex(long position) {
+        return (int) (position / windowSize);
+    }
+
+    private int windowOffset(long position) {
+        return (int) (position % windowSize);
+    }
+
+    private MappedByteBuffer[] mapWindows(int count) throws IOException {
+        MappedByteBuffer[] mapped = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * windowSize, windowSize);
+        }
+        return mapped;
+    }
+
+    /**
+     * Gets a window for writing, mapping it if needed, the file grows as new windows are mapped.
+     * Must hold the lock.
+     * @param index
+     * @return The window.
+     */
+    private MappedByteBuffer writableWindow(int index) throws IOException {
+        MappedByteBuffer[] current = windows;
+        if (index < current.length) {
+            return current[index];
+        }
+
+        MappedByteBuffer[] grown = Arrays.copyOf(current, index + 1);
+        for (int i = current.length; i <= index; i++) {
+            grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * windowSize, windowSize);
+        }
+        windows = grown;
+        return grown[index];
+    }
+
+    private void forceIfDirty() {
+        if (dirty) {
+            force();
+        }
+    }
+
+    /**
+     * Reads an entry with absolute gets, the buffer position is never used so it can be read concurrently.
+     * @param buffer
+     * @param index Position of the entry in the buffer.
+     * @return The entry.
+     */
+    private static JournalEntry readEntry(ByteBuffer buffer, int index) {
+        long id = buffer.getLong(index);
+        long timestamp = buffer.getLong(index + 8);
+        Currency currency = Currency.fromCode(buffer.get(index + 16));
+        byte type = buffer.get(index + 17);
+        boolean deposit = (type & ~KEYED) == DEPOSIT;
+        long amount = buffer.getLong(index + 18);
+
+        int userIdLength = buffer.getShort(index + 26) & 0xFFFF;
+        String userId = readString(buffer, index + ENTRY_FIXED_SIZE, userIdLength);
+
+        String idempotencyKey = null;
+        if ((type & KEYED) != 0) {
+            int keyIndex = index + ENTRY_FIXED_SIZE + userIdLength;
+            idempotencyKey = readString(buffer, keyIndex + 2, buffer.getShort(keyIndex) & 0xFFFF);
+        }
+
+        if (currency == null) {
+            throw new IllegalStateException("Unknown currency in journal entry " + id);
+        }
+
+        return new JournalEntry(id, userId, currency, deposit, amount, timestamp, idempotencyKey);
+    }
+
+    private static String readString(ByteBuffer buffer, int index, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(index + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param buffer
+     * @param index Position of the entry in the buffer.
+     * @return Size of the entry, with its user id and idempotency key.
+     */
+    private static int entrySize(ByteBuffer buffer, int index) {
+        int size = ENTRY_FIXED_SIZE + (buffer.getShort(index + 26) & 0xFFFF);
+        if ((buffer.get(index + 17) & KEYED) != 0) {
+            size += 2 + (buffer.getShort(index + size) & 0xFFFF);
+        }
+        return size;
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    /**
+     * Reads all the records from the given position to the end of the journal, then discards anything after
+     * the last valid record so new records are appended right after it.
+     * @param fromPosition Position of a record, 0 to replay the whole journal.
+     * @param consumer Receives each entry with its position, in order.
+     * @return Amount of entries replayed.
+     * @throws IllegalStateException If the journal is shorter than the given position.
+     */
+    public synchronized long replay(long fromPosition, EntryConsumer consumer) throws IOException {
+        if (fromPosition > channel.size()) {
+            throw new IllegalStateException("Journal is shorter than the snapshot, it's missing or truncated.");
+        }
+
+        long current = fromPosition;
+        long replayed = 0;
+        MappedByteBuffer[] mapped = windows;
+
+        while (windowIndex(current) < mapped.length) {
+            int index = windowIndex(current);
+            int offset = windowOffset(current);
+            MappedByteBuffer window = mapped[index];
+
+            int length = windowSize - offset < 4 ? PADDING : window.getInt(offset);
+            if (length == 0) {
+                break;
+            }
+            if (length == PADDING) {
+                current = (long) (index + 1) * windowSize;
+                continue;
+            }
+            if (length < 2 || length > windowSize - offset - RECORD_HEADER_SIZE) {
+                LOGGER.warn("Journal record with invalid length at " + current
+                        + ", discarding the rest of the journal.");
+                break;
+            }
+
+            ByteBuffer source = window.duplicate();
+            source.position(offset + RECORD_HEADER_SIZE);
+            source.limit(offset + RECORD_HEADER_SIZE + length);
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            payload.put(source);
+
+            CRC32 crc = new CRC32();
+            crc.update(payload.array(), 0, length);
+            if ((int) crc.getValue() != window.getInt(offset + 4)) {
+                LOGGER.warn("Journal record with wrong CRC at " + current + ", discarding the rest of the journal.");
+                break;
+            }
+
+            int count = payload.getShort(0) & 0xFFFF;
+            int entryIndex = 2;
+            for (int i = 0; i < count; i++) {
+                consumer.accept(readEntry(payload, entryIndex), current + RECORD_HEADER_SIZE + entryIndex);
+                entryIndex += entrySize(payload, entryIndex);
+            }
+
+            replayed += count;
+            current += RECORD_HEADER_SIZE + length;
+        }
+
+        // Anything after the last valid record is dropped, so old bytes never look like records after new appends.
+        if (channel.size() > current) {
+            channel.truncate(current);
+            channel.force(true);
+        }
+        windows = mapWindows(windowCount(current + 1));
+        lastWritten = windows[windowIndex(Math.max(0, current - 1))];
+        position = current;
+
+        return replayed;
+    }
+
+    /**
+     * Appends all the entries as a single record, never forced before returning, see awaitForced.
+     * @param entries
+     * @return Position of each entry, in the same order.
+     * @throws IllegalArgumentException If the entries don't fit in a single window.
+     */
+    public synchronized long[] append(List<JournalEntry> entries) throws IOException {
+        if (position < 0 || closed) {
+            throw new IllegalStateException("Journal not replayed yet or already closed.");
+        }
+
+        byte[][] userIds = new byte[entries.size()][];
+        byte[][] keys = new byte[entries.size()][];
+        int payloadLength = 2;
+        for (int i = 0; i < entries.size(); i++) {
+            userIds[i] = entries.get(i).getUserId().getBytes(StandardCharsets.UTF_8);
+            if (userIds[i].length > 0xFFFF) {
+                throw new IllegalArgumentException("User id too long for the journal.");
+            }
+            payloadLength += ENTRY_FIXED_SIZE + userIds[i].length;
+
+            String idempotencyKey = entries.get(i).getIdempotencyKey();
+            if (idempotencyKey != null) {
+                keys[i] = idempotencyKey.getBytes(StandardCharsets.UTF_8);
+                if (keys[i].length > 0xFFFF) {
+                    throw new IllegalArgumentException("Idempotency key too long for the journal.");
+                }
+                payloadLength += 2 + keys[i].length;
+            }
+        }
+
+        int recordSize = RECORD_HEADER_SIZE + payloadLength;
+        if (entries.isEmpty() || entries.size() > 0xFFFF || recordSize > windowSize) {
+            throw new IllegalArgumentException("Invalid amount of entries for a single journal record.");
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+        payload.putShort((short) entries.size());
+        int[] entryOffsets = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            JournalEntry entry = entries.get(i);
+            entryOffsets[i] = payload.position();
+            byte type = entry.isDeposit() ? DEPOSIT : WITHDRAW;
+            payload.putLong(entry.getId())
+                    .putLong(entry.getTimestamp())
+                    .put(entry.getCurrency().getCode())
+                    .put(keys[i] != null ? (byte) (type | KEYED) : type)
+                    .putLong(entry.getAmount())
+                    .putShort((short) userIds[i].length)
+                    .put(userIds[i]);
+            if (keys[i] != null) {
+                payload.putShort((short) keys[i].length).put(keys[i]);
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, payloadLength);
+
+        int index = windowIndex(position);
+        int offset = windowOffset(position);
+        if (windowSize - offset < recordSize) {
+            if (windowSize - offset >= 4) {
+                writableWindow(index).putInt(offset, PADDING);
+            }
+            index++;
+            offset = 0;
+        }
+
+        MappedByteBuffer window = writableWindow(index);
+        MappedByteBuffer previous = lastWritten;
+        if (previous != window) {
+            // Everything before the new window, padding included, reaches the disk before any record in it.
+            previous.force();
+        }
+
+        ByteBuffer target = window.duplicate();
+        target.position(offset + RECORD_HEADER_SIZE);
+        target.put(payload.array(), 0, payloadLength);
+        window.putInt(offset + 4, (int) crc.getValue());
+        window.putInt(offset, payloadLength);
+
+        long recordPosition = (long) index * windowSize + offset;
+        position = recordPosition + recordSize;
+        lastWritten = window;
+
+        dirty = true;
+
+        long[] positions = new long[entries.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = recordPosition + RECORD_HEADER_SIZE + entryOffsets[i];
+        }
+        return positions;
+    }
+
+    /**
+     * Reads a single entry, can be called concurrently with appends.
+     * @param entryPosition Position returned when the entry was appended or replayed.
+     * @return The entry.
+     */
+    public JournalEntry read(long entryPosition) {
+        return readEntry(windows[windowIndex(entryPosition)], windowOffset(entryPosition));
+    }
+
+    /**
+     * Waits until the records up to the given position are forced, forcing them if no one else did, only for
+     * the always policy, with the rest it returns right away. The force covers all the records appended until
+     * it starts, so the callers waiting for it meanwhile usually find their records already forced.
+     * @param endPosition Position right after the caller's last record, getPosition right after appending it.
+     */
+    public void awaitForced(long endPosition) {
+        if (fsyncPolicy != FsyncPolicy.ALWAYS) {
+            return;
+        }
+
+        synchronized (forceLock) {
+            if (forcedPosition >= endPosition) {
+                return;
+            }
+
+            long target;
+            MappedByteBuffer window;
+            synchronized (this) {
+                target = position;
+                window = lastWritten;
+            }
+
+            // Older windows were forced when their next one was started.
+            window.force();
+            forcedPosition = target;
+        }
+    }
+
+    /**
+     * Forces all the appended records to the storage device.
+     */
+    public void force() {
+        dirty = false;
+        MappedByteBuffer window = lastWritten;
+        if (window != null) {
+            window.force();
+        }
+    }
+
+    /**
+     * @return Position right after the last record, where the next one is appended.
+     */
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    /**
+     * Forces all the appended records and releases the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (fsyncExecutor != null) {
+            fsyncExecutor.shutdownNow();
+        }
+        force();
+        fileLock.release();
+        channel.close();
+    }
+
+    //endregion
+
+    /**
+     * Receives the entries replayed from the journal.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+
+        void accept(JournalEntry entry, long position);
+
+    }
+
+}
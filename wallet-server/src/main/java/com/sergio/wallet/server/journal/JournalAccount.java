@@ -0,0 +1,276 @@
+package com.sergio.wallet.server.journal;
+
+import com.sergio.wallet.server.data.entity.Currency;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory state of a user for the journal storage backend, the balance of each currency and the index of
+ * all the user's journal entries ordered by id, used for the transaction history without scanning the journal.
+ * Entries stored with an idempotency key are also indexed by their key, so a key is never applied twice, along
+ * with the balance of the account right after them, answered again when their request is replayed.
+ *
+ * Changes are only applied by the journal writer once the entry is appended, all the methods are synchronized
+ * so readers always see balances and history already appended to the journal.
+ */
+public class JournalAccount {
+
+    //region VARIABLES
+
+    private final static Currency[] CURRENCIES = Currency.values();
+
+    private final String userId;
+
+    // Indexed by the currency ordinal.
+    private final long[] balances = new long[CURRENCIES.length];
+
+    // Bit per currency ordinal, set once the user has a balance in that currency.
+    private int currencies;
+
+    // Id and journal position of each entry, one after the other.
+    private long[] history;
+
+    // Amount of entries in the history.
+    private int historySize;
+
+    // Journal position and balance after of each entry stored with an idempotency key, by key, null until
+    // the first one.
+    private Map<String, long[]> idempotencyKeys;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    public JournalAccount(String userId) {
+        this.userId = userId;
+        this.history = new long[16];
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public synchronized boolean hasBalance(Currency currency) {
+        return (currencies & (1 << currency.ordinal())) != 0;
+    }
+
+    public synchronized long getBalance(Currency currency) {
+        return balances[currency.ordinal()];
+    }
+
+    /**
+     * @return Map with the balance for each currency the user has a balance in.
+     */
+    public synchronized Map<Currency, Long> getBalances() {
+        Map<Currency, Long> result = new EnumMap<>(Currency.class);
+        for (Currency currency : CURRENCIES) {
+            if ((currencies & (1 << currency.ordinal())) != 0) {
+                result.put(currency, balances[currency.ordinal()]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Applies an entry already stored in the journal to the balance and adds it to the history.
+     * @param entry
+     * @param position Position of the entry in the journal.
+     */
+    public synchronized void apply(JournalEntry entry, long position) {
+        int ordinal = entry.getCurrency().ordinal();
+        balances[ordinal] += entry.getDelta();
+        currencies |= 1 << ordinal;
+
+        if (historySize * 2 == history.length) {
+            history = Arrays.copyOf(history, history.length * 2);
+        }
+        history[historySize * 2] = entry.getId();
+        history[historySize * 2 + 1] = position;
+        historySize++;
+
+        if (entry.getIdempotencyKey() != null) {
+            if (idempotencyKeys == null) {
+                idempotencyKeys = new HashMap<>();
+            }
+            idempotencyKeys.put(entry.getIdempotencyKey(), new long[]{position, balances[ordinal]});
+        }
+    }
+
+    /**
+     * @param idempotencyKey
+     * @return Journal position of the entry stored with the key, null if there is none.
+     */
+    public synchronized Long getIdempotencyKeyPosition(String idempotencyKey) {
+        long[] stored = idempotencyKeys != null ? idempotencyKeys.get(idempotencyKey) : null;
+        return stored != null ? stored[0] : null;
+    }
+
+    /**
+     * @param idempotencyKey
+     * @return Balance of the account right after the entry stored with the key, null if there is none.
+     */
+    public synchronized Long getIdempotencyKeyBalanceAfter(String idempotencyKey) {
+        long[] stored = idempotencyKeys != null ? idempotencyKeys.get(idempotencyKey) : null;
+        return stored != null ? stored[1] : null;
+    }
+
+    /**
+     * @return View of all the history entries applied so far, not affected by later changes.
+     */
+    public synchronized History getHistory() {
+        return new History(history, historySize);
+    }
+
+    /**
+     * Copy of the account as it is now, for a snapshot written later, not affected by later changes and never
+     * changed itself. The history array is shared, entries are only ever added after the current size and a
+     * bigger array replaces it when full, so only the balances and the key index are copied.
+     * @return The copy.
+     */
+    public synchronized JournalAccount copy() {
+        JournalAccount copy = new JournalAccount(userId);
+        System.arraycopy(balances, 0, copy.balances, 0, balances.length);
+        copy.currencies = currencies;
+        copy.history = history;
+        copy.historySize = historySize;
+        // The values are never changed once put.
+        copy.idempotencyKeys = idempotencyKeys != null ? new HashMap<>(idempotencyKeys) : null;
+        return copy;
+    }
+
+    /**
+     * Writes the whole account to a snapshot.
+     * @param out
+     */
+    public synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(userId);
+
+        out.writeByte(Integer.bitCount(currencies));
+        for (Currency currency : CURRENCIES) {
+            if ((currencies & (1 << currency.ordinal())) != 0) {
+                // Stored by code, ordinals can change between versions.
+                out.writeByte(currency.getCode());
+                out.writeLong(balances[currency.ordinal()]);
+            }
+        }
+
+        out.writeInt(historySize);
+        for (int i = 0; i < historySize * 2; i++) {
+            out.writeLong(history[i]);
+        }
+
+        out.writeInt(idempotencyKeys != null ? idempotencyKeys.size() : 0);
+        if (idempotencyKeys != null) {
+            for (Map.Entry<String, long[]> key : idempotencyKeys.entrySet()) {
+                out.writeUTF(key.getKey());
+                out.writeLong(key.getValue()[0]);
+                out.writeLong(key.getValue()[1]);
+            }
+        }
+    }
+
+    /**
+     * Reads an account written to a snapshot by writeTo.
+     * @param in
+     * @return The account.
+     */
+    public static JournalAccount readFrom(DataInput in) throws IOException {
+        JournalAccount account = new JournalAccount(in.readUTF());
+
+        int balanceCount = in.readUnsignedByte();
+        for (int i = 0; i < balanceCount; i++) {
+            Currency currency = Currency.fromCode(in.readByte());
+            if (currency == null) {
+                throw new JournalSnapshot.CorruptedSnapshotException(
+                        "Unknown currency in snapshot for user " + account.userId);
+            }
+            account.balances[currency.ordinal()] = in.readLong();
+            account.currencies |= 1 << currency.ordinal();
+        }
+
+        int historySize = in.readInt();
+        if (historySize < 0 || historySize > Integer.MAX_VALUE / 2 - 16) {
+            throw new JournalSnapshot.CorruptedSnapshotException(
+                    "Invalid history size in snapshot for user " + account.userId);
+        }
+        account.history = new long[Math.max(16, historySize * 2)];
+        for (int i = 0; i < historySize * 2; i++) {
+            account.history[i] = in.readLong();
+        }
+        account.historySize = historySize;
+
+        int keyCount = in.readInt();
+        if (keyCount < 0 || keyCount > historySize) {
+            throw new JournalSnapshot.CorruptedSnapshotException(
+                    "Invalid idempotency key count in snapshot for user " + account.userId);
+        }
+        if (keyCount > 0) {
+            account.idempotencyKeys = new HashMap<>();
+            for (int i = 0; i < keyCount; i++) {
+                account.idempotencyKeys.put(in.readUTF(), new long[]{in.readLong(), in.readLong()});
+            }
+        }
+
+        return account;
+    }
+
+    //endregion
+
+    /**
+     * Immutable view of the history entries of an account, ordered by id.
+     */
+    public static final class History {
+
+        private final long[] entries;
+
+        private final int size;
+
+        private History(long[] entries, int size) {
+            this.entries = entries;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long getId(int index) {
+            return entries[index * 2];
+        }
+
+        public long getPosition(int index) {
+            return entries[index * 2 + 1];
+        }
+
+        /**
+         * Binary search of the first entry after the given id.
+         * @param id
+         * @return Index of the first entry with a higher id, size if there are none.
+         */
+        public int firstAfter(long id) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (getId(middle) <= id) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.sergio.wallet.server.journal;
+
+import com.sergio.wallet.server.data.entity.Currency;
+
+/**
+ * Simple immutable class describing a deposit or withdraw stored in the journal, only successful
+ * operations are ever appended.
+ */
+public final class JournalEntry {
+
+    //region VARIABLES
+
+    private final long id;
+
+    private final String userId;
+
+    private final Currency currency;
+
+    private final boolean deposit;
+
+    private final long amount;
+
+    // Epoch millis.
+    private final long timestamp;
+
+    // Null if the operation was sent without idempotency key.
+    private final String idempotencyKey;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    public JournalEntry(long id, String userId, Currency currency, boolean deposit, long amount, long timestamp) {
+        this(id, userId, currency, deposit, amount, timestamp, null);
+    }
+
+    public JournalEntry(long id, String userId, Currency currency, boolean deposit, long amount, long timestamp,
+                        String idempotencyKey) {
+        this.id = id;
+        this.userId = userId;
+        this.currency = currency;
+        this.deposit = deposit;
+        this.amount = amount;
+        this.timestamp = timestamp;
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    /**
+     * @return Change of the account balance, negative for withdraws.
+     */
+    public long getDelta() {
+        return deposit ? amount : -amount;
+    }
+
+    @Override
+    public String toString() {
+        return "JournalEntry{" +
+                "id=" + id +
+                ", userId='" + userId + '\'' +
+                ", currency=" + currency +
+                ", deposit=" + deposit +
+                ", amount=" + amount +
+                ", timestamp=" + timestamp +
+                ", idempotencyKey='" + idempotencyKey + '\'' +
+                '}';
+    }
+
+    //region GETTERS
+
+    public long getId() {
+        return id;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    public boolean isDeposit() {
+        return deposit;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    //endregion
+
+    //endregion
+
+}
@@ -0,0 +1,173 @@
+package com.sergio.wallet.server.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Point in time copy of all the accounts of the journal storage backend, so on startup only the journal
+ * records appended after it have to be replayed.
+ *
+ * The snapshot is written to a temporary file and renamed over the previous one once it's fully on disk,
+ * it ends with a CRC32 of all its content, an invalid snapshot is ignored and the whole journal replayed.
+ */
+public final class JournalSnapshot {
+
+    //region VARIABLES
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(JournalSnapshot.class);
+
+    private final static int MAGIC = 0x57534E50;
+
+    // Version 2 added the idempotency keys of the accounts and version 3 their balance after, older snapshots
+    // are ignored and the journal replayed.
+    private final static int VERSION = 3;
+
+    // Journal position right after the last record included in the snapshot.
+    private final long position;
+
+    private final long lastTransactionId;
+
+    private final Map<String, JournalAccount> accounts;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    private JournalSnapshot(long position, long lastTransactionId, Map<String, JournalAccount> accounts) {
+        this.position = position;
+        this.lastTransactionId = lastTransactionId;
+        this.accounts = accounts;
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    /**
+     * Takes a snapshot of the accounts as they are now, to be written later, the accounts can change right after.
+     * Much cheaper than writing it (JournalAccount.copy), so it can be taken while holding the write lock.
+     * @param position Journal position right after the last record applied to the accounts.
+     * @param lastTransactionId
+     * @param accounts
+     * @return The snapshot.
+     */
+    public static JournalSnapshot copyOf(long position, long lastTransactionId, Collection<JournalAccount> accounts) {
+        Map<String, JournalAccount> copies = new HashMap<>();
+        accounts.forEach(account -> copies.put(account.getUserId(), account.copy()));
+        return new JournalSnapshot(position, lastTransactionId, copies);
+    }
+
+    /**
+     * Writes the snapshot replacing the previous one. The journal records up to its position must be forced
+     * before, or a crash could leave a snapshot ahead of the journal.
+     * @param file
+     */
+    public void write(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileOutputStream fileStream = new FileOutputStream(temporary.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileStream, 1 << 16),
+                    new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(position);
+            out.writeLong(lastTransactionId);
+            out.writeInt(accounts.size());
+            for (JournalAccount account : accounts.values()) {
+                account.writeTo(out);
+            }
+
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            fileStream.getFD().sync();
+        }
+
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the snapshot if there is a valid one.
+     * @param file
+     * @return The snapshot, null if there is none or it's not valid, the whole journal has to be replayed then.
+     */
+    public static JournalSnapshot read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        try (InputStream fileStream = Files.newInputStream(file)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(fileStream, 1 << 16),
+                    new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOGGER.warn("Unknown journal snapshot format, ignoring it.");
+                return null;
+            }
+
+            long position = in.readLong();
+            long lastTransactionId = in.readLong();
+            int accountCount = in.readInt();
+            Map<String, JournalAccount> accounts = new HashMap<>();
+            for (int i = 0; i < accountCount; i++) {
+                JournalAccount account = JournalAccount.readFrom(in);
+                accounts.put(account.getUserId(), account);
+            }
+
+            // The checksum is the last field, nothing can follow it.
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected || in.read() != -1) {
+                LOGGER.warn("Journal snapshot with wrong CRC, ignoring it.");
+                return null;
+            }
+
+            return new JournalSnapshot(position, lastTransactionId, accounts);
+        } catch (EOFException | UTFDataFormatException | CorruptedSnapshotException e) {
+            LOGGER.warn("Truncated or corrupted journal snapshot, ignoring it.");
+            return null;
+        }
+    }
+
+    //region GETTERS
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getLastTransactionId() {
+        return lastTransactionId;
+    }
+
+    public Map<String, JournalAccount> getAccounts() {
+        return accounts;
+    }
+
+    //endregion
+
+    //endregion
+
+    /**
+     * Thrown while reading a snapshot with values that can't be valid, before its CRC can be checked.
+     */
+    static class CorruptedSnapshotException extends IOException {
+
+        CorruptedSnapshotException(String message) {
+            super(message);
+        }
+
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.sergio.wallet.server.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Small HTTP server exposing the meters of the registry for Prometheus to scrape, the server has no web
+ * stack of its own (only gRPC), so the JDK HTTP server is used instead of the actuator web endpoints.
+ *
+ * Only the configured path is served, with the Prometheus text format, by a single thread as scrapes are rare.
+ */
+@Component
+public class PrometheusScrapeServer {
+
+    //region VARIABLES
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(PrometheusScrapeServer.class);
+
+    private final static String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final PrometheusMeterRegistry meterRegistry;
+
+    private final boolean enabled;
+
+    private final int port;
+
+    private final String path;
+
+    private HttpServer server;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    /**
+     * @param meterRegistry
+     * @param enabled
+     * @param port Port listening for scrapes, 0 for any free port.
+     * @param path Path of the scrape endpoint.
+     */
+    @Autowired
+    public PrometheusScrapeServer(PrometheusMeterRegistry meterRegistry,
+                                  @Value("${wallet.metrics.enabled:true}") boolean enabled,
+                                  @Value("${wallet.metrics.port:9091}") int port,
+                                  @Value("${wallet.metrics.path:/metrics}") String path) {
+        if (port < 0 || !path.startsWith("/")) {
+            throw new IllegalArgumentException("Invalid metrics configuration.");
+        }
+
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.port = port;
+        this.path = path;
+    }
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    private void scrape(HttpExchange exchange) throws IOException {
+        try {
+            if (!path.equals(exchange.getRequestURI().getPath())) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            byte[] body = meterRegistry.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    /**
+     * Starts listening for scrapes, if the port is taken the server keeps running without the endpoint.
+     */
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            server = HttpServer.create(new InetSocketAddress(port), 0);
+        } catch (IOException e) {
+            LOGGER.warn("Metrics endpoint not started, port " + port + " not available: " + e.getMessage());
+            return;
+        }
+        server.createContext("/", this::scrape);
+        server.start();
+
+        LOGGER.info("Metrics endpoint started, listening on port: " + getPort() + " | path: " + path);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * @return The port actually listening for scrapes, or -1 if the endpoint is not running.
+     */
+    public int getPort() {
+        return server != null ? server.getAddress().getPort() : -1;
+    }
+
+    //endregion
+
+}
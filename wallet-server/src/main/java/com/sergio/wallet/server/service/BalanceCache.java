@@ -0,0 +1,243 @@
+package com.sergio.wallet.server.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.sergio.wallet.server.data.entity.Balance;
+import com.sergio.wallet.server.data.entity.Currency;
+import com.sergio.wallet.server.data.repository.BalanceRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-process write-through cache with the balances of each user for all currencies, so balance
+ * requests for active users don't need to reach the database.
+ *
+ * Users are loaded from the DB on their first balance request and evicted by size (W-TinyLFU) when
+ * the cache is full. Committed balance changes are applied to the cached users by the transaction
+ * service, each currency keeps the id of the last transaction applied so a change already included by
+ * a concurrent load from the DB is never applied twice.
+ *
+ * Only valid while this server is the only one writing to the balance table. Only used by the JPA
+ * backend, the other backends either hold all the balances in memory already or skip it on purpose.
+ */
+@Component
+@ConditionalOnProperty(name = "wallet.store", havingValue = "jpa", matchIfMissing = true)
+public class BalanceCache {
+
+    //region VARIABLES
+
+    private final BalanceRepository balanceRepository;
+
+    // Cached values are never modified, every change replaces the user's map with a new one.
+    // EnumMaps are backed by a small array indexed by the currency, no hashing on lookups or copies.
+    private final Cache<String, Map<Currency, CachedBalance>> cache;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    @Autowired
+    public BalanceCache(BalanceRepository balanceRepository, MeterRegistry meterRegistry,
+                        @Value("${wallet.balance-cache.max-users:100000}") long maxUsers) {
+        if (maxUsers <= 0) {
+            throw new IllegalArgumentException("Balance cache max users must be higher than 0.");
+        }
+
+        this.balanceRepository = balanceRepository;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxUsers)
+                .recordStats()
+                .build();
+
+        // Exposes hits, misses, evictions and size as wallet.balance.cache meters.
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "wallet.balance.cache");
+    }
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    /**
+     * Loads all the balances of the user from the database, used on cache misses.
+     * @param userId
+     * @return Map with the balance for each currency, empty if the user has no balances yet.
+     */
+    private Map<Currency, CachedBalance> load(String userId) {
+        return toCached(balanceRepository.findAllByUserId(userId));
+    }
+
+    private static Map<Currency, CachedBalance> toCached(List<Balance> balanceList) {
+        Map<Currency, CachedBalance> balances = new EnumMap<>(Currency.class);
+        balanceList.forEach(balance -> balances.putIfAbsent(balance.getCurrency(),
+                new CachedBalance(balance.getBalance(), balance.getLastTransactionId())));
+
+        return Collections.unmodifiableMap(balances);
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    /**
+     * Retrieves the balances of the user, from the cache if present or from the DB otherwise.
+     * @param userId
+     * @return Map with the balance for each currency for the specific user.
+     */
+    public Map<Currency, Long> getBalances(String userId) {
+        Map<Currency, CachedBalance> cached = cache.get(userId, this::load);
+
+        Map<Currency, Long> balances = new EnumMap<>(Currency.class);
+        cached.forEach((currency, balance) -> balances.put(currency, balance.amount));
+
+        return balances;
+    }
+
+    /**
+     * Applies a committed balance change, only if the user is cached, users not cached will get the
+     * change when loaded from the DB. Changes over the same account must be applied in commit order,
+     * which the account locks already guarantee.
+     * @param userId
+     * @param currency
+     * @param delta Positive for deposits, negative for withdraws.
+     * @param transactionId Id of the transaction that changed the balance.
+     */
+    public void applyChange(String userId, Currency currency, long delta, long transactionId) {
+        cache.asMap().computeIfPresent(userId, (key, balances) -> {
+            CachedBalance current = balances.get(currency);
+
+            // The load from the DB already happened after this change was committed.
+            if (current != null && current.lastTransactionId >= transactionId) {
+                return balances;
+            }
+
+            Map<Currency, CachedBalance> updated = new EnumMap<>(Currency.class);
+            updated.putAll(balances);
+            updated.put(currency, new CachedBalance(current == null ? delta : current.amount + delta, transactionId));
+            return Collections.unmodifiableMap(updated);
+        });
+    }
+
+    /**
+     * Sets a committed balance, only if the user is cached and the change is newer than the one cached.
+     * Unlike applyChange the changes can be applied in any order, used when writes don't hold the account
+     * locks, as the transaction ids of the committed changes over an account grow with their commit order.
+     * @param userId
+     * @param currency
+     * @param balance Balance right after the change.
+     * @param transactionId Id of the transaction that changed the balance.
+     */
+    public void applyBalance(String userId, Currency currency, long balance, long transactionId) {
+        cache.asMap().computeIfPresent(userId, (key, balances) -> {
+            CachedBalance current = balances.get(currency);
+
+            if (current != null && current.lastTransactionId >= transactionId) {
+                return balances;
+            }
+
+            Map<Currency, CachedBalance> updated = new EnumMap<>(Currency.class);
+            updated.putAll(balances);
+            updated.put(currency, new CachedBalance(balance, transactionId));
+            return Collections.unmodifiableMap(updated);
+        });
+    }
+
+    /**
+     * Retrieves the balances of the user only if the user is cached, without loading it. Hits are counted,
+     * misses are not, they are counted by getBalances when the user is loaded afterwards.
+     * @param userId
+     * @return Map with the balance for each currency the user has a balance in, or null if the user is not cached.
+     */
+    public Map<Currency, Long> getBalancesIfCached(String userId) {
+        // Checked quietly first, only the lookup of a cached user goes to the stats.
+        Map<Currency, CachedBalance> cached = cache.asMap().containsKey(userId) ? cache.getIfPresent(userId) : null;
+        if (cached == null) {
+            return null;
+        }
+
+        Map<Currency, Long> balances = new EnumMap<>(Currency.class);
+        cached.forEach((currency, balance) -> balances.put(currency, balance.amount));
+        return balances;
+    }
+
+    /**
+     * Retrieves the balances of the user only if the user is cached, without loading it and without counting
+     * as a hit or miss.
+     * @param userId
+     * @return Map with the balance for each currency the user has a balance in, or null if the user is not cached.
+     */
+    public Map<Currency, Long> peekBalances(String userId) {
+        Map<Currency, CachedBalance> cached = cache.asMap().get(userId);
+        if (cached == null) {
+            return null;
+        }
+
+        Map<Currency, Long> balances = new EnumMap<>(Currency.class);
+        cached.forEach((currency, balance) -> balances.put(currency, balance.amount));
+        return balances;
+    }
+
+    /**
+     * Caches the user with all its balances as read from the DB by a writer, same as a load on a cache miss,
+     * so the next operations of the user don't need to read them again. Kept only if the user is not cached yet.
+     * Must be called right after reading them, changes committed afterwards are applied as for any other load.
+     * @param userId
+     * @param balanceList All the balance rows of the user.
+     */
+    public void fill(String userId, List<Balance> balanceList) {
+        cache.asMap().putIfAbsent(userId, toCached(balanceList));
+    }
+
+    /**
+     * Removes the user from the cache, the next balance request will load it again from the DB.
+     * @param userId
+     */
+    public void invalidate(String userId) {
+        cache.invalidate(userId);
+    }
+
+    /**
+     * Removes all the users from the cache.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public long getSize() {
+        cache.cleanUp();
+        return cache.estimatedSize();
+    }
+
+    //endregion
+
+    //region INNER CLASSES
+
+    /** Balance of one currency together with the id of the last transaction applied to it. */
+    private static class CachedBalance {
+
+        private final long amount;
+
+        private final long lastTransactionId;
+
+        private CachedBalance(long amount, long lastTransactionId) {
+            this.amount = amount;
+            this.lastTransactionId = lastTransactionId;
+        }
+    }
+
+    //endregion
+
+}
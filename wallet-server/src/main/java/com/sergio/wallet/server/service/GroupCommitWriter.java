@@ -0,0 +1,317 @@
+package com.sergio.wallet.server.service;
+
+import com.sergio.wallet.server.concurrency.AccountLockStripes;
+import com.sergio.wallet.server.concurrency.TransientFailureRetry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Optional write pipeline in front of the TransactionService, when enabled deposits and withdraws are
+ * queued instead of being committed one by one.
+ *
+ * A single writer thread drains the queue in groups of up to max-batch-size operations, waiting at most
+ * max-linger-ms for a group to fill up, and executes each group as one DB transaction. Every caller gets
+ * a future that is completed only after the group it belongs to has been committed, so the cost of the
+ * commit is shared by all the operations in the group. Groups failed by transient DB concurrency errors are
+ * retried as a whole before falling back to one operation at a time.
+ */
+@Component
+public class GroupCommitWriter {
+
+    //region VARIABLES
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(GroupCommitWriter.class);
+
+    private final TransactionService transactionService;
+
+    private final AccountLockStripes accountLocks;
+
+    private final TransientFailureRetry transientFailureRetry;
+
+    private final boolean enabled;
+
+    private final int maxBatchSize;
+
+    private final long maxLingerNanos;
+
+    private final BlockingQueue<PendingOperation> queue;
+
+    private final DistributionSummary batchSizes;
+
+    private final Counter fallbacks;
+
+    private final Timer groupTime;
+
+    private Thread writerThread;
+
+    private volatile boolean running;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    @Autowired
+    public GroupCommitWriter(TransactionService transactionService, AccountLockStripes accountLocks,
+                             TransientFailureRetry transientFailureRetry, MeterRegistry meterRegistry,
+                             @Value("${wallet.group-commit.enabled:false}") boolean enabled,
+                             @Value("${wallet.group-commit.max-batch-size:100}") int maxBatchSize,
+                             @Value("${wallet.group-commit.max-linger-ms:2}") long maxLingerMillis,
+                             @Value("${wallet.group-commit.queue-capacity:10000}") int queueCapacity) {
+        if (maxBatchSize <= 0 || maxLingerMillis < 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Invalid group commit configuration.");
+        }
+
+        this.transactionService = transactionService;
+        this.accountLocks = accountLocks;
+        this.transientFailureRetry = transientFailureRetry;
+        this.enabled = enabled;
+        this.maxBatchSize = maxBatchSize;
+        this.maxLingerNanos = TimeUnit.MILLISECONDS.toNanos(maxLingerMillis);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        this.batchSizes = DistributionSummary.builder("wallet.group.commit.batch.size")
+                .description("Operations committed together by the group commit writer")
+                .register(meterRegistry);
+        this.fallbacks = Counter.builder("wallet.group.commit.fallbacks")
+                .description("Groups that failed and were committed one operation at a time")
+                .register(meterRegistry);
+        this.groupTime = Timer.builder("wallet.db.time")
+                .description("Time spent in the transaction service, locks excluded")
+                .tag("operation", "group")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        Gauge.builder("wallet.group.commit.queue.size", queue, BlockingQueue::size)
+                .description("Operations waiting to be picked by the group commit writer")
+                .register(meterRegistry);
+    }
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    /**
+     * Main loop of the writer thread, waits for the first operation and then keeps collecting until
+     * the group is full or the linger time is over.
+     */
+    private void runWriter() {
+        List<PendingOperation> group = new ArrayList<>(maxBatchSize);
+
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingOperation first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+
+                long deadline = System.nanoTime() + maxLingerNanos;
+                while (group.size() < maxBatchSize) {
+                    queue.drainTo(group, maxBatchSize - group.size());
+
+                    long remaining = deadline - System.nanoTime();
+                    if (group.size() >= maxBatchSize || remaining <= 0) {
+                        break;
+                    }
+
+                    PendingOperation next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Stop waiting for more operations, whatever was collected still has to be committed.
+                running = false;
+            }
+
+            if (!group.isEmpty()) {
+                commit(group);
+                group.clear();
+            }
+        }
+
+        LOGGER.debug("Group commit writer stopped.");
+    }
+
+    /**
+     * Commits a group of operations holding the locks of all the accounts involved, the futures are
+     * completed after the locks are released.
+     * @param group
+     */
+    private void commit(List<PendingOperation> group) {
+        List<TransactionOperation> operations = new ArrayList<>(group.size());
+        int[] stripeIndexes = new int[group.size()];
+
+        for (int i = 0; i < group.size(); i++) {
+            TransactionOperation operation = group.get(i).operation;
+            operations.add(operation);
+            stripeIndexes[i] = accountLocks.stripeIndex(operation.getUserId(), operation.getCurrency());
+        }
+
+        List<TransactionResult> results = null;
+        RuntimeException groupFailure = null;
+
+        try {
+            results = transientFailureRetry.execute(() -> {
+                List<Lock> locks = accountLocks.isLocking() ? accountLocks.lockAll(stripeIndexes)
+                        : Collections.emptyList();
+                try {
+                    return groupTime.record(() -> transactionService.executeBatch(operations));
+                } finally {
+                    accountLocks.unlockAll(locks);
+                }
+            });
+        } catch (RuntimeException e) {
+            groupFailure = e;
+        }
+
+        if (groupFailure != null) {
+            // One bad operation should not fail the rest of the group, retry them one by one.
+            LOGGER.warn("Group of " + group.size() + " operations failed, committing them one by one | "
+                    + groupFailure.getMessage());
+            fallbacks.increment();
+            group.forEach(this::commitAlone);
+            return;
+        }
+
+        batchSizes.record(group.size());
+        for (int i = 0; i < group.size(); i++) {
+            group.get(i).future.complete(results.get(i));
+        }
+    }
+
+    /**
+     * Commits a single operation in its own DB transaction.
+     * @param pending
+     */
+    private void commitAlone(PendingOperation pending) {
+        TransactionOperation operation = pending.operation;
+        TransactionResult result;
+        try {
+            result = transientFailureRetry.execute(() -> {
+                Lock lock = accountLocks.isLocking() ? accountLocks.lock(operation.getUserId(), operation.getCurrency())
+                        : null;
+                try {
+                    return groupTime.record(() -> transactionService.executeBatch(
+                            Collections.singletonList(operation))).get(0);
+                } finally {
+                    if (lock != null) {
+                        lock.unlock();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            pending.future.completeExceptionally(e);
+            return;
+        }
+
+        batchSizes.record(1);
+        pending.future.complete(result);
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    /**
+     * Starts the writer thread, only if the group commit mode is enabled.
+     */
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+
+        running = true;
+        writerThread = new Thread(this::runWriter, "group-commit-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        LOGGER.info("Group commit writer started | max batch size: " + maxBatchSize + " | max linger: "
+                + TimeUnit.NANOSECONDS.toMillis(maxLingerNanos) + " ms");
+    }
+
+    /**
+     * Stops accepting operations and waits for the writer to commit the ones already queued.
+     */
+    @PreDestroy
+    public void stop() {
+        if (writerThread == null) {
+            return;
+        }
+
+        running = false;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Anything left at this point will never be committed.
+        PendingOperation pending;
+        while ((pending = queue.poll()) != null) {
+            pending.future.completeExceptionally(new CancellationException("Group commit writer stopped."));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues an operation to be committed with the next group.
+     * @param operation
+     * @return Future completed with the result once committed, completed exceptionally with
+     * RejectedExecutionException if the queue is full or the writer is stopped.
+     */
+    public CompletableFuture<TransactionResult> submit(TransactionOperation operation) {
+        PendingOperation pending = new PendingOperation(operation);
+
+        if (!running) {
+            pending.future.completeExceptionally(new RejectedExecutionException("Group commit writer is not running."));
+        } else if (!queue.offer(pending)) {
+            pending.future.completeExceptionally(new RejectedExecutionException("Group commit queue is full."));
+        } else if (!running && queue.remove(pending)) {
+            // Stopped while offering, the queue may have been drained already, so nobody else would complete it.
+            // If it can't be removed the writer or stop took it and complete it themselves.
+            pending.future.completeExceptionally(new RejectedExecutionException("Group commit writer is not running."));
+        }
+
+        return pending.future;
+    }
+
+    //endregion
+
+    //region INNER CLASSES
+
+    /** Operation waiting in the queue together with the future of its caller. */
+    private static class PendingOperation {
+
+        private final TransactionOperation operation;
+
+        private final CompletableFuture<TransactionResult> future = new CompletableFuture<>();
+
+        private PendingOperation(TransactionOperation operation) {
+            this.operation = operation;
+        }
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,275 @@
+package com.sergio.wallet.server.service;
+
+import com.sergio.wallet.server.data.entity.Currency;
+import com.sergio.wallet.server.data.entity.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * TransactionService keeping the ledger and the balances only in memory, enabled with wallet.store set to
+ * memory (or the memory profile, which also leaves the database out), nothing survives a restart.
+ *
+ * Meant for comparing the cost of the storage backends and for running the server without a database.
+ * Every user has its own lock, an operation only locks the users it changes, so writes over different
+ * users run in parallel. Batches lock all their users at once, always in the same order so they can't
+ * deadlock each other, and are applied completely or not at all.
+ *
+ * Transactions stored with an idempotency key are also kept by key in their user's account, a second operation
+ * with the same key for the same user is rejected, same as the unique key of the DB backends. Keys are only taken
+ * or checked by operations that are stored, so a withdraw without funds gets the same result with any key.
+ */
+@Service
+@ConditionalOnProperty(name = "wallet.store", havingValue = "memory")
+public class InMemoryTransactionService implements TransactionService {
+
+    //region VARIABLES
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(InMemoryTransactionService.class);
+
+    private final ConcurrentHashMap<String, Account> accounts = new ConcurrentHashMap<>();
+
+    private final AtomicLong lastTransactionId = new AtomicLong();
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    /**
+     * Locks the accounts of all the users in the operations, in user id order.
+     * @param operations
+     * @return The locked accounts, must be released with unlockAll.
+     */
+    private List<Account> lockAll(List<TransactionOperation> operations) {
+        SortedSet<String> userIds = new TreeSet<>();
+        operations.forEach(operation -> {
+            if (operation.getCurrency() != null) {
+                userIds.add(operation.getUserId());
+            }
+        });
+
+        List<Account> locked = new ArrayList<>(userIds.size());
+        for (String userId : userIds) {
+            Account account = accounts.computeIfAbsent(userId, key -> new Account());
+            account.lock.lock();
+            locked.add(account);
+        }
+
+        return locked;
+    }
+
+    private void unlockAll(List<Account> locked) {
+        for (int i = locked.size() - 1; i >= 0; i--) {
+            locked.get(i).lock.unlock();
+        }
+    }
+
+    private Transaction createTransaction(TransactionOperation operation, LocalDateTime date) {
+        Transaction transaction = new Transaction();
+        transaction.setUserId(operation.getUserId());
+        transaction.setCurrency(operation.getCurrency());
+        transaction.setDate(date);
+        transaction.setIdempotencyKey(operation.getIdempotencyKey());
+
+        if (operation.isDeposit()) {
+            transaction.setDeposit(operation.getAmount());
+        } else {
+            transaction.setWithdraw(operation.getAmount());
+        }
+
+        return transaction;
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    @Override
+    public TransactionResult doDeposit(String userId, long amount, Currency currency) {
+        return executeBatch(Collections.singletonList(TransactionOperation.deposit(userId, amount, currency))).get(0);
+    }
+
+    @Override
+    public TransactionResult doWithdraw(String userId, long amount, Currency currency) {
+        return executeBatch(Collections.singletonList(TransactionOperation.withdraw(userId, amount, currency))).get(0);
+    }
+
+    /**
+     * Entry method for performing many deposits and withdraws at once, all the operations are checked in
+     * order while holding the locks of all the users involved, against the balances including the previous
+     * operations of the batch, then the successful ones are applied.
+     * @param operations
+     * @return Result of each operation in the same order, the balances after each successful operation
+     * include all the previous operations of the batch.
+     * @throws DuplicateKeyException If a successful operation has an idempotency key already stored for its user,
+     * or used twice in the batch, nothing is applied then.
+     */
+    @Override
+    public List<TransactionResult> executeBatch(List<TransactionOperation> operations) {
+        String threadName = Thread.currentThread().getName();
+        LOGGER.debug(threadName + " | " + "executeBatch of " + operations.size() + " operations.");
+
+        List<TransactionResult> results = new ArrayList<>(operations.size());
+
+        List<Account> locked = lockAll(operations);
+        try {
+            LocalDateTime now = LocalDateTime.now();
+
+            // Balances of the accounts changed by the batch, as they are after each checked operation.
+            Map<String, Map<Currency, Long>> pending = new HashMap<>();
+            List<Transaction> transactions = new ArrayList<>(operations.size());
+            Set<String> batchKeys = new HashSet<>();
+
+            for (TransactionOperation operation : operations) {
+                Currency currency = operation.getCurrency();
+                if (currency == null) {
+                    results.add(TransactionResult.UNKNOWN_CURRENCY);
+                    continue;
+                }
+
+                // Locked above, so it's there.
+                Account account = accounts.get(operation.getUserId());
+                Map<Currency, Long> userBalances = pending.computeIfAbsent(operation.getUserId(),
+                        key -> new EnumMap<>(account.balances));
+                Long before = userBalances.get(currency);
+
+                // Same as the DB backend, withdraws need an existing balance with enough funds.
+                if (!operation.isDeposit() && (before == null || before < operation.getAmount())) {
+                    results.add(TransactionResult.INSUFFICIENT_FUNDS);
+                    continue;
+                }
+
+                // Keys are only taken by stored operations, same as the DB backends.
+                String idempotencyKey = operation.getIdempotencyKey();
+                if (idempotencyKey != null && (!batchKeys.add(operation.getUserId() + '\u0000' + idempotencyKey)
+                        || account.idempotencyKeys.containsKey(idempotencyKey))) {
+                    throw new DuplicateKeyException("Idempotency key already used by user " + operation.getUserId());
+                }
+
+                long after = (before != null ? before : 0)
+                        + (operation.isDeposit() ? operation.getAmount() : -operation.getAmount());
+                userBalances.put(currency, after);
+
+                Transaction transaction = createTransaction(operation, now);
+                transaction.setBalanceAfter(after);
+                transactions.add(transaction);
+                results.add(TransactionResult.successful(after));
+            }
+
+            // Nothing was rejected, so everything checked is applied.
+            pending.forEach((userId, balances) -> accounts.get(userId).balances.putAll(balances));
+            for (Transaction transaction : transactions) {
+                Account account = accounts.get(transaction.getUserId());
+                // Ids are taken while holding the user's lock, so each user's history stays ordered by id.
+                transaction.setId(lastTransactionId.incrementAndGet());
+                account.history.add(transaction);
+                if (transaction.getIdempotencyKey() != null) {
+                    account.idempotencyKeys.put(transaction.getIdempotencyKey(), transaction);
+                }
+            }
+        } finally {
+            unlockAll(locked);
+        }
+
+        LOGGER.debug(threadName + " | " + "executeBatch finished.");
+        return results;
+    }
+
+    @Override
+    public Map<Currency, Long> getBalance(String userId) {
+        Account account = accounts.get(userId);
+        if (account == null) {
+            return new EnumMap<>(Currency.class);
+        }
+
+        account.lock.lock();
+        try {
+            return new EnumMap<>(account.balances);
+        } finally {
+            account.lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Transaction> getTransactions(String userId, Currency currency, LocalDateTime fromDate,
+                                             LocalDateTime toDate, long afterId, int limit) {
+        List<Transaction> transactions = new ArrayList<>();
+
+        Account account = accounts.get(userId);
+        if (account == null) {
+            return transactions;
+        }
+
+        account.lock.lock();
+        try {
+            // Binary search of the first transaction after the given id, the history is ordered by id.
+            int low = 0;
+            int high = account.history.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (account.history.get(middle).getId() <= afterId) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            for (int i = low; i < account.history.size() && transactions.size() < limit; i++) {
+                Transaction transaction = account.history.get(i);
+                if ((currency != null && transaction.getCurrency() != currency)
+                        || (fromDate != null && transaction.getDate().isBefore(fromDate))
+                        || (toDate != null && !transaction.getDate().isBefore(toDate))) {
+                    continue;
+                }
+
+                transactions.add(transaction);
+            }
+        } finally {
+            account.lock.unlock();
+        }
+
+        return transactions;
+    }
+
+    @Override
+    public Transaction findByIdempotencyKey(String userId, String idempotencyKey) {
+        Account account = accounts.get(userId);
+        if (account == null) {
+            return null;
+        }
+
+        account.lock.lock();
+        try {
+            return account.idempotencyKeys.get(idempotencyKey);
+        } finally {
+            account.lock.unlock();
+        }
+    }
+
+    //endregion
+
+    //region INNER CLASSES
+
+    /** Balances and history of a user, only read or changed while holding its lock. */
+    private static class Account {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final Map<Currency, Long> balances = new EnumMap<>(Currency.class);
+
+        private final List<Transaction> history = new ArrayList<>();
+
+        private final Map<String, Transaction> idempotencyKeys = new HashMap<>();
+    }
+
+    //endregion
+
+}
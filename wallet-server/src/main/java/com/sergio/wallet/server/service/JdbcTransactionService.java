@@ -0,0 +1,516 @@
+package com.sergio.wallet.server.service;
+
+import com.sergio.wallet.server.data.entity.Currency;
+import com.sergio.wallet.server.data.entity.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * TransactionService backed by the same Transaction and Balance tables as the JPA backend, but using plain
+ * JDBC statements instead of entities, enabled with wallet.store set to jdbc.
+ *
+ * There is no persistence context, no dirty checking and no balance cache, every method runs a fixed set of
+ * statements with constant SQL, so the driver's prepared statement cache (enabled on the datasource) reuses
+ * them on each pooled connection. Transaction ids are reserved in blocks from the same ID_GENERATOR row as the
+ * JPA backend, so both can be used over the same database.
+ *
+ * Table names as created by the default physical naming strategy, same as the native queries of the repositories.
+ *
+ * Same as the JPA backend, writes over the same account must be serialized by the caller (account locks).
+ */
+@Service
+@ConditionalOnProperty(name = "wallet.store", havingValue = "jdbc")
+public class JdbcTransactionService implements TransactionService {
+
+    //region VARIABLES
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(JdbcTransactionService.class);
+
+    // Same block size and generator row as the pooled table generator of the Transaction entity.
+    private final static int ID_ALLOCATION_SIZE = 100;
+
+    private final static String ID_SEQUENCE_NAME = "TRANSACTION";
+
+    // Dates are stored in UTC, same as the JPA backend (hibernate.jdbc.time_zone).
+    private final static TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private final static String SQL_SELECT_NEXT_ID =
+            "SELECT NEXT_VAL FROM id_generator WHERE SEQUENCE_NAME = ? FOR UPDATE";
+
+    private final static String SQL_INSERT_NEXT_ID =
+            "INSERT INTO id_generator (SEQUENCE_NAME, NEXT_VAL) VALUES (?, ?)";
+
+    private final static String SQL_UPDATE_NEXT_ID =
+            "UPDATE id_generator SET NEXT_VAL = ? WHERE SEQUENCE_NAME = ?";
+
+    private final static String SQL_INSERT_TRANSACTION =
+            "INSERT INTO transaction (ID, USER_ID, DEPOSIT, WITHDRAW, CURRENCY, DATE, IDEMPOTENCY_KEY, BALANCE_AFTER) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final static String SQL_INCREASE_BALANCE =
+            "INSERT INTO balance (USER_ID, CURRENCY, BALANCE, MODIFIED, LAST_TRANSACTION_ID) VALUES (?, ?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE BALANCE = BALANCE + VALUES(BALANCE), MODIFIED = VALUES(MODIFIED), "
+            + "LAST_TRANSACTION_ID = VALUES(LAST_TRANSACTION_ID), VERSION = VERSION + 1";
+
+    private final static String SQL_DECREASE_BALANCE =
+            "UPDATE balance SET BALANCE = BALANCE - ?, MODIFIED = ?, LAST_TRANSACTION_ID = ?, VERSION = VERSION + 1 "
+            + "WHERE USER_ID = ? AND CURRENCY = ? AND BALANCE >= ?";
+
+    private final static String SQL_SELECT_BALANCES =
+            "SELECT CURRENCY, BALANCE FROM balance WHERE USER_ID = ?";
+
+    private final static String SQL_SELECT_PAGE =
+            "SELECT ID, USER_ID, DEPOSIT, WITHDRAW, CURRENCY, DATE FROM transaction "
+            + "WHERE USER_ID = ? AND ID > ? AND DATE >= ? AND DATE < ? ORDER BY ID ASC LIMIT ?";
+
+    private final static String SQL_SELECT_PAGE_BY_CURRENCY =
+            "SELECT ID, USER_ID, DEPOSIT, WITHDRAW, CURRENCY, DATE FROM transaction "
+            + "WHERE USER_ID = ? AND CURRENCY = ? AND ID > ? AND DATE >= ? AND DATE < ? ORDER BY ID ASC LIMIT ?";
+
+    private final static String SQL_SELECT_BY_IDEMPOTENCY_KEY =
+            "SELECT ID, USER_ID, DEPOSIT, WITHDRAW, CURRENCY, DATE, BALANCE_AFTER FROM transaction "
+            + "WHERE USER_ID = ? AND IDEMPOTENCY_KEY = ?";
+
+    private final static String SQL_SELECT_ARCHIVED_BY_IDEMPOTENCY_KEY =
+            "SELECT ID, USER_ID, DEPOSIT, WITHDRAW, CURRENCY, DATE, BALANCE_AFTER FROM transaction_archive "
+            + "WHERE USER_ID = ? AND IDEMPOTENCY_KEY = ?";
+
+    private final static String SQL_SELECT_ARCHIVED_PAGE =
+            "SELECT ID, USER_ID, DEPOSIT, WITHDRAW, CURRENCY, DATE FROM transaction_archive "
+            + "WHERE USER_ID = ? AND ID > ? AND DATE >= ? AND DATE < ? ORDER BY ID ASC LIMIT ?";
+
+    private final static String SQL_SELECT_ARCHIVED_PAGE_BY_CURRENCY =
+            "SELECT ID, USER_ID, DEPOSIT, WITHDRAW, CURRENCY, DATE FROM transaction_archive "
+            + "WHERE USER_ID = ? AND CURRENCY = ? AND ID > ? AND DATE >= ? AND DATE < ? ORDER BY ID ASC LIMIT ?";
+
+    // MySQL error code of a duplicate entry for a unique key.
+    private final static int ER_DUP_ENTRY = 1062;
+
+    // Bounds used for history queries without a time range, same as the JPA backend.
+    private final static LocalDateTime HISTORY_MIN_DATE = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private final static LocalDateTime HISTORY_MAX_DATE = LocalDateTime.of(9999, 12, 31, 23, 59, 59);
+
+    private final DataSource dataSource;
+
+    // Guarded by this, next id to hand out and last id of the reserved block.
+    private long nextId;
+
+    private long lastReservedId;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    @Autowired
+    public JdbcTransactionService(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    /**
+     * Reserves a new block of ids in its own DB transaction, so the row lock is released right away.
+     * The stored value is the last id of the next block to reserve, same as the pooled table generator.
+     * @throws SQLException
+     */
+    private void reserveIds() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                long blockEnd;
+                try (PreparedStatement select = connection.prepareStatement(SQL_SELECT_NEXT_ID)) {
+                    select.setString(1, ID_SEQUENCE_NAME);
+                    try (ResultSet resultSet = select.executeQuery()) {
+                        blockEnd = resultSet.next() ? resultSet.getLong(1) : 0;
+                    }
+                }
+
+                if (blockEnd == 0) {
+                    blockEnd = ID_ALLOCATION_SIZE;
+                    try (PreparedStatement insert = connection.prepareStatement(SQL_INSERT_NEXT_ID)) {
+                        insert.setString(1, ID_SEQUENCE_NAME);
+                        insert.setLong(2, blockEnd + ID_ALLOCATION_SIZE);
+                        insert.executeUpdate();
+                    }
+                } else {
+                    try (PreparedStatement update = connection.prepareStatement(SQL_UPDATE_NEXT_ID)) {
+                        update.setLong(1, blockEnd + ID_ALLOCATION_SIZE);
+                        update.setString(2, ID_SEQUENCE_NAME);
+                        update.executeUpdate();
+                    }
+                }
+
+                connection.commit();
+
+                nextId = blockEnd - ID_ALLOCATION_SIZE + 1;
+                lastReservedId = blockEnd;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private synchronized long nextTransactionId() throws SQLException {
+        if (nextId == 0 || nextId > lastReservedId) {
+            reserveIds();
+        }
+        return nextId++;
+    }
+
+    /**
+     * Balances of the user as seen by the current DB transaction, exact as the caller holds its account locks.
+     * @return Modifiable map with the balance of each existing account of the user.
+     */
+    private Map<Currency, Long> readBalances(Connection connection, String userId) throws SQLException {
+        Map<Currency, Long> balances = new EnumMap<>(Currency.class);
+
+        try (PreparedStatement select = connection.prepareStatement(SQL_SELECT_BALANCES)) {
+            select.setString(1, userId);
+            try (ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    Currency currency = Currency.fromCode(resultSet.getInt(1));
+                    if (currency != null) {
+                        balances.put(currency, resultSet.getLong(2));
+                    }
+                }
+            }
+        }
+
+        return balances;
+    }
+
+    /**
+     * Reads the transaction stored with the user's idempotency key, with one of the idempotency key queries.
+     * @return The transaction, or null if none stored with that key.
+     */
+    private Transaction readByIdempotencyKey(Connection connection, String sql, String userId,
+                                             String idempotencyKey) throws SQLException {
+        try (PreparedStatement select = connection.prepareStatement(sql)) {
+            select.setString(1, userId);
+            select.setString(2, idempotencyKey);
+            try (ResultSet resultSet = select.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+
+                Transaction transaction = toTransaction(resultSet);
+                transaction.setIdempotencyKey(idempotencyKey);
+                transaction.setBalanceAfter(resultSet.getLong(7));
+                return transaction;
+            }
+        }
+    }
+
+    /**
+     * @return If the failure, or any failure chained to it, is a duplicate entry for a unique key.
+     */
+    private static boolean isDuplicateKey(SQLException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException && ((SQLException) cause).getErrorCode() == ER_DUP_ENTRY) {
+                return true;
+            }
+        }
+        SQLException next = e.getNextException();
+        return next != null && next != e && isDuplicateKey(next);
+    }
+
+    /**
+     * Executes all the operations in the given connection, same write order as the JPA backend: the balances
+     * of the users involved are read first, so the withdraws without enough funds are rejected without writing
+     * anything and the balance after each operation is known beforehand. The transaction rows of the rest are
+     * inserted in a single JDBC batch, then the balances are changed in order by the conditional statements,
+     * which must match as the funds were checked. Nothing is ever removed.
+     * @param connection In a DB transaction, committed by the caller.
+     * @param operations
+     * @return Result of each operation in the same order.
+     * @throws SQLException
+     * @throws IllegalStateException If a balance was changed without holding its account lock, the caller
+     * rolls back then.
+     * @throws DuplicateKeyException If an idempotency key was used by an archived transaction, the caller rolls
+     * back then.
+     */
+    private List<TransactionResult> execute(Connection connection, List<TransactionOperation> operations)
+            throws SQLException {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+
+        Map<String, Map<Currency, Long>> balances = new HashMap<>();
+        for (TransactionOperation operation : operations) {
+            if (operation.getCurrency() != null && !balances.containsKey(operation.getUserId())) {
+                balances.put(operation.getUserId(), readBalances(connection, operation.getUserId()));
+            }
+        }
+
+        List<TransactionResult> results = new ArrayList<>(operations.size());
+        List<TransactionOperation> stored = new ArrayList<>(operations.size());
+        List<Long> balancesAfter = new ArrayList<>(operations.size());
+        for (TransactionOperation operation : operations) {
+            Currency currency = operation.getCurrency();
+            if (currency == null) {
+                results.add(TransactionResult.UNKNOWN_CURRENCY);
+                continue;
+            }
+
+            // Same checks as the conditional statements, withdraws need an existing balance with enough funds.
+            Map<Currency, Long> userBalances = balances.get(operation.getUserId());
+            Long before = userBalances.get(currency);
+            if (!operation.isDeposit() && (before == null || before < operation.getAmount())) {
+                results.add(TransactionResult.INSUFFICIENT_FUNDS);
+                continue;
+            }
+
+            long after = (before != null ? before : 0)
+                    + (operation.isDeposit() ? operation.getAmount() : -operation.getAmount());
+            userBalances.put(currency, after);
+
+            stored.add(operation);
+            balancesAfter.add(after);
+            results.add(TransactionResult.successful(after));
+        }
+
+        if (stored.isEmpty()) {
+            return results;
+        }
+
+        long[] ids = new long[stored.size()];
+        try (PreparedStatement insert = connection.prepareStatement(SQL_INSERT_TRANSACTION)) {
+            for (int i = 0; i < stored.size(); i++) {
+                TransactionOperation operation = stored.get(i);
+
+                ids[i] = nextTransactionId();
+                insert.setLong(1, ids[i]);
+                insert.setString(2, operation.getUserId());
+                insert.setLong(3, operation.isDeposit() ? operation.getAmount() : 0);
+                insert.setLong(4, operation.isDeposit() ? 0 : operation.getAmount());
+                insert.setByte(5, operation.getCurrency().getCode());
+                insert.setTimestamp(6, now, utc());
+                insert.setString(7, operation.getIdempotencyKey());
+                insert.setLong(8, balancesAfter.get(i));
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+
+        // The unique key of the transaction table only covers the hot transactions. Checked after the insert, a
+        // transaction being archived keeps its key there until the archive copy is committed.
+        for (TransactionOperation operation : stored) {
+            if (operation.getIdempotencyKey() != null && readByIdempotencyKey(connection,
+                    SQL_SELECT_ARCHIVED_BY_IDEMPOTENCY_KEY, operation.getUserId(),
+                    operation.getIdempotencyKey()) != null) {
+                throw new DuplicateKeyException("Idempotency key already used by user " + operation.getUserId());
+            }
+        }
+
+        try (PreparedStatement increase = connection.prepareStatement(SQL_INCREASE_BALANCE);
+             PreparedStatement decrease = connection.prepareStatement(SQL_DECREASE_BALANCE)) {
+            for (int i = 0; i < stored.size(); i++) {
+                TransactionOperation operation = stored.get(i);
+
+                if (operation.isDeposit()) {
+                    increase.setString(1, operation.getUserId());
+                    increase.setByte(2, operation.getCurrency().getCode());
+                    increase.setLong(3, operation.getAmount());
+                    increase.setTimestamp(4, now, utc());
+                    increase.setLong(5, ids[i]);
+                    increase.executeUpdate();
+                    continue;
+                }
+
+                decrease.setLong(1, operation.getAmount());
+                decrease.setTimestamp(2, now, utc());
+                decrease.setLong(3, ids[i]);
+                decrease.setString(4, operation.getUserId());
+                decrease.setByte(5, operation.getCurrency().getCode());
+                decrease.setLong(6, operation.getAmount());
+                if (decrease.executeUpdate() == 0) {
+                    throw new IllegalStateException("Balance of user " + operation.getUserId()
+                            + " changed without holding its account lock.");
+                }
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Reads a page of transactions with one of the page queries, same parameters for all of them.
+     * @return The transactions ordered by id.
+     */
+    private List<Transaction> readPage(Connection connection, String sql, String userId, Currency currency,
+                                       Timestamp from, Timestamp to, long afterId, int limit) throws SQLException {
+        List<Transaction> transactions = new ArrayList<>();
+
+        try (PreparedStatement select = connection.prepareStatement(sql)) {
+            int index = 1;
+            select.setString(index++, userId);
+            if (currency != null) {
+                select.setByte(index++, currency.getCode());
+            }
+            select.setLong(index++, afterId);
+            select.setTimestamp(index++, from, utc());
+            select.setTimestamp(index++, to, utc());
+            select.setInt(index, limit);
+
+            try (ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    transactions.add(toTransaction(resultSet));
+                }
+            }
+        }
+
+        return transactions;
+    }
+
+    /**
+     * Calendars are not thread safe and may be changed by the driver, so a new one is used per value.
+     */
+    private static Calendar utc() {
+        return Calendar.getInstance(UTC);
+    }
+
+    private Transaction toTransaction(ResultSet resultSet) throws SQLException {
+        Transaction transaction = new Transaction();
+        transaction.setId(resultSet.getLong(1));
+        transaction.setUserId(resultSet.getString(2));
+        transaction.setDeposit(resultSet.getLong(3));
+        transaction.setWithdraw(resultSet.getLong(4));
+        transaction.setCurrency(Currency.fromCode(resultSet.getInt(5)));
+        transaction.setDate(resultSet.getTimestamp(6, utc()).toLocalDateTime());
+        return transaction;
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    @Override
+    public TransactionResult doDeposit(String userId, long amount, Currency currency) {
+        String threadName = Thread.currentThread().getName();
+        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "doDeposit.");
+
+        TransactionResult result = executeBatch(
+                Collections.singletonList(TransactionOperation.deposit(userId, amount, currency))).get(0);
+
+        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "doDeposit finished.");
+        return result;
+    }
+
+    @Override
+    public TransactionResult doWithdraw(String userId, long amount, Currency currency) {
+        String threadName = Thread.currentThread().getName();
+        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "doWithdraw.");
+
+        TransactionResult result = executeBatch(
+                Collections.singletonList(TransactionOperation.withdraw(userId, amount, currency))).get(0);
+
+        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "doWithdraw finished.");
+        return result;
+    }
+
+    /**
+     * Entry method for performing many deposits and withdraws at once, all of them in a single Read
+     * Committed DB transaction, enough as every balance change is a single statement locking its row.
+     * @param operations
+     * @return Result of each operation in the same order, the balances after each successful operation
+     * include all the previous operations of the batch.
+     * @throws IllegalStateException If the DB transaction fails, nothing is stored then.
+     * @throws DuplicateKeyException If an operation reuses an idempotency key, nothing is stored then.
+     */
+    @Override
+    public List<TransactionResult> executeBatch(List<TransactionOperation> operations) {
+        String threadName = Thread.currentThread().getName();
+        LOGGER.debug(threadName + " | " + "executeBatch of " + operations.size() + " operations.");
+
+        boolean hasValid = operations.stream().anyMatch(operation -> operation.getCurrency() != null);
+        if (!hasValid) {
+            List<TransactionResult> results = new ArrayList<>(operations.size());
+            operations.forEach(operation -> results.add(TransactionResult.UNKNOWN_CURRENCY));
+            return results;
+        }
+
+        List<TransactionResult> results;
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            try {
+                results = execute(connection, operations);
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            if (isDuplicateKey(e)) {
+                throw new DuplicateKeyException("Idempotency key already used: " + e.getMessage(), e);
+            }
+            throw new IllegalStateException("Transaction failed: " + e.getMessage(), e);
+        }
+
+        LOGGER.debug(threadName + " | " + "executeBatch finished.");
+        return results;
+    }
+
+    @Override
+    public Map<Currency, Long> getBalance(String userId) {
+        try (Connection connection = dataSource.getConnection()) {
+            return readBalances(connection, userId);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Balance query failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Entry method for retrieving a page of the user's transactions, ordered by id, pages span the hot
+     * and the archived transactions, a page of each is read in the same connection and both are merged.
+     * The hot page is read first, so a transaction archived in between is read twice instead of missed.
+     */
+    @Override
+    public List<Transaction> getTransactions(String userId, Currency currency, LocalDateTime fromDate,
+                                             LocalDateTime toDate, long afterId, int limit) {
+        Timestamp from = Timestamp.valueOf(fromDate != null ? fromDate : HISTORY_MIN_DATE);
+        Timestamp to = Timestamp.valueOf(toDate != null ? toDate : HISTORY_MAX_DATE);
+
+        try (Connection connection = dataSource.getConnection()) {
+            List<Transaction> hot = readPage(connection,
+                    currency == null ? SQL_SELECT_PAGE : SQL_SELECT_PAGE_BY_CURRENCY,
+                    userId, currency, from, to, afterId, limit);
+            List<Transaction> archived = readPage(connection,
+                    currency == null ? SQL_SELECT_ARCHIVED_PAGE : SQL_SELECT_ARCHIVED_PAGE_BY_CURRENCY,
+                    userId, currency, from, to, afterId, limit);
+            return TransactionHistory.merge(hot, archived, limit);
+        } catch (SQLException e) {
+            throw new IllegalStateException("History query failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Retrieves the transaction stored with an idempotency key, hot or archived. The hot one is read first, so a
+     * transaction archived in between is found in the archive instead of missed.
+     */
+    @Override
+    public Transaction findByIdempotencyKey(String userId, String idempotencyKey) {
+        try (Connection connection = dataSource.getConnection()) {
+            Transaction transaction = readByIdempotencyKey(connection, SQL_SELECT_BY_IDEMPOTENCY_KEY, userId,
+                    idempotencyKey);
+            return transaction != null ? transaction : readByIdempotencyKey(connection,
+                    SQL_SELECT_ARCHIVED_BY_IDEMPOTENCY_KEY, userId, idempotencyKey);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Idempotency key query failed: " + e.getMessage(), e);
+        }
+    }
+
+    //endregion
+
+}
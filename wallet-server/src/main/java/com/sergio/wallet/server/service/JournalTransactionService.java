@@ -0,0 +1,439 @@
+package com.sergio.wallet.server.service;
+
+import com.sergio.wallet.server.data.entity.Currency;
+import com.sergio.wallet.server.data.entity.Transaction;
+import com.sergio.wallet.server.journal.FsyncPolicy;
+import com.sergio.wallet.server.journal.Journal;
+import com.sergio.wallet.server.journal.JournalAccount;
+import com.sergio.wallet.server.journal.JournalEntry;
+import com.sergio.wallet.server.journal.JournalSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * TransactionService backed by an embedded append-only journal instead of the relational database, enabled
+ * with wallet.store set to journal (or the journal profile, which also leaves the database out), no database
+ * is needed at all.
+ *
+ * Every successful deposit and withdraw is appended to the journal, the balances of all the users are held
+ * in memory and only changed once the operation is stored. On startup they are loaded from the last snapshot
+ * and the journal records appended after it are replayed. Snapshots are written on shutdown and every
+ * snapshot-interval entries, the accounts are copied while holding the write lock and written after releasing
+ * it, so writes don't wait for the snapshot. The journal is never compacted, it's also the transaction history.
+ *
+ * Writes are serialized by a single lock, so the funds checks are exact without any account lock, and each
+ * batch is appended as a single record so it's stored completely or not at all. The record is forced after
+ * releasing the lock, so the next writers append theirs meanwhile and a single force covers all of them, each
+ * writer returns once its own record is forced. Reads never take the lock, they may see an operation whose
+ * record is still being forced, only lost by a crash of the machine (the mapped journal outlives the process),
+ * its caller never gets an answer then.
+ *
+ * Idempotency keys are stored with their entries and indexed per account (also in the snapshots), a second
+ * operation with the same key for the same user is rejected, same as the unique key of the DB backends.
+ */
+@Service
+@ConditionalOnProperty(name = "wallet.store", havingValue = "journal")
+public class JournalTransactionService implements TransactionService {
+
+    //region VARIABLES
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(JournalTransactionService.class);
+
+    private final static String JOURNAL_FILE = "wallet.journal";
+
+    private final static String SNAPSHOT_FILE = "wallet.snapshot";
+
+    private final Journal journal;
+
+    private final Path snapshotFile;
+
+    private final long snapshotInterval;
+
+    private final ConcurrentHashMap<String, JournalAccount> accounts;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // Guarded by the write lock.
+    private long lastTransactionId;
+
+    // Guarded by the write lock.
+    private long entriesSinceSnapshot;
+
+    // Guarded by the write lock.
+    private boolean closed;
+
+    // Held while writing a snapshot, so they are written one at a time.
+    private final Object snapshotLock = new Object();
+
+    // Guarded by the snapshot lock, journal position of the last snapshot written.
+    private long lastSnapshotPosition;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    /**
+     * Loads the last snapshot and replays the rest of the journal.
+     * @param directory Directory of the journal and snapshot files, created if needed.
+     * @param fsyncPolicy always, interval or never.
+     * @param fsyncIntervalMs Time between forces of the interval policy.
+     * @param windowSizeMb Size of each memory mapped window of the journal.
+     * @param snapshotInterval Entries appended between snapshots, 0 for snapshots only on shutdown.
+     * @throws IOException
+     */
+    @Autowired
+    public JournalTransactionService(@Value("${wallet.journal.directory:./journal}") String directory,
+                                     @Value("${wallet.journal.fsync:always}") String fsyncPolicy,
+                                     @Value("${wallet.journal.fsync-interval-ms:10}") long fsyncIntervalMs,
+                                     @Value("${wallet.journal.window-size-mb:64}") int windowSizeMb,
+                                     @Value("${wallet.journal.snapshot-interval:1000000}") long snapshotInterval)
+            throws IOException {
+        if (windowSizeMb <= 0 || windowSizeMb > 1024 || snapshotInterval < 0) {
+            throw new IllegalArgumentException("Invalid journal configuration.");
+        }
+
+        long started = System.currentTimeMillis();
+
+        Path path = Paths.get(directory);
+        Files.createDirectories(path);
+        this.snapshotFile = path.resolve(SNAPSHOT_FILE);
+        this.snapshotInterval = snapshotInterval;
+
+        JournalSnapshot snapshot = JournalSnapshot.read(snapshotFile);
+        this.accounts = snapshot != null
+                ? new ConcurrentHashMap<>(snapshot.getAccounts())
+                : new ConcurrentHashMap<>();
+        this.lastTransactionId = snapshot != null ? snapshot.getLastTransactionId() : 0;
+
+        this.journal = new Journal(path.resolve(JOURNAL_FILE), windowSizeMb << 20, FsyncPolicy.fromConfig(fsyncPolicy),
+                fsyncIntervalMs);
+        try {
+            this.entriesSinceSnapshot = journal.replay(snapshot != null ? snapshot.getPosition() : 0,
+                    (entry, position) -> {
+                        accounts.computeIfAbsent(entry.getUserId(), JournalAccount::new).apply(entry, position);
+                        lastTransactionId = entry.getId();
+                    });
+        } catch (IOException | RuntimeException e) {
+            journal.close();
+            throw e;
+        }
+
+        LOGGER.info("Journal loaded | directory: " + path.toAbsolutePath() + " | snapshot: " + (snapshot != null)
+                + " | replayed entries: " + entriesSinceSnapshot + " | accounts: " + accounts.size()
+                + " | " + (System.currentTimeMillis() - started) + " ms");
+    }
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    /**
+     * Balance of an account as stored in the journal.
+     * @param userId
+     * @param currency
+     * @return The balance, null if the user has no balance in the currency yet.
+     */
+    private Long storedBalance(String userId, Currency currency) {
+        JournalAccount account = accounts.get(userId);
+        return account != null && account.hasBalance(currency) ? account.getBalance(currency) : null;
+    }
+
+    /**
+     * Writes a snapshot taken while holding the write lock, without holding it. Skipped if a newer one was
+     * already written. A failed snapshot only makes the next startup replay more of the journal.
+     * @param snapshot
+     */
+    private void writeSnapshot(JournalSnapshot snapshot) {
+        synchronized (snapshotLock) {
+            if (snapshot.getPosition() <= lastSnapshotPosition) {
+                return;
+            }
+
+            try {
+                // The snapshot must never be ahead of what the journal has on disk.
+                journal.force();
+                snapshot.write(snapshotFile);
+                lastSnapshotPosition = snapshot.getPosition();
+            } catch (IOException e) {
+                LOGGER.error("Journal snapshot failed.", e);
+            }
+        }
+    }
+
+    private Transaction toTransaction(JournalEntry entry, LocalDateTime date) {
+        Transaction transaction = new Transaction();
+        transaction.setId(entry.getId());
+        transaction.setUserId(entry.getUserId());
+        transaction.setCurrency(entry.getCurrency());
+        transaction.setDate(date);
+        transaction.setIdempotencyKey(entry.getIdempotencyKey());
+
+        if (entry.isDeposit()) {
+            transaction.setDeposit(entry.getAmount());
+        } else {
+            transaction.setWithdraw(entry.getAmount());
+        }
+
+        return transaction;
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    /**
+     * Entry method for performing deposits to the user's wallet, stored as a single journal record.
+     * @param userId
+     * @param amount
+     * @param currency Null if the requested currency is unknown.
+     * @return Result of the deposit, with the balance after it if successful.
+     */
+    @Override
+    public TransactionResult doDeposit(String userId, long amount, Currency currency) {
+        String threadName = Thread.currentThread().getName();
+        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "doDeposit.");
+
+        TransactionResult result = executeBatch(
+                Collections.singletonList(TransactionOperation.deposit(userId, amount, currency))).get(0);
+
+        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "doDeposit finished.");
+        return result;
+    }
+
+    /**
+     * Entry method for performing withdrawal from the user's wallet, stored as a single journal record.
+     * @param userId
+     * @param amount
+     * @param currency Null if the requested currency is unknown.
+     * @return Result of the withdraw, with the balance after it if successful.
+     */
+    @Override
+    public TransactionResult doWithdraw(String userId, long amount, Currency currency) {
+        String threadName = Thread.currentThread().getName();
+        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "doWithdraw.");
+
+        TransactionResult result = executeBatch(
+                Collections.singletonList(TransactionOperation.withdraw(userId, amount, currency))).get(0);
+
+        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "doWithdraw finished.");
+        return result;
+    }
+
+    /**
+     * Entry method for performing many deposits and withdraws at once, all the operations are checked in
+     * order against the balances including the previous operations of the batch, then the successful ones
+     * are appended to the journal as a single record and only then applied to the balances. Returns once the
+     * record is forced, as configured by the fsync policy.
+     * @param operations
+     * @return Result of each operation in the same order, the balances after each successful operation
+     * include all the previous operations of the batch.
+     * @throws UncheckedIOException If the journal append fails, nothing is applied then.
+     * @throws DuplicateKeyException If a successful operation has an idempotency key already stored for its user,
+     * or used twice in the batch, nothing is applied then.
+     */
+    @Override
+    public List<TransactionResult> executeBatch(List<TransactionOperation> operations) {
+        String threadName = Thread.currentThread().getName();
+        LOGGER.debug(threadName + " | " + "executeBatch of " + operations.size() + " operations.");
+
+        List<TransactionResult> results = new ArrayList<>(operations.size());
+        // Position right after the appended record, -1 if nothing was appended.
+        long recordEnd = -1;
+        JournalSnapshot snapshot = null;
+
+        writeLock.lock();
+        try {
+            long now = System.currentTimeMillis();
+
+            // Balances of the accounts changed by the batch, as they are after each checked operation.
+            Map<String, Map<Currency, Long>> pending = new HashMap<>();
+            List<JournalEntry> entries = new ArrayList<>(operations.size());
+            Set<String> batchKeys = new HashSet<>();
+
+            for (TransactionOperation operation : operations) {
+                Currency currency = operation.getCurrency();
+                if (currency == null) {
+                    results.add(TransactionResult.UNKNOWN_CURRENCY);
+                    continue;
+                }
+
+                Map<Currency, Long> userBalances = pending.computeIfAbsent(operation.getUserId(),
+                        key -> new EnumMap<>(Currency.class));
+                Long before = userBalances.get(currency);
+                if (before == null) {
+                    before = storedBalance(operation.getUserId(), currency);
+                }
+
+                // Same as the DB backend, withdraws need an existing balance with enough funds.
+                if (!operation.isDeposit() && (before == null || before < operation.getAmount())) {
+                    results.add(TransactionResult.INSUFFICIENT_FUNDS);
+                    continue;
+                }
+
+                // Keys are only taken by stored operations, same as the DB backends.
+                String idempotencyKey = operation.getIdempotencyKey();
+                if (idempotencyKey != null) {
+                    JournalAccount account = accounts.get(operation.getUserId());
+                    if (!batchKeys.add(operation.getUserId() + '\u0000' + idempotencyKey)
+                            || (account != null && account.getIdempotencyKeyPosition(idempotencyKey) != null)) {
+                        throw new DuplicateKeyException("Idempotency key already used by user "
+                                + operation.getUserId());
+                    }
+                }
+
+                long after = (before != null ? before : 0)
+                        + (operation.isDeposit() ? operation.getAmount() : -operation.getAmount());
+                userBalances.put(currency, after);
+
+                entries.add(new JournalEntry(lastTransactionId + entries.size() + 1, operation.getUserId(), currency,
+                        operation.isDeposit(), operation.getAmount(), now, idempotencyKey));
+                results.add(TransactionResult.successful(after));
+            }
+
+            if (!entries.isEmpty()) {
+                long[] positions = journal.append(entries);
+                recordEnd = journal.getPosition();
+                lastTransactionId += entries.size();
+
+                for (int i = 0; i < entries.size(); i++) {
+                    JournalEntry entry = entries.get(i);
+                    accounts.computeIfAbsent(entry.getUserId(), JournalAccount::new).apply(entry, positions[i]);
+                }
+
+                entriesSinceSnapshot += entries.size();
+                if (snapshotInterval > 0 && entriesSinceSnapshot >= snapshotInterval) {
+                    snapshot = JournalSnapshot.copyOf(recordEnd, lastTransactionId, accounts.values());
+                    entriesSinceSnapshot = 0;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Journal append failed.", e);
+        } finally {
+            writeLock.unlock();
+        }
+
+        // Outside the write lock, the records appended meanwhile by other writers are forced together.
+        if (recordEnd >= 0) {
+            journal.awaitForced(recordEnd);
+        }
+        if (snapshot != null) {
+            writeSnapshot(snapshot);
+        }
+
+        LOGGER.debug(threadName + " | " + "executeBatch finished.");
+        return results;
+    }
+
+    /**
+     * Entry method for performing the get balance for a specific user's wallet, always served from memory.
+     * @param userId
+     * @return Map with the balance for each currency for the specific user, empty map if no balances.
+     */
+    @Override
+    public Map<Currency, Long> getBalance(String userId) {
+        JournalAccount account = accounts.get(userId);
+        return account != null ? account.getBalances() : new EnumMap<>(Currency.class);
+    }
+
+    /**
+     * Entry method for retrieving a page of the user's transactions, ordered by id, the first one is found
+     * with a binary search of the user's history index and the entries are read from the journal.
+     * @param userId
+     * @param currency Optional, null for transactions in all currencies.
+     * @param fromDate Optional, inclusive.
+     * @param toDate Optional, exclusive.
+     * @param afterId Id of the last transaction from the previous page, 0 for the first page.
+     * @param limit Max amount of transactions to return.
+     * @return List with the transactions, empty if no more transactions.
+     */
+    @Override
+    public List<Transaction> getTransactions(String userId, Currency currency, LocalDateTime fromDate,
+                                             LocalDateTime toDate, long afterId, int limit) {
+        List<Transaction> transactions = new ArrayList<>();
+
+        JournalAccount account = accounts.get(userId);
+        if (account == null) {
+            return transactions;
+        }
+
+        JournalAccount.History history = account.getHistory();
+        for (int i = history.firstAfter(afterId); i < history.size() && transactions.size() < limit; i++) {
+            JournalEntry entry = journal.read(history.getPosition(i));
+            if (currency != null && entry.getCurrency() != currency) {
+                continue;
+            }
+
+            LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(entry.getTimestamp()),
+                    ZoneId.systemDefault());
+            if ((fromDate != null && date.isBefore(fromDate)) || (toDate != null && !date.isBefore(toDate))) {
+                continue;
+            }
+
+            transactions.add(toTransaction(entry, date));
+        }
+
+        return transactions;
+    }
+
+    /**
+     * Retrieves the transaction stored with an idempotency key, found through the key index of the account,
+     * which also keeps the balance after it.
+     * @param userId
+     * @param idempotencyKey
+     * @return The transaction, or null if none stored with that key.
+     */
+    @Override
+    public Transaction findByIdempotencyKey(String userId, String idempotencyKey) {
+        JournalAccount account = accounts.get(userId);
+        Long position = account != null ? account.getIdempotencyKeyPosition(idempotencyKey) : null;
+        if (position == null) {
+            return null;
+        }
+
+        JournalEntry entry = journal.read(position);
+        Transaction transaction = toTransaction(entry, LocalDateTime.ofInstant(
+                Instant.ofEpochMilli(entry.getTimestamp()), ZoneId.systemDefault()));
+        transaction.setBalanceAfter(account.getIdempotencyKeyBalanceAfter(idempotencyKey));
+        return transaction;
+    }
+
+    /**
+     * Writes a final snapshot, so the next startup doesn't replay anything, and closes the journal.
+     */
+    @PreDestroy
+    public void close() throws IOException {
+        writeLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            writeSnapshot(JournalSnapshot.copyOf(journal.getPosition(), lastTransactionId, accounts.values()));
+            journal.close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,585 @@
+package com.sergio.wallet.server.service;
+
+import com.sergio.wallet.server.concurrency.ConcurrencyMode;
+import com.sergio.wallet.server.data.entity.ArchivedTransaction;
+import com.sergio.wallet.server.data.entity.Balance;
+import com.sergio.wallet.server.data.entity.Currency;
+import com.sergio.wallet.server.data.entity.Transaction;
+import com.sergio.wallet.server.data.repository.ArchivedTransactionRepository;
+import com.sergio.wallet.server.data.repository.BalanceRepository;
+import com.sergio.wallet.server.data.repository.TransactionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Default TransactionService backed by the relational database, the ledger and the balances are stored
+ * in the Transaction and Balance tables and the balances of active users are served by the balance cache.
+ * Makes use of transaction and balance repositories.
+ *
+ * In the locking concurrency mode the callers hold the account locks and the balances are changed by
+ * conditional statements. In the optimistic mode nothing is locked by the callers, the balances are read,
+ * changed in memory and written back checking their version, so conflicting writes fail and are retried.
+ */
+@Service
+@ConditionalOnProperty(name = "wallet.store", havingValue = "jpa", matchIfMissing = true)
+public class JpaTransactionService implements TransactionService {
+
+    //region VARIABLES
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(JpaTransactionService.class);
+
+    private final TransactionRepository transactionRepository;
+
+    private final BalanceRepository balanceRepository;
+
+    private final ArchivedTransactionRepository archivedTransactionRepository;
+
+    private final BalanceCache balanceCache;
+
+    private final boolean optimistic;
+
+    // Bounds used for history queries without a time range, within the range supported by the DB.
+    private final static LocalDateTime HISTORY_MIN_DATE = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private final static LocalDateTime HISTORY_MAX_DATE = LocalDateTime.of(9999, 12, 31, 23, 59, 59);
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    @Autowired
+    public JpaTransactionService(TransactionRepository transactionRepository, BalanceRepository balanceRepository,
+                                 ArchivedTransactionRepository archivedTransactionRepository,
+                                 BalanceCache balanceCache,
+                                 @Value("${wallet.concurrency-mode:locking}") String concurrencyMode) {
+        this.transactionRepository = transactionRepository;
+        this.balanceRepository = balanceRepository;
+        this.archivedTransactionRepository = archivedTransactionRepository;
+        this.balanceCache = balanceCache;
+        this.optimistic = ConcurrencyMode.fromConfig(concurrencyMode) == ConcurrencyMode.OPTIMISTIC;
+    }
+
+    //endregion
+
+    //region PRIVATE METHOD
+
+    /**
+     * Method in charge of creating the ledger entry for a transaction, not yet stored.
+     * @param userId
+     * @param amount It will be deposit or withdraw type depending on the isDeposit parameter.
+     * @param currency
+     * @param isDeposit
+     * @param date
+     * @param idempotencyKey Null if none.
+     * @param balanceAfter Balance of the account right after the transaction.
+     * @return The transaction with all the values set.
+     */
+    private Transaction createTransaction(String userId, long amount, Currency currency, boolean isDeposit,
+                                          LocalDateTime date, String idempotencyKey, long balanceAfter) {
+        Transaction transaction = new Transaction();
+        transaction.setUserId(userId);
+        transaction.setCurrency(currency);
+        transaction.setDate(date);
+        transaction.setIdempotencyKey(idempotencyKey);
+        transaction.setBalanceAfter(balanceAfter);
+
+        // Set the right amount type for the transaction.
+        if (isDeposit) {
+            transaction.setDeposit(amount);
+        } else {
+            transaction.setWithdraw(amount);
+        }
+
+        return transaction;
+    }
+
+    /**
+     * Runs the cache update once the DB transaction is committed, changes rolled back never reach the cache.
+     * @param update
+     */
+    private void afterCommit(Runnable update) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            update.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                update.run();
+            }
+        });
+    }
+
+    /**
+     * Applies a balance change to the balance cache once the DB transaction is committed, still within
+     * the account lock held by the caller.
+     * @param userId
+     * @param currency
+     * @param delta
+     * @param transactionId
+     */
+    private void updateCacheAfterCommit(String userId, Currency currency, long delta, long transactionId) {
+        afterCommit(() -> balanceCache.applyChange(userId, currency, delta, transactionId));
+    }
+
+    /**
+     * Method in charge of modifying the balance for an already stored transaction, it will treat deposits
+     * and withdraws differently to modify the balance accordingly.
+     * It will update the row in the Balance table with a single conditional statement, the funds check
+     * for withdraws is part of that statement, so the balance is never read and then written back.
+     * Deposits use an upsert, so the first deposit of the user in a currency creates the balance row.
+     * @param transaction Stored transaction row, the balance references it as last transaction.
+     * @param isDeposit if the transaction is a deposit or a withdraw.
+     * @return true if the balance was modified, false if there were not enough funds.
+     */
+    private boolean applyToBalance(Transaction transaction, boolean isDeposit) {
+        String userId = transaction.getUserId();
+        Currency currency = transaction.getCurrency();
+        long amount = isDeposit ? transaction.getDeposit() : transaction.getWithdraw();
+
+        if (isDeposit) {
+            // Deposits always succeed, the balance row is created if the user didn't have one yet.
+            balanceRepository.insertOrIncreaseBalance(userId, currency.getCode(), amount, transaction.getId(), transaction.getDate());
+        } else if (balanceRepository.decreaseBalanceIfSufficient(userId, currency, amount, transaction.getId(),
+                transaction.getDate()) == 0) {
+            // Nothing updated means not enough funds (or no balance at all).
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks the idempotency keys of the given transactions, already inserted, were not used by an archived
+     * transaction, the unique key of the Transaction table only covers the hot transactions. Must run after the
+     * insert: a transaction being archived keeps its key in the Transaction table until the archive copy is
+     * committed, so the insert waits for it and then this read sees the copy.
+     * @param transactions
+     * @throws DuplicateKeyException If a key was used by an archived transaction, nothing is committed then.
+     */
+    private void checkArchivedIdempotencyKeys(List<Transaction> transactions) {
+        for (Transaction transaction : transactions) {
+            if (transaction.getIdempotencyKey() != null && archivedTransactionRepository
+                    .existsByUserIdAndIdempotencyKey(transaction.getUserId(), transaction.getIdempotencyKey())) {
+                throw new DuplicateKeyException("Idempotency key already used by user " + transaction.getUserId());
+            }
+        }
+    }
+
+    /**
+     * Provides the balances of the accounts of the given operations right before them. Balances of cached users
+     * are exact as the caller holds the account locks, the rest are read from the DB with a single query and
+     * those users are cached with them, so their next operations don't read them again.
+     * @param operations
+     * @return Balance of each existing account by user and currency, modifiable, with a (maybe empty) map for
+     * every user of the operations with a known currency.
+     */
+    private Map<String, Map<Currency, Long>> balancesBefore(List<TransactionOperation> operations) {
+        Map<String, Map<Currency, Long>> balances = new HashMap<>();
+        Set<String> notCached = new HashSet<>();
+
+        for (TransactionOperation operation : operations) {
+            String userId = operation.getUserId();
+            if (operation.getCurrency() == null || balances.containsKey(userId) || notCached.contains(userId)) {
+                continue;
+            }
+
+            Map<Currency, Long> cached = balanceCache.peekBalances(userId);
+            if (cached != null) {
+                balances.put(userId, cached);
+            } else {
+                notCached.add(userId);
+            }
+        }
+
+        if (notCached.isEmpty()) {
+            return balances;
+        }
+
+        Map<String, List<Balance>> rows = new HashMap<>();
+        notCached.forEach(userId -> rows.put(userId, new ArrayList<>()));
+        balanceRepository.findAllByUserIdIn(notCached).forEach(balance -> rows.get(balance.getUserId()).add(balance));
+
+        rows.forEach((userId, userRows) -> {
+            Map<Currency, Long> userBalances = new EnumMap<>(Currency.class);
+            userRows.forEach(balance -> userBalances.put(balance.getCurrency(), balance.getBalance()));
+            balances.put(userId, userBalances);
+            balanceCache.fill(userId, userRows);
+        });
+
+        return balances;
+    }
+
+    /**
+     * Write path for deposits and withdraws when the callers hold the account locks. The balances before the
+     * operations are known beforehand (balancesBefore), so the withdraws without enough funds are rejected
+     * without writing anything, and the balance after each operation is known without reading it back.
+     * The transaction rows of the rest are inserted with a single flush (sent as JDBC batches) and then the
+     * balances are changed in order by the conditional statements, which must match as the funds were checked.
+     * @param operations
+     * @return Result of each operation in the same order, the balances after each successful operation
+     * include all the previous operations.
+     * @throws IllegalStateException If a balance was changed without holding its account lock, nothing is
+     * committed then and the user is loaded again from the DB by the next operation.
+     * @throws DuplicateKeyException If an idempotency key was already used, nothing is committed then.
+     */
+    private List<TransactionResult> executeLocked(List<TransactionOperation> operations) {
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, Map<Currency, Long>> balances = balancesBefore(operations);
+
+        List<TransactionResult> results = new ArrayList<>(operations.size());
+        List<TransactionOperation> stored = new ArrayList<>(operations.size());
+        List<Transaction> transactions = new ArrayList<>(operations.size());
+
+        for (TransactionOperation operation : operations) {
+            Currency currency = operation.getCurrency();
+            if (currency == null) {
+                results.add(TransactionResult.UNKNOWN_CURRENCY);
+                continue;
+            }
+
+            // Same checks as the conditional statements, withdraws need an existing balance with enough funds.
+            Map<Currency, Long> userBalances = balances.get(operation.getUserId());
+            Long before = userBalances.get(currency);
+            if (!operation.isDeposit() && (before == null || before < operation.getAmount())) {
+                results.add(TransactionResult.INSUFFICIENT_FUNDS);
+                continue;
+            }
+
+            long after = (before != null ? before : 0)
+                    + (operation.isDeposit() ? operation.getAmount() : -operation.getAmount());
+            userBalances.put(currency, after);
+
+            stored.add(operation);
+            transactions.add(createTransaction(operation.getUserId(), operation.getAmount(), currency,
+                    operation.isDeposit(), now, operation.getIdempotencyKey(), after));
+            results.add(TransactionResult.successful(after));
+        }
+
+        if (transactions.isEmpty()) {
+            return results;
+        }
+
+        // Ids come from the pooled generator, so the inserts are only sent to the DB on flush.
+        transactionRepository.saveAll(transactions);
+        transactionRepository.flush();
+        checkArchivedIdempotencyKeys(transactions);
+
+        for (int i = 0; i < transactions.size(); i++) {
+            Transaction transaction = transactions.get(i);
+            if (!applyToBalance(transaction, stored.get(i).isDeposit())) {
+                balanceCache.invalidate(transaction.getUserId());
+                throw new IllegalStateException("Balance of user " + transaction.getUserId()
+                        + " changed without holding its account lock.");
+            }
+            updateCacheAfterCommit(transaction.getUserId(), transaction.getCurrency(),
+                    transaction.getDeposit() - transaction.getWithdraw(), transaction.getId());
+        }
+
+        return results;
+    }
+
+    /**
+     * Optimistic write path for deposits and withdraws, used instead of the conditional statements when
+     * the callers don't hold the account locks. The balances involved are read once, checked and changed
+     * in memory in order, and written back by Hibernate checking their version, so if any of them was
+     * changed by a concurrent writer since it was read the whole DB transaction fails with an optimistic
+     * locking failure, which the caller retries. Withdraws without enough funds don't store anything.
+     *
+     * Balances not created yet are created by the upsert, which locks the new row until commit, the
+     * transaction row must be in the DB before, as the balance references it.
+     * @param operations
+     * @return Result of each operation in the same order, the balances after each successful operation
+     * include all the previous operations.
+     */
+    private List<TransactionResult> executeOptimistic(List<TransactionOperation> operations) {
+        LocalDateTime now = LocalDateTime.now();
+
+        Set<String> userIds = new HashSet<>();
+        operations.forEach(operation -> {
+            if (operation.getCurrency() != null) {
+                userIds.add(operation.getUserId());
+            }
+        });
+
+        Map<String, Map<Currency, Balance>> accounts = new HashMap<>();
+        if (!userIds.isEmpty()) {
+            for (Balance balance : balanceRepository.findAllByUserIdIn(userIds)) {
+                accounts.computeIfAbsent(balance.getUserId(), key -> new EnumMap<>(Currency.class))
+                        .put(balance.getCurrency(), balance);
+            }
+        }
+
+        List<TransactionResult> results = new ArrayList<>(operations.size());
+        List<Runnable> cacheUpdates = new ArrayList<>();
+        Set<String> createdUsers = new HashSet<>();
+        List<Transaction> transactions = new ArrayList<>(operations.size());
+
+        for (TransactionOperation operation : operations) {
+            String userId = operation.getUserId();
+            Currency currency = operation.getCurrency();
+            if (currency == null) {
+                results.add(TransactionResult.UNKNOWN_CURRENCY);
+                continue;
+            }
+
+            Map<Currency, Balance> userBalances = accounts.computeIfAbsent(userId,
+                    key -> new EnumMap<>(Currency.class));
+            Balance balance = userBalances.get(currency);
+
+            if (!operation.isDeposit() && (balance == null || balance.getBalance() < operation.getAmount())) {
+                results.add(TransactionResult.INSUFFICIENT_FUNDS);
+                continue;
+            }
+
+            long expectedAfter = (balance != null ? balance.getBalance() : 0)
+                    + (operation.isDeposit() ? operation.getAmount() : -operation.getAmount());
+            Transaction transaction = transactionRepository.save(createTransaction(userId, operation.getAmount(),
+                    currency, operation.isDeposit(), now, operation.getIdempotencyKey(), expectedAfter));
+            transactions.add(transaction);
+
+            if (balance == null) {
+                transactionRepository.flush();
+                balanceRepository.insertOrIncreaseBalance(userId, currency.getCode(), operation.getAmount(),
+                        transaction.getId(), now);
+                // Read back, it may have been created by a concurrent first deposit meanwhile.
+                balance = balanceRepository.findByUserIdAndCurrency(userId, currency);
+                userBalances.put(currency, balance);
+                createdUsers.add(userId);
+                // Dirty checked, the inserted row is only updated if that happened.
+                transaction.setBalanceAfter(balance.getBalance());
+            } else {
+                balance.modifyBalance(operation.getAmount(), operation.isDeposit());
+                balance.setModified(now);
+                balance.setLastTransactionId(transaction.getId());
+            }
+
+            long balanceAfter = balance.getBalance();
+            cacheUpdates.add(() -> balanceCache.applyBalance(userId, currency, balanceAfter, transaction.getId()));
+            results.add(TransactionResult.successful(balanceAfter));
+        }
+
+        // Version conflicts show up here, before anything is committed.
+        transactionRepository.flush();
+        checkArchivedIdempotencyKeys(transactions);
+
+        // The id of a transaction creating a balance is taken before the row lock, so it may be older
+        // than the one of a concurrent change committed first, those users are loaded again instead.
+        afterCommit(() -> {
+            cacheUpdates.forEach(Runnable::run);
+            createdUsers.forEach(balanceCache::invalidate);
+        });
+
+        return results;
+    }
+
+    /**
+     * Method in charge of the logic for executing a single transaction, through the same write path as the
+     * batches. A withdraw without enough funds writes nothing, only the balances of users not cached yet are
+     * read for the funds check.
+     * Successful changes are applied to the balance cache after commit.
+     * @param userId
+     * @param amount It will be deposit or withdraw type depending on the isDeposit parameter.
+     * @param currency Null if the requested currency is unknown.
+     * @param isDeposit if called to execute a deposit or a withdraw.
+     * @return Result of the transaction.
+     */
+    private TransactionResult executeTransaction(String userId, long amount, Currency currency, boolean isDeposit) {
+        // First check the currency is a valid one.
+        if (currency == null) {
+            return TransactionResult.UNKNOWN_CURRENCY;
+        }
+
+        // Should probably validate if negative amount, though no such error message is defined in the exercise.
+
+        List<TransactionOperation> operations = Collections.singletonList(
+                new TransactionOperation(userId, amount, currency, isDeposit));
+        return (optimistic ? executeOptimistic(operations) : executeLocked(operations)).get(0);
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    /**
+     * Entry method for performing deposits to the user's wallet, it's a transactional method so the
+     * transaction row and the balance change are committed together, Read Committed is enough as the
+     * balance is changed by a single statement that locks its row until commit.
+     * @param userId
+     * @param amount
+     * @param currency Null if the requested currency is unknown.
+     * @return Result of the deposit, with the balance after it if successful.
+     */
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    @Override
+    public TransactionResult doDeposit(String userId, long amount, Currency currency) {
+        String threadName = Thread.currentThread().getName();
+        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "doDeposit.");
+
+        // Let's execute the transaction and return the result.
+        TransactionResult result = executeTransaction(userId, amount, currency, true);
+
+        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "doDeposit finished.");
+        return result;
+    }
+
+    /**
+     * Entry method for performing withdrawal from the user's wallet, it's a transactional method so the
+     * transaction row and the balance change are committed together, Read Committed is enough as the
+     * funds check and the balance change are done by a single statement that locks its row until commit.
+     * @param userId
+     * @param amount
+     * @param currency Null if the requested currency is unknown.
+     * @return Result of the withdraw, with the balance after it if successful.
+     */
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    @Override
+    public TransactionResult doWithdraw(String userId, long amount, Currency currency) {
+        String threadName = Thread.currentThread().getName();
+        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "doWithdraw.");
+
+        // Let's execute the transaction and return the result.
+        TransactionResult result = executeTransaction(userId, amount, currency, false);
+
+        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "doWithdraw finished.");
+        return result;
+    }
+
+    /**
+     * Entry method for performing many deposits and withdraws at once, they are executed in order, each
+     * one with the same validations and results as doDeposit and doWithdraw, a failed withdraw doesn't
+     * stop the rest of the operations. All successful operations are committed together.
+     *
+     * Runs in phases so the ledger rows are not written one statement at a time: the funds are checked with
+     * the balances known before the batch, then the transaction rows of the successful operations are inserted
+     * with a single flush (sent as JDBC batches) and finally the balances are modified in order.
+     * @param operations
+     * @return Result of each operation in the same order, the balances after each successful operation
+     * include all the previous operations of the batch.
+     */
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    @Override
+    public List<TransactionResult> executeBatch(List<TransactionOperation> operations) {
+        String threadName = Thread.currentThread().getName();
+        LOGGER.debug(threadName + " | " + "executeBatch of " + operations.size() + " operations.");
+
+        if (optimistic) {
+            List<TransactionResult> results = executeOptimistic(operations);
+
+            LOGGER.debug(threadName + " | " + "executeBatch finished.");
+            return results;
+        }
+
+        List<TransactionResult> results = executeLocked(operations);
+
+        LOGGER.debug(threadName + " | " + "executeBatch finished.");
+        return results;
+    }
+
+    /**
+     * Entry method for performing the get balance for a specific user's wallet, served by the balance
+     * cache, only users not cached yet are read from the DB (only committed data), no DB transaction
+     * is started for cached users.
+     * @param userId
+     * @return Map with the balance for each currency for the specific user, empty map if error.
+     */
+    @Override
+    public Map<Currency, Long> getBalance(String userId) {
+        String threadName = Thread.currentThread().getName();
+        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "getBalance.");
+
+        Map<Currency, Long> balances = balanceCache.getBalances(userId);
+
+        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "getBalance finished.");
+        // Empty response equals to successful transaction.
+        return balances;
+    }
+
+    /**
+     * Retrieves the balance of the user only if cached, never reaches the DB.
+     * @param userId
+     * @return Map with the balance for each currency for the specific user, or null if not cached.
+     */
+    @Override
+    public Map<Currency, Long> getCachedBalance(String userId) {
+        return balanceCache.getBalancesIfCached(userId);
+    }
+
+    /**
+     * Entry method for retrieving a page of the user's transactions, ordered by id, it continues after
+     * the given transaction id so deep pages cost the same as the first one.
+     * Pages span the hot and the archived transactions, a page of each is read and both are merged, the
+     * hot page first, so a transaction archived in between is read twice instead of missed.
+     * @param userId
+     * @param currency Optional, null for transactions in all currencies.
+     * @param fromDate Optional, inclusive.
+     * @param toDate Optional, exclusive.
+     * @param afterId Id of the last transaction from the previous page, 0 for the first page.
+     * @param limit Max amount of transactions to return.
+     * @return List with the transactions, empty if no more transactions.
+     */
+    @Transactional(isolation = Isolation.READ_COMMITTED, readOnly = true)
+    @Override
+    public List<Transaction> getTransactions(String userId, Currency currency, LocalDateTime fromDate,
+                                             LocalDateTime toDate, long afterId, int limit) {
+        String threadName = Thread.currentThread().getName();
+        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "getTransactions.");
+
+        LocalDateTime from = fromDate != null ? fromDate : HISTORY_MIN_DATE;
+        LocalDateTime to = toDate != null ? toDate : HISTORY_MAX_DATE;
+
+        // Only the limit is used from the page request, the offset is always 0.
+        List<Transaction> hot = currency == null
+                ? transactionRepository.findPageByUserId(userId, afterId, from, to, PageRequest.of(0, limit))
+                : transactionRepository.findPageByUserIdAndCurrency(userId, currency, afterId, from, to,
+                        PageRequest.of(0, limit));
+        List<ArchivedTransaction> archived = currency == null
+                ? archivedTransactionRepository.findPageByUserId(userId, afterId, from, to, PageRequest.of(0, limit))
+                : archivedTransactionRepository.findPageByUserIdAndCurrency(userId, currency, afterId, from, to,
+                        PageRequest.of(0, limit));
+
+        List<Transaction> archivedTransactions = new ArrayList<>(archived.size());
+        archived.forEach(transaction -> archivedTransactions.add(transaction.toTransaction()));
+        List<Transaction> transactions = TransactionHistory.merge(hot, archivedTransactions, limit);
+
+        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "getTransactions finished.");
+        return transactions;
+    }
+
+    /**
+     * Retrieves the transaction stored with an idempotency key, hot or archived. The hot one is read first, so a
+     * transaction archived in between is found in the archive instead of missed.
+     * @param userId
+     * @param idempotencyKey
+     * @return The transaction, or null if none stored with that key.
+     */
+    @Transactional(isolation = Isolation.READ_COMMITTED, readOnly = true)
+    @Override
+    public Transaction findByIdempotencyKey(String userId, String idempotencyKey) {
+        Transaction transaction = transactionRepository.findByUserIdAndIdempotencyKey(userId, idempotencyKey);
+        if (transaction != null) {
+            return transaction;
+        }
+
+        ArchivedTransaction archived = archivedTransactionRepository.findByUserIdAndIdempotencyKey(userId,
+                idempotencyKey);
+        return archived != null ? archived.toTransaction() : null;
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,251 @@
+package com.sergio.wallet.server.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background archiver keeping the Transaction table small, the ledger is split by day into hot and cold
+ * periods: transactions of the last hot-days days stay in the Transaction table, the ones of older (closed)
+ * days are moved to the compressed Transaction Archive table.
+ *
+ * MySQL doesn't support foreign keys referencing partitioned tables, and BALANCE.LAST_TRANSACTION_ID references
+ * the Transaction table, so the table is rolled over into the archive instead of being partitioned. Transactions
+ * still referenced by a balance are never moved, so the foreign key always stays valid, they are archived on a
+ * later run once the balance has a newer last transaction.
+ *
+ * Every run moves the closed transactions in chunks, each chunk in its own short DB transaction, so writers are
+ * never blocked for long. History queries span both tables (TransactionHistory). Idempotency keys are moved
+ * with their transactions, the stores check both tables so an archived key is never applied again.
+ */
+@Component
+@ConditionalOnProperty(name = "wallet.archive.enabled", havingValue = "true")
+public class TransactionArchiver {
+
+    //region VARIABLES
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(TransactionArchiver.class);
+
+    // Dates are stored in UTC, same as the JPA backend (hibernate.jdbc.time_zone).
+    private final static TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    // Table names as created by the default physical naming strategy.
+    private final static String SQL_COMPRESS_ARCHIVE =
+            "ALTER TABLE transaction_archive ROW_FORMAT=COMPRESSED KEY_BLOCK_SIZE=8";
+
+    // Keyset scan by id, the rows referenced by a balance are skipped through the foreign key index.
+    private final static String SQL_SELECT_CLOSED =
+            "SELECT t.ID FROM transaction t WHERE t.ID > ? AND t.DATE < ? "
+            + "AND NOT EXISTS (SELECT 1 FROM balance b WHERE b.LAST_TRANSACTION_ID = t.ID) "
+            + "ORDER BY t.ID ASC LIMIT ? FOR UPDATE";
+
+    private final static String SQL_COPY_TO_ARCHIVE =
+            "INSERT INTO transaction_archive (ID, USER_ID, DEPOSIT, WITHDRAW, CURRENCY, DATE, IDEMPOTENCY_KEY, "
+            + "BALANCE_AFTER) SELECT ID, USER_ID, DEPOSIT, WITHDRAW, CURRENCY, DATE, IDEMPOTENCY_KEY, BALANCE_AFTER "
+            + "FROM transaction WHERE ID = ?";
+
+    private final static String SQL_DELETE_ARCHIVED = "DELETE FROM transaction WHERE ID = ?";
+
+    private final DataSource dataSource;
+
+    private final int hotDays;
+
+    private final long intervalMinutes;
+
+    private final int chunkSize;
+
+    private final Counter archived;
+
+    private ScheduledExecutorService scheduler;
+
+    // Only changed by the archiving runs, which never run concurrently.
+    private boolean compressionChecked;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    /**
+     * @param dataSource
+     * @param meterRegistry
+     * @param hotDays Days kept in the Transaction table, today included.
+     * @param intervalMinutes Time between archiving runs.
+     * @param chunkSize Max transactions moved by each DB transaction.
+     */
+    @Autowired
+    public TransactionArchiver(DataSource dataSource, MeterRegistry meterRegistry,
+                               @Value("${wallet.archive.hot-days:30}") int hotDays,
+                               @Value("${wallet.archive.interval-minutes:60}") long intervalMinutes,
+                               @Value("${wallet.archive.chunk-size:1000}") int chunkSize) {
+        if (hotDays <= 0 || intervalMinutes <= 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid transaction archive configuration.");
+        }
+
+        this.dataSource = dataSource;
+        this.hotDays = hotDays;
+        this.intervalMinutes = intervalMinutes;
+        this.chunkSize = chunkSize;
+
+        this.archived = Counter.builder("wallet.archive.transactions")
+                .description("Transactions moved to the archive table")
+                .register(meterRegistry);
+    }
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    /**
+     * The archive is never updated, so its rows are stored compressed. Compression needs file per table
+     * tablespaces, if not available the archive is just left uncompressed. Done on the first run, as the
+     * table is created with the rest of the schema once the JPA context is up.
+     */
+    private void compressArchive() {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(SQL_COMPRESS_ARCHIVE);
+        } catch (SQLException e) {
+            LOGGER.warn("Transaction archive left uncompressed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Moves one chunk of closed transactions, locked first so they are copied and deleted exactly as they are.
+     * @param connection Not in auto commit.
+     * @param afterId Id of the last transaction checked by the previous chunk.
+     * @param cutoff Transactions before it are in closed periods.
+     * @return Ids of the moved transactions, empty if there are no more.
+     * @throws SQLException
+     */
+    private List<Long> moveChunk(Connection connection, long afterId, Timestamp cutoff) throws SQLException {
+        List<Long> ids = new ArrayList<>(chunkSize);
+
+        try {
+            try (PreparedStatement select = connection.prepareStatement(SQL_SELECT_CLOSED)) {
+                select.setLong(1, afterId);
+                select.setTimestamp(2, cutoff, Calendar.getInstance(UTC));
+                select.setInt(3, chunkSize);
+                try (ResultSet resultSet = select.executeQuery()) {
+                    while (resultSet.next()) {
+                        ids.add(resultSet.getLong(1));
+                    }
+                }
+            }
+
+            if (!ids.isEmpty()) {
+                try (PreparedStatement copy = connection.prepareStatement(SQL_COPY_TO_ARCHIVE);
+                     PreparedStatement delete = connection.prepareStatement(SQL_DELETE_ARCHIVED)) {
+                    for (long id : ids) {
+                        copy.setLong(1, id);
+                        copy.addBatch();
+                        delete.setLong(1, id);
+                        delete.addBatch();
+                    }
+                    copy.executeBatch();
+                    delete.executeBatch();
+                }
+            }
+
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        }
+
+        return ids;
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transaction-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                archiveClosedPeriods();
+            } catch (RuntimeException e) {
+                LOGGER.error("Transaction archiving failed.", e);
+            }
+        }, 1, intervalMinutes, TimeUnit.MINUTES);
+
+        LOGGER.info("Transaction archiver started | hot days: " + hotDays + " | interval: " + intervalMinutes
+                + " min");
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Moves all the transactions of closed periods to the archive, except the ones referenced by a balance.
+     * Runs periodically in the background, can also be called directly but never concurrently with a run.
+     * @return Amount of transactions moved.
+     * @throws IllegalStateException If a chunk fails, the chunks already moved stay archived.
+     */
+    public long archiveClosedPeriods() {
+        if (!compressionChecked) {
+            compressArchive();
+            compressionChecked = true;
+        }
+
+        // Whole days only, the first hot day starts at local midnight, converted to UTC the same way as the dates.
+        Timestamp cutoff = Timestamp.valueOf(LocalDate.now().minusDays(hotDays - 1).atStartOfDay());
+
+        long started = System.currentTimeMillis();
+        long moved = 0;
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+
+            long afterId = 0;
+            List<Long> ids;
+            do {
+                ids = moveChunk(connection, afterId, cutoff);
+                if (!ids.isEmpty()) {
+                    afterId = ids.get(ids.size() - 1);
+                    moved += ids.size();
+                    archived.increment(ids.size());
+                }
+            } while (ids.size() == chunkSize);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Transaction archiving failed: " + e.getMessage(), e);
+        }
+
+        if (moved > 0) {
+            LOGGER.info("Transactions archived: " + moved + " | before: " + cutoff + " | "
+                    + (System.currentTimeMillis() - started) + " ms");
+        }
+        return moved;
+    }
+
+    //endregion
+
+}
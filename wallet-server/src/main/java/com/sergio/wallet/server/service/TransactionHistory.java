@@ -0,0 +1,53 @@
+package com.sergio.wallet.server.service;
+
+import com.sergio.wallet.server.data.entity.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helper for history pages spanning the hot Transaction table and the Transaction Archive table.
+ *
+ * Archived transactions are older than the hot ones, except for the few still referenced as last transaction
+ * of a balance, which are never archived, so the ids of both tables interleave and each page is the merge of
+ * a page of each table. Pages are read hot table first, so a transaction archived in between can be in both.
+ */
+public final class TransactionHistory {
+
+    private TransactionHistory() {
+    }
+
+    /**
+     * Merges a page of hot transactions and a page of archived transactions, both ordered by id.
+     * @param hot
+     * @param archived
+     * @param limit Max amount of transactions to return.
+     * @return The first transactions of both pages ordered by id without duplicates, up to the limit.
+     */
+    public static List<Transaction> merge(List<Transaction> hot, List<Transaction> archived, int limit) {
+        if (archived.isEmpty()) {
+            return hot;
+        }
+        if (hot.isEmpty()) {
+            return archived;
+        }
+
+        List<Transaction> merged = new ArrayList<>(Math.min(limit, hot.size() + archived.size()));
+        int h = 0;
+        int a = 0;
+        while (merged.size() < limit && (h < hot.size() || a < archived.size())) {
+            if (a >= archived.size() || (h < hot.size() && hot.get(h).getId() < archived.get(a).getId())) {
+                merged.add(hot.get(h++));
+            } else {
+                // Moved by the archiver while the pages were read, only the archived one is kept.
+                if (h < hot.size() && hot.get(h).getId() == archived.get(a).getId()) {
+                    h++;
+                }
+                merged.add(archived.get(a++));
+            }
+        }
+
+        return merged;
+    }
+
+}
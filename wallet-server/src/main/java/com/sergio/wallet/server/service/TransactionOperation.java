@@ -0,0 +1,101 @@
+package com.sergio.wallet.server.service;
+
+import com.sergio.wallet.server.data.entity.Currency;
+
+/**
+ * Simple immutable class describing a deposit or withdraw to be executed by the TransactionService,
+ * used when executing many transactions at once.
+ */
+public class TransactionOperation {
+
+    //region VARIABLES
+
+    private final String userId;
+
+    private final long amount;
+
+    // Null if the requested currency is unknown.
+    private final Currency currency;
+
+    private final boolean deposit;
+
+    // Null if the operation has no idempotency key.
+    private final String idempotencyKey;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    public TransactionOperation(String userId, long amount, Currency currency, boolean deposit) {
+        this(userId, amount, currency, deposit, null);
+    }
+
+    public TransactionOperation(String userId, long amount, Currency currency, boolean deposit,
+                                String idempotencyKey) {
+        this.userId = userId;
+        this.amount = amount;
+        this.currency = currency;
+        this.deposit = deposit;
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    public static TransactionOperation deposit(String userId, long amount, Currency currency) {
+        return new TransactionOperation(userId, amount, currency, true);
+    }
+
+    public static TransactionOperation withdraw(String userId, long amount, Currency currency) {
+        return new TransactionOperation(userId, amount, currency, false);
+    }
+
+    /**
+     * Checks if the other operation does exactly the same, idempotency key aside.
+     * @param other
+     * @return true if same user, amount, currency and type.
+     */
+    public boolean isSameAs(TransactionOperation other) {
+        return userId.equals(other.userId) && amount == other.amount && currency == other.currency
+                && deposit == other.deposit;
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionOperation{" +
+                "userId='" + userId + '\'' +
+                ", amount=" + amount +
+                ", currency=" + currency +
+                ", deposit=" + deposit +
+                ", idempotencyKey='" + idempotencyKey + '\'' +
+                '}';
+    }
+
+    //region GETTERS
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    public boolean isDeposit() {
+        return deposit;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    //endregion
+
+    //endregion
+
+}
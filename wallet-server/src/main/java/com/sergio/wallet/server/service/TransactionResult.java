@@ -0,0 +1,91 @@
+package com.sergio.wallet.server.service;
+
+/**
+ * Simple immutable class describing the result of a deposit or withdraw executed by the TransactionService,
+ * successful results carry the balance of the account right after the operation.
+ *
+ * Failed results have nothing specific to the operation, so the same instance is always used for each
+ * failure instead of creating a new one per request.
+ */
+public class TransactionResult {
+
+    //region VARIABLES
+
+    public enum Code {
+        SUCCESSFUL,
+        UNKNOWN_CURRENCY,
+        INSUFFICIENT_FUNDS
+    }
+
+    public final static TransactionResult UNKNOWN_CURRENCY =
+            new TransactionResult(Code.UNKNOWN_CURRENCY, TransactionService.RESPONSE_UNKNOWN_CURRENCY, 0);
+
+    public final static TransactionResult INSUFFICIENT_FUNDS =
+            new TransactionResult(Code.INSUFFICIENT_FUNDS, TransactionService.RESPONSE_INSUFFICIENT_FUNDS, 0);
+
+    private final Code code;
+
+    private final String message;
+
+    private final long balance;
+
+    //endregion
+
+    //region CONSTRUCTORS
+
+    private TransactionResult(Code code, String message, long balance) {
+        this.code = code;
+        this.message = message;
+        this.balance = balance;
+    }
+
+    //endregion
+
+    //region PUBLIC METHODS
+
+    /**
+     * Result of a successful operation.
+     * @param balance Balance of the account right after the operation.
+     * @return The result with the balance.
+     */
+    public static TransactionResult successful(long balance) {
+        return new TransactionResult(Code.SUCCESSFUL, TransactionService.RESPONSE_SUCCESSFUL, balance);
+    }
+
+    public boolean isSuccessful() {
+        return code == Code.SUCCESSFUL;
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionResult{" +
+                "code=" + code +
+                ", balance=" + balance +
+                '}';
+    }
+
+    //region GETTERS
+
+    public Code getCode() {
+        return code;
+    }
+
+    /**
+     * @return Response message, empty if successful or error message otherwise.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return Balance of the account right after the operation, 0 if not successful.
+     */
+    public long getBalance() {
+        return balance;
+    }
+
+    //endregion
+
+    //endregion
+
+}
@@ -1,199 +1,111 @@
 package com.sergio.wallet.server.service;
 
-import com.sergio.wallet.server.data.entity.Balance;
+import com.sergio.wallet.server.data.entity.Currency;
 import com.sergio.wallet.server.data.entity.Transaction;
-import com.sergio.wallet.server.data.repository.BalanceRepository;
-import com.sergio.wallet.server.data.repository.TransactionRepository;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Isolation;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
-import java.util.*;
+import java.util.List;
+import java.util.Map;
 
 /**
- * Main service component in charge of performing all the methods for deposit or withdrawal of funds
- * and retrieving the balance for all currencies per user.
- * Makes use of transaction and balance repositories.
+ * Main service in charge of performing all the methods for deposit or withdrawal of funds and retrieving
+ * the balance for all currencies per user.
+ *
+ * This is also the storage SPI of the server, every implementation stores the ledger and the balances in
+ * its own way and is chosen with the wallet.store property:
+ * - jpa (default): the relational database through the JPA repositories (JpaTransactionService).
+ * - jdbc: the same tables through plain JDBC statements, no entities involved (JdbcTransactionService).
+ * - memory: only in memory, lost on restart (InMemoryTransactionService).
+ * - journal: an embedded append-only journal file (JournalTransactionService).
+ * The memory and journal profiles select their store and leave the database out, no database is needed.
+ *
+ * All implementations must apply each deposit, withdraw or batch atomically, writes over the same account
+ * are serialized by the caller through the account locks.
  */
-@Service
-public class TransactionService {
+public interface TransactionService {
 
     //region VARIABLES
 
-    private final static Logger LOGGER = LoggerFactory.getLogger(TransactionService.class);
+    String RESPONSE_SUCCESSFUL = "";
 
-    private final TransactionRepository transactionRepository;
+    String RESPONSE_UNKNOWN_CURRENCY = "Unknown currency";
 
-    private final BalanceRepository balanceRepository;
-
-    public final static List<String> VALID_CURRENCIES =
-            Collections.unmodifiableList(Arrays.asList("USD", "EUR", "GBP"));
-
-    public final static String RESPONSE_SUCCESSFUL = "";
-
-    public final static String RESPONSE_UNKNOWN_CURRENCY = "Unknown currency";
-
-    public final static String RESPONSE_INSUFFICIENT_FUNDS = "Insufficient funds";
+    String RESPONSE_INSUFFICIENT_FUNDS = "Insufficient funds";
 
     //endregion
 
-    //region CONSTRUCTORS
-
-    @Autowired
-    public TransactionService(TransactionRepository transactionRepository, BalanceRepository balanceRepository) {
-        this.transactionRepository = transactionRepository;
-        this.balanceRepository = balanceRepository;
-    }
-
-    //endregion
-
-    //region PRIVATE METHOD
+    //region METHODS
 
     /**
-     * Method in charge of finding the right balance for the user and currency,
-     * if it doesn't exists it creates a new one.
+     * Adds funds to the user's wallet, the operation is durable once this returns.
      * @param userId
-     * @param currency
-     * @return The balance in the specific currency for that user.
+     * @param amount
+     * @param currency Null if the requested currency is unknown.
+     * @return Result of the deposit, with the balance after it if successful.
      */
-    private Balance findOrCreateBalance(String userId, String currency) {
-        Balance balance = balanceRepository.findByUserIdAndCurrency(userId, currency);
-
-        if (balance == null){
-            balance = new Balance();
-            balance.setUserId(userId);
-            balance.setCurrency(currency);
-            balance.setBalance(0);
-            balance.setModified(LocalDateTime.now());
-        }
-
-        return balance;
-    }
+    TransactionResult doDeposit(String userId, long amount, Currency currency);
 
     /**
-     * Method in charge of the logic for executing transactions, it will treat deposits and withdraws
-     * differently to modify the balance accordingly.
-     * It will create a new transaction row in the Transaction table.
-     * It will update or create a row in the Balance table.
+     * Subtracts funds from the user's wallet if there are enough, the operation is durable once this returns.
      * @param userId
-     * @param amount It will be deposit or withdraw type depending on the isDeposit parameter.
-     * @param currency
-     * @param isDeposit if called to execute a deposit or a withdraw.
-     * @return Response message, empty if successful or error message otherwise.
+     * @param amount
+     * @param currency Null if the requested currency is unknown.
+     * @return Result of the withdraw, with the balance after it if successful.
      */
-    private String executeTransaction(String userId, long amount, String currency, boolean isDeposit) {
-        // First check the currency is a valid one.
-        if(!VALID_CURRENCIES.contains(currency)) {
-            return TransactionService.RESPONSE_UNKNOWN_CURRENCY;
-        }
-
-        // Let's retrieve the balance for the user and currency, create if absent only for deposits.
-        Balance balance = findOrCreateBalance(userId, currency);
-
-        // Should probably validate if negative amount, though no such error message is defined in the exercise.
-
-        // If this transaction is a withdraw, first let's check if there are enough funds.
-        if (!isDeposit && balance.getBalance() - amount < 0) {
-            return RESPONSE_INSUFFICIENT_FUNDS;
-        }
-
-        // Let's define a transaction and set all the values.
-        Transaction transaction = new Transaction();
-        transaction.setUserId(userId);
-        transaction.setCurrency(currency);
-        transaction.setDate(LocalDateTime.now());
-
-        // Set the right amount type for the transaction.
-        if (isDeposit) {
-            transaction.setDeposit(amount);
-        } else {
-            transaction.setWithdraw(amount);
-        }
-
-        // Perform insert to the transaction table.
-        transaction = transactionRepository.save(transaction);
-
-        // Simple necessary updates to the balance data.
-        balance.modifyBalance(amount, isDeposit);
-        balance.setLastTransactionId(transaction.getId());
-
-        // Update row or insert the balance into balance table.
-        balance = balanceRepository.save(balance);
-
-        // Empty response equals to successful transaction.
-        return RESPONSE_SUCCESSFUL;
-    }
-
-    //endregion
+    TransactionResult doWithdraw(String userId, long amount, Currency currency);
 
-    //region PUBLIC METHODS
+    /**
+     * Performs many deposits and withdraws at once, they are executed in order, each one with the same
+     * validations and results as doDeposit and doWithdraw, a failed withdraw doesn't stop the rest of the
+     * operations. All successful operations are stored together.
+     * @param operations
+     * @return Result of each operation in the same order, the balances after each successful operation
+     * include all the previous operations of the batch.
+     */
+    List<TransactionResult> executeBatch(List<TransactionOperation> operations);
 
     /**
-     * Entry method for performing deposits to the user's wallet, it's a transactional method
-     * to help avoid other transactions read or write incorrect information.
+     * Retrieves the balance for all currencies of the user.
      * @param userId
-     * @param amount
-     * @param currency
-     * @return Response message, empty if successful or error message otherwise.
+     * @return Map with the balance for each currency for the specific user, empty map if no balances.
      */
-    @Transactional(isolation = Isolation.SERIALIZABLE)
-    public String doDeposit(String userId, long amount, String currency) {
-        String threadName = Thread.currentThread().getName();
-        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "doDeposit.");
-
-        // Let's execute the transaction and return the result.
-        String result = executeTransaction(userId, amount, currency, true);
-
-        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "doDeposit finished.");
-        return result;
-    }
+    Map<Currency, Long> getBalance(String userId);
 
     /**
-     * Entry method for performing withdrawal from the user's wallet, it's a transactional method
-     * to help avoid other transactions read or write incorrect information.
+     * Retrieves the balance for all currencies of the user only if it's already in memory, so it can be
+     * answered right away on the calling thread without blocking on the store.
      * @param userId
-     * @param amount
-     * @param currency
-     * @return Response message, empty if successful or error message otherwise.
+     * @return Map with the balance for each currency for the specific user, or null if it must be read with
+     * getBalance.
      */
-    @Transactional(isolation = Isolation.SERIALIZABLE)
-    public String doWithdraw(String userId, long amount, String currency) {
-        String threadName = Thread.currentThread().getName();
-        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "doWithdraw.");
-
-        // Let's execute the transaction and return the result.
-        String result = executeTransaction(userId, amount, currency, false);
-
-        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "doWithdraw finished.");
-        return result;
+    default Map<Currency, Long> getCachedBalance(String userId) {
+        return null;
     }
 
     /**
-     * Entry method for performing the get balance for a specific user's wallet, marked as
-     * Transactional Read Committed to avoid reading dirty data and respond with the latest
-     * available data to the client.
+     * Retrieves a page of the user's transactions, ordered by id, it continues after the given transaction id.
      * @param userId
-     * @return Map with the balance for each currency for the specific user, empty map if error.
+     * @param currency Optional, null for transactions in all currencies.
+     * @param fromDate Optional, inclusive.
+     * @param toDate Optional, exclusive.
+     * @param afterId Id of the last transaction from the previous page, 0 for the first page.
+     * @param limit Max amount of transactions to return.
+     * @return List with the transactions, empty if no more transactions.
      */
-    @Transactional(isolation = Isolation.READ_COMMITTED)
-    public Map<String, Long> getBalance(String userId) {
-        String threadName = Thread.currentThread().getName();
-        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "getBalance.");
-
-        // Some transaction functionality based on the type.
-        Map<String, Long> balances = new HashMap<>();
-
-        List<Balance> balanceList = balanceRepository.findAllByUserId(userId);
-
-        balanceList.forEach(balance -> balances.putIfAbsent(balance.getCurrency(), balance.getBalance()));
+    List<Transaction> getTransactions(String userId, Currency currency, LocalDateTime fromDate,
+                                      LocalDateTime toDate, long afterId, int limit);
 
-        LOGGER.debug(threadName + " | " + "user-" + userId + " | " + "getBalance finished.");
-        // Empty response equals to successful transaction.
-        return balances;
+    /**
+     * Retrieves the transaction stored for an operation with an idempotency key, used to answer requests
+     * sent again once the key is no longer remembered by the server. Stores keep the keys of the stored
+     * operations and reject a second operation with the same key for the same user, failing the whole batch
+     * with a DuplicateKeyException (or the SQLException of the violated unique key).
+     * @param userId
+     * @param idempotencyKey
+     * @return The transaction, or null if none stored with that key.
+     */
+    default Transaction findByIdempotencyKey(String userId, String idempotencyKey) {
+        return null;
     }
 
     //endregion
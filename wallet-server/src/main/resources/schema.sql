@@ -1,19 +1,46 @@
+CREATE TABLE ID_GENERATOR (
+    SEQUENCE_NAME VARCHAR(255) NOT NULL PRIMARY KEY,
+    NEXT_VAL BIGINT
+);
+
 CREATE TABLE TRANSACTION (
-    ID BIGINT AUTO_INCREMENT PRIMARY KEY,
+    ID BIGINT NOT NULL PRIMARY KEY,
     USER_ID VARCHAR(64),
     DEPOSIT BIGINT,
     WITHDRAW BIGINT,
-    CURRENCY VARCHAR(3),
-    DATE TIMESTAMP
+    CURRENCY TINYINT,
+    DATE TIMESTAMP,
+    IDEMPOTENCY_KEY VARCHAR(64),
+    BALANCE_AFTER BIGINT,
+    INDEX IDX_TRANSACTION_USER_ID_CURRENCY_ID (USER_ID, CURRENCY, ID),
+    INDEX IDX_TRANSACTION_USER_ID_ID (USER_ID, ID),
+    CONSTRAINT UK_TRANSACTION_USER_ID_IDEMPOTENCY_KEY UNIQUE (USER_ID, IDEMPOTENCY_KEY)
 );
 
+-- Transactions of closed periods, moved by the archiver, never updated so stored compressed.
+CREATE TABLE TRANSACTION_ARCHIVE (
+    ID BIGINT NOT NULL PRIMARY KEY,
+    USER_ID VARCHAR(64),
+    DEPOSIT BIGINT,
+    WITHDRAW BIGINT,
+    CURRENCY TINYINT,
+    DATE TIMESTAMP,
+    IDEMPOTENCY_KEY VARCHAR(64),
+    BALANCE_AFTER BIGINT,
+    INDEX IDX_TRANSACTION_ARCHIVE_USER_ID_CURRENCY_ID (USER_ID, CURRENCY, ID),
+    INDEX IDX_TRANSACTION_ARCHIVE_USER_ID_ID (USER_ID, ID),
+    CONSTRAINT UK_TRANSACTION_ARCHIVE_USER_ID_IDEMPOTENCY_KEY UNIQUE (USER_ID, IDEMPOTENCY_KEY)
+) ROW_FORMAT=COMPRESSED KEY_BLOCK_SIZE=8;
+
 CREATE TABLE BALANCE (
     ID BIGINT AUTO_INCREMENT PRIMARY KEY,
     USER_ID VARCHAR(64),
     BALANCE BIGINT,
-    CURRENCY VARCHAR(3),
+    CURRENCY TINYINT,
     MODIFIED TIMESTAMP,
-    LAST_TRANSACTION_ID BIGINT
+    LAST_TRANSACTION_ID BIGINT,
+    VERSION BIGINT NOT NULL DEFAULT 0,
+    CONSTRAINT UK_BALANCE_USER_ID_CURRENCY UNIQUE (USER_ID, CURRENCY)
 );
 
 ALTER TABLE BALANCE ADD FOREIGN KEY (LAST_TRANSACTION_ID) REFERENCES TRANSACTION(ID);
\ No newline at end of file
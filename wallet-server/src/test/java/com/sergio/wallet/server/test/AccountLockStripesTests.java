@@ -0,0 +1,223 @@
+package com.sergio.wallet.server.test;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sergio.wallet.server.concurrency.AccountLockStripes;
+import com.sergio.wallet.server.data.entity.Currency;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertThat;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stress tests for the AccountLockStripes class, validating that writes over the same account are
+ * mutually exclusive and that writes over different accounts scale across threads.
+ */
+public class AccountLockStripesTests {
+
+    //region VARIABLES
+
+    private final Logger LOGGER = LoggerFactory.getLogger(AccountLockStripesTests.class);
+
+    //region TEST VARIABLES
+
+    private final int threads = 8;
+
+    private final Currency currency = Currency.USD;
+
+    //endregion
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    /**
+     * Runs the same task in the amount of threads defined, all of them starting at the same time.
+     * @param task Receives the index of the thread running it.
+     * @return Elapsed time in milliseconds until all threads finished.
+     */
+    private long runConcurrently(final IntConsumerTask task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int i = 0; i < threads; i++) {
+            final int threadIdx = i;
+            futures.add(executor.submit(() -> {
+                start.await();
+                task.run(threadIdx);
+                return null;
+            }));
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+        executor.shutdownNow();
+        return elapsed;
+    }
+
+    /** Simple task receiving the thread index, allowed to throw checked exceptions. */
+    private interface IntConsumerTask {
+        void run(int threadIdx) throws Exception;
+    }
+
+    //endregion
+
+    //region TEST METHODS
+
+    @Test
+    public void when_Stripes_Are_Rounded_To_Power_Of_Two() {
+        LOGGER.info("when_Stripes_Are_Rounded_To_Power_Of_Two");
+
+        assertThat(new AccountLockStripes(1000).getStripesCount(), is(equalTo(1024)));
+        assertThat(new AccountLockStripes(1024).getStripesCount(), is(equalTo(1024)));
+        assertThat(new AccountLockStripes(1).getStripesCount(), is(equalTo(1)));
+    }
+
+    @Test
+    public void when_Same_Account_Uses_Same_Lock() {
+        LOGGER.info("when_Same_Account_Uses_Same_Lock");
+
+        AccountLockStripes locks = new AccountLockStripes(1024);
+
+        assertThat(locks.lockFor("testuser", currency), is(sameInstance(locks.lockFor("testuser", currency))));
+    }
+
+    @Test
+    public void when_Locking_Many_Accounts_Each_Stripe_Is_Locked_Once() {
+        LOGGER.info("when_Locking_Many_Accounts_Each_Stripe_Is_Locked_Once");
+
+        AccountLockStripes locks = new AccountLockStripes(1024);
+        int first = locks.stripeIndex("testuser", currency);
+        int second = locks.stripeIndex("testuser", Currency.EUR);
+
+        List<Lock> locked = locks.lockAll(new int[] {second, first, second, first});
+
+        assertThat(locked.size(), is(equalTo(first == second ? 1 : 2)));
+        assertThat(((ReentrantLock) locks.lockFor("testuser", currency)).getHoldCount(), is(equalTo(1)));
+
+        locks.unlockAll(locked);
+
+        assertThat(((ReentrantLock) locks.lockFor("testuser", currency)).isLocked(), is(false));
+        assertThat(((ReentrantLock) locks.lockFor("testuser", Currency.EUR)).isLocked(), is(false));
+    }
+
+    @Test
+    public void when_Locking_Records_Wait_Time() {
+        LOGGER.info("when_Locking_Records_Wait_Time");
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        AccountLockStripes locks = new AccountLockStripes(meterRegistry, 1024, "locking");
+
+        Lock lock = locks.lock("testuser", currency);
+        assertThat(((ReentrantLock) lock).isHeldByCurrentThread(), is(true));
+        lock.unlock();
+
+        locks.unlockAll(locks.lockAll(new int[] {locks.stripeIndex("testuser", Currency.EUR)}));
+
+        assertThat(meterRegistry.get("wallet.lock.wait").timer().count(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void when_Optimistic_Is_Not_Locking() {
+        LOGGER.info("when_Optimistic_Is_Not_Locking");
+
+        AccountLockStripes locks = new AccountLockStripes(new SimpleMeterRegistry(), 1024, "optimistic");
+        assertThat(locks.isLocking(), is(false));
+        assertThat(new AccountLockStripes(new SimpleMeterRegistry(), 1024, "locking").isLocking(), is(true));
+
+        // Writers skip locking in the optimistic mode, the locks handed out are always real ones.
+        Lock lock = locks.lock("testuser", currency);
+        assertThat(((ReentrantLock) lock).isHeldByCurrentThread(), is(true));
+        lock.unlock();
+    }
+
+    @Test
+    public void when_Same_Account_Has_No_Lost_Updates() throws Exception {
+        LOGGER.info("when_Same_Account_Has_No_Lost_Updates");
+
+        final AccountLockStripes locks = new AccountLockStripes(1024);
+        final int increments = 20000;
+        // Plain non volatile fields, only the account lock is protecting them.
+        final long[] balance = new long[1];
+        final int[] maxInside = new int[1];
+        final AtomicInteger inside = new AtomicInteger();
+
+        runConcurrently(threadIdx -> {
+            for (int i = 0; i < increments; i++) {
+                Lock lock = locks.lockFor("testuser", currency);
+                lock.lock();
+                try {
+                    maxInside[0] = Math.max(maxInside[0], inside.incrementAndGet());
+                    balance[0] = balance[0] + 1;
+                    inside.decrementAndGet();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+
+        assertThat(balance[0], is(equalTo((long) threads * increments)));
+        assertThat(maxInside[0], is(equalTo(1)));
+    }
+
+    @Test
+    public void when_Different_Accounts_Scale_Across_Threads() throws Exception {
+        LOGGER.info("when_Different_Accounts_Scale_Across_Threads");
+
+        final AccountLockStripes locks = new AccountLockStripes(1024);
+        final int operations = 10;
+        final long operationMillis = 20;
+
+        // Find one account per thread that doesn't share a stripe with any other thread's account.
+        final String[] userIds = new String[threads];
+        boolean[] usedStripes = new boolean[locks.getStripesCount()];
+        int candidate = 0;
+        for (int i = 0; i < threads; i++) {
+            String userId;
+            do {
+                userId = "user-" + candidate++;
+            } while (usedStripes[locks.stripeIndex(userId, currency)]);
+            usedStripes[locks.stripeIndex(userId, currency)] = true;
+            userIds[i] = userId;
+        }
+
+        // Each operation simulates the time spent in the DB while holding the account lock.
+        long elapsed = runConcurrently(threadIdx -> {
+            for (int i = 0; i < operations; i++) {
+                Lock lock = locks.lockFor(userIds[threadIdx], currency);
+                lock.lock();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(operationMillis);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+
+        long serialTime = threads * operations * operationMillis;
+        LOGGER.info("Elapsed " + elapsed + " ms for " + threads + " threads, fully serialized would take "
+                + serialTime + " ms.");
+
+        // A global lock would need the whole serial time, allow plenty of margin for slow machines.
+        assertThat(elapsed < serialTime / 2, is(true));
+    }
+
+    //endregion
+
+}
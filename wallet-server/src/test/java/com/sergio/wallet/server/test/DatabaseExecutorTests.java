@@ -0,0 +1,100 @@
+package com.sergio.wallet.server.test;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sergio.wallet.server.concurrency.DatabaseExecutor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertThat;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit tests for the DatabaseExecutor class, validating the bounded queue, the rejection of tasks
+ * beyond it and the recorded metrics.
+ */
+public class DatabaseExecutorTests {
+
+    //region VARIABLES
+
+    private final Logger LOGGER = LoggerFactory.getLogger(DatabaseExecutorTests.class);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private DatabaseExecutor databaseExecutor;
+
+    //endregion
+
+    @After
+    public void shutdownExecutor() {
+        if (databaseExecutor != null) {
+            databaseExecutor.shutdown();
+        }
+    }
+
+    //region TEST METHODS
+
+    @Test
+    public void when_Queue_Is_Full_Tasks_Are_Rejected() throws Exception {
+        LOGGER.info("when_Queue_Is_Full_Tasks_Are_Rejected");
+
+        databaseExecutor = new DatabaseExecutor(meterRegistry, true, 1, 1);
+
+        final CountDownLatch workerBusy = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(2);
+
+        // First task keeps the only worker busy, the second one waits in the queue.
+        databaseExecutor.execute(() -> {
+            workerBusy.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finished.countDown();
+        });
+        assertThat(workerBusy.await(10, TimeUnit.SECONDS), is(true));
+        databaseExecutor.execute(finished::countDown);
+
+        boolean rejected = false;
+        try {
+            databaseExecutor.execute(() -> { });
+        } catch (RejectedExecutionException e) {
+            rejected = true;
+        }
+
+        assertThat(rejected, is(true));
+        assertThat(meterRegistry.get("wallet.db.executor.rejections").counter().count(), is(equalTo(1.0)));
+        assertThat(meterRegistry.get("wallet.db.executor.queue.size").gauge().value(), is(equalTo(1.0)));
+
+        release.countDown();
+        assertThat(finished.await(10, TimeUnit.SECONDS), is(true));
+
+        // Both accepted tasks recorded their time waiting for the worker.
+        assertThat(meterRegistry.get("wallet.db.executor.wait").timer().count(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void when_Disabled_Tasks_Run_In_Caller_Thread() {
+        LOGGER.info("when_Disabled_Tasks_Run_In_Caller_Thread");
+
+        databaseExecutor = new DatabaseExecutor(meterRegistry, false, 1, 1);
+
+        final AtomicReference<Thread> runner = new AtomicReference<>();
+        databaseExecutor.execute(() -> runner.set(Thread.currentThread()));
+
+        assertThat(runner.get(), is(sameInstance(Thread.currentThread())));
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,199 @@
+package com.sergio.wallet.server.test;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sergio.wallet.server.concurrency.AccountLockStripes;
+import com.sergio.wallet.server.concurrency.TransientFailureRetry;
+import com.sergio.wallet.server.data.entity.Currency;
+import com.sergio.wallet.server.service.GroupCommitWriter;
+import com.sergio.wallet.server.service.TransactionOperation;
+import com.sergio.wallet.server.service.TransactionResult;
+import com.sergio.wallet.server.service.TransactionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertThat;
+import static org.hamcrest.CoreMatchers.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Unit tests for the GroupCommitWriter class, the transaction service is mocked so only the grouping,
+ * completion and fallback logic is validated.
+ */
+public class GroupCommitWriterTests {
+
+    //region VARIABLES
+
+    private final Logger LOGGER = LoggerFactory.getLogger(GroupCommitWriterTests.class);
+
+    private final TransactionService transactionService = mock(TransactionService.class);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final TransientFailureRetry transientFailureRetry = new TransientFailureRetry(meterRegistry, true,
+            3, 1, 1, 1.0, 100);
+
+    private GroupCommitWriter groupCommitWriter;
+
+    //region TEST VARIABLES
+
+    private final Currency validCurrency = Currency.USD;
+
+    //endregion
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    private GroupCommitWriter startWriter(int maxBatchSize, long maxLingerMillis, int queueCapacity) {
+        groupCommitWriter = new GroupCommitWriter(transactionService, new AccountLockStripes(16),
+                transientFailureRetry, meterRegistry, true, maxBatchSize, maxLingerMillis, queueCapacity);
+        groupCommitWriter.start();
+        return groupCommitWriter;
+    }
+
+    //endregion
+
+    @After
+    public void stopWriter() {
+        if (groupCommitWriter != null) {
+            groupCommitWriter.stop();
+        }
+    }
+
+    //region TEST METHODS
+
+    @Test
+    public void when_Operations_Are_Committed_In_Groups() throws Exception {
+        LOGGER.info("when_Operations_Are_Committed_In_Groups");
+
+        // Each group gets one successful result per operation.
+        when(transactionService.executeBatch(anyList())).thenAnswer(invocation -> {
+            List<?> operations = invocation.getArgument(0);
+            return new ArrayList<>(Collections.nCopies(operations.size(), TransactionResult.successful(100)));
+        });
+
+        GroupCommitWriter writer = startWriter(10, 50, 1000);
+
+        List<CompletableFuture<TransactionResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(writer.submit(TransactionOperation.deposit("user-" + i, 100, validCurrency)));
+        }
+
+        for (CompletableFuture<TransactionResult> future : futures) {
+            assertThat(future.get(10, TimeUnit.SECONDS).isSuccessful(), is(true));
+        }
+
+        // All operations were committed, but in fewer DB transactions than operations.
+        long groups = meterRegistry.get("wallet.group.commit.batch.size").summary().count();
+        double committed = meterRegistry.get("wallet.group.commit.batch.size").summary().totalAmount();
+        assertThat(committed, is(equalTo(100.0)));
+        assertThat(groups < 100, is(true));
+        assertThat(meterRegistry.get("wallet.group.commit.batch.size").summary().max() <= 10, is(true));
+    }
+
+    @Test
+    public void when_Group_Fails_Operations_Are_Committed_Alone() throws Exception {
+        LOGGER.info("when_Group_Fails_Operations_Are_Committed_Alone");
+
+        // Groups with more than one operation fail, single operations succeed.
+        when(transactionService.executeBatch(anyList())).thenAnswer(invocation -> {
+            List<?> operations = invocation.getArgument(0);
+            if (operations.size() > 1) {
+                throw new IllegalStateException("Group failure");
+            }
+            return Collections.singletonList(TransactionResult.INSUFFICIENT_FUNDS);
+        });
+
+        GroupCommitWriter writer = startWriter(10, 200, 1000);
+
+        List<CompletableFuture<TransactionResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(writer.submit(TransactionOperation.withdraw("user-" + i, 100, validCurrency)));
+        }
+
+        for (CompletableFuture<TransactionResult> future : futures) {
+            assertThat(future.get(10, TimeUnit.SECONDS), is(sameInstance(TransactionResult.INSUFFICIENT_FUNDS)));
+        }
+    }
+
+    @Test
+    public void when_Writer_Is_Not_Running_Operations_Are_Rejected() throws Exception {
+        LOGGER.info("when_Writer_Is_Not_Running_Operations_Are_Rejected");
+
+        GroupCommitWriter writer = new GroupCommitWriter(transactionService, new AccountLockStripes(16),
+                transientFailureRetry, meterRegistry, false, 10, 1, 10);
+        writer.start();
+
+        CompletableFuture<TransactionResult> future = writer.submit(TransactionOperation.deposit("user", 100, validCurrency));
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause() instanceof RejectedExecutionException, is(true));
+            return;
+        }
+
+        throw new AssertionError("Operation should have been rejected.");
+    }
+
+    @Test
+    public void when_Writer_Is_Stopped_While_Submitting_Every_Operation_Is_Completed() throws Exception {
+        LOGGER.info("when_Writer_Is_Stopped_While_Submitting_Every_Operation_Is_Completed");
+
+        when(transactionService.executeBatch(anyList())).thenAnswer(invocation ->
+                Collections.nCopies(invocation.<List<?>>getArgument(0).size(), TransactionResult.successful(100)));
+
+        startWriter(10, 1, 10000);
+
+        // Submitters keep going until after stop returned, so some of them offer right while the queue is drained.
+        AtomicBoolean stopped = new AtomicBoolean();
+        List<CompletableFuture<TransactionResult>> futures = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService submitters = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            submitters.execute(() -> {
+                while (!stopped.get()) {
+                    futures.add(groupCommitWriter.submit(TransactionOperation.deposit("user", 100, validCurrency)));
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+                }
+            });
+        }
+
+        Thread.sleep(50);
+        groupCommitWriter.stop();
+        stopped.set(true);
+        submitters.shutdown();
+        assertThat(submitters.awaitTermination(10, TimeUnit.SECONDS), is(true));
+
+        // None is left pending forever, each one was either committed or rejected.
+        for (CompletableFuture<TransactionResult> future : futures) {
+            try {
+                assertThat(future.get(10, TimeUnit.SECONDS).getBalance(), is(equalTo(100L)));
+            } catch (ExecutionException e) {
+                assertThat(e.getCause() instanceof RejectedExecutionException
+                        || e.getCause() instanceof CancellationException, is(true));
+            }
+        }
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,116 @@
+package com.sergio.wallet.server.test;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sergio.wallet.server.data.entity.Currency;
+import com.sergio.wallet.server.grpc.IdempotencyCache;
+import com.sergio.wallet.server.service.TransactionOperation;
+import com.sergio.wallet.server.service.TransactionResult;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertThat;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for the IdempotencyCache class, validating that operations with the same key are executed
+ * only once and that failed operations can be executed again.
+ */
+public class IdempotencyCacheTests {
+
+    //region VARIABLES
+
+    private final Logger LOGGER = LoggerFactory.getLogger(IdempotencyCacheTests.class);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final IdempotencyCache idempotencyCache = new IdempotencyCache(meterRegistry, 1000, 60);
+
+    private final AtomicInteger executions = new AtomicInteger();
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    private TransactionOperation deposit(long amount, String idempotencyKey) {
+        return new TransactionOperation("testuser", amount, Currency.USD, true, idempotencyKey);
+    }
+
+    private CompletableFuture<TransactionResult> execute(CompletableFuture<TransactionResult> execution) {
+        executions.incrementAndGet();
+        return execution;
+    }
+
+    //endregion
+
+    //region TEST METHODS
+
+    @Test
+    public void when_Same_Key_Is_Executed_Once() throws Exception {
+        LOGGER.info("when_Same_Key_Is_Executed_Once");
+
+        // The copy arrives while the first one is still running, it waits for the same result.
+        CompletableFuture<TransactionResult> execution = new CompletableFuture<>();
+        CompletableFuture<TransactionResult> first = idempotencyCache.execute(deposit(100, "key-1"),
+                () -> execute(execution));
+        CompletableFuture<TransactionResult> copy = idempotencyCache.execute(deposit(100, "key-1"),
+                () -> execute(CompletableFuture.completedFuture(TransactionResult.successful(200))));
+
+        assertThat(copy.isDone(), is(false));
+        execution.complete(TransactionResult.successful(100));
+
+        assertThat(first.get(1, TimeUnit.SECONDS).getBalance(), is(equalTo(100L)));
+        assertThat(copy.get(1, TimeUnit.SECONDS).getBalance(), is(equalTo(100L)));
+        assertThat(executions.get(), is(equalTo(1)));
+        assertThat(meterRegistry.get("wallet.idempotency.replays").counter().count(), is(equalTo(1.0)));
+    }
+
+    @Test
+    public void when_Key_Is_Reused_For_Other_Operation_Is_Rejected() throws Exception {
+        LOGGER.info("when_Key_Is_Reused_For_Other_Operation_Is_Rejected");
+
+        idempotencyCache.execute(deposit(100, "key-1"),
+                () -> execute(CompletableFuture.completedFuture(TransactionResult.successful(100))));
+        CompletableFuture<TransactionResult> other = idempotencyCache.execute(deposit(500, "key-1"),
+                () -> execute(CompletableFuture.completedFuture(TransactionResult.successful(600))));
+
+        try {
+            other.get(1, TimeUnit.SECONDS);
+            throw new AssertionError("Operation should have been rejected.");
+        } catch (ExecutionException e) {
+            assertThat(((StatusRuntimeException) e.getCause()).getStatus().getCode(),
+                    is(equalTo(Status.Code.INVALID_ARGUMENT)));
+        }
+        assertThat(executions.get(), is(equalTo(1)));
+    }
+
+    @Test
+    public void when_Operation_Fails_Key_Is_Forgotten() throws Exception {
+        LOGGER.info("when_Operation_Fails_Key_Is_Forgotten");
+
+        CompletableFuture<TransactionResult> failure = new CompletableFuture<>();
+        failure.completeExceptionally(new IllegalStateException("Transaction failed"));
+
+        CompletableFuture<TransactionResult> first = idempotencyCache.execute(deposit(100, "key-1"),
+                () -> execute(failure));
+        assertThat(first.isCompletedExceptionally(), is(true));
+
+        CompletableFuture<TransactionResult> retry = idempotencyCache.execute(deposit(100, "key-1"),
+                () -> execute(CompletableFuture.completedFuture(TransactionResult.successful(100))));
+
+        assertThat(retry.get(1, TimeUnit.SECONDS).getBalance(), is(equalTo(100L)));
+        assertThat(executions.get(), is(equalTo(2)));
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,17 @@
+package com.sergio.wallet.server.test;
+
+import com.sergio.wallet.server.service.InMemoryTransactionService;
+import com.sergio.wallet.server.service.TransactionService;
+
+/**
+ * Unit test class for validating the methods from the InMemoryTransactionService class, runs all the cases
+ * of the TransactionService contract.
+ */
+public class InMemoryTransactionServiceTests extends TransactionServiceContractTests {
+
+    @Override
+    protected TransactionService createService() {
+        return new InMemoryTransactionService();
+    }
+
+}
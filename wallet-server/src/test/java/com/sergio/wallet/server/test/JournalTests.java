@@ -0,0 +1,149 @@
+package com.sergio.wallet.server.test;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sergio.wallet.server.data.entity.Currency;
+import com.sergio.wallet.server.journal.FsyncPolicy;
+import com.sergio.wallet.server.journal.Journal;
+import com.sergio.wallet.server.journal.JournalEntry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertThat;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit tests for the Journal class, validating the records are replayed across windows, torn records are
+ * discarded and the file can only be opened once.
+ */
+public class JournalTests {
+
+    //region VARIABLES
+
+    private final Logger LOGGER = LoggerFactory.getLogger(JournalTests.class);
+
+    // Smallest window allowed, so records cross windows quickly.
+    private final static int WINDOW_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder journalFolder = new TemporaryFolder();
+
+    //endregion
+
+    private Path journalFile() {
+        return journalFolder.getRoot().toPath().resolve("wallet.journal");
+    }
+
+    private JournalEntry entry(long id) {
+        return new JournalEntry(id, "user-" + id, Currency.EUR, id % 2 == 0, id * 10, 1000 + id);
+    }
+
+    private List<JournalEntry> replayAll(Journal journal) throws IOException {
+        List<JournalEntry> entries = new ArrayList<>();
+        journal.replay(0, (entry, position) -> entries.add(entry));
+        return entries;
+    }
+
+    //region TEST METHODS
+
+    @Test
+    public void when_Records_Cross_Windows_They_Are_Replayed() throws IOException {
+        LOGGER.info("when_Records_Cross_Windows_They_Are_Replayed");
+
+        List<Long> positions = new ArrayList<>();
+        try (Journal journal = new Journal(journalFile(), WINDOW_SIZE, FsyncPolicy.INTERVAL, 5)) {
+            journal.replay(0, (entry, position) -> { });
+
+            // Around 45 bytes per record, so they fill a few windows with padding at the end of each one.
+            for (long id = 1; id <= 300; id++) {
+                positions.add(journal.append(Collections.singletonList(entry(id)))[0]);
+            }
+            assertThat(journal.getPosition() > 2 * WINDOW_SIZE, is(true));
+        }
+
+        try (Journal journal = new Journal(journalFile(), WINDOW_SIZE, FsyncPolicy.INTERVAL, 5)) {
+            List<Long> replayedPositions = new ArrayList<>();
+            List<JournalEntry> entries = new ArrayList<>();
+            long replayed = journal.replay(0, (entry, position) -> {
+                entries.add(entry);
+                replayedPositions.add(position);
+            });
+
+            assertThat(replayed, is(equalTo(300L)));
+            assertThat(replayedPositions, is(equalTo(positions)));
+
+            JournalEntry last = journal.read(positions.get(299));
+            assertThat(last.getId(), is(equalTo(300L)));
+            assertThat(last.getUserId(), is(equalTo("user-300")));
+            assertThat(last.getCurrency(), is(equalTo(Currency.EUR)));
+            assertThat(last.isDeposit(), is(true));
+            assertThat(last.getAmount(), is(equalTo(3000L)));
+            assertThat(last.getTimestamp(), is(equalTo(1300L)));
+        }
+    }
+
+    @Test
+    public void when_Record_Is_Torn_Rest_Is_Discarded() throws IOException {
+        LOGGER.info("when_Record_Is_Torn_Rest_Is_Discarded");
+
+        long[] positions;
+        try (Journal journal = new Journal(journalFile(), WINDOW_SIZE, FsyncPolicy.ALWAYS, 0)) {
+            journal.replay(0, (entry, position) -> { });
+            journal.append(Collections.singletonList(entry(1)));
+            positions = journal.append(Arrays.asList(entry(2), entry(3)));
+            journal.append(Collections.singletonList(entry(4)));
+        }
+
+        // Flip a byte of the amount of the second entry of the batch, as if only part of it was written.
+        try (RandomAccessFile file = new RandomAccessFile(journalFile().toFile(), "rw")) {
+            file.seek(positions[1] + 20);
+            int value = file.read();
+            file.seek(positions[1] + 20);
+            file.write(value ^ 0x01);
+        }
+
+        try (Journal journal = new Journal(journalFile(), WINDOW_SIZE, FsyncPolicy.ALWAYS, 0)) {
+            // The whole batch is discarded, and the record after it too.
+            assertThat(replayAll(journal).size(), is(equalTo(1)));
+
+            // New records go right after the last valid one.
+            journal.append(Collections.singletonList(entry(2)));
+        }
+
+        try (Journal journal = new Journal(journalFile(), WINDOW_SIZE, FsyncPolicy.NEVER, 0)) {
+            List<JournalEntry> entries = replayAll(journal);
+            assertThat(entries.size(), is(equalTo(2)));
+            assertThat(entries.get(1).getId(), is(equalTo(2L)));
+        }
+    }
+
+    @Test
+    public void when_Journal_Is_Open_It_Cannot_Be_Opened_Again() throws IOException {
+        LOGGER.info("when_Journal_Is_Open_It_Cannot_Be_Opened_Again");
+
+        try (Journal journal = new Journal(journalFile(), WINDOW_SIZE, FsyncPolicy.ALWAYS, 0)) {
+            boolean rejected = false;
+            try {
+                new Journal(journalFile(), WINDOW_SIZE, FsyncPolicy.ALWAYS, 0);
+            } catch (IllegalStateException e) {
+                rejected = true;
+            }
+
+            assertThat(rejected, is(true));
+        }
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,257 @@
+package com.sergio.wallet.server.test;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sergio.wallet.server.data.entity.Currency;
+import com.sergio.wallet.server.data.entity.Transaction;
+import com.sergio.wallet.server.service.JournalTransactionService;
+import com.sergio.wallet.server.service.TransactionOperation;
+import com.sergio.wallet.server.service.TransactionService;
+import org.springframework.dao.DuplicateKeyException;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Unit test class for validating the methods from the JournalTransactionService class, runs all the cases of
+ * the TransactionService contract plus the recovery of the balances and history from the journal and snapshot
+ * files.
+ */
+public class JournalTransactionServiceTests extends TransactionServiceContractTests {
+
+    //region VARIABLES
+
+    private final Logger LOGGER = LoggerFactory.getLogger(JournalTransactionServiceTests.class);
+
+    @Rule
+    public TemporaryFolder journalFolder = new TemporaryFolder();
+
+    // Same service as the contract's, typed for closing and restarting it.
+    private JournalTransactionService journalService;
+
+    //endregion
+
+    @Override
+    protected TransactionService createService() throws IOException {
+        journalService = open();
+        return journalService;
+    }
+
+    @After
+    public void closeService() throws IOException {
+        journalService.close();
+    }
+
+    /**
+     * Opens the service on the test journal folder, snapshots only written on close.
+     * @return The service with all the journal loaded.
+     */
+    private JournalTransactionService open() throws IOException {
+        return open(0);
+    }
+
+    /**
+     * Opens the service on the test journal folder.
+     * @param snapshotInterval Entries appended between snapshots, 0 for snapshots only on close.
+     * @return The service with all the journal loaded.
+     */
+    private JournalTransactionService open(long snapshotInterval) throws IOException {
+        return new JournalTransactionService(journalFolder.getRoot().getPath(), "always", 10, 1, snapshotInterval);
+    }
+
+    /**
+     * Replaces the service under test, the contract's one included.
+     * @param service
+     */
+    private void use(JournalTransactionService service) {
+        journalService = service;
+        transactionService = service;
+    }
+
+    /**
+     * Closes the service and opens it again on the same files.
+     */
+    private void restart() throws IOException {
+        journalService.close();
+        use(open());
+    }
+
+    private Path snapshotFile() {
+        return journalFolder.getRoot().toPath().resolve("wallet.snapshot");
+    }
+
+    //region TEST METHODS
+
+    @Test
+    public void when_Restarted_Journal_Is_Replayed() throws IOException {
+        LOGGER.info("when_Restarted_Journal_Is_Replayed");
+
+        transactionService.doDeposit(userId, depositAmount, validCurrency);
+        transactionService.doWithdraw(userId, withdrawAmount, validCurrency);
+        journalService.close();
+
+        // Without the snapshot everything comes from the journal.
+        Files.delete(snapshotFile());
+        use(open());
+
+        assertThat(transactionService.getBalance(userId).get(validCurrency), is(equalTo(depositAmount - withdrawAmount)));
+        assertThat(transactionService.getTransactions(userId, null, null, null, 0, 10).size(), is(equalTo(2)));
+
+        // Ids continue after the replayed ones.
+        transactionService.doDeposit(userId, depositAmount, validCurrency);
+        List<Transaction> transactions = transactionService.getTransactions(userId, null, null, null, 0, 10);
+        assertThat(transactions.get(2).getId(), is(equalTo(3L)));
+    }
+
+    @Test
+    public void when_Restarted_Snapshot_And_Journal_Tail_Are_Loaded() throws IOException {
+        LOGGER.info("when_Restarted_Snapshot_And_Journal_Tail_Are_Loaded");
+
+        transactionService.doDeposit(userId, depositAmount, validCurrency);
+        journalService.close();
+
+        // Keep the snapshot with only the first deposit, as if the server crashed after the next operations.
+        Path oldSnapshot = journalFolder.getRoot().toPath().resolve("old.snapshot");
+        Files.copy(snapshotFile(), oldSnapshot);
+
+        use(open());
+        transactionService.doWithdraw(userId, withdrawAmount, validCurrency);
+        transactionService.doDeposit(userId, depositAmount, Currency.GBP);
+        journalService.close();
+
+        Files.move(oldSnapshot, snapshotFile(), StandardCopyOption.REPLACE_EXISTING);
+        use(open());
+
+        assertThat(transactionService.getBalance(userId).get(validCurrency), is(equalTo(depositAmount - withdrawAmount)));
+        assertThat(transactionService.getBalance(userId).get(Currency.GBP), is(equalTo(depositAmount)));
+        assertThat(transactionService.getTransactions(userId, null, null, null, 0, 10).size(), is(equalTo(3)));
+    }
+
+    @Test
+    public void when_Snapshot_Is_Corrupted_Journal_Is_Replayed() throws IOException {
+        LOGGER.info("when_Snapshot_Is_Corrupted_Journal_Is_Replayed");
+
+        transactionService.doDeposit(userId, depositAmount, validCurrency);
+        journalService.close();
+
+        byte[] snapshot = Files.readAllBytes(snapshotFile());
+        snapshot[snapshot.length - 12] ^= 0x01;
+        Files.write(snapshotFile(), snapshot);
+
+        use(open());
+
+        assertThat(transactionService.getBalance(userId).get(validCurrency), is(equalTo(depositAmount)));
+    }
+
+    @Test
+    public void when_Restarted_Many_Times_State_Is_Kept() throws IOException {
+        LOGGER.info("when_Restarted_Many_Times_State_Is_Kept");
+
+        for (int i = 0; i < 5; i++) {
+            transactionService.doDeposit(userId, depositAmount, validCurrency);
+            restart();
+        }
+
+        assertThat(transactionService.getBalance(userId).get(validCurrency), is(equalTo(5 * depositAmount)));
+        assertThat(transactionService.getTransactions(userId, null, null, null, 0, 10).size(), is(equalTo(5)));
+    }
+
+    @Test
+    public void when_Concurrent_Writers_Snapshots_Are_Written_Outside_The_Lock() throws Exception {
+        LOGGER.info("when_Concurrent_Writers_Snapshots_Are_Written_Outside_The_Lock");
+
+        // Snapshot every 10 entries, while other writers keep appending and are forced together.
+        journalService.close();
+        use(open(10));
+
+        int threads = 4;
+        int rounds = 100;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < rounds; i++) {
+                    assertThat(transactionService.doDeposit(userId, 1, validCurrency).getMessage(),
+                            is(equalTo(TransactionService.RESPONSE_SUCCESSFUL)));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertThat(Files.exists(snapshotFile()), is(true));
+        assertThat(transactionService.getBalance(userId).get(validCurrency), is(equalTo((long) threads * rounds)));
+
+        // A snapshot written meanwhile plus the journal after it have the same state.
+        Path midSnapshot = journalFolder.getRoot().toPath().resolve("mid.snapshot");
+        Files.copy(snapshotFile(), midSnapshot);
+        journalService.close();
+        Files.move(midSnapshot, snapshotFile(), StandardCopyOption.REPLACE_EXISTING);
+        use(open());
+
+        assertThat(transactionService.getBalance(userId).get(validCurrency), is(equalTo((long) threads * rounds)));
+        assertThat(transactionService.getTransactions(userId, null, null, null, 0, 1000).size(),
+                is(equalTo(threads * rounds)));
+    }
+
+    @Test
+    public void when_Restarted_Idempotency_Keys_Are_Kept() throws IOException {
+        LOGGER.info("when_Restarted_Idempotency_Keys_Are_Kept");
+
+        transactionService.executeBatch(Arrays.asList(
+                new TransactionOperation(userId, depositAmount, validCurrency, true, "key-1")));
+        restart();
+
+        // From the snapshot.
+        assertThat(transactionService.findByIdempotencyKey(userId, "key-1").getDeposit(), is(equalTo(depositAmount)));
+        assertThat(transactionService.findByIdempotencyKey(userId, "key-1").getBalanceAfter(),
+                is(equalTo(depositAmount)));
+
+        transactionService.executeBatch(Arrays.asList(
+                new TransactionOperation(userId, withdrawAmount, validCurrency, false, "key-2")));
+        journalService.close();
+
+        // From the journal alone.
+        Files.delete(snapshotFile());
+        use(open());
+
+        assertThat(transactionService.findByIdempotencyKey(userId, "key-1").getDeposit(), is(equalTo(depositAmount)));
+        assertThat(transactionService.findByIdempotencyKey(userId, "key-2").getWithdraw(), is(equalTo(withdrawAmount)));
+        assertThat(transactionService.findByIdempotencyKey(userId, "key-2").getBalanceAfter(),
+                is(equalTo(depositAmount - withdrawAmount)));
+        assertThat(transactionService.getTransactions(userId, null, null, null, 0, 10).get(0).getIdempotencyKey(),
+                is(equalTo("key-1")));
+
+        try {
+            transactionService.executeBatch(Arrays.asList(
+                    new TransactionOperation(userId, withdrawAmount, validCurrency, false, "key-2")));
+            fail("The reused key should have been rejected.");
+        } catch (DuplicateKeyException e) {
+            LOGGER.info(e.getMessage());
+        }
+        assertThat(transactionService.getBalance(userId).get(validCurrency), is(equalTo(depositAmount - withdrawAmount)));
+    }
+
+    //endregion
+
+}
@@ -0,0 +1,153 @@
+package com.sergio.wallet.server.test;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sergio.wallet.server.grpc.MetricsServerInterceptor;
+import io.grpc.ManagedChannel;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.grpc.testing.GrpcCleanupRule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.sergio.wallet.grpc.*;
+import org.sergio.wallet.grpc.WalletServiceGrpc.WalletServiceBlockingStub;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+
+/**
+ * Unit tests for the MetricsServerInterceptor class, the calls go through an in-process server with a fake
+ * wallet service answering fixed results.
+ */
+public class MetricsServerInterceptorTests {
+
+    //region VARIABLES
+
+    private final Logger LOGGER = LoggerFactory.getLogger(MetricsServerInterceptorTests.class);
+
+    @Rule
+    public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private WalletServiceBlockingStub testClientBlockingStub;
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    private double outcomes(String method, String outcome) {
+        return meterRegistry.get("wallet.rpc.outcomes").tag("method", method).tag("outcome", outcome)
+                .counter().count();
+    }
+
+    private long calls(String method) {
+        return meterRegistry.get("wallet.rpc.latency").tag("method", method).timer().count();
+    }
+
+    private TransactionResponse response(ResultCode result) {
+        return TransactionResponse.newBuilder().setResult(result).build();
+    }
+
+    //endregion
+
+    //region TEST METHODS
+
+    @Before
+    public void setUp() throws IOException {
+        WalletServiceGrpc.WalletServiceImplBase fakeService = new WalletServiceGrpc.WalletServiceImplBase() {
+            @Override
+            public void deposit(TransactionRequest request, StreamObserver<TransactionResponse> responseObserver) {
+                responseObserver.onNext(response(ResultCode.SUCCESSFUL));
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void withdraw(TransactionRequest request, StreamObserver<TransactionResponse> responseObserver) {
+                responseObserver.onNext(response(ResultCode.INSUFFICIENT_FUNDS));
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void executeBatch(BatchTransactionRequest request,
+                                     StreamObserver<BatchTransactionResponse> responseObserver) {
+                responseObserver.onNext(BatchTransactionResponse.newBuilder()
+                        .addResults(response(ResultCode.SUCCESSFUL))
+                        .addResults(response(ResultCode.UNKNOWN_CURRENCY))
+                        .addResults(response(ResultCode.SUCCESSFUL))
+                        .build());
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void getBalance(BalanceRequest request, StreamObserver<BalanceResponse> responseObserver) {
+                responseObserver.onError(Status.RESOURCE_EXHAUSTED.asRuntimeException());
+            }
+        };
+
+        String serverName = InProcessServerBuilder.generateName();
+        grpcCleanup.register(InProcessServerBuilder.forName(serverName).directExecutor()
+                .addService(ServerInterceptors.intercept(fakeService, new MetricsServerInterceptor(meterRegistry)))
+                .build().start());
+
+        ManagedChannel channel = grpcCleanup.register(
+                InProcessChannelBuilder.forName(serverName).directExecutor().build());
+        testClientBlockingStub = WalletServiceGrpc.newBlockingStub(channel);
+    }
+
+    @Test
+    public void when_Calls_Count_Result_Codes() {
+        LOGGER.info("when_Calls_Count_Result_Codes");
+
+        testClientBlockingStub.deposit(TransactionRequest.getDefaultInstance());
+        testClientBlockingStub.deposit(TransactionRequest.getDefaultInstance());
+        testClientBlockingStub.withdraw(TransactionRequest.getDefaultInstance());
+
+        assertThat(calls("deposit"), is(equalTo(2L)));
+        assertThat(outcomes("deposit", MetricsServerInterceptor.OUTCOME_SUCCESSFUL), is(equalTo(2.0)));
+        assertThat(calls("withdraw"), is(equalTo(1L)));
+        assertThat(outcomes("withdraw", MetricsServerInterceptor.OUTCOME_INSUFFICIENT_FUNDS), is(equalTo(1.0)));
+        assertThat(outcomes("withdraw", MetricsServerInterceptor.OUTCOME_SUCCESSFUL), is(equalTo(0.0)));
+    }
+
+    @Test
+    public void when_Batch_Counts_Each_Operation() {
+        LOGGER.info("when_Batch_Counts_Each_Operation");
+
+        testClientBlockingStub.executeBatch(BatchTransactionRequest.getDefaultInstance());
+
+        assertThat(calls("executeBatch"), is(equalTo(1L)));
+        assertThat(outcomes("executeBatch", MetricsServerInterceptor.OUTCOME_SUCCESSFUL), is(equalTo(2.0)));
+        assertThat(outcomes("executeBatch", MetricsServerInterceptor.OUTCOME_UNKNOWN_CURRENCY), is(equalTo(1.0)));
+    }
+
+    @Test
+    public void when_Call_Fails_Counts_Error() {
+        LOGGER.info("when_Call_Fails_Counts_Error");
+
+        try {
+            testClientBlockingStub.getBalance(BalanceRequest.getDefaultInstance());
+            fail("getBalance should have failed");
+        } catch (StatusRuntimeException e) {
+            assertThat(e.getStatus().getCode(), is(equalTo(Status.Code.RESOURCE_EXHAUSTED)));
+        }
+
+        assertThat(calls("getBalance"), is(equalTo(1L)));
+        assertThat(outcomes("getBalance", MetricsServerInterceptor.OUTCOME_ERROR), is(equalTo(1.0)));
+        assertThat(outcomes("getBalance", MetricsServerInterceptor.OUTCOME_SUCCESSFUL), is(equalTo(0.0)));
+    }
+
+    //endregion
+
+}
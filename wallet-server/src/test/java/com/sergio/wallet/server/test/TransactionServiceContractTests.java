@@ -0,0 +1,307 @@
+package com.sergio.wallet.server.test;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sergio.wallet.server.data.entity.Currency;
+import com.sergio.wallet.server.data.entity.Transaction;
+import com.sergio.wallet.server.service.TransactionOperation;
+import com.sergio.wallet.server.service.TransactionResult;
+import com.sergio.wallet.server.service.TransactionService;
+import org.springframework.dao.DuplicateKeyException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Contract of the TransactionService, the cases every storage backend must pass with the same results, run
+ * against a real service (no mocks). Subclasses only provide the service, plus the cases specific to their
+ * backend, same as the integration test subclasses run the main app's tests with other configurations.
+ */
+public abstract class TransactionServiceContractTests {
+
+    //region VARIABLES
+
+    private final Logger LOGGER = LoggerFactory.getLogger(TransactionServiceContractTests.class);
+
+    protected TransactionService transactionService;
+
+    //region TEST VARIABLES
+
+    // Only values that are used in more than one test will be set here as variables.
+
+    protected final String userId = "testuser";
+
+    protected final long depositAmount = 100;
+
+    protected final long withdrawAmount = 20;
+
+    protected final Currency validCurrency = Currency.USD;
+
+    // Unknown currencies reach the service as null.
+    protected final Currency invalidCurrency = null;
+
+    //endregion
+
+    //endregion
+
+    /**
+     * Creates the service under test, empty, called before each test.
+     * @return The service.
+     */
+    protected abstract TransactionService createService() throws Exception;
+
+    @Before
+    public void setUpService() throws Exception {
+        transactionService = createService();
+    }
+
+    //region TEST METHODS
+
+    @Test
+    public void when_Deposit_Is_Valid() {
+        LOGGER.info("when_Deposit_Is_Valid");
+
+        TransactionResult result = transactionService.doDeposit(userId, depositAmount, validCurrency);
+
+        assertThat(result.getMessage(), is(equalTo(TransactionService.RESPONSE_SUCCESSFUL)));
+        assertThat(result.getBalance(), is(equalTo(depositAmount)));
+        assertThat(transactionService.getBalance(userId).get(validCurrency), is(equalTo(depositAmount)));
+    }
+
+    @Test
+    public void when_Deposit_Is_Invalid() {
+        LOGGER.info("when_Deposit_Is_Invalid");
+
+        assertThat(transactionService.doDeposit(userId, depositAmount, invalidCurrency),
+                is(sameInstance(TransactionResult.UNKNOWN_CURRENCY)));
+        assertThat(transactionService.getBalance(userId).size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void when_Withdraw_Is_Valid() {
+        LOGGER.info("when_Withdraw_Is_Valid");
+
+        transactionService.doDeposit(userId, depositAmount, validCurrency);
+        TransactionResult result = transactionService.doWithdraw(userId, withdrawAmount, validCurrency);
+
+        assertThat(result.getMessage(), is(equalTo(TransactionService.RESPONSE_SUCCESSFUL)));
+        assertThat(result.getBalance(), is(equalTo(depositAmount - withdrawAmount)));
+    }
+
+    @Test
+    public void when_Withdraw_Is_Invalid_Currency() {
+        LOGGER.info("when_Withdraw_Is_Invalid_Currency");
+
+        assertThat(transactionService.doWithdraw(userId, withdrawAmount, invalidCurrency),
+                is(sameInstance(TransactionResult.UNKNOWN_CURRENCY)));
+    }
+
+    @Test
+    public void when_Withdraw_Is_Invalid_Funds() {
+        LOGGER.info("when_Withdraw_Is_Invalid_Funds");
+
+        // Without any balance yet.
+        assertThat(transactionService.doWithdraw(userId, withdrawAmount, validCurrency),
+                is(sameInstance(TransactionResult.INSUFFICIENT_FUNDS)));
+
+        transactionService.doDeposit(userId, withdrawAmount - 1, validCurrency);
+        assertThat(transactionService.doWithdraw(userId, withdrawAmount, validCurrency),
+                is(sameInstance(TransactionResult.INSUFFICIENT_FUNDS)));
+
+        // Failed withdraws leave nothing in the history.
+        assertThat(transactionService.getTransactions(userId, null, null, null, 0, 10).size(), is(equalTo(1)));
+        assertThat(transactionService.getBalance(userId).get(validCurrency), is(equalTo(withdrawAmount - 1)));
+    }
+
+    @Test
+    public void when_Batch_Is_Valid() {
+        LOGGER.info("when_Batch_Is_Valid");
+
+        List<TransactionResult> results = transactionService.executeBatch(Arrays.asList(
+                TransactionOperation.deposit(userId, depositAmount, validCurrency),
+                TransactionOperation.withdraw(userId, withdrawAmount, validCurrency),
+                TransactionOperation.deposit(userId, depositAmount, invalidCurrency),
+                TransactionOperation.withdraw(userId, 1000, validCurrency)));
+
+        // A failed operation doesn't stop the next ones and each one gets its own result.
+        List<String> messages = new ArrayList<>();
+        results.forEach(result -> messages.add(result.getMessage()));
+        assertThat(messages, is(equalTo(Arrays.asList(
+                TransactionService.RESPONSE_SUCCESSFUL,
+                TransactionService.RESPONSE_SUCCESSFUL,
+                TransactionService.RESPONSE_UNKNOWN_CURRENCY,
+                TransactionService.RESPONSE_INSUFFICIENT_FUNDS))));
+
+        // The withdraw sees the deposit from the same batch.
+        assertThat(results.get(0).getBalance(), is(equalTo(depositAmount)));
+        assertThat(results.get(1).getBalance(), is(equalTo(depositAmount - withdrawAmount)));
+        assertThat(transactionService.getTransactions(userId, null, null, null, 0, 10).size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void when_getBalance_Is_Valid() {
+        LOGGER.info("when_getBalance_Is_Valid");
+
+        transactionService.doDeposit(userId, depositAmount, validCurrency);
+        transactionService.doWithdraw(userId, depositAmount, validCurrency);
+
+        // A balance down to 0 is still returned.
+        assertThat(transactionService.getBalance(userId).get(validCurrency), is(equalTo(0L)));
+    }
+
+    @Test
+    public void when_getBalance_Is_Invalid() {
+        LOGGER.info("when_getBalance_Is_Invalid");
+
+        assertThat(transactionService.getBalance("missinguser").size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void when_getTransactions_Is_Valid() {
+        LOGGER.info("when_getTransactions_Is_Valid");
+
+        transactionService.doDeposit(userId, depositAmount, validCurrency);
+        transactionService.doDeposit(userId, depositAmount, Currency.EUR);
+        transactionService.doWithdraw(userId, withdrawAmount, validCurrency);
+        transactionService.doDeposit("otheruser", depositAmount, validCurrency);
+
+        List<Transaction> firstPage = transactionService.getTransactions(userId, null, null, null, 0, 2);
+        assertThat(firstPage.size(), is(equalTo(2)));
+        assertThat(firstPage.get(0).getDeposit(), is(equalTo(depositAmount)));
+        assertThat(firstPage.get(1).getCurrency(), is(equalTo(Currency.EUR)));
+
+        // Next page continues after the last id of the previous one.
+        List<Transaction> secondPage = transactionService.getTransactions(userId, null, null, null,
+                firstPage.get(1).getId(), 2);
+        assertThat(secondPage.size(), is(equalTo(1)));
+        assertThat(secondPage.get(0).getWithdraw(), is(equalTo(withdrawAmount)));
+
+        assertThat(transactionService.getTransactions(userId, Currency.EUR, null, null, 0, 10).size(), is(equalTo(1)));
+        assertThat(transactionService.getTransactions(userId, null, LocalDateTime.now().plusDays(1), null, 0, 10)
+                .size(), is(equalTo(0)));
+        assertThat(transactionService.getTransactions(userId, null, null, LocalDateTime.now().minusDays(1), 0, 10)
+                .size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void when_Concurrent_Writers_Balance_Is_Exact() throws Exception {
+        LOGGER.info("when_Concurrent_Writers_Balance_Is_Exact");
+
+        int threads = 8;
+        int rounds = 500;
+        transactionService.doDeposit(userId, threads * rounds, validCurrency);
+
+        // Every thread withdraws from the shared user and deposits to the other user, in single and batch calls,
+        // without any account lock from the caller.
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < rounds; i++) {
+                    if (i % 2 == 0) {
+                        transactionService.doWithdraw(userId, 1, validCurrency);
+                        transactionService.doDeposit("otheruser", 1, validCurrency);
+                    } else {
+                        transactionService.executeBatch(Arrays.asList(
+                                TransactionOperation.withdraw(userId, 1, validCurrency),
+                                TransactionOperation.deposit("otheruser", 1, validCurrency)));
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertThat(transactionService.getBalance(userId).get(validCurrency), is(equalTo(0L)));
+        assertThat(transactionService.getBalance("otheruser").get(validCurrency), is(equalTo((long) threads * rounds)));
+        assertThat(transactionService.doWithdraw(userId, 1, validCurrency),
+                is(sameInstance(TransactionResult.INSUFFICIENT_FUNDS)));
+    }
+
+    @Test
+    public void when_Idempotency_Key_Is_Reused_It_Is_Rejected() {
+        LOGGER.info("when_Idempotency_Key_Is_Reused_It_Is_Rejected");
+
+        String idempotencyKey = "key-1";
+        transactionService.executeBatch(Arrays.asList(
+                new TransactionOperation(userId, depositAmount, validCurrency, true, idempotencyKey)));
+
+        Transaction stored = transactionService.findByIdempotencyKey(userId, idempotencyKey);
+        assertThat(stored.getDeposit(), is(equalTo(depositAmount)));
+        assertThat(stored.getIdempotencyKey(), is(equalTo(idempotencyKey)));
+        assertThat(stored.getBalanceAfter(), is(equalTo(depositAmount)));
+        assertThat(transactionService.findByIdempotencyKey("otheruser", idempotencyKey), is(nullValue()));
+
+        // The whole batch is rejected, the operation without key included.
+        try {
+            transactionService.executeBatch(Arrays.asList(
+                    TransactionOperation.deposit(userId, depositAmount, validCurrency),
+                    new TransactionOperation(userId, withdrawAmount, validCurrency, false, idempotencyKey)));
+            fail("The reused key should have been rejected.");
+        } catch (DuplicateKeyException e) {
+            LOGGER.info(e.getMessage());
+        }
+
+        assertThat(transactionService.getBalance(userId).get(validCurrency), is(equalTo(depositAmount)));
+        assertThat(transactionService.getTransactions(userId, null, null, null, 0, 10).size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void when_Idempotency_Key_Is_Repeated_In_Batch_It_Is_Rejected() {
+        LOGGER.info("when_Idempotency_Key_Is_Repeated_In_Batch_It_Is_Rejected");
+
+        try {
+            transactionService.executeBatch(Arrays.asList(
+                    new TransactionOperation(userId, depositAmount, validCurrency, true, "key-1"),
+                    new TransactionOperation(userId, depositAmount, validCurrency, true, "key-1")));
+            fail("The repeated key should have been rejected.");
+        } catch (DuplicateKeyException e) {
+            LOGGER.info(e.getMessage());
+        }
+
+        assertThat(transactionService.getBalance(userId).size(), is(equalTo(0)));
+        assertThat(transactionService.findByIdempotencyKey(userId, "key-1"), is(nullValue()));
+    }
+
+    @Test
+    public void when_Idempotency_Key_Is_On_Failed_Operation_It_Is_Not_Taken() {
+        LOGGER.info("when_Idempotency_Key_Is_On_Failed_Operation_It_Is_Not_Taken");
+
+        String idempotencyKey = "key-1";
+        transactionService.executeBatch(Arrays.asList(
+                new TransactionOperation(userId, withdrawAmount, validCurrency, true, idempotencyKey)));
+
+        // A withdraw without funds fails the same with a reused key, nothing is stored so the key isn't checked.
+        List<TransactionResult> results = transactionService.executeBatch(Arrays.asList(
+                new TransactionOperation(userId, depositAmount, validCurrency, false, idempotencyKey)));
+        assertThat(results.get(0), is(sameInstance(TransactionResult.INSUFFICIENT_FUNDS)));
+
+        // Nor taken, the same key is still free for a later operation of the batch.
+        results = transactionService.executeBatch(Arrays.asList(
+                new TransactionOperation(userId, depositAmount, validCurrency, false, "key-2"),
+                new TransactionOperation(userId, depositAmount, validCurrency, true, "key-2")));
+        assertThat(results.get(0), is(sameInstance(TransactionResult.INSUFFICIENT_FUNDS)));
+        assertThat(results.get(1).getBalance(), is(equalTo(withdrawAmount + depositAmount)));
+
+        assertThat(transactionService.findByIdempotencyKey(userId, "key-2").getDeposit(), is(equalTo(depositAmount)));
+        assertThat(transactionService.getTransactions(userId, null, null, null, 0, 10).size(), is(equalTo(2)));
+    }
+
+    //endregion
+
+}
@@ -3,35 +3,63 @@ package com.sergio.wallet.server.test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.sergio.wallet.server.data.entity.ArchivedTransaction;
 import com.sergio.wallet.server.data.entity.Balance;
+import com.sergio.wallet.server.data.entity.Currency;
 import com.sergio.wallet.server.data.entity.Transaction;
+import com.sergio.wallet.server.data.repository.ArchivedTransactionRepository;
 import com.sergio.wallet.server.data.repository.BalanceRepository;
 import com.sergio.wallet.server.data.repository.TransactionRepository;
+import com.sergio.wallet.server.service.BalanceCache;
+import com.sergio.wallet.server.service.JpaTransactionService;
+import com.sergio.wallet.server.service.TransactionOperation;
+import com.sergio.wallet.server.service.TransactionResult;
 import com.sergio.wallet.server.service.TransactionService;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.hamcrest.CoreMatchers.*;
+import static org.mockito.ArgumentMatchers.anyByte;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
- * Simple unit test class for validating the methods from TransactionService class.
+ * Simple unit test class for validating the methods from the JpaTransactionService class.
  */
 @RunWith(SpringRunner.class)
-@SpringBootTest(classes = TransactionService.class)
+@SpringBootTest(classes = {JpaTransactionService.class, BalanceCache.class, SimpleMeterRegistry.class})
 public class TransactionServiceTests {
 
     //region VARIABLES
@@ -44,9 +72,15 @@ public class TransactionServiceTests {
     @MockBean
     private BalanceRepository balanceRepository;
 
+    @MockBean
+    private ArchivedTransactionRepository archivedTransactionRepository;
+
     @Autowired
     private TransactionService transactionService;
 
+    @Autowired
+    private BalanceCache balanceCache;
+
     //region TEST VARIABLES
 
     // Only values that are used in more than one test will be set here as variables.
@@ -57,47 +91,75 @@ public class TransactionServiceTests {
 
     private final long withdrawAmount = 20;
 
-    private final String validCurrency = TransactionService.VALID_CURRENCIES.get(0);
+    private final Currency validCurrency = Currency.USD;
 
-    private final String invalidCurrency = "USD2";
+    // Unknown currencies reach the service as null.
+    private final Currency invalidCurrency = null;
 
     //endregion
 
     //endregion
 
+    @Before
+    public void clearBalanceCache() {
+        balanceCache.invalidateAll();
+    }
+
+    @Before
+    public void assignTransactionIds() {
+        // Same as the pooled generator, ids are set on save and grow with every transaction.
+        AtomicLong nextId = new AtomicLong(10);
+        when(transactionRepository.saveAll(anyIterable())).thenAnswer(invocation -> {
+            Iterable<Transaction> transactions = invocation.getArgument(0);
+            transactions.forEach(transaction -> transaction.setId(nextId.incrementAndGet()));
+            return transactions;
+        });
+    }
+
+    /**
+     * Balance rows of the test user as read from the DB.
+     * @param amount Balance in the valid currency.
+     * @return List with the single balance row.
+     */
+    private List<Balance> balanceRows(long amount) {
+        Balance balance = new Balance();
+        balance.setUserId(userId);
+        balance.setCurrency(validCurrency);
+        balance.setBalance(amount);
+        return new ArrayList<>(Arrays.asList(balance));
+    }
+
     //region TEST METHODS
 
     @Test
     public void when_Deposit_Is_Valid() {
         LOGGER.info("when_Deposit_Is_Valid");
 
-        Balance userBalance = new Balance();
-        userBalance.setUserId(userId);
-        userBalance.setBalance(depositAmount);
-        userBalance.setCurrency(validCurrency);
-        userBalance.setId(1);
-        userBalance.setLastTransactionId(1);
+        // First deposit of the user, the balance row is inserted by the upsert.
+        when(balanceRepository.insertOrIncreaseBalance(anyString(), anyByte(), anyLong(), anyLong(),
+                any(LocalDateTime.class))).thenReturn(1);
+        // User not cached and without balances yet.
+        when(balanceRepository.findAllByUserIdIn(anyCollection())).thenReturn(new ArrayList<>());
 
-        when(balanceRepository.findByUserIdAndCurrency(anyString(), anyString())).thenReturn(null);
-        when(balanceRepository.save(any(Balance.class))).thenReturn(userBalance);
+        TransactionResult result = transactionService.doDeposit(userId, depositAmount, validCurrency);
 
-        Transaction deposit = new Transaction();
-        deposit.setUserId(userId);
-        deposit.setDeposit(depositAmount);
-        deposit.setCurrency(validCurrency);
-        deposit.setId(1);
-
-        when(transactionRepository.save(any(Transaction.class))).thenReturn(deposit);
+        assertThat(result.getMessage(), is(equalTo(TransactionService.RESPONSE_SUCCESSFUL)));
+        assertThat(result.getCode(), is(equalTo(TransactionResult.Code.SUCCESSFUL)));
+        assertThat(result.getBalance(), is(equalTo(depositAmount)));
 
-        assertThat(transactionService.doDeposit(userId, depositAmount, validCurrency),
-                is(equalTo(TransactionService.RESPONSE_SUCCESSFUL)));
+        verify(transactionRepository, times(1)).saveAll(argThat(transactions -> ((Collection<?>) transactions).size() == 1));
+        verify(balanceRepository).insertOrIncreaseBalance(anyString(), anyByte(), anyLong(), anyLong(),
+                any(LocalDateTime.class));
     }
 
     @Test
     public void when_Deposit_Is_Invalid() {
         LOGGER.info("when_Deposit_Is_Invalid");
 
+        // Failures always get the same prebuilt result.
         assertThat(transactionService.doDeposit(userId, depositAmount, invalidCurrency),
+                is(sameInstance(TransactionResult.UNKNOWN_CURRENCY)));
+        assertThat(TransactionResult.UNKNOWN_CURRENCY.getMessage(),
                 is(equalTo(TransactionService.RESPONSE_UNKNOWN_CURRENCY)));
     }
 
@@ -105,26 +167,16 @@ public class TransactionServiceTests {
     public void when_Withdraw_Is_Valid() {
         LOGGER.info("when_Withdraw_Is_Valid");
 
-        Balance userBalance = new Balance();
-        userBalance.setUserId(userId);
-        userBalance.setBalance(depositAmount);
-        userBalance.setCurrency(validCurrency);
-        userBalance.setId(1);
-        userBalance.setLastTransactionId(1);
+        when(balanceRepository.decreaseBalanceIfSufficient(anyString(), any(Currency.class), anyLong(), anyLong(),
+                any(LocalDateTime.class))).thenReturn(1);
+        when(balanceRepository.findAllByUserIdIn(anyCollection())).thenReturn(balanceRows(depositAmount));
 
-        when(balanceRepository.findByUserIdAndCurrency(anyString(), anyString())).thenReturn(userBalance);
-        when(balanceRepository.save(any(Balance.class))).thenReturn(userBalance);
+        TransactionResult result = transactionService.doWithdraw(userId, withdrawAmount, validCurrency);
 
-        Transaction withdraw = new Transaction();
-        withdraw.setUserId(userId);
-        withdraw.setWithdraw(withdrawAmount);
-        withdraw.setCurrency(validCurrency);
-        withdraw.setId(2);
+        assertThat(result.getMessage(), is(equalTo(TransactionService.RESPONSE_SUCCESSFUL)));
+        assertThat(result.getBalance(), is(equalTo(depositAmount - withdrawAmount)));
 
-        when(transactionRepository.save(any(Transaction.class))).thenReturn(withdraw);
-
-        assertThat(transactionService.doWithdraw(userId, withdrawAmount, validCurrency),
-                is(equalTo(TransactionService.RESPONSE_SUCCESSFUL)));
+        verify(transactionRepository, never()).delete(any(Transaction.class));
     }
 
     @Test
@@ -132,26 +184,96 @@ public class TransactionServiceTests {
         LOGGER.info("when_Withdraw_Is_Invalid_Currency");
 
         assertThat(transactionService.doWithdraw(userId, withdrawAmount, invalidCurrency),
-                is(equalTo(TransactionService.RESPONSE_UNKNOWN_CURRENCY)));
+                is(sameInstance(TransactionResult.UNKNOWN_CURRENCY)));
     }
 
     @Test
     public void when_Withdraw_Is_Invalid_Funds() {
         LOGGER.info("when_Withdraw_Is_Invalid_Funds");
 
-        Balance userBalance = new Balance();
-        userBalance.setUserId(userId);
-        userBalance.setBalance(depositAmount);
-        userBalance.setCurrency(validCurrency);
-        userBalance.setId(1);
-        userBalance.setLastTransactionId(1);
+        when(balanceRepository.findAllByUserIdIn(anyCollection())).thenReturn(balanceRows(withdrawAmount - 1));
 
-        when(balanceRepository.findByUserIdAndCurrency(anyString(), anyString())).thenReturn(userBalance);
+        assertThat(transactionService.doWithdraw(userId, withdrawAmount, validCurrency),
+                    is(sameInstance(TransactionResult.INSUFFICIENT_FUNDS)));
+        assertThat(TransactionResult.INSUFFICIENT_FUNDS.getMessage(),
+                is(equalTo(TransactionService.RESPONSE_INSUFFICIENT_FUNDS)));
 
-        assertThat(transactionService.doWithdraw(userId, 1000, validCurrency),
-                    is(equalTo(TransactionService.RESPONSE_INSUFFICIENT_FUNDS)));
+        // The user is cached by the first read, so the second withdraw is rejected without reaching the DB.
+        assertThat(transactionService.doWithdraw(userId, withdrawAmount, validCurrency),
+                is(sameInstance(TransactionResult.INSUFFICIENT_FUNDS)));
+        verify(balanceRepository, times(1)).findAllByUserIdIn(anyCollection());
+
+        // Nothing is written for the failed withdraws.
+        verify(transactionRepository, never()).saveAll(anyIterable());
+        verify(balanceRepository, never()).decreaseBalanceIfSufficient(anyString(), any(Currency.class), anyLong(),
+                anyLong(), any(LocalDateTime.class));
+        verify(transactionRepository, never()).delete(any(Transaction.class));
     }
 
+    @Test
+    public void when_Balance_Is_Changed_Without_Lock_Nothing_Is_Committed() {
+        LOGGER.info("when_Balance_Is_Changed_Without_Lock_Nothing_Is_Committed");
+
+        when(balanceRepository.findAllByUserIdIn(anyCollection())).thenReturn(balanceRows(depositAmount));
+        // Funds taken by someone else after they were checked.
+        when(balanceRepository.decreaseBalanceIfSufficient(anyString(), any(Currency.class), anyLong(), anyLong(),
+                any(LocalDateTime.class))).thenReturn(0);
+
+        try {
+            transactionService.doWithdraw(userId, withdrawAmount, validCurrency);
+            fail("The withdraw should have failed.");
+        } catch (IllegalStateException e) {
+            LOGGER.info(e.getMessage());
+        }
+
+        // The user is read again by the next operation.
+        assertThat(balanceCache.peekBalances(userId), is(nullValue()));
+    }
+
+    @Test
+    public void when_Batch_Is_Valid() {
+        LOGGER.info("when_Batch_Is_Valid");
+
+        when(balanceRepository.insertOrIncreaseBalance(anyString(), anyByte(), anyLong(), anyLong(),
+                any(LocalDateTime.class))).thenReturn(1);
+        when(balanceRepository.decreaseBalanceIfSufficient(anyString(), any(Currency.class), anyLong(), anyLong(),
+                any(LocalDateTime.class))).thenReturn(1);
+        // User without balances before the batch.
+        when(balanceRepository.findAllByUserIdIn(anyCollection())).thenReturn(new ArrayList<>());
+
+        List<TransactionResult> results = transactionService.executeBatch(Arrays.asList(
+                TransactionOperation.deposit(userId, depositAmount, validCurrency),
+                TransactionOperation.withdraw(userId, withdrawAmount, validCurrency),
+                TransactionOperation.deposit(userId, depositAmount, invalidCurrency),
+                TransactionOperation.withdraw(userId, 1000, validCurrency)));
+
+        // A failed operation doesn't stop the next ones and each one gets its own result.
+        List<String> messages = new ArrayList<>();
+        results.forEach(result -> messages.add(result.getMessage()));
+        assertThat(messages, is(equalTo(Arrays.asList(
+                TransactionService.RESPONSE_SUCCESSFUL,
+                TransactionService.RESPONSE_SUCCESSFUL,
+                TransactionService.RESPONSE_UNKNOWN_CURRENCY,
+                TransactionService.RESPONSE_INSUFFICIENT_FUNDS))));
+
+        // The balances are read once before the batch, the ones after each operation are worked out from them.
+        assertThat(results.get(0).getBalance(), is(equalTo(depositAmount)));
+        assertThat(results.get(1).getBalance(), is(equalTo(depositAmount - withdrawAmount)));
+        verify(balanceRepository, times(1)).findAllByUserIdIn(anyCollection());
+
+        // Only the rows of the successful operations are inserted, all together, and nothing is removed.
+        // Each one keeps the balance after it, answered again if its request is replayed.
+        verify(transactionRepository, times(1)).saveAll(argThat(transactions -> {
+            List<Transaction> saved = new ArrayList<>((Collection<Transaction>) transactions);
+            return saved.size() == 2 && saved.get(0).getBalanceAfter() == depositAmount
+                    && saved.get(1).getBalanceAfter() == depositAmount - withdrawAmount;
+        }));
+        verify(transactionRepository, times(1)).flush();
+        verify(balanceRepository, times(1)).decreaseBalanceIfSufficient(anyString(), any(Currency.class), anyLong(),
+                anyLong(), any(LocalDateTime.class));
+        verify(transactionRepository, never()).deleteInBatch(anyIterable());
+        verify(transactionRepository, never()).delete(any(Transaction.class));
+    }
 
     @Test
     public void when_getBalance_Is_Valid() {
@@ -182,6 +304,173 @@ public class TransactionServiceTests {
         assertThat(transactionService.getBalance("missinguser").size(), is(equalTo(0)));
     }
 
+    @Test
+    public void when_getBalance_Is_Cached() {
+        LOGGER.info("when_getBalance_Is_Cached");
+
+        Balance validCurrencyBalance = new Balance();
+        validCurrencyBalance.setUserId(userId);
+        validCurrencyBalance.setBalance(depositAmount);
+        validCurrencyBalance.setCurrency(validCurrency);
+        validCurrencyBalance.setLastTransactionId(5);
+
+        when(balanceRepository.findAllByUserId(userId)).thenReturn(new ArrayList<>(Arrays.asList(validCurrencyBalance)));
+
+        CacheStats statsBefore = balanceCache.getStats();
+
+        assertThat(transactionService.getBalance(userId).get(validCurrency), is(equalTo(depositAmount)));
+
+        // Committed deposit after the user was cached, its id is newer than the loaded one.
+        when(balanceRepository.insertOrIncreaseBalance(anyString(), anyByte(), anyLong(), anyLong(),
+                any(LocalDateTime.class))).thenReturn(1);
+
+        // The balance before the deposit comes from the cache, nothing is read from the DB.
+        assertThat(transactionService.doDeposit(userId, depositAmount, validCurrency).getBalance(),
+                is(equalTo(2 * depositAmount)));
+        verify(balanceRepository, never()).findAllByUserIdIn(anyCollection());
+
+        // A change already included when the user was loaded must not be applied again.
+        balanceCache.applyChange(userId, validCurrency, depositAmount, 5);
+
+        assertThat(transactionService.getBalance(userId).get(validCurrency), is(equalTo(2 * depositAmount)));
+
+        // Only the first request reached the database.
+        verify(balanceRepository, times(1)).findAllByUserId(userId);
+        assertThat(balanceCache.getStats().minus(statsBefore).hitCount(), is(equalTo(1L)));
+        assertThat(balanceCache.getStats().minus(statsBefore).missCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void when_getCachedBalance_Is_Not_Cached() {
+        LOGGER.info("when_getCachedBalance_Is_Not_Cached");
+
+        Balance validCurrencyBalance = new Balance();
+        validCurrencyBalance.setUserId(userId);
+        validCurrencyBalance.setBalance(depositAmount);
+        validCurrencyBalance.setCurrency(validCurrency);
+
+        when(balanceRepository.findAllByUserId(userId)).thenReturn(new ArrayList<>(Arrays.asList(validCurrencyBalance)));
+
+        CacheStats statsBefore = balanceCache.getStats();
+
+        // Not cached yet, it's left for getBalance and nothing is read from the DB.
+        assertThat(transactionService.getCachedBalance(userId), is(nullValue()));
+        verify(balanceRepository, never()).findAllByUserId(userId);
+
+        transactionService.getBalance(userId);
+        assertThat(transactionService.getCachedBalance(userId).get(validCurrency), is(equalTo(depositAmount)));
+
+        // The miss is counted once, by the load.
+        verify(balanceRepository, times(1)).findAllByUserId(userId);
+        assertThat(balanceCache.getStats().minus(statsBefore).hitCount(), is(equalTo(1L)));
+        assertThat(balanceCache.getStats().minus(statsBefore).missCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void when_getTransactions_Is_Valid() {
+        LOGGER.info("when_getTransactions_Is_Valid");
+
+        List<Transaction> userTransactions = new ArrayList<>();
+
+        Transaction deposit = new Transaction();
+        deposit.setUserId(userId);
+        deposit.setDeposit(depositAmount);
+        deposit.setCurrency(validCurrency);
+        deposit.setId(3);
+
+        userTransactions.add(deposit);
+
+        when(transactionRepository.findPageByUserIdAndCurrency(anyString(), any(Currency.class), anyLong(),
+                any(LocalDateTime.class), any(LocalDateTime.class), any(Pageable.class))).thenReturn(userTransactions);
+
+        assertThat(transactionService.getTransactions(userId, validCurrency, null, null, 2, 10).size(),
+                is(equalTo(1)));
+
+        // The page continues after the given id and is not using any offset.
+        verify(transactionRepository, times(1)).findPageByUserIdAndCurrency(eq(userId), eq(validCurrency), eq(2L),
+                any(LocalDateTime.class), any(LocalDateTime.class), eq(PageRequest.of(0, 10)));
+        verify(transactionRepository, never()).findPageByUserId(anyString(), anyLong(),
+                any(LocalDateTime.class), any(LocalDateTime.class), any(Pageable.class));
+    }
+
+    @Test
+    public void when_getTransactions_Spans_Archive() {
+        LOGGER.info("when_getTransactions_Spans_Archive");
+
+        Transaction hot = new Transaction();
+        hot.setUserId(userId);
+        hot.setDeposit(depositAmount);
+        hot.setCurrency(validCurrency);
+        hot.setId(2);
+
+        // Archived between both page reads, so it's returned by both.
+        Transaction moved = new Transaction();
+        moved.setUserId(userId);
+        moved.setDeposit(depositAmount);
+        moved.setCurrency(validCurrency);
+        moved.setId(4);
+
+        List<ArchivedTransaction> archived = new ArrayList<>();
+        for (long id : new long[]{1, 3, 4}) {
+            ArchivedTransaction transaction = new ArchivedTransaction();
+            transaction.setId(id);
+            transaction.setUserId(userId);
+            transaction.setDeposit(depositAmount);
+            transaction.setCurrency(validCurrency);
+            archived.add(transaction);
+        }
+
+        when(transactionRepository.findPageByUserId(anyString(), anyLong(), any(LocalDateTime.class),
+                any(LocalDateTime.class), any(Pageable.class))).thenReturn(Arrays.asList(hot, moved));
+        when(archivedTransactionRepository.findPageByUserId(anyString(), anyLong(), any(LocalDateTime.class),
+                any(LocalDateTime.class), any(Pageable.class))).thenReturn(archived);
+
+        List<Long> ids = new ArrayList<>();
+        transactionService.getTransactions(userId, null, null, null, 0, 10).forEach(transaction ->
+                ids.add(transaction.getId()));
+        assertThat(ids, is(equalTo(Arrays.asList(1L, 2L, 3L, 4L))));
+
+        List<Transaction> limited = transactionService.getTransactions(userId, null, null, null, 0, 2);
+        assertThat(limited.size(), is(equalTo(2)));
+        assertThat(limited.get(1).getId(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void when_Idempotency_Key_Is_Archived_It_Is_Rejected() {
+        LOGGER.info("when_Idempotency_Key_Is_Archived_It_Is_Rejected");
+
+        String idempotencyKey = "key-1";
+        ArchivedTransaction archived = new ArchivedTransaction();
+        archived.setId(1);
+        archived.setUserId(userId);
+        archived.setDeposit(depositAmount);
+        archived.setCurrency(validCurrency);
+        archived.setIdempotencyKey(idempotencyKey);
+        archived.setBalanceAfter(depositAmount);
+
+        when(balanceRepository.findAllByUserIdIn(anyCollection())).thenReturn(balanceRows(depositAmount));
+        when(archivedTransactionRepository.existsByUserIdAndIdempotencyKey(userId, idempotencyKey)).thenReturn(true);
+        when(archivedTransactionRepository.findByUserIdAndIdempotencyKey(userId, idempotencyKey)).thenReturn(archived);
+
+        // The hot table doesn't have the key any more, only the archive.
+        try {
+            transactionService.executeBatch(Arrays.asList(
+                    new TransactionOperation(userId, depositAmount, validCurrency, true, idempotencyKey)));
+            fail("The archived key should have been rejected.");
+        } catch (DuplicateKeyException e) {
+            LOGGER.info(e.getMessage());
+        }
+
+        verify(balanceRepository, never()).insertOrIncreaseBalance(anyString(), anyByte(), anyLong(), anyLong(),
+                any(LocalDateTime.class));
+
+        // Found in the archive to answer the replay.
+        Transaction stored = transactionService.findByIdempotencyKey(userId, idempotencyKey);
+        assertThat(stored.getId(), is(equalTo(1L)));
+        assertThat(stored.getIdempotencyKey(), is(equalTo(idempotencyKey)));
+        assertThat(stored.getBalanceAfter(), is(equalTo(depositAmount)));
+    }
+
     //endregion
 
 
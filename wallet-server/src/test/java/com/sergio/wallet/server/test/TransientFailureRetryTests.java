@@ -0,0 +1,168 @@
+package com.sergio.wallet.server.test;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sergio.wallet.server.concurrency.TransientFailureRetry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.dao.TransientDataAccessResourceException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for the TransientFailureRetry class, validating which failures are retried and the limits
+ * set by the max attempts and the retry budget.
+ */
+public class TransientFailureRetryTests {
+
+    //region VARIABLES
+
+    private final Logger LOGGER = LoggerFactory.getLogger(TransientFailureRetryTests.class);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    //endregion
+
+    //region PRIVATE METHODS
+
+    private TransientFailureRetry createRetry(int maxAttempts, double budgetRatio, int budgetMaxTokens) {
+        return new TransientFailureRetry(meterRegistry, true, maxAttempts, 1, 2, budgetRatio, budgetMaxTokens);
+    }
+
+    private RuntimeException deadlock() {
+        return new IllegalStateException("Transaction failed",
+                new SQLException("Deadlock found when trying to get lock", "40001", 1213));
+    }
+
+    private double exhausted(String reason) {
+        return meterRegistry.get("wallet.db.retries.exhausted").tag("reason", reason).counter().count();
+    }
+
+    //endregion
+
+    //region TEST METHODS
+
+    @Test
+    public void when_Failure_Is_Transient() {
+        LOGGER.info("when_Failure_Is_Transient");
+
+        assertThat(TransientFailureRetry.isTransient(deadlock()), is(true));
+        assertThat(TransientFailureRetry.isTransient(new CannotAcquireLockException("Lock wait timeout")), is(true));
+        assertThat(TransientFailureRetry.isTransient(new IllegalStateException("Transaction failed",
+                new SQLException("Lock wait timeout exceeded", "HY000", 1205))), is(true));
+        assertThat(TransientFailureRetry.isTransient(new IllegalStateException("Transaction failed",
+                new SQLException("Duplicate entry", "23000", 1062))), is(false));
+        assertThat(TransientFailureRetry.isTransient(new OptimisticLockingFailureException("Row was updated")),
+                is(true));
+        assertThat(TransientFailureRetry.isTransient(new IllegalArgumentException("Bad request")), is(false));
+    }
+
+    @Test
+    public void when_Commit_Outcome_Is_Unknown_Is_Not_Transient() {
+        LOGGER.info("when_Commit_Outcome_Is_Unknown_Is_Not_Transient");
+
+        // The connection may be lost while committing, the work could be stored already.
+        assertThat(TransientFailureRetry.isTransient(new IllegalStateException("Transaction failed",
+                new SQLTransientConnectionException("Communications link failure", "08S01"))), is(false));
+        assertThat(TransientFailureRetry.isTransient(new TransientDataAccessResourceException("Connection reset",
+                new SQLTransientConnectionException("Connection reset", "08S01"))), is(false));
+    }
+
+    @Test
+    public void when_Transient_Failure_Is_Retried() {
+        LOGGER.info("when_Transient_Failure_Is_Retried");
+
+        TransientFailureRetry retry = createRetry(3, 0.1, 10);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = retry.execute(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw deadlock();
+            }
+            return "committed";
+        });
+
+        assertThat(result, is(equalTo("committed")));
+        assertThat(attempts.get(), is(equalTo(3)));
+        assertThat(meterRegistry.get("wallet.db.retries").counter().count(), is(equalTo(2.0)));
+    }
+
+    @Test
+    public void when_Failure_Is_Not_Transient_Is_Not_Retried() {
+        LOGGER.info("when_Failure_Is_Not_Transient_Is_Not_Retried");
+
+        TransientFailureRetry retry = createRetry(3, 0.1, 10);
+        AtomicInteger attempts = new AtomicInteger();
+
+        try {
+            retry.execute(() -> {
+                attempts.incrementAndGet();
+                throw new IllegalStateException("Constraint violation");
+            });
+            fail("The failure should have been thrown.");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is(equalTo("Constraint violation")));
+        }
+
+        assertThat(attempts.get(), is(equalTo(1)));
+    }
+
+    @Test
+    public void when_Attempts_Are_Exhausted_Last_Failure_Is_Thrown() {
+        LOGGER.info("when_Attempts_Are_Exhausted_Last_Failure_Is_Thrown");
+
+        TransientFailureRetry retry = createRetry(3, 0.1, 10);
+        AtomicInteger attempts = new AtomicInteger();
+
+        try {
+            retry.execute(() -> {
+                attempts.incrementAndGet();
+                throw deadlock();
+            });
+            fail("The failure should have been thrown.");
+        } catch (IllegalStateException e) {
+            assertThat(TransientFailureRetry.isTransient(e), is(true));
+        }
+
+        assertThat(attempts.get(), is(equalTo(3)));
+        assertThat(exhausted("attempts"), is(equalTo(1.0)));
+    }
+
+    @Test
+    public void when_Budget_Is_Exhausted_Retries_Stop() {
+        LOGGER.info("when_Budget_Is_Exhausted_Retries_Stop");
+
+        // Only 2 retries saved up and calls don't earn more.
+        TransientFailureRetry retry = createRetry(10, 0, 2);
+        AtomicInteger attempts = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                retry.execute(() -> {
+                    attempts.incrementAndGet();
+                    throw deadlock();
+                });
+                fail("The failure should have been thrown.");
+            } catch (IllegalStateException e) {
+                // Expected, retries are not allowed anymore.
+            }
+        }
+
+        // First call: 1 attempt plus the 2 retries of the budget, second call: no retries left.
+        assertThat(attempts.get(), is(equalTo(4)));
+        assertThat(exhausted("budget"), is(equalTo(2.0)));
+    }
+
+    //endregion
+
+}